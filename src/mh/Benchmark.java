@@ -0,0 +1,261 @@
+package mh;
+
+/**
+ * Simple timing of performance critical parts of the emulator. Each case is
+ * run repeatedly to warm up the JIT compiler before it is timed.
+ * <p>
+ * Usage: java mh.Benchmark [case]
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class Benchmark
+{
+	// warm up rounds and timed rounds
+	private final static int WARMUP = 200;
+	private final static int ROUNDS = 20;
+
+	// number of binary coordinates decoded per round
+	private final static int VALUES = 100000;
+
+	/**
+	 * A piece of code to time.
+	 */
+	interface Case
+	{
+		/**
+		 * Run the code once.
+		 *
+		 * @return a result which must depend on the work done, so that the
+		 *         compiler cannot remove it.
+		 */
+		long run ();
+	}
+
+	// prevents dead code elimination
+	static long sink;
+
+	public static void main ( String[] args )
+	{
+		String only = (args.length > 0) ? args[0] : null;
+
+		binaryDecode(only);
+		memoryEdit(only);
+	}
+
+	/**
+	 * Compare decoding binary plot coordinates value by value with decoding
+	 * them in runs with EscapeSequence.decodeBinary(), on their own and in
+	 * the plot decoder.
+	 */
+	private static void binaryDecode ( String only )
+	{
+		// incremental binary coordinates: 3 bytes per value
+		final byte data[] = new byte[3 * VALUES];
+		java.util.Random r = new java.util.Random(1);
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (' ' + r.nextInt(32));
+
+		final EscapeSequence esc = new EscapeSequence();
+		for (int i = 0; i < data.length; i++)
+			esc.append((char) data[i]);
+
+		final int values[] = new int[256];
+
+		run(only, "binary.perValue", VALUES, new Case()
+		{
+			public long run ()
+			{
+				long sum = 0;
+				esc.setIndex(0);
+				while (esc.hasMore())
+				{
+					int value = esc.parseBinaryTriple();
+					if (value == Integer.MIN_VALUE)
+						break;
+					if (value > 16383)
+						value = value - 32768;
+					sum += value;
+				}
+				return sum;
+			}
+		});
+
+		run(only, "binary.block", VALUES, new Case()
+		{
+			public long run ()
+			{
+				long sum = 0;
+				int off = 0;
+				int n;
+				while ((n = EscapeSequence.decodeBinary(data, off, data.length
+						- off, 3, values, values.length)) > 0)
+				{
+					for (int i = 0; i < n; i++)
+						sum += values[i];
+					off += 3 * n;
+				}
+				return sum;
+			}
+		});
+
+		// the plot decoder, fed byte by byte as from the parser state
+		// machine or in blocks from the receive buffer. Drawing mode 0 keeps
+		// the drawing itself out of the measurement.
+		GraphicsMemory gm = new GraphicsMemory(512, 390);
+		gm.setDrawMode(0);
+		final PlotDecoder plot = new PlotDecoder(gm);
+
+		run(only, "plot.perByte", VALUES, new Case()
+		{
+			public long run ()
+			{
+				plot.begin();
+				plot.put('k');
+				for (int i = 0; i < data.length; i++)
+					plot.put(data[i]);
+				plot.end();
+				return data.length;
+			}
+		});
+
+		run(only, "plot.block", VALUES, new Case()
+		{
+			public long run ()
+			{
+				plot.begin();
+				plot.put('k');
+				int off = 0;
+				int n;
+				while ((n = plot.putBinaryRun(data, off, data.length - off)) > 0)
+					off += n;
+				plot.end();
+				return off;
+			}
+		});
+
+	}
+
+	/**
+	 * The editing operations of the terminal memory as used by full screen
+	 * editors on the host, e.g. "ESC [ 40 @" on every row of the screen. The
+	 * case edit.shiftPerCell repeats the former loop which shifted the line
+	 * by one cell per inserted character, for comparison with
+	 * edit.insertChars.
+	 */
+	private static void memoryEdit ( String only )
+	{
+		final TerminalMemory m = new TerminalMemory();
+		final int rows = TerminalMemory.HEIGHT;
+		final int width = TerminalMemory.WIDTH;
+		final int count = 40;
+
+		for (int i = 0; i < rows; i++)
+			m.putString("line " + i + " the quick brown fox jumps over it\r\n");
+
+		run(only, "edit.shiftPerCell", rows, new Case()
+		{
+			public long run ()
+			{
+				int cells[] = m.cells;
+				for (int row = 0; row < rows; row++)
+				{
+					int bol = m.rowOffset(row);
+					for (int n = count; n > 0; n--)
+					{
+						for (int i = bol + width - 1; i > bol + 10; i--)
+							cells[i] = cells[i - 1];
+						cells[bol + 10] = Cell.EMPTY;
+					}
+				}
+				return cells[0];
+			}
+		});
+
+		run(only, "edit.insertChars", rows, new Case()
+		{
+			public long run ()
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					m.setCursorRelScreen(row, 10);
+					m.insertCharsInLine(count);
+				}
+				return m.cells[0];
+			}
+		});
+
+		run(only, "edit.deleteChars", rows, new Case()
+		{
+			public long run ()
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					m.setCursorRelScreen(row, 10);
+					m.deleteCharsInLine(count);
+				}
+				return m.cells[0];
+			}
+		});
+
+		run(only, "edit.insertLine", rows, new Case()
+		{
+			public long run ()
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					m.setCursorRelScreen(row, 0);
+					m.insertLine();
+				}
+				return m.cells[0];
+			}
+		});
+
+		run(only, "edit.clearToEOS", rows, new Case()
+		{
+			public long run ()
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					m.setCursorRelScreen(row, 10);
+					m.clearToEOS();
+				}
+				return m.cells[0];
+			}
+		});
+	}
+
+	/**
+	 * Time a case and print the result.
+	 *
+	 * @param only
+	 *            run only cases whose name starts with this, all if null.
+	 * @param name
+	 *            the name of the case.
+	 * @param ops
+	 *            the number of operations in one run, for the time per
+	 *            operation.
+	 * @param c
+	 *            the code to run.
+	 */
+	static void run ( String only, String name, int ops, Case c )
+	{
+		if (only != null && !name.startsWith(only))
+			return;
+
+		for (int i = 0; i < WARMUP; i++)
+			sink += c.run();
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long t0 = System.nanoTime();
+			sink += c.run();
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+
+		System.out.println(String.format("%-24s %10.3f ms %8.2f ns/op",
+				new Object[] { name, Double.valueOf(best / 1e6),
+						Double.valueOf((double) best / ops) }));
+	}
+}
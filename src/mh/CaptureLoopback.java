@@ -0,0 +1,255 @@
+package mh;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Checks that {@link CaptureWriter} indexes keyframes larger than its buffers
+ * correctly while other threads keep recording received data. The graphics
+ * memory is filled with noise, so that each keyframe is much larger than a
+ * buffer and has to wait for the writer thread. Afterwards every keyframe is
+ * located with the index and restored with {@link CaptureReader}. Any
+ * difference stops the program with an error and a non-zero exit code.
+ * <p>
+ * Usage: java mh.CaptureLoopback
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class CaptureLoopback implements TerminalParser.Host
+{
+	// number of keyframes written
+	private final static int KEYFRAMES = 10;
+	// size of the blocks recorded by the receiving thread
+	private final static int BLOCK = 512;
+	// the buffer size of the capture writer
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final TerminalSettings m_Settings = new TerminalSettings();
+	private final GraphicsMemory m_GraphicsMemory = new GraphicsMemory(
+			m_Settings.width, m_Settings.height);
+	private final TerminalParser m_Parser = new TerminalParser(new RingBuffer(
+			HPTerminalApplication.BUFLEN, HPTerminalApplication.BUFLEN_MAX),
+			new TerminalMemory(), m_GraphicsMemory, m_Settings, this);
+
+	// number of bytes recorded by the receiving thread
+	private final AtomicLong m_Received = new AtomicLong();
+	private volatile boolean m_Stop = false;
+
+	public static void main ( String[] args ) throws IOException,
+			InterruptedException
+	{
+		File file = File.createTempFile("capture", ".log");
+		file.deleteOnExit();
+
+		new CaptureLoopback().run(file.getPath());
+		System.out.println("all capture checks passed");
+	}
+
+	private void run ( String fileName ) throws IOException,
+			InterruptedException
+	{
+		final CaptureWriter capture = new CaptureWriter(fileName);
+		capture.setKeyframeInterval(0);
+
+		// stands in for the transport thread
+		Thread receiver = new Thread("Receiver")
+		{
+			public void run ()
+			{
+				byte block[] = new byte[BLOCK];
+				Arrays.fill(block, (byte) 'x');
+				while (!m_Stop)
+				{
+					capture.received(block, 0, block.length);
+					m_Received.addAndGet(block.length);
+				}
+			}
+		};
+		receiver.start();
+
+		int expected[] = new int[KEYFRAMES];
+		long offsets[] = new long[KEYFRAMES];
+		try
+		{
+			for (int i = 0; i < KEYFRAMES; i++)
+			{
+				expected[i] = fillNoise(i);
+				byte state[] = deflateState();
+				if (state.length <= BUFFER_SIZE)
+					fail("keyframe " + i + " is only " + state.length
+							+ " bytes");
+
+				offsets[i] = m_Received.get();
+				capture.keyframe(offsets[i], state);
+			}
+		}
+		finally
+		{
+			m_Stop = true;
+			receiver.join();
+			capture.close();
+		}
+		pass("write " + KEYFRAMES + " large keyframes");
+
+		long times[] = scanKeyframes(fileName);
+		if (times.length != KEYFRAMES)
+			fail("found " + times.length + " keyframes instead of "
+					+ KEYFRAMES);
+
+		CaptureReader reader = new CaptureReader(fileName);
+		try
+		{
+			if (!reader.isIndexed())
+				fail("capture has no index");
+			if (reader.getKeyframeCount() != KEYFRAMES)
+				fail("index has " + reader.getKeyframeCount()
+						+ " keyframes instead of " + KEYFRAMES);
+
+			for (int i = 0; i < KEYFRAMES; i++)
+			{
+				CaptureReader.Keyframe k = reader.find(times[i]);
+				if (k == null || k.time != times[i])
+					fail("keyframe " + i + " not in the index");
+
+				// throws if the index does not point at the keyframe
+				fillNoise(-1);
+				reader.restore(k, m_Parser);
+
+				if (k.offset != offsets[i])
+					fail("keyframe " + i + " has offset " + k.offset
+							+ " instead of " + offsets[i]);
+				if (hashImage() != expected[i])
+					fail("keyframe " + i + " restores a different image");
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		pass("restore " + KEYFRAMES + " keyframes by the index");
+	}
+
+	/**
+	 * Fill the graphics memory with noise.
+	 *
+	 * @return the hash of the image.
+	 */
+	private int fillNoise ( long seed )
+	{
+		BufferedImage image = m_GraphicsMemory.getImage();
+		Random r = new Random(seed);
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, r.nextInt());
+		}
+		return hashImage();
+	}
+
+	private int hashImage ()
+	{
+		BufferedImage image = m_GraphicsMemory.getImage();
+		int w = image.getWidth();
+		int h = image.getHeight();
+		return Arrays.hashCode(image.getRGB(0, 0, w, h, null, 0, w));
+	}
+
+	/**
+	 * @return the state of the terminal, deflated like for a keyframe.
+	 */
+	private byte[] deflateState () throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(bos), 8192));
+		m_Parser.writeState(out);
+		out.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Read the capture record by record, ignoring the index.
+	 *
+	 * @return the time of each keyframe record.
+	 */
+	private static long[] scanKeyframes ( String fileName ) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName)));
+		long times[] = new long[0];
+		try
+		{
+			in.skipBytes(CaptureWriter.FILE_HEADER);
+			while (true)
+			{
+				byte type;
+				try
+				{
+					type = in.readByte();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				long time = in.readLong();
+				int len = in.readInt();
+				if (type == CaptureWriter.KEYFRAME)
+				{
+					times = Arrays.copyOf(times, times.length + 1);
+					times[times.length - 1] = time;
+				}
+				in.skipBytes(len);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return times;
+	}
+
+	public int sendString ( String s )
+	{
+		return 0;
+	}
+
+	public int sendByte ( int b )
+	{
+		return 0;
+	}
+
+	public void beep ()
+	{
+	}
+
+	public void setGraphicsVisible ( boolean visible )
+	{
+	}
+
+	public void inputConsumed ()
+	{
+	}
+
+	private static void fail ( String message )
+	{
+		throw new IllegalStateException(message);
+	}
+
+	private static void pass ( String what )
+	{
+		System.out.println("ok  " + what);
+	}
+}
@@ -0,0 +1,278 @@
+package mh;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Finds and restores the keyframes of a capture written by
+ * {@link CaptureWriter}.
+ * <p>
+ * The keyframes are located with the index at the end of the file. If there
+ * is no index, e.g. because the program writing the capture crashed, the
+ * records are scanned once, which reads only their headers.
+ * <p>
+ * To show the terminal at a given time, restore the nearest keyframe before
+ * it and replay only the received data from there, see
+ * {@link ReplayTransport#setRange(long, int, long, long)}.
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class CaptureReader
+{
+	/**
+	 * The position of a keyframe.
+	 */
+	public static class Keyframe
+	{
+		// time in nanoseconds since the start of the capture
+		public final long time;
+		// file position of the 'K' record
+		final long position;
+		// received bytes included in the state
+		long offset;
+		// file position and bytes to skip for replaying the rest
+		long resume;
+		int skip;
+
+		Keyframe(long time, long position)
+		{
+			this.time = time;
+			this.position = position;
+		}
+	}
+
+	private final String m_FileName;
+	private final FileChannel m_Channel;
+	private final long m_StartMillis;
+	private Keyframe m_Keyframes[];
+	private boolean m_Indexed;
+
+	/**
+	 * Open a capture and locate its keyframes.
+	 *
+	 * @param fileName
+	 *            the capture file.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a capture.
+	 */
+	public CaptureReader(String fileName) throws IOException
+	{
+		m_FileName = fileName;
+		m_Channel = new FileInputStream(fileName).getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(CaptureWriter.FILE_HEADER);
+		if (!readFully(header, 0))
+			throw new IOException("'" + fileName + "' is not a capture.");
+		for (int i = 0; i < CaptureWriter.MAGIC.length; i++)
+		{
+			if (header.get(i) != CaptureWriter.MAGIC[i])
+				throw new IOException("'" + fileName + "' is not a capture.");
+		}
+		m_StartMillis = header.getLong(CaptureWriter.MAGIC.length);
+
+		m_Indexed = readIndex();
+		if (!m_Indexed)
+			scan();
+	}
+
+	/**
+	 * @return the start of the capture in milliseconds since 1970.
+	 */
+	public long getStartMillis ()
+	{
+		return m_StartMillis;
+	}
+
+	/**
+	 * @return true if the keyframes were found by the index, false if the
+	 *         capture had to be scanned.
+	 */
+	public boolean isIndexed ()
+	{
+		return m_Indexed;
+	}
+
+	/**
+	 * @return the number of keyframes.
+	 */
+	public int getKeyframeCount ()
+	{
+		return m_Keyframes.length;
+	}
+
+	/**
+	 * Find the last keyframe at or before the given time.
+	 *
+	 * @param time
+	 *            nanoseconds since the start of the capture.
+	 * @return the keyframe or null if there is none before this time.
+	 */
+	public Keyframe find ( long time )
+	{
+		// binary search, the keyframes are in the order of their time
+		int lo = 0;
+		int hi = m_Keyframes.length - 1;
+		Keyframe found = null;
+
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (m_Keyframes[mid].time <= time)
+			{
+				found = m_Keyframes[mid];
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Restore the state stored in a keyframe. The parser must not be running
+	 * yet. Afterwards the keyframe tells where to continue the replay.
+	 *
+	 * @param k
+	 *            the keyframe.
+	 * @param parser
+	 *            the parser of the terminal to restore.
+	 * @throws IOException
+	 *             if the keyframe cannot be read.
+	 */
+	public void restore ( Keyframe k, TerminalParser parser )
+			throws IOException
+	{
+		ByteBuffer head = ByteBuffer.allocate(CaptureWriter.RECORD_HEADER + 20);
+		if (!readFully(head, k.position)
+				|| head.get(0) != CaptureWriter.KEYFRAME)
+			throw new IOException("No keyframe at position " + k.position
+					+ " of '" + m_FileName + "'.");
+
+		int len = head.getInt(9);
+		if (len < 20)
+			throw new IOException("Keyframe at position " + k.position
+					+ " of '" + m_FileName + "' is damaged.");
+		k.offset = head.getLong(CaptureWriter.RECORD_HEADER);
+		k.resume = head.getLong(CaptureWriter.RECORD_HEADER + 8);
+		k.skip = head.getInt(CaptureWriter.RECORD_HEADER + 16);
+
+		ByteBuffer state = ByteBuffer.allocate(len - 20);
+		if (!readFully(state, k.position + head.capacity()))
+			throw new IOException("Keyframe at position " + k.position
+					+ " of '" + m_FileName + "' is truncated.");
+
+		parser.readState(new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(new ByteArrayInputStream(state
+						.array())), 8192)));
+	}
+
+	/**
+	 * Close the file.
+	 */
+	public void close ()
+	{
+		try
+		{
+			m_Channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read the index record at the end of the file.
+	 *
+	 * @return false if there is no valid index.
+	 */
+	private boolean readIndex () throws IOException
+	{
+		long size = m_Channel.size();
+		ByteBuffer bb = ByteBuffer.allocate(8);
+
+		if (size < CaptureWriter.FILE_HEADER + CaptureWriter.RECORD_HEADER + 8
+				|| !readFully(bb, size - 8))
+			return false;
+
+		long position = bb.getLong(0);
+		if (position < CaptureWriter.FILE_HEADER
+				|| position > size - CaptureWriter.RECORD_HEADER - 8)
+			return false;
+
+		ByteBuffer head = ByteBuffer.allocate(CaptureWriter.RECORD_HEADER);
+		if (!readFully(head, position) || head.get(0) != CaptureWriter.INDEX)
+			return false;
+		int len = head.getInt(9);
+		if (position + CaptureWriter.RECORD_HEADER + len != size
+				|| (len - 8) % 16 != 0)
+			return false;
+
+		ByteBuffer index = ByteBuffer.allocate(len - 8);
+		if (!readFully(index, position + CaptureWriter.RECORD_HEADER))
+			return false;
+
+		m_Keyframes = new Keyframe[(len - 8) / 16];
+		for (int i = 0; i < m_Keyframes.length; i++)
+			m_Keyframes[i] = new Keyframe(index.getLong(16 * i),
+					index.getLong(16 * i + 8));
+
+		return true;
+	}
+
+	/**
+	 * Locate the keyframes by reading the header of every record.
+	 */
+	private void scan () throws IOException
+	{
+		ArrayList<Keyframe> list = new ArrayList<Keyframe>();
+		ByteBuffer head = ByteBuffer.allocate(CaptureWriter.RECORD_HEADER);
+		long position = CaptureWriter.FILE_HEADER;
+		long size = m_Channel.size();
+
+		while (position + CaptureWriter.RECORD_HEADER <= size
+				&& readFully(head, position))
+		{
+			long time = head.getLong(1);
+			int len = head.getInt(9);
+			if (len < 0 || position + CaptureWriter.RECORD_HEADER + len > size)
+				break; // truncated
+
+			if (head.get(0) == CaptureWriter.KEYFRAME)
+				list.add(new Keyframe(time, position));
+
+			position += CaptureWriter.RECORD_HEADER + len;
+		}
+
+		m_Keyframes = list.toArray(new Keyframe[list.size()]);
+	}
+
+	/**
+	 * Fill a buffer from the given file position.
+	 *
+	 * @return false if the file ends before the buffer is full.
+	 */
+	private boolean readFully ( ByteBuffer bb, long position )
+			throws IOException
+	{
+		bb.clear();
+		while (bb.hasRemaining())
+		{
+			int n = m_Channel.read(bb, position + bb.position());
+			if (n < 0)
+				return false;
+		}
+		return true;
+	}
+}
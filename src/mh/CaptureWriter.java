@@ -0,0 +1,500 @@
+package mh;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a capture of the data exchanged with the host.
+ * <p>
+ * The file starts with the 8 byte magic "HPCAPT01" and the start time in
+ * milliseconds since 1970 (8 bytes). Then follow records of
+ *
+ * <pre>
+ * type     1 byte   'R' received from the host, 'S' sent to the host
+ * time     8 bytes  nanoseconds since the start of the capture
+ * length   4 bytes  number of bytes following
+ * payload  length bytes
+ * </pre>
+ *
+ * All numbers are big endian.
+ * <p>
+ * From time to time the parser adds a keyframe record 'K' with the complete
+ * state of the terminal, see {@link #keyframe(long, byte[])}. Its payload is
+ *
+ * <pre>
+ * offset   8 bytes  number of received bytes the state includes
+ * resume   8 bytes  file position of the 'R' record holding the next byte
+ * skip     4 bytes  bytes of that record already included in the state
+ * state    the deflated state written by TerminalParser.writeState()
+ * </pre>
+ *
+ * When the capture is closed an index record 'X' is appended. It contains
+ * time and file position (8 bytes each) of every keyframe, followed by its
+ * own file position, so that the index can be found from the end of the
+ * file. A capture without index, e.g. after a crash, can still be read
+ * sequentially. See {@link CaptureReader}.
+ * <p>
+ * The records are collected in one of two buffers. A background thread
+ * writes the other buffer to the file, when it is full or at least every
+ * {@link #FLUSH_MILLIS} milliseconds, so that the callers never wait for the
+ * disk unless the writer falls behind by a whole buffer. The data is handed
+ * to the operating system promptly and is not lost if the program crashes.
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class CaptureWriter implements Runnable
+{
+	static final byte MAGIC[] = { 'H', 'P', 'C', 'A', 'P', 'T', '0', '1' };
+	// length of the file header
+	static final int FILE_HEADER = 16;
+	// record types
+	static final byte RECEIVED = 'R';
+	static final byte SENT = 'S';
+	static final byte KEYFRAME = 'K';
+	static final byte INDEX = 'X';
+	// length of a record header: type, time, length
+	static final int RECORD_HEADER = 13;
+
+	// size of each buffer
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_PAYLOAD = BUFFER_SIZE - RECORD_HEADER;
+	// longest time data stays in memory
+	static final long FLUSH_MILLIS = 100;
+	// default time between keyframes
+	static final int KEYFRAME_SECONDS = 10;
+	// number of 'R' records remembered for locating keyframes
+	private static final int HISTORY = 1024;
+
+	private final String m_FileName;
+	private final FileChannel m_Channel;
+	private final long m_StartNanos;
+	private final Thread m_Thread;
+
+	// the buffer being filled, the buffer being written and the free buffer:
+	// either m_Full or m_Spare is null
+	private ByteBuffer m_Fill = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer m_Full = null;
+	private ByteBuffer m_Spare = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private boolean m_Closed = false;
+	private final byte m_One[] = new byte[1];
+
+	// file position of the next record and number of bytes received
+	private long m_Position = FILE_HEADER;
+	private long m_Received = 0;
+	// start in the received data and file position of the last 'R' records
+	private final long m_RecordStart[] = new long[HISTORY];
+	private final long m_RecordPosition[] = new long[HISTORY];
+	private int m_Records = 0;
+
+	// time and file position of each keyframe
+	private long m_Index[] = new long[2 * 64];
+	private int m_Keyframes = 0;
+	private volatile long m_LastKeyframe;
+	private long m_KeyframeNanos = KEYFRAME_SECONDS * 1000000000L;
+
+	/**
+	 * Create the capture file and start the writer thread.
+	 *
+	 * @param fileName
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 */
+	public CaptureWriter(String fileName) throws IOException
+	{
+		m_FileName = fileName;
+		m_Channel = new FileOutputStream(fileName).getChannel();
+		m_StartNanos = System.nanoTime();
+		m_LastKeyframe = m_StartNanos;
+
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+		header.put(MAGIC);
+		header.putLong(System.currentTimeMillis());
+		header.flip();
+		while (header.hasRemaining())
+			m_Channel.write(header);
+
+		m_Thread = new Thread(this, "Capture " + fileName);
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}
+
+	/**
+	 * @return the name of the capture file.
+	 */
+	public String getFileName ()
+	{
+		return m_FileName;
+	}
+
+	/**
+	 * Record bytes received from the host.
+	 */
+	public void received ( byte b[], int off, int len )
+	{
+		put(RECEIVED, b, off, len);
+	}
+
+	/**
+	 * Record bytes sent to the host.
+	 */
+	public void sent ( byte b[], int off, int len )
+	{
+		put(SENT, b, off, len);
+	}
+
+	/**
+	 * Record a single byte sent to the host.
+	 */
+	public synchronized void sent ( int b )
+	{
+		m_One[0] = (byte) b;
+		put(SENT, m_One, 0, 1);
+	}
+
+	/**
+	 * Append a record to the fill buffer. Blocks only if both buffers are
+	 * full. Long blocks are split into several records with the same time.
+	 */
+	private synchronized void put ( byte type, byte b[], int off, int len )
+	{
+		long time = System.nanoTime() - m_StartNanos;
+
+		do
+		{
+			int n = Math.min(len, MAX_PAYLOAD);
+
+			if (!reserve(RECORD_HEADER + n))
+				return;
+
+			if (type == RECEIVED)
+			{
+				int i = m_Records++ % HISTORY;
+				m_RecordStart[i] = m_Received;
+				m_RecordPosition[i] = m_Position;
+				m_Received += n;
+			}
+
+			m_Fill.put(type);
+			m_Fill.putLong(time);
+			m_Fill.putInt(n);
+			m_Fill.put(b, off, n);
+			m_Position += RECORD_HEADER + n;
+
+			off += n;
+			len -= n;
+		}
+		while (len > 0);
+	}
+
+	/**
+	 * @return true if it is time for the next keyframe. Cheap enough to be
+	 *         called whenever the parser is idle.
+	 */
+	public boolean isKeyframeDue ()
+	{
+		return System.nanoTime() - m_LastKeyframe >= m_KeyframeNanos;
+	}
+
+	/**
+	 * @param seconds
+	 *            the minimum time between keyframes, 0 for none.
+	 */
+	public void setKeyframeInterval ( int seconds )
+	{
+		m_KeyframeNanos = (seconds > 0) ? seconds * 1000000000L
+				: Long.MAX_VALUE;
+	}
+
+	/**
+	 * Add a keyframe to the capture. The state must have been taken between
+	 * two escape sequences, after the parser has consumed exactly the given
+	 * number of received bytes. Keyframes which cannot be located in the
+	 * received data are silently dropped.
+	 *
+	 * @param offset
+	 *            the number of received bytes included in the state.
+	 * @param state
+	 *            the deflated state.
+	 */
+	public synchronized void keyframe ( long offset, byte state[] )
+	{
+		long now = System.nanoTime();
+		m_LastKeyframe = now;
+
+		// find the record holding the next byte to process
+		long resume;
+		int skip;
+		if (offset == m_Received)
+		{
+			resume = m_Position;
+			skip = 0;
+		}
+		else
+		{
+			int i = m_Records - 1;
+			int oldest = Math.max(m_Records - HISTORY, 0);
+			while (i >= oldest && m_RecordStart[i % HISTORY] > offset)
+				i--;
+			if (i < oldest || offset > m_Received)
+				return;
+			resume = m_RecordPosition[i % HISTORY];
+			skip = (int) (offset - m_RecordStart[i % HISTORY]);
+		}
+
+		ByteBuffer bb = ByteBuffer.allocate(RECORD_HEADER + 20 + state.length);
+		bb.put(KEYFRAME);
+		bb.putLong(now - m_StartNanos);
+		bb.putInt(20 + state.length);
+		bb.putLong(offset);
+		bb.putLong(resume);
+		bb.putInt(skip);
+		bb.put(state);
+		bb.flip();
+
+		long position = putLarge(bb);
+		if (position < 0)
+			return;
+
+		if (2 * m_Keyframes == m_Index.length)
+		{
+			long index[] = new long[2 * m_Index.length];
+			System.arraycopy(m_Index, 0, index, 0, m_Index.length);
+			m_Index = index;
+		}
+		m_Index[2 * m_Keyframes] = now - m_StartNanos;
+		m_Index[2 * m_Keyframes + 1] = position;
+		m_Keyframes++;
+	}
+
+	/**
+	 * Append a complete record, which may be larger than a buffer. Large
+	 * records are written directly, after the writer has written the
+	 * buffered records. Must be called holding the lock.
+	 * <p>
+	 * The lock is released while waiting for room, so other records may be
+	 * appended first. The file position is therefore taken only when the
+	 * record is actually placed.
+	 *
+	 * @return the file position of the record or -1 if the capture has been
+	 *         closed.
+	 */
+	private long putLarge ( ByteBuffer record )
+	{
+		int n = record.remaining();
+		long position;
+
+		if (n <= BUFFER_SIZE)
+		{
+			if (!reserve(n))
+				return -1;
+			position = m_Position;
+			m_Fill.put(record);
+		}
+		else
+		{
+			try
+			{
+				// hand over what is buffered and wait until it is written
+				while (!m_Closed && (m_Full != null || m_Fill.position() > 0))
+				{
+					if (m_Full == null)
+					{
+						swap();
+						notifyAll();
+					}
+					wait();
+				}
+				if (m_Closed)
+					return -1;
+
+				// the writer does not touch the file without the lock
+				position = m_Position;
+				while (record.hasRemaining())
+					m_Channel.write(record);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				return -1;
+			}
+		}
+
+		m_Position += n;
+		return position;
+	}
+
+	/**
+	 * Make room for n bytes in the fill buffer, handing it to the writer
+	 * thread if necessary. Must be called holding the lock.
+	 *
+	 * @return false if the capture has been closed.
+	 */
+	private boolean reserve ( int n )
+	{
+		while (!m_Closed && m_Fill.remaining() < n)
+		{
+			if (m_Full == null)
+			{
+				swap();
+				notifyAll();
+			}
+			else
+			{
+				// the writer is still busy with the other buffer
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+
+		return !m_Closed;
+	}
+
+	/**
+	 * Hand the fill buffer to the writer and continue with the free one.
+	 */
+	private void swap ()
+	{
+		m_Full = m_Fill;
+		m_Fill = m_Spare;
+		m_Spare = null;
+	}
+
+	/**
+	 * Write the remaining data and close the file. Waits for the writer
+	 * thread.
+	 */
+	public void close ()
+	{
+		synchronized (this)
+		{
+			if (m_Closed)
+				return;
+			m_Closed = true;
+			notifyAll();
+		}
+
+		try
+		{
+			m_Thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Append the index record. Called by the writer thread after all other
+	 * records have been written.
+	 */
+	private void writeIndex () throws IOException
+	{
+		int len = 16 * m_Keyframes + 8;
+		ByteBuffer bb = ByteBuffer.allocate(RECORD_HEADER + len);
+
+		bb.put(INDEX);
+		bb.putLong(System.nanoTime() - m_StartNanos);
+		bb.putInt(len);
+		for (int i = 0; i < 2 * m_Keyframes; i++)
+			bb.putLong(m_Index[i]);
+		bb.putLong(m_Position);
+		bb.flip();
+
+		while (bb.hasRemaining())
+			m_Channel.write(bb);
+		m_Position += RECORD_HEADER + len;
+	}
+
+	/**
+	 * The writer thread.
+	 */
+	public void run ()
+	{
+		try
+		{
+			while (true)
+			{
+				ByteBuffer bb;
+
+				synchronized (this)
+				{
+					if (m_Full == null && !m_Closed)
+						wait(FLUSH_MILLIS);
+
+					// write what we have, even if the buffer is not full
+					if (m_Full == null && m_Fill.position() > 0)
+						swap();
+
+					bb = m_Full;
+					if (bb == null && m_Closed)
+					{
+						writeIndex();
+						break;
+					}
+				}
+
+				if (bb != null)
+				{
+					bb.flip();
+					while (bb.hasRemaining())
+						m_Channel.write(bb);
+					bb.clear();
+
+					synchronized (this)
+					{
+						m_Spare = bb;
+						m_Full = null;
+						notifyAll();
+					}
+				}
+			}
+
+			m_Channel.force(false);
+		}
+		catch (IOException e)
+		{
+			System.err.println("*** Cannot write to capture file '"
+					+ m_FileName + "'.");
+			e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			// stop
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				// release waiting callers
+				m_Closed = true;
+				notifyAll();
+			}
+
+			try
+			{
+				m_Channel.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+}
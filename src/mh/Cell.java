@@ -0,0 +1,96 @@
+package mh;
+
+import java.util.Arrays;
+
+/**
+ * The contents of one character cell of the terminal memory, packed into an
+ * int so that the memory is a single array.
+ *
+ * <pre>
+ *  bits 31...24  23...16    15...0
+ *       charset  attribute  character
+ * </pre>
+ *
+ * The attribute has the layout CCCCC.UVI, see
+ * {@link TerminalMemory#setAttribute(byte)}. The character set is the one
+ * selected when the character was written, CS_ROMAN, CS_LINEDRAW or
+ * CS_MATH, so that line drawing and math characters keep their glyphs when
+ * another set is selected later.
+ *
+ * @author Martin Hepperle
+ *
+ */
+final class Cell
+{
+	// a cell which has never been written or has been cleared
+	static final int EMPTY = 0xFFFF0000 | ' ';
+
+	private Cell()
+	{
+	}
+
+	/**
+	 * @param c
+	 *            the character.
+	 * @param attribute
+	 *            the attribute bits.
+	 * @param charSet
+	 *            the character set.
+	 * @return the packed cell.
+	 */
+	static int pack ( char c, int attribute, int charSet )
+	{
+		return (charSet << 24) | ((attribute & 0xFF) << 16) | c;
+	}
+
+	static char getChar ( int cell )
+	{
+		return (char) cell;
+	}
+
+	static int getAttribute ( int cell )
+	{
+		return (cell >>> 16) & 0xFF;
+	}
+
+	static int getCharset ( int cell )
+	{
+		return cell >>> 24;
+	}
+
+	/**
+	 * Fill a range of cells.
+	 *
+	 * @param cells
+	 *            the memory.
+	 * @param first
+	 *            index of the first cell.
+	 * @param last
+	 *            index of the last cell.
+	 * @param cell
+	 *            the value to fill with.
+	 */
+	static void fill ( int cells[], int first, int last, int cell )
+	{
+		if (last >= first)
+			Arrays.fill(cells, first, last + 1, cell);
+	}
+
+	/**
+	 * Move a range of cells. The ranges may overlap.
+	 *
+	 * @param cells
+	 *            the memory.
+	 * @param from
+	 *            index of the first cell to move.
+	 * @param to
+	 *            index of its new position.
+	 * @param count
+	 *            the number of cells.
+	 */
+	static void move ( int cells[], int from, int to, int count )
+	{
+		if (count > 0)
+			System.arraycopy(cells, from, cells, to, count);
+	}
+}
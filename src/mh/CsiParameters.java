@@ -0,0 +1,151 @@
+package mh;
+
+/**
+ * Collects the parameters of an ANSI control sequence "ESC [ ... x" while
+ * its characters arrive, so that the final character can be handled without
+ * parsing the sequence again.
+ * <p>
+ * A sequence consists of an optional private marker ('&lt;', '=', '&gt;' or
+ * '?'), up to {@link #MAX_PARAMETERS} numeric parameters separated by ';',
+ * optional intermediate characters (0x20...0x2F) and the final character.
+ * Further parameters are ignored. A parameter which is omitted, e.g. the
+ * first one in "ESC [ ; 5 H", is stored as {@link #DEFAULT} and replaced by
+ * the default value of the sequence when it is read.
+ * <p>
+ * The parameters are kept in a plain array which is reused for all
+ * sequences.
+ *
+ * @author Martin Hepperle
+ *
+ */
+final class CsiParameters
+{
+	static final int MAX_PARAMETERS = 16;
+	// marks an omitted parameter
+	static final int DEFAULT = -1;
+	// larger values are clipped
+	private static final int MAX_VALUE = 9999;
+
+	private final int m_Values[] = new int[MAX_PARAMETERS];
+	private int m_Count;
+	// the parameter being read
+	private int m_Value;
+	private boolean m_Started;
+	private char m_Private;
+	private char m_Intermediate;
+
+	/**
+	 * Prepare for a new sequence.
+	 */
+	void reset ()
+	{
+		m_Count = 0;
+		m_Value = DEFAULT;
+		m_Started = false;
+		m_Private = 0;
+		m_Intermediate = 0;
+	}
+
+	/**
+	 * Add a character between "ESC [" and the final character.
+	 *
+	 * @param c
+	 *            the character.
+	 */
+	void put ( int c )
+	{
+		if (c >= '0' && c <= '9')
+		{
+			if (m_Value == DEFAULT)
+				m_Value = c - '0';
+			else
+				m_Value = Math.min(m_Value * 10 + c - '0', MAX_VALUE);
+			m_Started = true;
+		}
+		else if (c == ';' || c == ':')
+		{
+			// ':' separates sub-parameters, e.g. in "ESC [ 38 : 5 : 1 m"
+			store();
+			m_Started = true;
+		}
+		else if (c >= '<' && c <= '?')
+		{
+			// a private marker is only valid before the first parameter
+			if (!m_Started && m_Count == 0)
+				m_Private = (char) c;
+		}
+		else if (c >= 0x20 && c <= 0x2F)
+		{
+			m_Intermediate = (char) c;
+		}
+	}
+
+	/**
+	 * Complete the sequence when its final character has arrived.
+	 */
+	void finish ()
+	{
+		if (m_Started)
+			store();
+	}
+
+	private void store ()
+	{
+		if (m_Count < MAX_PARAMETERS)
+			m_Values[m_Count++] = m_Value;
+		m_Value = DEFAULT;
+	}
+
+	/**
+	 * @return the number of parameters, 0 if there were none.
+	 */
+	int count ()
+	{
+		return m_Count;
+	}
+
+	/**
+	 * Read a parameter.
+	 *
+	 * @param i
+	 *            the index of the parameter [0...count()-1].
+	 * @param defaultValue
+	 *            the value if the parameter is missing or omitted.
+	 * @return the value.
+	 */
+	int get ( int i, int defaultValue )
+	{
+		if (i >= m_Count || m_Values[i] == DEFAULT)
+			return defaultValue;
+		return m_Values[i];
+	}
+
+	/**
+	 * Read a count or a position parameter, where 0 means the same as the
+	 * default value of 1.
+	 *
+	 * @param i
+	 *            the index of the parameter [0...count()-1].
+	 * @return the value, at least 1.
+	 */
+	int getCount ( int i )
+	{
+		return Math.max(get(i, 1), 1);
+	}
+
+	/**
+	 * @return the private marker or 0 if there was none.
+	 */
+	char getPrivate ()
+	{
+		return m_Private;
+	}
+
+	/**
+	 * @return the last intermediate character or 0 if there was none.
+	 */
+	char getIntermediate ()
+	{
+		return m_Intermediate;
+	}
+}
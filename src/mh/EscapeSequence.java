@@ -6,10 +6,18 @@ package mh;
  * 
  *         This class collects elements of an escape sequence and offers methods
  *         for parsing the sequence.
+ *         <p>
+ *         The characters are kept in a plain array which is reused for all
+ *         sequences. It only grows when a sequence is longer than any before,
+ *         so that parsing does not create garbage.
  */
 public class EscapeSequence
 {
-	private StringBuilder m_sb;
+	// initial capacity, enough for all but long plot sequences
+	private final static int CAPACITY = 256;
+
+	private char m_buf[];
+	private int m_length;
 	private int m_idx;
 
 	/**
@@ -17,7 +25,8 @@ public class EscapeSequence
 	 */
 	public EscapeSequence()
 	{
-		m_sb = new StringBuilder();
+		m_buf = new char[CAPACITY];
+		m_length = 0;
 		m_idx = 0;
 	}
 
@@ -29,7 +38,13 @@ public class EscapeSequence
 	 */
 	public void append ( char c )
 	{
-		m_sb.append(c);
+		if (m_length == m_buf.length)
+		{
+			char buf[] = new char[m_buf.length * 2];
+			System.arraycopy(m_buf, 0, buf, 0, m_length);
+			m_buf = buf;
+		}
+		m_buf[m_length++] = c;
 	}
 
 	/**
@@ -40,7 +55,8 @@ public class EscapeSequence
 	 */
 	public void append ( String s )
 	{
-		m_sb.append(s);
+		for (int i = 0; i < s.length(); i++)
+			append(s.charAt(i));
 	}
 
 	/**
@@ -50,7 +66,7 @@ public class EscapeSequence
 	 */
 	public void reset ()
 	{
-		m_sb.setLength(0);
+		m_length = 0;
 		m_idx = 0;
 	}
 
@@ -64,7 +80,7 @@ public class EscapeSequence
 	 */
 	public void setIndex ( int i )
 	{
-		if (i >= 0 && i < m_sb.length())
+		if (i >= 0 && i < m_length)
 			m_idx = i;
 	}
 
@@ -77,7 +93,7 @@ public class EscapeSequence
 	 */
 	public void incrementIndex ( int i )
 	{
-		if (m_idx + i <= m_sb.length())
+		if (m_idx + i <= m_length)
 			m_idx = m_idx + i;
 	}
 
@@ -95,11 +111,30 @@ public class EscapeSequence
 	}
 
 	/**
-	 * Return a string with this escape sequence.
+	 * @return the number of characters in this sequence.
+	 */
+	public int length ()
+	{
+		return m_length;
+	}
+
+	/**
+	 * @param i
+	 *            - the index into the escape sequence [0...length() - 1].
+	 * @return the character at the given index.
+	 */
+	public char charAt ( int i )
+	{
+		return m_buf[i];
+	}
+
+	/**
+	 * Return a string with this escape sequence. Creates a new string, for
+	 * debugging output only.
 	 */
 	public String toString ()
 	{
-		return m_sb.toString();
+		return new String(m_buf, 0, m_length);
 	}
 
 	/**
@@ -109,7 +144,7 @@ public class EscapeSequence
 	 */
 	public boolean hasMore ()
 	{
-		return m_idx < m_sb.length();
+		return m_idx < m_length;
 	}
 
 	/**
@@ -123,12 +158,12 @@ public class EscapeSequence
 	{
 		boolean ret = false;
 
-		if (s.length() <= m_sb.length())
+		if (s.length() <= m_length)
 		{
 			ret = true;
 			for (int i = 0; i < s.length(); i++)
 			{
-				if (m_sb.charAt(i) != s.charAt(i))
+				if (m_buf[i] != s.charAt(i))
 				{
 					ret = false;
 					break;
@@ -149,13 +184,13 @@ public class EscapeSequence
 	{
 		boolean ret = false;
 
-		if (s.length() <= m_sb.length())
+		if (s.length() <= m_length)
 		{
 			ret = true;
 
-			for (int i = m_sb.length() - s.length(); i < m_sb.length(); i++)
+			for (int i = m_length - s.length(); i < m_length; i++)
 			{
-				if (m_sb.charAt(i) != s.charAt(i))
+				if (m_buf[i] != s.charAt(i))
 				{
 					ret = false;
 					break;
@@ -174,8 +209,8 @@ public class EscapeSequence
 	{
 		int ret = -1;
 
-		if (m_sb.length() > 0)
-			ret = m_sb.charAt(m_sb.length() - 1);
+		if (m_length > 0)
+			ret = m_buf[m_length - 1];
 
 		return ret;
 	}
@@ -185,9 +220,9 @@ public class EscapeSequence
 	 */
 	void removeLast ()
 	{
-		if (m_sb.length() > 0)
+		if (m_length > 0)
 		{
-			m_sb.setLength(m_sb.length() - 1);
+			m_length--;
 		}
 	}
 
@@ -206,9 +241,9 @@ public class EscapeSequence
 		int sign = 1;
 		int number = Integer.MIN_VALUE;
 
-		while (m_idx < m_sb.length())
+		while (m_idx < m_length)
 		{
-			char c = m_sb.charAt(m_idx);
+			char c = m_buf[m_idx];
 
 			if ('0' <= c && c <= '9')
 			{
@@ -294,11 +329,11 @@ public class EscapeSequence
 	{
 		int number = Integer.MIN_VALUE;
 
-		if (m_idx + 2 < m_sb.length())
+		if (m_idx + 2 < m_length)
 		{
-			char hi = m_sb.charAt(m_idx);
-			char mi = m_sb.charAt(m_idx + 1);
-			char lo = m_sb.charAt(m_idx + 2);
+			char hi = m_buf[m_idx];
+			char mi = m_buf[m_idx + 1];
+			char lo = m_buf[m_idx + 2];
 			if ((' ' <= hi && hi <= '?') && (' ' <= mi && mi <= '?')
 					&& (' ' <= lo && lo <= '?'))
 			{
@@ -321,10 +356,10 @@ public class EscapeSequence
 	{
 		int number = Integer.MIN_VALUE;
 
-		if (m_idx + 1 < m_sb.length())
+		if (m_idx + 1 < m_length)
 		{
-			char hi = m_sb.charAt(m_idx);
-			char lo = m_sb.charAt(m_idx + 1);
+			char hi = m_buf[m_idx];
+			char lo = m_buf[m_idx + 1];
 			if ((' ' <= hi && hi <= '?') && (' ' <= lo && lo <= '?'))
 			{
 				number = ((hi & 0x1F) << 5) | (lo & 0x1F);
@@ -345,9 +380,9 @@ public class EscapeSequence
 	{
 		int number = Integer.MIN_VALUE;
 
-		if (m_idx < m_sb.length())
+		if (m_idx < m_length)
 		{
-			char num = m_sb.charAt(m_idx);
+			char num = m_buf[m_idx];
 			if (' ' <= num && num <= '?')
 			{
 				number = num & 0x1F;
@@ -358,6 +393,101 @@ public class EscapeSequence
 		return number;
 	}
 
+	/**
+	 * Decode a run of binary plot coordinates from a byte array, e.g. from
+	 * the receive buffer, without copying them into a sequence first. Each
+	 * value consists of 1, 2 or 3 bytes in the range ' '...'?' carrying 5
+	 * bits each, most significant part first.
+	 * <ul>
+	 * <li>1 byte: short incremental, signed -15...16</li>
+	 * <li>2 bytes: absolute, unsigned 0...1023</li>
+	 * <li>3 bytes: incremental or relocatable, signed -16384...16383</li>
+	 * </ul>
+	 * Decoding stops before the first byte outside of the range, before an
+	 * incomplete value or when values[] is full.
+	 * 
+	 * @param b
+	 *            the source array.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes available.
+	 * @param bytesPerValue
+	 *            1, 2 or 3.
+	 * @param values
+	 *            receives the decoded values, x and y alternating.
+	 * @param max
+	 *            the maximum number of values to decode.
+	 * @return the number of values stored in values[]. The number of bytes
+	 *         used is this times bytesPerValue.
+	 */
+	public static int decodeBinary ( byte b[], int off, int len,
+			int bytesPerValue, int values[], int max )
+	{
+		int end = off + len;
+		int n = 0;
+
+		if (bytesPerValue == 3)
+		{
+			for (int i = off; n < max && i + 3 <= end; i += 3)
+			{
+				int hi = b[i];
+				int mi = b[i + 1];
+				int lo = b[i + 2];
+				// all in ' '...'?', bytes above 0x7F are negative
+				if ((((hi ^ ' ') | (mi ^ ' ') | (lo ^ ' ')) & ~0x1F) != 0)
+					break;
+				// 15 bits, sign extended
+				values[n++] = ((hi << 27) >> 17) | ((mi & 0x1F) << 5)
+						| (lo & 0x1F);
+			}
+		}
+		else if (bytesPerValue == 2)
+		{
+			for (int i = off; n < max && i + 2 <= end; i += 2)
+			{
+				int hi = b[i];
+				int lo = b[i + 1];
+				if ((((hi ^ ' ') | (lo ^ ' ')) & ~0x1F) != 0)
+					break;
+				values[n++] = ((hi & 0x1F) << 5) | (lo & 0x1F);
+			}
+		}
+		else
+		{
+			for (int i = off; n < max && i < end; i++)
+			{
+				int num = b[i];
+				if (((num ^ ' ') & ~0x1F) != 0)
+					break;
+				values[n++] = toSigned(num & 0x1F, 1);
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Convert a decoded binary value to a signed number where the plot
+	 * format requires it.
+	 */
+	static int toSigned ( int value, int bytesPerValue )
+	{
+		if (bytesPerValue == 3)
+		{
+			// 3-byte unsigned -> signed
+			if (value > 16383)
+				value -= 32768;
+		}
+		else if (bytesPerValue == 1)
+		{
+			// 1-byte unsigned -> signed
+			if (value > 16)
+				value -= 32;
+		}
+		return value;
+	}
+
 	/**
 	 * Return the next character in the sequence. Advances the parse pointer
 	 * only if a character has been parsed.
@@ -367,8 +497,8 @@ public class EscapeSequence
 	 */
 	public char parseCharacter ()
 	{
-		if (m_idx < m_sb.length())
-			return m_sb.charAt(m_idx++);
+		if (m_idx < m_length)
+			return m_buf[m_idx++];
 		else
 			return 0;
 	}
@@ -382,9 +512,46 @@ public class EscapeSequence
 	 */
 	public char peekCharacter ()
 	{
-		if (m_idx < m_sb.length())
-			return m_sb.charAt(m_idx);
+		if (m_idx < m_length)
+			return m_buf[m_idx];
 		else
 			return 0;
 	}
+
+	/**
+	 * Return the next character in the sequence, converted to lower case.
+	 * Advances the parse pointer only if a character has been parsed. Only
+	 * the letters A...Z are converted.
+	 * 
+	 * @return the next character or 0 if the end of the sequence has been
+	 *         reached.
+	 */
+	public char parseLowerCharacter ()
+	{
+		return toLower(parseCharacter());
+	}
+
+	/**
+	 * Return the next character in the sequence, converted to lower case.
+	 * Does not advance the parse pointer. Only the letters A...Z are
+	 * converted.
+	 * 
+	 * @return - the next available character or 0 if the end of the sequence
+	 *         has been reached.
+	 */
+	public char peekLowerCharacter ()
+	{
+		return toLower(peekCharacter());
+	}
+
+	/**
+	 * Convert an ASCII letter to lower case.
+	 */
+	private static char toLower ( char c )
+	{
+		if (c >= 'A' && c <= 'Z')
+			return (char) (c | 0x20);
+		else
+			return c;
+	}
 }
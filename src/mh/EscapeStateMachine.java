@@ -0,0 +1,280 @@
+package mh;
+
+/**
+ * The state machine which splits the data stream from the host into text,
+ * control characters and escape sequences.
+ * <p>
+ * For each state there is a table with one entry for every byte value. An
+ * entry holds the action to perform and the state to go to. The tables are
+ * built once before the parser starts, so that the parser needs only one
+ * array access and one switch per byte instead of a chain of tests.
+ * <p>
+ * Each {@link TerminalPersonality} selects its tables. All models share the
+ * {@link #STANDARD} tables, a model which understands a different set of
+ * sequences can build its own and change entries with
+ * {@link #set(int, int, int, int)}.
+ * <p>
+ * The class does not depend on the screen or on the user interface. The
+ * actions are carried out by the {@link TerminalParser}.
+ *
+ * <pre>
+ *  IDLE --ESC--> ESC --[--> ESC_BRACK      --@...~--------> CSI
+ *                    --*--> ESC_ASTERISK   --A...Z@^CRLF--> ASTERISK
+ *                                           --p--> PLOT --A...Z@^CRLF--> IDLE
+ *                    --&--> ESC_AMPERSAND  --A...Z@^CRLF--> AMPERSAND
+ *                    --)--> ESC_CLOSE_PAREN --any---------> PAREN
+ *                    --other------------------------------> ESC_SINGLE
+ * </pre>
+ *
+ * @author Martin Hepperle
+ *
+ */
+final class EscapeStateMachine
+{
+	// states, the same values as the modes of the TerminalParser
+	// not in ESC sequence
+	static final int IDLE = 0;
+	// in "ESC" sequence
+	static final int ESC = 1;
+	// in "ESC [" ANSI-sequence
+	static final int ESC_BRACK = 2;
+	// in "ESC *" HP-sequence, first character after the '*'
+	static final int ESC_ASTERISK = 3;
+	// in "ESC &" HP-sequence
+	static final int ESC_AMPERSAND = 4;
+	// in graph text sequence (ends with ESC)
+	static final int GRAPH_TEXT = 5;
+	// in graph label sequence (ends with CR, LF, CR+LF)
+	static final int GRAPH_LABEL = 6;
+	// in "ESC )" HP-sequence
+	static final int ESC_CLOSE_PAREN = 7;
+	// waiting for graphics cursor click, text is processed as in IDLE
+	static final int WAIT_FOR_CLICK = 8;
+	// in "ESC * x" HP-sequence, after the first character
+	static final int ESC_ASTERISK_ARGS = 9;
+	// in "ESC * p" plot sequence, the data is decoded as it arrives
+	static final int PLOT = 10;
+
+	static final int STATES = 11;
+
+	// actions
+	// nothing, just change the state
+	static final int A_NONE = 0;
+	// put the character on the screen
+	static final int A_PRINT = 1;
+	// answer ENQ, in any state
+	static final int A_ENQ = 2;
+	// host prompt DC1
+	static final int A_DC1 = 3;
+	// ring the bell
+	static final int A_BEL = 4;
+	// begin a new escape sequence
+	static final int A_START = 5;
+	// append the character to the escape sequence
+	static final int A_COLLECT = 6;
+	// append and dispatch: ESC x
+	static final int A_ESC_SINGLE = 7;
+	// append and dispatch: ESC [ ... x
+	static final int A_CSI = 8;
+	// append and dispatch: ESC * ... X
+	static final int A_ASTERISK = 9;
+	// ESC inside of an ESC * sequence: terminate it
+	static final int A_ASTERISK_ESC = 10;
+	// append and dispatch: ESC & ... X
+	static final int A_AMPERSAND = 11;
+	// append and dispatch: ESC ) x
+	static final int A_CLOSE_PAREN = 12;
+	// collect graphics text
+	static final int A_TEXT = 13;
+	// end of graphics text, begin a new escape sequence
+	static final int A_TEXT_END = 14;
+	// collect graphics label
+	static final int A_LABEL = 15;
+	// end of graphics label
+	static final int A_LABEL_END = 16;
+	// begin a plot sequence
+	static final int A_PLOT_START = 17;
+	// plot data
+	static final int A_PLOT = 18;
+	// append and end the plot sequence
+	static final int A_PLOT_END = 19;
+	// end of the plot sequence, begin a new escape sequence
+	static final int A_PLOT_ESC = 20;
+	// '[' after ESC, begin collecting the parameters
+	static final int A_CSI_START = 21;
+	// collect a character of an "ESC [" sequence and its parameters
+	static final int A_CSI_PARAM = 22;
+
+	// an entry is (action << ACTION_SHIFT) | next state
+	static final int ACTION_SHIFT = 4;
+	static final int STATE_MASK = 0x0F;
+
+	// the tables understood by all current models
+	static final EscapeStateMachine STANDARD = new EscapeStateMachine();
+
+	private final short m_Table[][] = new short[STATES][256];
+
+	/**
+	 * Build the standard tables.
+	 */
+	EscapeStateMachine()
+	{
+		for (int c = 0; c < 256; c++)
+		{
+			boolean terminator = (c >= 'A' && c <= 'Z') || c == '@'
+					|| c == '^' || c == '\r' || c == '\n';
+
+			// plain text
+			if (c == TerminalParser.ESC)
+				set(IDLE, c, A_START, ESC);
+			else if (c == TerminalParser.DC1)
+				set(IDLE, c, A_DC1, IDLE);
+			else if (c == TerminalParser.BEL)
+				set(IDLE, c, A_BEL, IDLE);
+			else
+				set(IDLE, c, A_PRINT, IDLE);
+
+			// the same while waiting for a click, but stay waiting
+			int a = action(IDLE, c);
+			set(WAIT_FOR_CLICK, c, a, (a == A_START) ? ESC : WAIT_FOR_CLICK);
+
+			// ESC x
+			switch (c)
+			{
+			case '[':
+				set(ESC, c, A_CSI_START, ESC_BRACK);
+				break;
+			case '*':
+				set(ESC, c, A_COLLECT, ESC_ASTERISK);
+				break;
+			case '&':
+				set(ESC, c, A_COLLECT, ESC_AMPERSAND);
+				break;
+			case ')':
+				set(ESC, c, A_COLLECT, ESC_CLOSE_PAREN);
+				break;
+			default:
+				set(ESC, c, A_ESC_SINGLE, IDLE);
+				break;
+			}
+
+			// ESC [ ... ends with @A-Z[\]^_`a-z{|}~
+			if (c >= 0x40 && c <= 0x7E)
+				set(ESC_BRACK, c, A_CSI, IDLE);
+			else
+				set(ESC_BRACK, c, A_CSI_PARAM, ESC_BRACK);
+
+			// ESC * ... ends with an uppercase letter
+			if (c == TerminalParser.ESC)
+				set(ESC_ASTERISK, c, A_ASTERISK_ESC, IDLE);
+			else if (c == 'l')
+				set(ESC_ASTERISK, c, A_NONE, GRAPH_LABEL);
+			else if (c == 'p')
+				set(ESC_ASTERISK, c, A_PLOT_START, PLOT);
+			else if (terminator)
+				set(ESC_ASTERISK, c, A_ASTERISK, IDLE);
+			else
+				set(ESC_ASTERISK, c, A_COLLECT, ESC_ASTERISK_ARGS);
+
+			// as at the start, an 'l' switches to a graphics label and the
+			// sequence collected so far is dropped
+			if (c == TerminalParser.ESC)
+				set(ESC_ASTERISK_ARGS, c, A_ASTERISK_ESC, IDLE);
+			else if (c == 'l')
+				set(ESC_ASTERISK_ARGS, c, A_NONE, GRAPH_LABEL);
+			else if (terminator)
+				set(ESC_ASTERISK_ARGS, c, A_ASTERISK, IDLE);
+			else
+				set(ESC_ASTERISK_ARGS, c, A_COLLECT, ESC_ASTERISK_ARGS);
+
+			// ESC * p ... ends with an uppercase letter
+			if (c == TerminalParser.ESC)
+				set(PLOT, c, A_PLOT_ESC, ESC);
+			else if (terminator)
+				set(PLOT, c, A_PLOT_END, IDLE);
+			else
+				set(PLOT, c, A_PLOT, PLOT);
+
+			// ESC & ... ends with an uppercase letter
+			if (terminator)
+				set(ESC_AMPERSAND, c, A_AMPERSAND, IDLE);
+			else
+				set(ESC_AMPERSAND, c, A_COLLECT, ESC_AMPERSAND);
+
+			// ESC ) x
+			set(ESC_CLOSE_PAREN, c, A_CLOSE_PAREN, IDLE);
+
+			// graphics text until ESC
+			if (c == TerminalParser.ESC)
+				set(GRAPH_TEXT, c, A_TEXT_END, ESC);
+			else
+				set(GRAPH_TEXT, c, A_TEXT, GRAPH_TEXT);
+
+			// graphics label until CR or LF
+			if (c == TerminalParser.CR || c == TerminalParser.LF)
+				set(GRAPH_LABEL, c, A_LABEL_END, IDLE);
+			else
+				set(GRAPH_LABEL, c, A_LABEL, GRAPH_LABEL);
+		}
+
+		// ENQ is answered in every state and does not change it
+		for (int s = 0; s < STATES; s++)
+			set(s, TerminalParser.ENQ, A_ENQ, s);
+	}
+
+	/**
+	 * Change the transition for a byte received in the given state.
+	 *
+	 * @param state
+	 *            the current state.
+	 * @param c
+	 *            the received byte [0...255].
+	 * @param action
+	 *            the action to perform.
+	 * @param next
+	 *            the state to go to.
+	 */
+	void set ( int state, int c, int action, int next )
+	{
+		m_Table[state][c] = (short) ((action << ACTION_SHIFT) | next);
+	}
+
+	/**
+	 * Look up the transition for a byte received in the given state.
+	 *
+	 * @param state
+	 *            the current state.
+	 * @param c
+	 *            the received byte [0...255].
+	 * @return the action and the next state, packed into one int. Use
+	 *         {@link #action(int)} and {@link #state(int)} to unpack.
+	 */
+	int transition ( int state, int c )
+	{
+		return m_Table[state][c];
+	}
+
+	/**
+	 * @return the action of a transition.
+	 */
+	static int action ( int transition )
+	{
+		return transition >> ACTION_SHIFT;
+	}
+
+	/**
+	 * @return the next state of a transition.
+	 */
+	static int state ( int transition )
+	{
+		return transition & STATE_MASK;
+	}
+
+	/**
+	 * @return the action for a byte received in the given state.
+	 */
+	int action ( int state, int c )
+	{
+		return action(transition(state, c));
+	}
+}
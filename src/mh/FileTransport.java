@@ -0,0 +1,90 @@
+package mh;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feeds the contents of a file to the terminal as if it had been received
+ * from the host, e.g. a raw log of a host session.
+ * Anything sent to the host is discarded.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public class FileTransport extends Transport implements Runnable
+{
+	private String m_FileName;
+	private FileChannel m_Channel;
+	private Thread m_Thread;
+
+	public FileTransport(String fileName)
+	{
+		m_FileName = fileName;
+	}
+
+	public void open ( Receiver r ) throws IOException
+	{
+		m_Receiver = r;
+		m_Channel = new FileInputStream(m_FileName).getChannel();
+
+		m_Thread = new Thread(this, "Transport " + getName());
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}
+
+	public void close ()
+	{
+		try
+		{
+			if (m_Channel != null)
+				m_Channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isOpen ()
+	{
+		return m_Channel != null && m_Channel.isOpen();
+	}
+
+	public String getName ()
+	{
+		return m_FileName;
+	}
+
+	public void write ( byte b[], int off, int len )
+	{
+		// there is no host
+	}
+
+	/**
+	 * The reading thread. The receiver slows it down when the terminal
+	 * cannot keep up.
+	 */
+	public void run ()
+	{
+		ByteBuffer bb = ByteBuffer.allocate(4096);
+
+		try
+		{
+			while (m_Channel.read(bb) >= 0)
+			{
+				m_Receiver.received(bb.array(), 0, bb.position());
+				bb.clear();
+			}
+		}
+		catch (IOException e)
+		{
+			if (isOpen())
+				e.printStackTrace();
+		}
+
+		close();
+		m_Receiver.closed();
+	}
+}
@@ -0,0 +1,845 @@
+package mh;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The graphics memory of the terminal: a raster image with the current pen,
+ * drawing mode, line style and text attributes. Does not depend on a window,
+ * so that it can be used by a headless terminal. A {@link GraphicsScreen}
+ * displays it.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public class GraphicsMemory
+{
+	/**
+	 * Is notified of changes, e.g. by the screen showing this memory.
+	 */
+	interface Listener
+	{
+		/** The image has been modified. */
+		void imageChanged ();
+
+		/** The image has been replaced by one of a different size. */
+		void sizeChanged ();
+
+		/** The graphics cursor has been switched on or off. */
+		void cursorChanged ();
+	}
+
+	private BufferedImage m_Image;
+	private int m_backColor;
+	private int m_foreColor;
+	// can be set by user or can track m_foreColor
+	private int m_textColor;
+	private boolean m_trackPrimary; // true: m_textColor == m_foreColor, else
+									// set by user
+	private int m_textSize;
+	private int m_drawMode;
+	private BasicStroke m_lineStyle;
+	private int m_lineStyleNumber;
+	private Point m_ptCurrent;
+	private boolean m_penDown;
+
+	/** Graphics cursor */
+	private volatile boolean m_graphicsCursor;
+	// flag for checking whether a mouse or keyboard key was pressed
+	// set by the event dispatch thread, polled by the parser thread
+	private volatile boolean m_clicked;
+	// the sampled cursor position
+	private Point m_ptCursor;
+	// the sampled key code
+	private int m_keyCode;
+
+	// 8 colors
+	Color colorMap[] = new Color[8];
+	boolean isDirty;
+	private VectorFont vf;
+
+	private Listener m_listener;
+	// reused for drawing polylines
+	private final Path2D.Float m_Path = new Path2D.Float();
+
+	public GraphicsMemory(int w, int h)
+	{
+		vf = new VectorFont();
+
+		setScreenSize(w, h);
+
+		resetDefaults(true);
+	}
+
+	/**
+	 * Set the listener to be notified of changes.
+	 * 
+	 * @param listener
+	 *            the listener or null.
+	 */
+	void setListener ( Listener listener )
+	{
+		m_listener = listener;
+	}
+
+	/**
+	 * Tell the listener that the image has changed.
+	 */
+	private void changed ()
+	{
+		if (m_listener != null)
+			m_listener.imageChanged();
+	}
+
+	/**
+	 * @return the raster image holding the graphics.
+	 */
+	public BufferedImage getImage ()
+	{
+		return m_Image;
+	}
+
+	/**
+	 * @return the size of the graphics raster in pixels.
+	 */
+	public Dimension getSize ()
+	{
+		return new Dimension(m_Image.getWidth(), m_Image.getHeight());
+	}
+
+	public void resetDefaults ( boolean hard )
+	{
+		m_backColor = 7;
+		m_foreColor = 0;
+		// default: track m_foreColor
+		setTextColor(1);
+		setTextSize(1);
+
+		m_ptCurrent = new Point();
+		m_penDown = false;
+		m_drawMode = 2;
+		isDirty = false;
+		/** initially at (0,0) */
+		m_ptCursor = new Point();
+		m_graphicsCursor = false;
+		m_clicked = false;
+
+		// HP 2627 default foreground colors
+		colorMap[0] = new Color(255, 255, 255); // white
+		colorMap[1] = new Color(255, 0, 0); // red
+		colorMap[2] = new Color(0, 255, 0); // green
+		colorMap[3] = new Color(255, 255, 0); // yellow
+		colorMap[4] = new Color(0, 0, 255); // blue
+		colorMap[5] = new Color(255, 0, 255); // magenta
+		colorMap[6] = new Color(0, 255, 255); // cyan
+		colorMap[7] = new Color(0, 0, 0); // black
+
+		setLineStyle(1);
+
+		if (hard)
+			clear();
+	}
+
+	void setScreenSize ( int w, int h )
+	{
+		// ANSI: 0,0,640,480
+		// 2648: 0,0,719,359
+		// 2627: 0,0,511,389
+		w = Math.max(Math.min(Math.abs(w), 720), 512); // 512...720
+		h = Math.max(Math.min(Math.abs(h), 480), 360); // 360...480
+
+		m_Image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+
+		if (m_listener != null)
+			m_listener.sizeChanged();
+	}
+
+	/**
+	 * Toggle the display of the graphics cursor.
+	 * 
+	 * @param visible
+	 */
+	public void showGraphicsCursor ( boolean visible )
+	{
+		m_graphicsCursor = visible;
+
+		if (m_listener != null)
+			m_listener.cursorChanged();
+	}
+
+	/**
+	 * 
+	 * @return the key code sampled when a waitForClick() state was enabled:
+	 *         <ul>
+	 *         <li>32...127: key code</li>
+	 *         <li>232: left mouse button</li>
+	 *         <li>233: right mouse button</li>
+	 *         <li>234: middle mouse button</li>
+	 *         </ul>
+	 */
+	public int getKeyCode ()
+	{
+		return m_keyCode;
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public Point getCursorPosition ()
+	{
+		return new Point(m_ptCursor);
+	}
+
+	public void setCursorPosition ( int x, int y )
+	{
+		m_ptCursor.x = x;
+		m_ptCursor.y = y;
+	}
+
+	public void incrementCursorPosition ( int dx, int dy )
+	{
+		m_ptCursor.x += dx;
+		m_ptCursor.y += dy;
+	}
+
+	public void clear ()
+	{
+		clear(m_backColor);
+	}
+
+	public void clear ( int color )
+	{
+		Graphics g = m_Image.getGraphics();
+		g.setColor(colorMap[color % colorMap.length]);
+		g.fillRect(0, 0, m_Image.getWidth(), m_Image.getHeight());
+
+		isDirty = false;
+		changed();
+	}
+
+	/**
+	 * 
+	 * @return the current position of the pen.
+	 */
+	public Point getPenPosition ()
+	{
+		return m_ptCurrent;
+	}
+
+	/**
+	 * 
+	 * @return true if pen is down (after a lineto), false if not (after a
+	 *         moveto)
+	 */
+	public boolean getPenState ()
+	{
+		return m_penDown;
+	}
+
+	/**
+	 * Define line style similar to HP 2648A line styles. Does not support user
+	 * defined styles.
+	 * 
+	 * @param n
+	 *            the line style:<br>
+	 *            1=continuous,<br>
+	 *            2,3,4=long-dash-dot,<br>
+	 *            5=long-dash,<br>
+	 *            6=short-dash,<br>
+	 *            7=dotted,<br>
+	 *            8=short-dash-dot<br>
+	 *            9=triple-dot<br>
+	 *            10=dash-dot-dot<br>
+	 *            11=dot at start
+	 */
+	public void setLineStyle ( int n )
+	{
+		float dash[];
+		switch (n)
+		{
+		case 2:
+		case 3:
+		case 4: // - . - .
+			dash = new float[] { 10.0f, 3.0f, 2.0f, 3.0f };
+			break;
+		case 5: // -- -- --
+			dash = new float[] { 10.0f, 3.0f };
+			break;
+		case 6: // - - - -
+			dash = new float[] { 5.0f, 5.0f };
+			break;
+		case 7: // .....
+			dash = new float[] { 2.0f, 2.0f };
+			break;
+		case 8: // -.-.
+			dash = new float[] { 5.0f, 3.0f, 2.0f, 3.0f };
+			break;
+		case 9: // ... ...
+			dash = new float[] { 2.0f, 2.0f, 2.0f, 2.0f, 2.0f, 6.0f };
+			break;
+		case 10: // -..-
+			dash = new float[] { 9.0f, 3.0f, 2.0f, 3.0f, 2.0f, 3.0f };
+			break;
+		case 11: // dots only at start
+			dash = new float[] { 1.0f, 32000.0f };
+			break;
+		default:
+			// 1=continuous line
+			dash = new float[] { 1.0f };
+			break;
+		}
+
+		m_lineStyle = new BasicStroke(1.0f, BasicStroke.CAP_ROUND,
+				BasicStroke.JOIN_ROUND, 1.0f, dash, 0.0f);
+		m_lineStyleNumber = n;
+	}
+
+	/**
+	 * Write the raster and the pen, colors, line style and text attributes.
+	 * Used for the keyframes of a capture, which compress the stream.
+	 *
+	 * @param out
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if the stream cannot be written.
+	 */
+	public void writeState ( DataOutput out ) throws IOException
+	{
+		int w = m_Image.getWidth();
+		int h = m_Image.getHeight();
+		out.writeInt(w);
+		out.writeInt(h);
+
+		int row[] = new int[w];
+		for (int y = 0; y < h; y++)
+		{
+			m_Image.getRGB(0, y, w, 1, row, 0, w);
+			for (int x = 0; x < w; x++)
+				out.writeInt(row[x]);
+		}
+
+		out.writeInt(m_backColor);
+		out.writeInt(m_foreColor);
+		out.writeInt(m_textColor);
+		out.writeBoolean(m_trackPrimary);
+		out.writeInt(m_textSize);
+		out.writeBoolean(vf.isSlanted());
+		out.writeInt(vf.getOrientation());
+		out.writeInt(m_drawMode);
+		out.writeInt(m_lineStyleNumber);
+		out.writeInt(m_ptCurrent.x);
+		out.writeInt(m_ptCurrent.y);
+		out.writeBoolean(m_penDown);
+	}
+
+	/**
+	 * Restore a state written by {@link #writeState(DataOutput)}.
+	 *
+	 * @param in
+	 *            the stream to read from.
+	 * @throws IOException
+	 *             if the stream cannot be read or the state is for an image
+	 *             of a different size.
+	 */
+	public void readState ( DataInput in ) throws IOException
+	{
+		int w = in.readInt();
+		int h = in.readInt();
+		if (w != m_Image.getWidth() || h != m_Image.getHeight())
+			throw new IOException("Graphics memory size does not match.");
+
+		int row[] = new int[w];
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+				row[x] = in.readInt();
+			m_Image.setRGB(0, y, w, 1, row, 0, w);
+		}
+
+		m_backColor = in.readInt();
+		m_foreColor = in.readInt();
+		m_textColor = in.readInt();
+		m_trackPrimary = in.readBoolean();
+		setTextSize(in.readInt());
+		vf.setSlant(in.readBoolean());
+		vf.setOrientation(in.readInt());
+		m_drawMode = in.readInt();
+		setLineStyle(in.readInt());
+		m_ptCurrent.setLocation(in.readInt(), in.readInt());
+		m_penDown = in.readBoolean();
+
+		isDirty = true;
+		changed();
+	}
+
+	/**
+	 * Move the pen to the given point.
+	 * 
+	 * @param pt
+	 *            the point to move to. It becomes the "current point".
+	 */
+	public void moveto ( Point pt )
+	{
+		m_ptCurrent.setLocation(pt);
+		m_penDown = false;
+	}
+
+	/**
+	 * Draw a line from the "current point" to the given point.
+	 * 
+	 * @param pt
+	 *            the point to draw to.
+	 */
+	public void lineto ( Point pt )
+	{
+		Graphics2D g = createLineGraphics();
+
+		if (setDrawColor(g))
+			g.drawLine(m_ptCurrent.x, -m_ptCurrent.y, pt.x, -pt.y);
+
+		m_ptCurrent.setLocation(pt);
+		m_penDown = true;
+		g.dispose();
+		isDirty = true;
+		changed();
+	}
+
+	/**
+	 * Draw a polyline from the "current point" through the given points. The
+	 * lines are drawn as one path with a single graphics context, so that
+	 * dashed line styles continue across the vertices, and the screen is
+	 * notified only once.
+	 * <p>
+	 * In the complementing modes 3 and 5 the segments are drawn one by one
+	 * as by {@link #lineto(Point)}, so that shared vertices and crossings are
+	 * inverted once per segment. A path would invert every pixel only once.
+	 * 
+	 * @param xy
+	 *            the coordinates of the points: x0, y0, x1, y1, ...
+	 * @param count
+	 *            the number of points to use from xy[].
+	 */
+	public void polyline ( int xy[], int count )
+	{
+		if (count <= 0)
+			return;
+
+		Graphics2D g = createLineGraphics();
+
+		if (!setDrawColor(g))
+		{
+			// mode 0 draws nothing
+		}
+		else if (isComplementMode())
+		{
+			int x = m_ptCurrent.x;
+			int y = m_ptCurrent.y;
+			for (int i = 0; i < 2 * count; i += 2)
+			{
+				g.drawLine(x, -y, xy[i], -xy[i + 1]);
+				x = xy[i];
+				y = xy[i + 1];
+			}
+		}
+		else
+		{
+			m_Path.reset();
+			m_Path.moveTo(m_ptCurrent.x, -m_ptCurrent.y);
+			for (int i = 0; i < 2 * count; i += 2)
+				m_Path.lineTo(xy[i], -xy[i + 1]);
+			g.draw(m_Path);
+		}
+
+		m_ptCurrent.setLocation(xy[2 * count - 2], xy[2 * count - 1]);
+		m_penDown = true;
+		g.dispose();
+		isDirty = true;
+		changed();
+	}
+
+	/**
+	 * @return a graphics context for drawing lines in the image with the
+	 *         current line style and the origin in the lower left corner.
+	 */
+	private Graphics2D createLineGraphics ()
+	{
+		Graphics2D g = (Graphics2D) m_Image.getGraphics();
+		g.translate(0, m_Image.getHeight() - 1);
+
+		g.setStroke(m_lineStyle);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		return g;
+	}
+
+	/**
+	 * Set the color and paint mode for the current drawing mode.
+	 * 
+	 * @param g
+	 *            the graphics context to prepare.
+	 * @return false for drawing mode 0, which does not draw at all.
+	 */
+	private boolean setDrawColor ( Graphics g )
+	{
+		if (m_drawMode == 0)
+		{
+			// Mode 0: NO EFFECT
+			return false;
+		}
+
+		if (m_drawMode == 1)
+		{
+			// Mode 1: CLEAR
+			g.setColor(colorMap[m_backColor]);
+		}
+		else if (m_drawMode == 2)
+		{
+			// Mode 2: SET
+			g.setColor(colorMap[m_foreColor]);
+		}
+		else if (m_drawMode == 3)
+		{
+			// Mode 3: COMPLEMENT 1
+			// g.setColor(inverseColor(colorMap[m_foreColor]));
+			// g.setXORMode(colorMap[m_foreColor]);
+			g.setColor(Color.BLACK);
+			g.setXORMode(Color.WHITE);
+		}
+		else if (m_drawMode == 4)
+		{
+			// Mode 4: JAM
+			g.setColor(colorMap[m_foreColor]);
+		}
+		else
+		{
+			// Mode 5: COMPLEMENT 2
+			g.setColor(colorMap[m_foreColor]);
+			g.setXORMode(colorMap[m_backColor]);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true for the drawing modes 3 and 5, which draw in XOR mode.
+	 */
+	private boolean isComplementMode ()
+	{
+		return m_drawMode == 3 || m_drawMode > 4;
+	}
+
+	/**
+	 * Fill the given rectangle.
+	 * 
+	 * @param x
+	 *            - the x-position of the upper left corner point.
+	 * @param y
+	 *            - the y-position of the upper left corner point.
+	 * @param width
+	 *            - the width of the rectangle
+	 * @param height
+	 *            - the height of the rectangle
+	 */
+	public void fillRect ( int x, int y, int width, int height )
+	{
+		Graphics g = m_Image.getGraphics();
+		g.translate(0, m_Image.getHeight() - 1);
+
+		if (m_drawMode == 0)
+		{
+			// Mode 0: NO EFFECT
+		}
+		else
+		{
+			if (m_drawMode == 2)
+			{
+				// Mode 2: SET
+				g.setColor(colorMap[m_foreColor]);
+			}
+			else if (m_drawMode == 1)
+			{
+				// Mode 1: CLEAR
+				g.setColor(colorMap[m_backColor]);
+			}
+			else if (m_drawMode == 3)
+			{
+				// Mode 3: COMPLEMENT 1
+				// g.setColor(inverseColor(colorMap[m_foreColor]));
+				// g.setXORMode(colorMap[m_foreColor]);
+				g.setColor(Color.BLACK);
+				g.setXORMode(Color.WHITE);
+			}
+			else if (m_drawMode == 4)
+			{
+				// Mode 4: JAM
+				g.setColor(colorMap[m_foreColor]);
+			}
+			else
+			{
+				// Mode 5: COMPLEMENT 2
+				g.setColor(colorMap[m_foreColor]);
+				g.setXORMode(colorMap[m_backColor]);
+			}
+
+			g.fillRect(x, -y - height, width, height);
+		}
+		g.dispose();
+		isDirty = true;
+		changed();
+	}
+
+	public void setDrawMode ( int mode )
+	{
+		m_drawMode = mode;
+	}
+
+	public void drawText ( String s )
+	{
+		Graphics g = m_Image.getGraphics();
+
+		g.translate(0, m_Image.getHeight() - 1);
+
+		if (m_drawMode == 0)
+		{
+			// Mode 0: NO EFFECT
+		}
+		else
+		{
+			// if no vector font is used
+			// Font f = new Font(Font.MONOSPACED, Font.PLAIN, 9*m_textSize);
+			// Font f = new Font("Lucida Sans Typewriter", Font.PLAIN,
+			// 9 * m_textSize);
+			// g.setFont(f);
+
+			if (m_drawMode == 1)
+			{
+				// Mode 1: CLEAR
+				g.setPaintMode();
+				g.setColor(colorMap[m_backColor]);
+			}
+			else if (m_drawMode == 2)
+			{
+				// Mode 2: SET
+				g.setPaintMode();
+				// paint background
+				g.setColor(colorMap[m_backColor]);
+				Rectangle2D rc = g.getFontMetrics().getStringBounds(s, g);
+				g.fillRect(m_ptCurrent.x + (int) rc.getX(), m_ptCurrent.y
+						+ (int) rc.getY(), (int) rc.getWidth(),
+						(int) rc.getHeight());
+				g.setColor(colorMap[m_textColor]);
+			}
+			else if (m_drawMode == 3)
+			{
+				// Mode 3: COMPLEMENT 1
+				// g.setColor(inverseColor(colorMap[m_foreColor]));
+				// g.setXORMode(colorMap[m_foreColor]);
+				g.setColor(Color.BLACK);
+				g.setXORMode(Color.WHITE);
+			}
+			else if (m_drawMode == 4)
+			{
+				// Mode 4: JAM
+				g.setPaintMode();
+				Rectangle2D rc = g.getFontMetrics().getStringBounds(s, g);
+				g.setColor(colorMap[m_backColor]);
+				g.fillRect(m_ptCurrent.x + (int) rc.getX(), m_ptCurrent.y
+						+ (int) rc.getY(), (int) rc.getWidth(),
+						(int) rc.getHeight());
+				g.setColor(colorMap[m_textColor]);
+			}
+			else
+			{
+				// Mode 5: COMPLEMENT 2
+				g.setColor(colorMap[m_textColor]);
+				Rectangle2D rc = g.getFontMetrics().getStringBounds(s, g);
+				g.fillRect(m_ptCurrent.x + (int) rc.getX(), m_ptCurrent.y
+						+ (int) rc.getY(), (int) rc.getWidth(),
+						(int) rc.getHeight());
+				g.setColor(colorMap[m_textColor]);
+				g.setXORMode(colorMap[m_backColor]);
+			}
+
+			vf.drawString(g, s, m_ptCurrent.x, -m_ptCurrent.y);
+			// g.drawString(s, m_ptCurrent.x, -m_ptCurrent.y - 1);
+		}
+		g.dispose();
+		isDirty = true;
+		changed();
+	}
+
+	/**
+	 * 
+	 * @param idxColor
+	 *            - if == 0: default: track primary pen
+	 */
+	public void setTextColor ( int idxColor )
+	{
+		if (idxColor == 0)
+		{
+			m_trackPrimary = true;
+			m_textColor = m_foreColor;
+		}
+		else
+		{
+			m_trackPrimary = false;
+			m_textColor = (idxColor - 1) % colorMap.length;
+		}
+	}
+
+	/**
+	 * 
+	 * @param size
+	 *            - the size of an uppercase letter, e.g. 'A'
+	 *            <ul>
+	 *            <li>size = 1: 5x7 pixels</li>
+	 *            <li>size = 2: 10x14 pixels</li>
+	 *            <li>size = 3: 15x21 pixels</li>
+	 *            <li>size = 4: 20x28 pixels</li>
+	 *            <li>size = 5: 25x35 pixels</li>
+	 *            <li>size = 6: 30x42 pixels</li>
+	 *            <li>size = 7: 35x49 pixels</li>
+	 *            <li>size = 8: 40x56 pixels</li>
+	 *            </ul>
+	 */
+	public void setTextSize ( int size )
+	{
+		m_textSize = size;
+		// translate to pixel width and height /aspect ratio of capital
+		// character = 7/5)
+		vf.setSize(7 * size * 5 / 7, 7 * size);
+	}
+
+	void setTextSlant ( boolean slanted )
+	{
+		vf.setSlant(slanted);
+	}
+
+	/**
+	 * Set the text orientation.
+	 * 
+	 * @param orientation
+	 *            the direction of the baseline in degrees (extension of the HP
+	 *            specification)
+	 * 
+	 */
+	void setTextOrientation ( int orientation )
+	{
+		vf.setOrientation(orientation);
+	}
+
+	public void setForeColor ( int idxColor )
+	{
+		// 0 ... 7
+		m_foreColor = (idxColor - 1) % colorMap.length;
+
+		if (m_trackPrimary)
+		{
+			// text pen tracks primary pen
+			m_textColor = m_foreColor;
+		}
+	}
+
+	public void setBackColor ( int idxColor )
+	{
+		m_backColor = (idxColor - 1) % colorMap.length;
+	}
+
+	/**
+	 * Save the current image to a file in PNG format. No file is written if the
+	 * image is empty.
+	 * 
+	 * @param fileName
+	 *            - the name of the file to write. Any extension is stripped and
+	 *            replaced by ".png".
+	 * @return - true is a file was written, otherwise false.
+	 * @throws IOException
+	 *             - if something goes wrong.
+	 */
+	public boolean saveImage ( String fileName ) throws IOException
+	{
+		if (isDirty)
+		{
+			String outFileName = fileName;
+
+			// strip trailing extension (if any)
+			int iDot = outFileName.lastIndexOf('.');
+			if (iDot > 0)
+			{
+				outFileName = outFileName.substring(0, iDot);
+			}
+
+			outFileName = outFileName + ".png";
+
+			File f = new File(outFileName);
+			ImageIO.write(m_Image, "png", f);
+		}
+		return isDirty;
+	}
+
+	/**
+	 * Enables sampling of a mouse click or key press. Use the wasClicked()
+	 * method to find out whether a mouse or keyboard key was pressed.
+	 */
+	public void waitForClick ()
+	{
+		// reset flag to enable sampling
+		m_clicked = false;
+
+		if (m_listener != null)
+			m_listener.cursorChanged();
+	}
+
+	/**
+	 * 
+	 * @return true if a mouse click or key press was registered.
+	 */
+	public boolean wasClicked ()
+	{
+		return m_clicked;
+	}
+
+	/**
+	 * @return true if the graphics cursor is visible.
+	 */
+	public boolean isGraphicsCursorVisible ()
+	{
+		return m_graphicsCursor;
+	}
+
+	/**
+	 * Called by the screen when a mouse button or key has been pressed. If
+	 * the graphics cursor is visible the position and the key code are
+	 * stored and a flag is set which can be read with the wasClicked()
+	 * method.
+	 * 
+	 * @param pt
+	 *            the position of the mouse pointer.
+	 * @param keyCode
+	 *            the key code, see getKeyCode().
+	 */
+	void click ( Point pt, int keyCode )
+	{
+		if (m_graphicsCursor)
+		{
+			m_ptCursor = new Point(pt);
+			m_keyCode = keyCode;
+			// set flag
+			m_clicked = true;
+		}
+	}
+}
@@ -12,25 +12,14 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 
-import jssc.SerialNativeInterface;
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
 import java.awt.BorderLayout;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintStream;
-import java.net.Socket;
 import java.nio.CharBuffer;
 import java.util.prefs.Preferences;
 import java.awt.event.WindowAdapter;
@@ -41,14 +30,14 @@ import java.awt.event.WindowEvent;
  * @author Martin Hepperle, July 2019
  * 
  */
-public class HPTerminalApplication implements SerialPortEventListener
+public class HPTerminalApplication implements Transport.Receiver,
+      TerminalParser.Host
 {
-   static int               DEBUG                = 95;
+   static int               DEBUG                = 0;
 
-   final static String      logFileName          = "HPTerminal.log";
-   final static String      fileNameHPGL         = "HPTerminal.hpgl";
-   BufferedOutputStream     bwLog                = null;
-   PrintStream              psHPGL               = null;
+   final static String      logFileName          = "HPTerminal.cap";
+   final static String      traceFileName        = "HPTerminal.trace";
+   CaptureWriter            capture              = null;
 
    final static String      VERSION_NUMBER       = "0.1";
    final static String      VERSION_DATE         = "December 2019";
@@ -62,7 +51,12 @@ public class HPTerminalApplication implements SerialPortEventListener
    boolean                  logging              = false;
 
    static String            m_ApplicationKey     = "MHTerminal";
+   // initial and maximum size of the receive buffer
    static final int         BUFLEN               = 4096;
+   static final int         BUFLEN_MAX           = 1024 * 1024;
+   // receive buffer fill levels where the host is paused and resumed
+   static final int         FLOW_HIGH            = BUFLEN * 3 / 4;
+   static final int         FLOW_LOW             = BUFLEN / 4;
    // control character codes
    static final byte        NUL                  = 0x00;
    static final byte        SOH                  = 0x01;
@@ -99,44 +93,6 @@ public class HPTerminalApplication implements SerialPortEventListener
    // first printable character ' '
    static final int         SP                   = 0x20;
 
-   int                      idxImage             = 0;
-
-   boolean                  pendingACK           = false;
-   boolean                  m_AlphaActive        = true;
-
-   // modes for Escape sequence parser
-   // not in ESC sequence
-   final char               MODE_IDLE            = 0;
-   // in "ESC" sequence
-   final char               MODE_ESC             = 1;
-   // in "ESC [" ANSI-sequence
-   final char               MODE_ESC_BRACK       = 2;
-
-   // in "ESC *" HP-sequence
-   final char               MODE_ESC_ASTERISK    = 3;
-   // in "ESC &" HP-sequence
-   final char               MODE_ESC_AMPERSAND   = 4;
-   // in "Graph text sequence (ends with ESC)
-   final char               MODE_ESC_GRAPH_TEXT  = 5;
-   // in "Graph label sequence (ends with CR, LF, CR+LF)
-   final char               MODE_ESC_GRAPH_LABEL = 6;
-   // in "ESC )" HP-sequence
-   final char               MODE_ESC_CLOSE_PAREN = 7;
-   // waiting for graphics cursor click
-   final char               WAIT_FOR_GRAPH_CLICK = 8;
-
-   static final String      ASCII[]              =
-   { "NUL", "SOH", "STX", "ETX", "EOT", "ENQ", "ACK", "BEL", "BS", "HT", "LF",
-         "VT", "FF", "CR", "SO", "SI", "DLE", "DC1", "DC2", "DC3", "DC4", "NAK",
-         "SYN", "ETB", "CAN", "EM", "SUB", "ESC", "FS", "GS", "RS", "US", " ",
-         "!", "\"", "#", "$", "%", "&", "'", "(", ")", "*", "+", ",", "-", ".",
-         "/", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", ":", ";", "<",
-         "=", ">", "?", "@", "A", "B", "C", "D", "E", "F", "G", "H", "I", "J",
-         "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X",
-         "Y", "Z", "[", "\\", "]", "^", "_", "`", "a", "b", "c", "d", "e", "f",
-         "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t",
-         "u", "v", "w", "x", "y", "z", "{", "|", "}", "~", "DEL" };
-
    final boolean            ANSI_TERM            = false;
    // cursor key sequences sent out to mainframe
    final byte               CUP[];
@@ -148,19 +104,25 @@ public class HPTerminalApplication implements SerialPortEventListener
    private JFrame           graphicsFrame;
    Beeper                   theBeeper;
 
-   SerialPort               m_Port;
+   // the connection to the host
+   Transport                m_Transport;
    Thread                   t                    = null;
 
    // ring buffer for incoming serial data
-   int                      ptrRead              = 0;
-   int                      ptrWrite             = 0;
-   byte                     buffer[]             = new byte[BUFLEN];
-   // used for debugging: high water mark
-   int                      maxBufferLength      = 0;
-
+   // written by the serial port thread, read by the parser thread
+   RingBuffer               input                = new RingBuffer(BUFLEN,
+         BUFLEN_MAX);
+   // true while the host has been asked to pause sending
+   volatile boolean         receiveThrottled     = false;
+
+   // the state of the terminal and the views showing it
+   private TerminalMemory   terminalMemory;
+   private GraphicsMemory   graphicsMemory;
    private TerminalScreen   terminalScreen;
    private GraphicsScreen   graphicsScreen;
-   private TerminalSettings terminalSettings     = new TerminalSettings();
+   // interprets the data in the ring buffer
+   private TerminalParser   parser;
+   private TerminalSettings terminalSettings;
 
    // have the following hardware configuration:
    // InhHndShk(G) = OFF,
@@ -173,9 +135,6 @@ public class HPTerminalApplication implements SerialPortEventListener
    final static int         HS_DC1               = 1;
    final static int         HS_DC1_DC2_DC1       = 2;
 
-   // if DC1 is received and toSend != null then send this string
-   String                   toSend               = null;
-
    /**
     * Launch the application.
     * 
@@ -188,76 +147,169 @@ public class HPTerminalApplication implements SerialPortEventListener
       // VectorFontSimplex p=new VectorFontSimplex();
       // p.dumpASM();
 
+      // default values can be overridden by command line
+      int terminalID = TerminalSettings.HP2627A;
+      String port = null;
+      int fontSize = -1;
+      int speed = -1;
+      int sound = -1;
+      int logger = -1;
+      int flowControl = -1;
+      int transportType = -1;
+      String address = null;
+      double replayRate = -1;
+      double replaySeek = -1;
+      int keyframes = -1;
+      int scrollback = -1;
+      boolean headless = false;
+
+      for ( int i = 0; i < args.length; i++ )
+      {
+         if ( args[i].toLowerCase().equals("-port") )
+         {
+            port = args[++i];
+         }
+         else if ( args[i].toLowerCase().equals("-tcp") )
+         {
+            transportType = TerminalSettings.TRANSPORT_TCP;
+            address = args[++i];
+         }
+         else if ( args[i].toLowerCase().equals("-telnet") )
+         {
+            transportType = TerminalSettings.TRANSPORT_TELNET;
+            address = args[++i];
+         }
+         else if ( args[i].toLowerCase().equals("-file") )
+         {
+            transportType = TerminalSettings.TRANSPORT_FILE;
+            address = args[++i];
+         }
+         else if ( args[i].toLowerCase().equals("-replay") )
+         {
+            transportType = TerminalSettings.TRANSPORT_REPLAY;
+            address = args[++i];
+         }
+         else if ( args[i].toLowerCase().equals("-rate") )
+         {
+            replayRate = Double.parseDouble(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-seek") )
+         {
+            replaySeek = Double.parseDouble(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-keyframes") )
+         {
+            keyframes = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-scrollback") )
+         {
+            scrollback = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-fontsize") )
+         {
+            fontSize = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-speed") )
+         {
+            speed = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-sound") )
+         {
+            sound = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-type") )
+         {
+            TerminalPersonality p = TerminalPersonality.forName(args[++i]);
+            if ( p != null )
+            {
+               terminalID = p.getID();
+            }
+         }
+         else if ( args[i].toLowerCase().equals("-flow") )
+         {
+            flowControl = TerminalSettings
+                  .parseFlowControl(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-logging") )
+         {
+            logger = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-headless") )
+         {
+            headless = true;
+         }
+         else if ( args[i].toLowerCase().equals("-debug") )
+         {
+            DEBUG = Integer.parseInt(args[++i]);
+         }
+         else if ( args[i].toLowerCase().equals("-trace") )
+         {
+            String categories = args[++i];
+            try
+            {
+               TraceRecorder.start(traceFileName,
+                     TraceRecorder.parseCategories(categories));
+            }
+            catch ( IOException e )
+            {
+               e.printStackTrace();
+            }
+         }
+         else
+         {
+            System.err.println("Unknown parameter '" + args[i] + "'");
+            System.err.println("Usage:");
+            System.err.println("HPTerminalApplication [-port PORTNAME"
+                  + " | -tcp HOST:PORT | -telnet HOST[:PORT]"
+                  + " | -file FILENAME | -replay FILENAME]"
+                  + " [-rate {0|FACTOR}] [-seek SECONDS]"
+                  + " [-fontsize FONTSIZE]" + " [-speed BAUDRATE]"
+                  + " [-sound {0|1}]"
+                  + " [-flow {NONE|XONXOFF|RTSCTS}]"
+                  + " [-type {" + TerminalPersonality.getNames() + "}]"
+                  + " [-logging {0|1}] [-keyframes SECONDS]"
+                  + " [-scrollback LINES]"
+                  + " [-headless]"
+                  + " [-debug {0...}]"
+                  + " [-trace {ALL|RECEIVE,TEXT,CONTROL,ESCAPE,PLOT,FLOW}]"
+                  + " ");
+         }
+      }
+
+      final TerminalSettings settings = createSettings(port, fontSize, speed,
+            sound, terminalID, flowControl, transportType, address);
+      if ( replayRate >= 0 )
+         settings.ReplayRate = replayRate;
+      settings.ReplaySeek = replaySeek;
+      if ( keyframes >= 0 )
+         settings.KeyframeInterval = keyframes;
+      if ( scrollback >= 0 )
+         settings.ScrollbackLines = scrollback;
+      final boolean logging = (logger > -1);
+
+      if ( headless )
+      {
+         // no windows at all: process the input and save the screens
+         try
+         {
+            new HeadlessTerminal(settings, logging).run();
+         }
+         catch ( IOException e )
+         {
+            e.printStackTrace();
+            System.exit(1);
+         }
+         return;
+      }
+
       EventQueue.invokeLater(new Runnable()
       {
          public void run ()
          {
             try
             {
-               // default values can be overridden by command line
-               int terminalID = TerminalSettings.HP2627A;
-               String port = null;
-               int fontSize = -1;
-               int speed = -1;
-               int sound = -1;
-               int logger = -1;
-
-               for ( int i = 0; i < args.length; i++ )
-               {
-                  if ( args[i].toLowerCase().equals("-port") )
-                  {
-                     port = args[++i];
-                  }
-                  else if ( args[i].toLowerCase().equals("-fontsize") )
-                  {
-                     fontSize = Integer.parseInt(args[++i]);
-                  }
-                  else if ( args[i].toLowerCase().equals("-speed") )
-                  {
-                     speed = Integer.parseInt(args[++i]);
-                  }
-                  else if ( args[i].toLowerCase().equals("-sound") )
-                  {
-                     sound = Integer.parseInt(args[++i]);
-                  }
-                  else if ( args[i].toLowerCase().equals("-type") )
-                  {
-                     String s = args[++i];
-                     if ( s.contains("ANSI") )
-                     {
-                        terminalID = TerminalSettings.ANSI;
-                     }
-                     else if ( s.contains("2627") )
-                     {
-                        terminalID = TerminalSettings.HP2627A;
-                     }
-                     else if ( s.contains("2648") )
-                     {
-                        terminalID = TerminalSettings.HP2648A;
-                     }
-                  }
-                  else if ( args[i].toLowerCase().equals("-logging") )
-                  {
-                     logger = Integer.parseInt(args[++i]);
-                  }
-                  else if ( args[i].toLowerCase().equals("-debug") )
-                  {
-                     DEBUG = Integer.parseInt(args[++i]);
-                  }
-                  else
-                  {
-                     System.err.println("Unknown parameter '" + args[i] + "'");
-                     System.err.println("Usage:");
-                     System.err.println("HPTerminalApplication [-port PORTNAME]"
-                           + " [-fontsize FONTSIZE]" + " [-speed BAUDRATE]"
-                           + " [-sound {0|1}]"
-                           + " [-type {ANSI|HP2627A|HP2648A}]"
-                           + " [-logging {0|1}]" + " [-debug {0...}]" + " ");
-                  }
-               }
-
                HPTerminalApplication theApplication = new HPTerminalApplication(
-                     port, fontSize, speed, sound, logger, terminalID);
+                     settings, logging);
 
                theApplication.graphicsFrame.setVisible(true);
                theApplication.terminalFrame.setVisible(true);
@@ -271,7 +323,8 @@ public class HPTerminalApplication implements SerialPortEventListener
    }
 
    /**
-    * Create the application.
+    * Create the terminal settings from the preferences of the last session
+    * and the command line options.
     * 
     * @param port
     *           - the port to open, e.g. "COM1" or "\\.\COM27" under Windows.
@@ -281,17 +334,26 @@ public class HPTerminalApplication implements SerialPortEventListener
     *           - the line speed, e.g. 9600 baud.
     * @param sound
     *           - 0=false, 1=true, negative: use default from properties.
-    * @param logger
-    *           - whether a log file shall be written.
-    * @terminalModel
+    * @param terminalID
+    *           - the terminal model to emulate, negative: use default.
+    * @param flowControl
+    *           - the receive flow control, negative: use default from
+    *           properties.
+    * @param transportType
+    *           - how to connect to the host, negative: use the serial port.
+    * @param address
+    *           - "host:port" for TCP and telnet, the file name for file and
+    *           replay transport.
+    * @return the new settings.
     */
-   public HPTerminalApplication(String port, int fontSize, int speed, int sound,
-         int logger, int terminalID)
+   static TerminalSettings createSettings ( String port, int fontSize,
+         int speed, int sound, int terminalID, int flowControl,
+         int transportType, String address )
    {
-      Preferences p = getPreferences();
+      TerminalSettings terminalSettings = new TerminalSettings();
 
       // get settings from last session
-      terminalSettings.readPreferences(p);
+      terminalSettings.readPreferences(getPreferences());
 
       // override settings if defined
       if ( fontSize > 0 )
@@ -304,2320 +366,125 @@ public class HPTerminalApplication implements SerialPortEventListener
          terminalSettings.speed = speed;
       //
       if ( sound >= 0 )
-         terminalSettings.Sound = (sound != 0);
-
-      if ( terminalID >= 0 )
-         terminalSettings.setTerminalID(terminalID);
-
-      if ( logger > -1 )
-         logging = true;
-
-      initialize();
-
-      // telnetTest();
-
-      Point pt = new Point(p.getInt("Alpha.x", 100), p.getInt("Alpha.y", 100));
-      terminalFrame.setLocation(pt);
-
-      pt = new Point(p.getInt("Graph.x", 50), p.getInt("Graph.y", 50));
-      graphicsFrame.setLocation(pt);
-      graphicsScreen.setSize(terminalSettings.width, terminalSettings.height);
-      terminalScreen.setFontSize(terminalSettings.FontSize);
-
-      // create and preload beep sound
-      theBeeper = new Beeper("beep.wav");
-
-      if ( terminalSettings.TerminalID == TerminalSettings.ANSI )
-      {
-         // ANSI arrow key sequences sent out to mainframe
-         CUP = new byte[]
-         { ESC, '[', 'A' };
-         CDN = new byte[]
-         { ESC, '[', 'B' };
-         CRIGHT = new byte[]
-         { ESC, '[', 'C' };
-         CLEFT = new byte[]
-         { ESC, '[', 'D' };
-      }
-      else
-      {
-         // HP arrow key sequences sent out to mainframe
-         CUP = new byte[]
-         { CTRL('A') };
-         CDN = new byte[]
-         { CTRL('B') };
-         CRIGHT = new byte[]
-         { CTRL('C') };
-         CLEFT = new byte[]
-         { CTRL('D') };
-      }
-
-      System.out.println("Running " + getClass().getName() + " Version "
-            + VERSION_NUMBER + " (" + VERSION_DATE + ").");
-      System.out.println("Current Settings:");
-      System.out.println("Debug level     \t= " + DEBUG);
-      System.out.println("Logging         \t= " + logging);
-      terminalSettings.dump(System.out);
-
-      m_Port = new SerialPort(terminalSettings.PortName);
-
-      try
-      {
-         m_Port.openPort();
-         m_Port.setParams(terminalSettings.speed, SerialPort.DATABITS_8,
-               SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-
-         // we are ready
-         // m_Port.setDTR(true);
-         // we are ready to send
-         // m_Port.setRTS(true);
-         // no automatic flow control
-         m_Port.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
-
-         m_Port.setEventsMask(SerialPort.MASK_RXCHAR);
-
-         m_Port.addEventListener(this);
-
-         remoteMode = true;
-
-         if ( DEBUG > 0 )
-         {
-            showLineStatus(System.out);
-         }
-      }
-      catch ( SerialPortException e )
-      {
-         String msg = String.format(
-               "*** Error: Cannot open serial port '%s'.\r\n", new Object[]
-               { terminalSettings.PortName });
-
-         // go to local mode
-         remoteMode = false;
-         System.err.println(msg);
-         showMessage(msg);
-      }
-
-      t = new Thread(new Runnable()
-      {
-         public void run ()
-         {
-            // System.out.println("Terminal thread is running");
-
-            if ( logging )
-            {
-               try
-               {
-                  bwLog = new BufferedOutputStream(
-                        new FileOutputStream(logFileName));
-                  bwLog.write(
-                        ("------ HPTerminal I/O log ------\n").getBytes());
-               }
-               catch ( FileNotFoundException e2 )
-               {
-                  System.err.println(
-                        "*** Cannot create log file '" + logFileName + "'.");
-               }
-               catch ( IOException e )
-               {
-                  System.err.println(
-                        "*** Cannot write to log file '" + logFileName + "'.");
-               }
-            }
-
-            psHPGL = null;
-
-            if ( DEBUG > 50 )
-            {
-               // output all vector plot commands to a HPGL file
-               try
-               {
-                  psHPGL = new PrintStream(fileNameHPGL);
-                  psHPGL.print("IN;SP1");
-               }
-               catch ( FileNotFoundException e1 )
-               {
-                  e1.printStackTrace();
-               }
-            }
-
-            if ( DEBUG == 97 )
-            {
-               // specific test
-
-               // show graphics cursor and wait for key
-               String s = "&q0L";
-
-               // copy bytes into receive buffer
-               for ( int i = 0; i < s.length(); i++ )
-               {
-                  buffer[i] = (byte) s.charAt(i);
-               }
-               ptrRead = 0;
-               ptrWrite = s.length();
-            }
-
-            if ( DEBUG == 95 )
-            {
-               // specific graphics test
-               String s = "*pas33,0 133,0 166,95 83,150, 0,95 a40,10 12,91 83,138 153,91 125,10T";
-               EscapeSequence es = new EscapeSequence();
-               es.append(s);
-               handlePlotting(es);
-               try
-               {
-                  // wait for key press on console
-                  System.in.read();
-               }
-               catch ( IOException e )
-               {
-                  e.printStackTrace();
-               }
-               System.exit(0);
-            }
-
-            if ( DEBUG == 99 )
-            {
-               // specific graphics test
-               String s = "*pia%2%2b%*%3%&%4%\"%4$?%3$=%2$=%1$>%/$?%/%!%.%(%-%*%,%+%,%,%+%,%)%*%(%&%'%\"%'$?%($=%)a%.%4%6%.%6%'a%?%4%6%.a&0%2&-%3&*%4&&%4&#%3&!%2&!%1&\"%/&#%/&%%.&+%-&-%,&.%,&0%+&0%)&-%(&*%'&&%'&#%(&!%)a&9%4&9%'a&2%4' %4a'$%4'$%'a'$%4'1%4a'$%.',%.a'$%''1%'a'6%4'6%'a'6%4'>%'a(&%4'>%'a(&%4(&%%C";
-               EscapeSequence es = new EscapeSequence();
-               es.append(s);
-               handlePlotting(es);
-               try
-               {
-                  // wait for key press on console
-                  System.in.read();
-               }
-               catch ( IOException e )
-               {
-                  e.printStackTrace();
-               }
-               System.exit(0);
-            }
-
-            // start in idle mode
-            char escMode = MODE_IDLE;
-
-            EscapeSequence esc = new EscapeSequence();
-            StringBuilder sbGrafText = new StringBuilder();
-
-            pendingACK = false;
-
-            while ( true )
-            {
-               // this polling loop must work even when nothing comes in
-               // from
-               // the serial port
-
-               if ( escMode == WAIT_FOR_GRAPH_CLICK )
-               {
-                  if ( graphicsScreen.wasClicked() )
-                  {
-                     // returns:
-                     // "+00360,+00080,000" + CR
-                     Point pt = graphicsScreen.getCursorPosition();
-                     int c = graphicsScreen.getKeyCode();
-                     toSend = String.format("+%05d,+%05d,%03d", new Object[]
-                     { new Integer(pt.x), new Integer(pt.y), new Integer(c) })
-                           + (char) CR;
-
-                     // assumption: DC1 was already received and
-                     // swallowed...
-                     // force output by injecting a new DC1 and let the
-                     // loop do its thing
-                     pushbackByte((byte) DC1);
-
-                     escMode = MODE_IDLE;
-                  }
-               }
-
-               if ( inputAvailable() )
-               {
-                  byte b = nextByte();
-                  int c = b & 0xff;
-
-                  if ( c == ENQ )
-                  {
-                     if ( terminalSettings.ENQ_ACK )
-                     {
-                        // if there is a lot of data in the buffer, we
-                        // should empty it first, before ACK
-                        if ( DEBUG > 0 )
-                        {
-                           System.out.println("ENQ received.");
-                        }
-
-                        // set a flag that ACK is pending
-                        pendingACK = true;
-                     }
-                     else
-                     {
-                        // ANSI: send the Terminal name
-                        sendString(terminalSettings.AnswerBack + (char) CR);
-                        if ( DEBUG > 0 )
-                        {
-                           System.out.println(
-                                 "Answerback: " + terminalSettings.AnswerBack);
-                        }
-                     }
-
-                     // no further processing of ENQ
-                     continue;
-                  }
-
-                  if ( escMode == MODE_ESC_GRAPH_TEXT )
-                  {
-                     if ( c == ESC )
-                     {
-                        // end of Graphics text mode
-
-                        if ( sbGrafText.length() > 0 )
-                        {
-                           if ( psHPGL != null )
-                           {
-                              psHPGL.println(
-                                    "LB" + sbGrafText.toString() + (char) 3);
-                           }
-                           graphicsScreen.drawText(sbGrafText.toString());
-                           // prepare for next
-                           sbGrafText.setLength(0);
-                        }
-
-                        // parse this Esc as usual
-                        escMode = MODE_IDLE;
-                     }
-                     else
-                     {
-                        // collect characters
-                        sbGrafText.append((char) c);
-                        continue;
-                     }
-                  }
-                  else if ( escMode == MODE_ESC_GRAPH_LABEL )
-                  {
-                     if ( c == CR || c == LF )
-                     {
-                        // end of Graphics label mode
-
-                        if ( c == CR && inputAvailable() )
-                        {
-                           // swallow trailing LF from CR-LF pair
-                           if ( peekByte() == LF )
-                              b = nextByte();
-                        }
-
-                        if ( sbGrafText.length() > 0 )
-                        {
-                           if ( psHPGL != null )
-                           {
-                              psHPGL.println(
-                                    "LB" + sbGrafText.toString() + (char) 3);
-                           }
-                           graphicsScreen.drawText(sbGrafText.toString());
-                           // prepare for next
-                           sbGrafText.setLength(0);
-                        }
-                        if ( DEBUG > 0 )
-                           System.out.println("\nGLABEL(END);");
-
-                        // parse this Esc as usual
-                        escMode = MODE_IDLE;
-                        continue;
-                     }
-                     else
-                     {
-                        // collect characters
-                        sbGrafText.append((char) c);
-                        if ( DEBUG > 0 )
-                           System.out.print((char) c);
-                        continue;
-                     }
-                  }
-
-                  if ( escMode == MODE_ESC )
-                  {
-                     // last character was ESC
-                     esc.append((char) c);
-
-                     // test for multi-character sequences first
-                     switch ( c )
-                     {
-                        case '[':
-                           escMode = MODE_ESC_BRACK;
-                           break;
-                        case '*':
-                           escMode = MODE_ESC_ASTERISK;
-                           break;
-                        case '&':
-                           escMode = MODE_ESC_AMPERSAND;
-                           break;
-                        case ')':
-                           escMode = MODE_ESC_CLOSE_PAREN;
-                           break;
-
-                        default:
-                           // single character escape sequences
-                           escMode = handleEscSingle(esc);
-                           break;
-                     }
-                  }
-                  else if ( escMode == MODE_ESC_BRACK )
-                  {
-                     // this sequence is ESC [ ...
-                     esc.append((char) c);
-
-                     // other allowed characters
-                     // e.g. ESC [ ? 7 h
-                     // e.g. ESC [ > 1 s HOME DOWN
-                     // e.g. ESC [ > 0 s HOME UP
-                     // escMode = (char) c;
-                     // Vendor special sequences
-                     // e.g. ESC [ & ... char
-                     // e.g. ESC [ * ... char
-                     // escMode = (char) c;
-
-                     if ( c >= 0x40 && c <= 0x7E )
-                     {
-                        // @A-Z[\]^_`a-z{
-                        // Anything not part of the escape
-                        // sequence terminates it. Typically this is a
-                        // trailing upper- or lowercase character.
-                        escMode = handleEscBracket(esc);
-                     }
-                  } // if (escMode == MODE_ESC_BRACK)
-                  else if ( escMode == MODE_ESC_ASTERISK )
-                  {
-                     // this sequence is ESC * ...
-
-                     if ( c == ESC )
-                     {
-                        // special case: Esc ends current sequence
-
-                        // should not happen, but e.g. AGP sends
-                        // Esc * m 6 x Esc * n 6 X
-
-                        // make character before Esc into a terminator
-                        c = Character.toUpperCase(esc.getLast());
-
-                        // remove last character.
-                        // will be replaced by uppercase variant below
-                        esc.removeLast();
-
-                        // prepare for next cycle
-                        pushbackByte(ESC);
-                     }
-                     else if ( c == 'l' )
-                     { // graphics text label until CR, LF or CR+LF
-                        escMode = MODE_ESC_GRAPH_LABEL;
-
-                        if ( DEBUG > 0 )
-                           System.out.println("GLABEL(START);");
-                        continue;
-                     }
-
-                     esc.append((char) c);
-
-                     // sequence end?
-
-                     if ( Character.isUpperCase(c) || c == '@' || c == '^'
-                           || c == '\r' || c == '\n' )
-                     {
-                        // end of sequence
-                        if ( DEBUG > 0 )
-                        {
-                           dumpEscapeSequence(esc);
-                        }
-
-                        String sEscape = esc.toString().toLowerCase();
-                        // [0, 1, 2, ... ]
-                        // ESC * <control> x y z ...
-                        char control = sEscape.charAt(1);
-
-                        switch ( control )
-                        {
-                           case 'd':
-                              // display control
-                              escMode = handleEscAsteriskD(esc);
-                              break;
-                           case 'e':
-                              // image control
-                              escMode = MODE_IDLE;
-                              break;
-
-                           case 'm':
-                              // mode control
-                              escMode = handleEscAsteriskM(esc);
-                              break;
-
-                           case 'n':
-                              // graphics text
-                              escMode = handleEscAsteriskN(esc);
-                              break;
-
-                           case 'p':
-                              // plot control
-                              handlePlotting(esc);
-                              escMode = MODE_IDLE;
-                              break;
-
-                           case 's':
-                              // ID and equipment requests
-                              escMode = handleEscAsteriskS(esc);
-                              break;
-
-                           case 't':
-                              // compatibility mode
-                              escMode = MODE_IDLE;
-                              break;
-
-                           case 'w':
-                              // graphics initialization
-                              escMode = MODE_IDLE;
-                              break;
-
-                           default:
-                              escMode = MODE_IDLE;
-                              break;
-                        }
-                     }
-                     // end (escMode == MODE_ESC_ASTERISK)
-                  }
-                  else if ( escMode == MODE_ESC_AMPERSAND )
-                  {
-                     // this sequence is ESC & ...
-                     esc.append((char) c);
-
-                     if ( Character.isUpperCase(c) || c == '@' || c == '^'
-                           || c == '\r' || c == '\n' )
-                     {
-                        // end of sequence
-                        if ( DEBUG > 0 )
-                        {
-                           dumpEscapeSequence(esc);
-                        }
-
-                        // ESC & <control> x y z ...^
-                        esc.setIndex(1);
-                        char control = esc.parseCharacter();
-
-                        switch ( control )
-                        {
-                           case 'a':
-                              // ESC & a ...
-                              escMode = handleEscAmpersAndA(esc);
-                              break;
-
-                           case 'd':
-                              // ESC & d ...
-                              escMode = handleEscAmpersAndD(esc);
-                              break;
-
-                           case 'j':
-                              switch ( c )
-                              {
-                                 case '@':
-                                    // Esc & j @ == hide all key labels
-                                    terminalScreen.setKeyLabelsVisible(false);
-                                    break;
-                                 case 'A':
-                                    // Esc & j A == show Modes keys
-                                    terminalScreen.setKeyLabels(
-                                          TerminalScreen.SOFTKEYS_MODE);
-                                    break;
-                                 case 'B':
-                                    // Esc & j B == show User keys
-                                    terminalScreen.setKeyLabels(
-                                          TerminalScreen.SOFTKEYS_USER);
-                                    break;
-                                 case 'C':
-                                    // Esc & j C == clear message and
-                                    // return key label
-                                    break;
-                                 default:
-                                    // replace function key labels...
-                                    break;
-                              }
-
-                              escMode = MODE_IDLE;
-                              break;
-
-                           case 's':
-                              switch ( c )
-                              {
-                                 case 'D':
-                                    // Esc [&][s][0][D] 0=line mode
-                                    // Esc [&][s][1][D] 1=page mode
-                                    escMode = MODE_IDLE;
-                                    break;
-                              }
-
-                              break;
-
-                           case 'q':
-                           // ESC & q 0 L == HP: unlock keyboard
-                           // ESC & q 1 L == HP: lock keyboard
-                           {
-                              esc.setIndex(2);
-                              if ( '0' == esc.parseCharacter() )
-                                 terminalScreen.lockKeyboard(false);
-                              else
-                                 terminalScreen.lockKeyboard(true);
-                           }
-                              break;
-
-                           case '@':
-                              // ESC & @
-                              // special handler *** TO BE REMOVED ***
-                              // error in A990 setup script: should be
-                              // ESC & d @
-                              terminalScreen.setAttribute((byte) 0);
-                              escMode = MODE_IDLE;
-                              break;
-
-                           default:
-                              // end of sequence
-                              if ( DEBUG > 0 )
-                              {
-                                 System.out.print("*** Unknown: ");
-                                 dumpEscapeSequence(esc);
-                              }
-                              // done
-                              escMode = MODE_IDLE;
-                              break;
-                        }
-                     }
-                     // end (escMode == MODE_ESC_AMPERSAND)
-                  }
-                  else if ( escMode == MODE_ESC_CLOSE_PAREN )
-                  {
-                     // this sequence is ESC ) ...
-                     esc.append((char) c);
-
-                     // end of sequence
-                     if ( DEBUG > 0 )
-                     {
-                        dumpEscapeSequence(esc);
-                     }
-
-                     esc.setIndex(1);
-
-                     int font;
-
-                     switch ( esc.parseCharacter() )
-                     {
-                        case '@':
-                        case 'A':
-                           font = TerminalScreen.CS_ROMAN;
-                           break;
-                        case 'B':
-                        case 'C':
-                           font = TerminalScreen.CS_LINEDRAW;
-                           break;
-                        case 'D':
-                           font = TerminalScreen.CS_MATH;
-                           break;
-                        default:
-                           font = TerminalScreen.CS_ROMAN;
-                           break;
-                     }
-
-                     terminalScreen.setAlternateCharset(font);
-
-                     // done
-                     escMode = MODE_IDLE;
-                  }
-                  else
-                  {
-                     // not inside an "Esc" sequence
-                     // not inside an "Esc [" sequence
-                     // not inside an "Esc *" sequence
-                     // not inside an "Esc &" sequence
-                     // not inside an "Esc )" sequence
-
-                     switch ( c )
-                     {
-                        case ESC:
-                           // start a new escape sequence
-                           escMode = MODE_ESC;
-                           esc.reset();
-                           break;
-
-                        case DC1:
-                           // host prompt
-                           //
-                           // - In character mode: host is ready and asks
-                           // for input (DC1 = XON = 17d = 0x11)
-                           // - In block mode: reply with DC2 (=18d = 0x12)
-                           // to indicate block transfer and then wait for
-                           // another DC1 before sending block.
-                           // The end of the block is either:
-                           // - a CR in line mode and
-                           // - a RS (= 30d = 0x1E) in page mode
-
-                           if ( DEBUG > 0 )
-                           {
-                              System.out.print('[');
-                              System.out.print(ASCII[c]);
-                              System.out.print(']');
-                           }
-
-                           if ( toSend != null )
-                           {
-                              // we have been waiting for a DC1
-                              if ( DEBUG > 0 )
-                              {
-                                 System.out.print("->Reply: '");
-                                 System.out.println(
-                                       toSend.replace("\r", "[CR]") + "'");
-                              }
-                              // send the reply
-                              sendString(toSend);
-                              // done
-                              toSend = null;
-                           }
-                           break;
-
-                        case BEL:
-                           if ( terminalSettings.Sound )
-                           {
-                              theBeeper.beep();
-                              if ( DEBUG > 0 )
-                              {
-                                 System.out.println("[Bell]");
-                              }
-                           }
-                           break;
-
-                        default:
-                           // System.out.print((char) c);
-                           if ( DEBUG > 0 )
-                           {
-                              if ( c < 32 )
-                              {
-                                 // control character
-                                 System.out.print('[');
-                                 System.out.print(ASCII[c]);
-                                 System.out.print(']');
-                                 if ( c == 10 )
-                                    System.out.println();
-                              }
-                              else if ( c < 128 )
-                              {
-                                 // regular ASCII character
-                                 System.out.print(ASCII[c]);
-                              }
-                              else
-                              {
-                                 // bit 7 set: may be inverse or
-                                 // underline on
-                                 // some systems
-                                 System.out.print((char) c);
-                              }
-                           }
-
-                           if ( m_AlphaActive )
-                           {
-                              final boolean CPM_Hack = false;
-                              if ( CPM_Hack )
-                              {
-                                 // Special handling
-                                 // for some CP/M systems.
-                                 // Must be removed
-                                 // for general 8-bit data.
-                                 //
-                                 if ( (b & 0x80) == 0x80 )
-                                 {
-                                    // bit 7 set: inverse
-                                    terminalScreen.setAttribute((byte) 7);
-                                    // send only 7 bit character
-                                    b = (byte) (b & 0x7F);
-                                    terminalScreen.putByte(b);
-                                    terminalScreen.setAttribute((byte) 0);
-                                 }
-                                 else
-                                 {
-                                    // pass 7-bit characters through
-                                    terminalScreen.putByte(b);
-                                 }
-                              }
-                              else
-                              {
-                                 terminalScreen.putByte(b);
-                              }
-                           }
-                           break;
-                     }
-                  }
-               }
-               else
-               {
-                  // buffer empty: do some processing
-
-                  if ( pendingACK )
-                  {
-                     sendByte(ACK);
-                     pendingACK = false;
-                  }
-
-                  // give piece a chance
-                  try
-                  {
-                     Thread.sleep(10);
-                  }
-                  catch ( InterruptedException e )
-                  {
-                     e.printStackTrace();
-                  }
-               }
-            }
-         }
-
-         /**
-          * Handle Escape sequences consisting of a single character after the
-          * Esc character.
-          * 
-          * @param esc
-          *           - the escape sequence to decode.
-          * @return - MODE_IDLE
-          */
-         private char handleEscSingle ( EscapeSequence esc )
-         {
-            if ( DEBUG > 0 )
-            {
-               dumpEscapeSequence(esc);
-            }
-
-            // start after 'Esc'
-            esc.setIndex(1);
-
-            int c = esc.getLast();
-
-            switch ( c )
-            {
-               case 'A':
-                  // ESC A: cursor up
-                  terminalScreen.moveCursor(-1, 0);
-                  break;
-               case 'B':
-                  // ESC B == cursor down
-                  terminalScreen.moveCursor(1, 0);
-                  break;
-               case 'C':
-                  // ESC C == cursor right
-                  terminalScreen.moveCursor(0, 1);
-                  break;
-               case 'D':
-                  // ESC D == cursor left
-                  terminalScreen.moveCursor(0, -1);
-                  break;
-               case 'E':
-                  // ESC E == hard reset
-                  theBeeper.beep();
-                  terminalScreen.resetDefaults(true);
-                  graphicsScreen.resetDefaults(true);
-                  break;
-               case 'F':
-                  // ESC F == cursor home down
-                  terminalScreen.homeScreenDown();
-                  break;
-               case 'G':
-                  // ESC G == cursor to left margin
-                  terminalScreen.setCursorRelScreen(terminalScreen.yCursor,
-                        terminalScreen.leftMargin);
-                  break;
-               case 'H':
-                  // ESC H == cursor home up
-                  terminalScreen.homeScreenUp();
-                  break;
-               case 'J':
-                  // ESC J == clear from cursor to end
-                  terminalScreen.clearToEOM();
-                  break;
-               case 'K':
-                  // ESC K == clear from cursor to end of line
-                  terminalScreen.clearToEOL();
-                  break;
-               case 'L':
-                  // ESC L == insert line
-                  terminalScreen.insertLine();
-                  break;
-               case 'M':
-                  // ESC M == delete line
-                  terminalScreen.deleteCurrentLine();
-                  break;
-               case 'P':
-                  // ESC P == delete character
-                  terminalScreen.deleteCharsInLine(1);
-                  break;
-               case 'Q':
-                  // ESC Q == start insert character mode
-                  terminalScreen.setInsertMode(true);
-                  break;
-               case 'R':
-                  // ESC R == end insert character mode
-                  terminalScreen.setInsertMode(false);
-                  break;
-               case 'S':
-                  // ESC S == roll text (view moves down)
-                  terminalScreen.scrollScreenDown(1);
-                  break;
-               case 'T':
-                  // ESC T == roll text down (view moves up)
-                  terminalScreen.scrollScreenUp(1);
-                  break;
-               case 'X':
-                  // ESC X == HP: format mode OFF
-                  break;
-               case 'Y':
-                  // ESC Y == HP: display functions ON
-                  terminalScreen.setDisplayFunctions(true);
-                  break;
-               case 'Z':
-                  // ESC Z == HP: display functions OFF
-                  terminalScreen.setDisplayFunctions(false);
-                  break;
-               case 'a':
-                  // ESC a: HP: cursor position request in memory
-                  // reply: ESC & a <col> c <row> R
-                  // zero-based
-                  toSend = (char) ESC + "&a" + Dig3(terminalScreen.xCursor)
-                        + "c" + Dig3(terminalScreen.yCursor
-                              + terminalScreen.getStartRow())
-                        + "R" + (char) CR;
-                  break;
-               case 'b':
-                  // ESC b == HP: unlock keyboard
-                  terminalScreen.lockKeyboard(false);
-                  break;
-               case 'c':
-                  // ESC c == HP: lock keyboard }
-                  terminalScreen.lockKeyboard(true);
-                  break;
-               case 'd':
-                  // ESC d == HP: host asks for data
-                  // DC1 handshake
-                  // terminal sends data block (one line from cursor position
-                  // in line mode)
-                  toSend = terminalScreen.getScreenLine(terminalScreen.yCursor,
-                        terminalScreen.xCursor, TerminalScreen.WIDTH)
-                        + (char) CR;
-                  break;
-               case 'e':
-                  // ESC e == raw binary transmission
-
-                  // file name
-                  // optionally pop up a dialog and ask for name or set file
-                  // name in settings
-                  String fileName = "LTape.raw";
-
-                  // delay between bytes in [ms]
-                  long millis = 10;
-
-                  sendBinaryFile(fileName, millis);
-                  break;
-               case 'g':
-                  // ESC g == soft reset
-                  theBeeper.beep();
-                  terminalScreen.resetDefaults(false);
-                  graphicsScreen.resetDefaults(false);
-                  break;
-               case 'h':
-                  // ESC h: HP: cursor home up
-                  terminalScreen.homeScreenUp();
-                  break;
-               case 'i':
-                  // ESC i: HP: backtab
-                  terminalScreen.setCursorRelScreen(terminalScreen.yCursor,
-                        terminalScreen.prevTab());
-                  break;
-               case 'l':
-                  // ESC l: HP: begin memory lock mode
-                  System.out
-                        .println("memory lock mode ON: not implemented yet.");
-                  break;
-               case 'm':
-                  // ESC m: HP: end memory lock mode
-                  System.out
-                        .println("memory lock mode OFF: not implemented yet.");
-                  break;
-               case '^':
-                  // ESC ^: HP: primary status request
-                  // HP 2627A terminal:
-                  // Esc [\] [8000020] [CR]
-                  // [0]=8 - 8KB memory
-                  // [1]=0 - straps (A-D) = OFF ABCD.EFGH
-                  // [2]=0 - straps (E-F) = OFF,
-                  // . . . . InhHndShk(G) = OFF,
-                  // . . . . InhDC2(H) = OFF
-                  // [3]=0 - no key locked
-                  // [4]=0 - no request pending
-                  // [5]=2 - self test = O.K.,
-                  // . . . . no datacomm error
-                  // [6]=0 - no device operations pending
-                  String primaryStatus = "8000020";
-                  // String primaryStatus = "8008020";
-                  toSend = (char) ESC + "\\" + primaryStatus + (char) CR;
-                  break;
-               case '~':
-                  // ESC ~: HP: secondary status request
-                  String secondaryStatus = "4506000";
-                  toSend = (char) ESC + "|" + secondaryStatus + (char) CR;
-                  break;
-               case '@':
-                  // ESC @: HP: one second delay
-                  try
-                  {
-                     Thread.sleep(1000L);
-                  }
-                  catch ( InterruptedException e )
-                  {
-                  }
-                  break;
-               case '4':
-                  // ESC 4: set left margin
-                  terminalScreen.leftMargin = terminalScreen.xCursor;
-                  break;
-               case '5':
-                  // ESC 5: set right margin
-                  terminalScreen.rightMargin = terminalScreen.xCursor;
-                  break;
-               case '7':
-                  // ESC 7: save cursor and attributes
-                  terminalScreen.saveCursor();
-                  break;
-               case '8':
-                  // ESC 8: restore cursor and attributes
-                  terminalScreen.restoreCursor();
-               default:
-                  System.out.println(
-                        "*** Unknown Escape sequence [Esc] " + esc.toString());
-                  break;
-            }
-
-            return MODE_IDLE;
-         }
-
-         /**
-          * actions:
-          * <ul>
-          * <li>open file</li>
-          * <li>send file via serial</li>
-          * <li>send two NULL bytes</li>
-          * <li>close file</li>
-          * </ul>
-          * 
-          * @param fileName
-          *           the name of the file to send.
-          * @param millis
-          *           the delay between bytes in milliseconds.
-          */
-         private void sendBinaryFile ( String fileName, long millis )
-         {
-            if ( DEBUG > 0 )
-            {
-               System.out.print("ESC e: ");
-            }
-            System.out.print("Sending raw binary file '" + fileName + "' ");
-
-            BufferedReader br = null;
-            try
-            {
-               int b;
-
-               File theFile = new File(fileName);
-               long len = theFile.length();
-               long count = 0;
-               long step = len / 20;
-               long nextDot = 0;
-
-               br = new BufferedReader(new FileReader(fileName));
-
-               while ( (b = br.read()) != -1 )
-               {
-                  if ( count++ == nextDot )
-                  {
-                     System.out.print('.');
-                     nextDot += step;
-                  }
-                  sendByte(b);
-
-                  // depending on receiver, wait
-                  try
-                  {
-                     Thread.sleep(millis);
-                  }
-                  catch ( InterruptedException e )
-                  {
-                  }
-
-               }
-               // success: two trailing zeros
-               b = 0;
-               sendByte(b);
-               sendByte(b);
-               br.close();
-               System.out.println(" successful.");
-            }
-            catch ( FileNotFoundException e )
-            {
-               e.printStackTrace();
-            }
-            catch ( IOException e )
-            {
-               if ( br != null )
-               {
-                  // success: two trailing zeros
-                  int b = 0xFF;
-                  sendByte(b);
-                  sendByte(b);
-                  try
-                  {
-                     br.close();
-                  }
-                  catch ( IOException e1 )
-                  {
-                  }
-                  System.out.println(" failed.");
-               }
-               e.printStackTrace();
-            }
-         }
-
-         /**
-          * Handle Esc [ ... sequences. These are usually ANSI terminal
-          * sequences which do not interfere with HP sequences.
-          * 
-          * @param esc
-          *           - the collected escape sequence.
-          * @return - always MODE_IDLE.
-          */
-         private char handleEscBracket ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-            int valParam;
-
-            // end of sequence
-            if ( DEBUG > 0 )
-            {
-               dumpEscapeSequence(esc);
-            }
-
-            // start after '['
-            esc.setIndex(1);
-
-            int c = esc.getLast();
-
-            switch ( c )
-            {
-               case '@': // ESC [ Pn @
-                  terminalScreen.insertCharsInLine(esc.parseASCIIInteger(1));
-                  break;
-
-               case 'A': // ESC [ Pn A - cursor left
-                  terminalScreen.moveCursor(-esc.parseASCIIInteger(1), 0);
-                  break;
-
-               case 'B': // ESC [ Pn B - cursor right
-                  terminalScreen.moveCursor(esc.parseASCIIInteger(1), 0);
-                  break;
-
-               case 'C': // ESC [ Pn C - cursor down
-                  terminalScreen.moveCursor(0, esc.parseASCIIInteger(1));
-                  break;
-
-               case 'D': // ESC [ Pn D - cursor up
-                  terminalScreen.moveCursor(0, -esc.parseASCIIInteger(1));
-                  break;
-
-               case 'H':
-               case 'f':
-                  // 0-based
-                  int row = esc.parseASCIIInteger(0);
-                  int col = esc.parseASCIIInteger(0);
-                  terminalScreen.setCursorRelScreen(row, col);
-                  break;
-
-               case 'J':
-                  // erase in screen
-                  valParam = esc.parseASCIIInteger(0);
-                  if ( valParam == 0 )
-                  {
-                     // cursor to end of screen
-                     // ESC [ J
-                     // ESC [ 0 J
-                     terminalScreen.clearToEOS();
-                  }
-                  else if ( valParam == 1 )
-                  {
-                     // from cursor to start of screen
-                     // ESC [ 1 J
-                     terminalScreen.clearToBOS();
-                  }
-                  else if ( valParam == 2 )
-                  {
-                     // clear complete screen
-                     // ESC [ 2 J
-                     terminalScreen.clearScreen();
-                  }
-                  break;
-
-               case 'K':
-                  // erase in line
-                  valParam = esc.parseASCIIInteger(0);
-                  if ( valParam == 0 )
-                  {
-                     // from cursor to end of line
-                     // ESC [ K
-                     // ESC [ 0 K
-                     terminalScreen.clearToEOL();
-                  }
-                  else if ( valParam == 1 )
-                  {
-                     // from cursor to start of line
-                     // ESC [ 1 K
-                     terminalScreen.clearToBOL();
-                  }
-                  else if ( valParam == 2 )
-                  {
-                     // entire line
-                     // ESC [ 2 K
-                     terminalScreen.clearLine();
-                  }
-                  break;
-
-               case 'L':
-                  // ESC [ 1 L
-                  // insert blank line,
-                  // shift current and remaining lines down
-                  valParam = esc.parseASCIIInteger(1);
-                  while ( valParam-- > 0 )
-                     terminalScreen.insertLine();
-                  break;
-
-               case 'M':
-                  // ESC [ 1 M
-                  // delete current line,
-                  // shift remaining lines up
-                  valParam = esc.parseASCIIInteger(1);
-                  while ( valParam-- > 0 )
-                     terminalScreen.deleteCurrentLine();
-                  break;
-
-               case 'P':
-                  // ESC [ P
-                  // delete characters at cursor,
-                  // shift trailing characters on line left
-                  terminalScreen.deleteCharsInLine(esc.parseASCIIInteger(1));
-                  break;
-
-               case 'X':
-                  // ESC [ X
-                  // clear 1... characters
-                  // (at max up to end of line)
-                  terminalScreen.clearChars(esc.parseASCIIInteger(1));
-                  break;
-
-               case 'm':
-                  // ESC [ m .......... normal
-                  // ESC [ 0 m ........ normal
-                  // ESC [ 1 m ........ highlight
-                  // ESC [ 5 m ........ underline
-                  // ESC [ 7 m ........ inverse
-                  // ESC [ 30...37 m .. foreground color
-                  // ESC [ 40...47 m .. background color
-                  terminalScreen.setAttribute((byte) esc.parseASCIIInteger(0));
-                  break;
-
-               case 'n':
-                  // ESC [ 6 n ........ cursor position request
-                  if ( esc.peekCharacter() == '6' )
-                  {
-                     // reply: ESC [ <row> ; <col> R
-                     // zero-based
-                     sendString((char) ESC + "[" + Dig3(terminalScreen.xCursor)
-                           + ";" + Dig3(terminalScreen.yCursor) + "R"
-                           + (char) CR);
-                  }
-                  break;
-
-               case 'h':
-                  // e.g. ESC [ ? 7 h
-                  // enable line wrap
-                  if ( esc.peekCharacter() == '?' )
-                  {
-                     esc.incrementIndex(1);
-                     if ( esc.peekCharacter() == '7' )
-                        terminalScreen.setLineWrap(true);
-                  }
-                  break;
-
-               case 'l':
-                  // e.g. ESC [ ? 7 l
-                  // disable line wrap
-                  if ( esc.peekCharacter() == '?' )
-                  {
-                     esc.incrementIndex(1);
-                     if ( esc.peekCharacter() == '7' )
-                        terminalScreen.setLineWrap(false);
-                  }
-                  break;
-
-               case 's':
-                  // e.g. ESC [ > 1 s HOME DOWN
-                  // e.g. ESC [ > 0 s HOME UP
-                  if ( esc.peekCharacter() == '>' )
-                  {
-                     esc.incrementIndex(1);
-                     if ( esc.parseASCIIInteger(0) == 0 )
-                        terminalScreen.homeScreenUp();
-                     else
-                        terminalScreen.homeScreenDown();
-                  }
-                  break;
-
-               default:
-                  break;
-            }
-
-            if ( DEBUG > 0 )
-            {
-               dumpEscapeSequence(esc);
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Handle [Esc * d] ... Sequences.
-          * 
-          * @param esc
-          * @return MODE_IDLE
-          */
-         private char handleEscAsteriskD ( EscapeSequence esc )
-         {
-            // display control
-            char escMode = MODE_IDLE;
-
-            // up to 4 integer parameters
-            int number[] = new int[4];
-
-            // start after "*d"
-            esc.setIndex(2);
-
-            while ( esc.hasMore() )
-            {
-               // try to read optional number(s)
-               int count = readASCIINumbers(esc, number);
-
-               // read code
-               int c = Character.toLowerCase(esc.parseCharacter());
-
-               switch ( c )
-               {
-                  case 'a':
-                     // Esc * d <pen#> a == Graphics clear
-
-                     // optional: write current screen to a file
-                     try
-                     {
-                        // save only non-empty images
-                        if ( graphicsScreen
-                              .saveImage("image" + idxImage + ".png") )
-                           idxImage++;
-                     }
-                     catch ( IOException e )
-                     {
-                        e.printStackTrace();
-                     }
-
-                     if ( count > 0 )
-                     {
-                        if ( DEBUG > 0 )
-                           System.out.println("GCLEAR(" + number[0] + ");");
-                        graphicsScreen.clear(number[0]);
-                     }
-                     else
-                     {
-                        if ( DEBUG > 0 )
-                           System.out.println("GCLEAR(0);");
-                        graphicsScreen.clear();
-                     }
-                     break;
-                  case 'b':
-                     // Esc * d <color#> b == set Graphics memory
-                     if ( count > 0 )
-                     {
-                        if ( DEBUG > 0 )
-                           System.out.println("GSET(" + number[0] + ");");
-                        graphicsScreen.clear(number[0]);
-                     }
-                     else
-                     {
-                        if ( DEBUG > 0 )
-                           System.out.println("GSET(7);");
-                        graphicsScreen.clear(7);
-                     }
-                     break;
-                  case 'c':
-                     // Esc * d c == Graphics screen ON
-                     if ( DEBUG > 0 )
-                        System.out.println("GSHOW();");
-                     graphicsFrame.setVisible(true);
-                     break;
-                  case 'd':
-                     // Esc * d d == Graphics screen OFF
-                     if ( DEBUG > 0 )
-                        System.out.println("GHIDE();");
-                     graphicsFrame.setVisible(false);
-                     break;
-                  case 'e':
-                     // Esc * d e == Alpha screen ON
-                     if ( DEBUG > 0 )
-                        System.out.println("ALPHA(ON);");
-                     m_AlphaActive = true;
-                     break;
-                  case 'f':
-                     // Esc * d f == Alpha screen OFF
-                     if ( DEBUG > 0 )
-                        System.out.println("ALPHA(OFF);");
-                     m_AlphaActive = false;
-                     break;
-                  case 'k':
-                     // Esc * d k == Graphics cursor ON
-                     graphicsScreen.showGraphicsCursor(true);
-                     if ( DEBUG > 0 )
-                        System.out.println("GCURSOR(ON);");
-                     break;
-                  case 'l':
-                     // Esc * d l == Graphics cursor OFF
-                     graphicsScreen.showGraphicsCursor(false);
-                     if ( DEBUG > 0 )
-                        System.out.println("GCURSOR(OFF);");
-                     break;
-                  case 'o':
-                     // Esc * d <x>,<y> o == position Graphics cursor
-                     if ( count > 1 )
-                     {
-                        graphicsScreen.setCursorPosition(number[0], number[1]);
-                        if ( DEBUG > 0 )
-                           System.out.println("GCURSOR(" + number[0] + ","
-                                 + number[1] + ");");
-                     }
-                     break;
-                  case 'p':
-                     // Esc * d <x>,<y> p == move Graphics cursor
-                     if ( count > 1 )
-                     {
-                        graphicsScreen.incrementCursorPosition(number[0],
-                              number[1]);
-                        if ( DEBUG > 0 )
-                           System.out.println("GCURSOR by (" + number[0] + ","
-                                 + number[1] + ");");
-                     }
-                     break;
-
-                  case 'q':
-                     // Esc * d q == Alpha cursor ON
-                     if ( DEBUG > 0 )
-                        System.out.println("ACURSOR(ON);");
-                     terminalScreen.setcursorVisible(true);
-                     break;
-                  case 'r':
-                     // Esc * d r == Alpha cursor OFF
-                     if ( DEBUG > 0 )
-                        System.out.println("ACURSOR(OFF);");
-                     terminalScreen.setcursorVisible(false);
-                     break;
-                  case 's':
-                     // Esc * d s == Graphics text mode ON
-                     escMode = MODE_ESC_GRAPH_TEXT;
-                     // graphicsScreen.setDrawMode(2); // Jam1
-                     if ( DEBUG > 0 )
-                        System.out.println("GTEXT(ON);");
-                     break;
-                  case 't':
-                     // Esc * d t == Graphics text mode OFF
-                     if ( DEBUG > 0 )
-                        System.out.println("GTEXT(OFF);");
-                     break;
-                  case 'y':
-                     // Esc * d 0,0,511,389 y == Graphics size in pixel
-                     // (inclusive)
-                     // Esc * d 0,0,639,399 y
-                     // Esc * d lox,loy hix,hiy y
-                     int w = 1 + (number[2] - number[0]);
-                     int h = 1 + (number[3] - number[1]);
-                     graphicsScreen.setScreenSize(w, h);
-
-                     if ( DEBUG > 0 )
-                        System.out.println("GSIZE " + esc.toString() + "(" + w
-                              + "x" + h + ")");
-
-                     break;
-                  case 'z':
-                     // Esc * d z == NOP
-                     break;
-                  case '\r':
-                  case '\n':
-                     // skip
-                     break;
-                  default:
-                     System.out.println("Unknown [Esc * d '" + c + "'].");
-                     break;
-               }
-
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Format a 3-digit integer number with leading zeros for cursor
-          * position responses sent from the terminal.
-          * 
-          * @param number
-          *           - the number to convert
-          * @return - a 3 character string with leading zeros (if any).
-          */
-         private String Dig3 ( int number )
-         {
-            String s = "000" + Integer.toString(number);
-            int i = s.length();
-            return s.substring(i - 3);
-         }
-
-         /**
-          * Read as many numeric parameters as we can find respectively as many
-          * as fit into number[].
-          * 
-          * @param esc
-          *           - the escape sequence to parse.
-          * @param number
-          *           - array to receive the parsed numbers.
-          * @return the number of valid elements in number[].
-          */
-         private int readASCIINumbers ( EscapeSequence esc, int[] number )
-         {
-            int idx = 0;
-            for ( int i = 0; i < number.length; i++ )
-            {
-               number[idx] = esc.parseASCIIInteger();
-               // end of valid numbers?
-               if ( number[idx] == Integer.MIN_VALUE )
-                  break;
-               idx++;
-            }
-            return idx;
-         }
-
-         /**
-          * Handle [Esc * m] ... Sequences.
-          * 
-          * @param esc
-          * @return MODE_IDLE
-          */
-         private char handleEscAsteriskM ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-
-            // up to 4 integer parameters
-            int number[] = new int[4];
-
-            // start after "*m"
-            esc.setIndex(2);
-
-            while ( esc.hasMore() )
-            {
-               // try to read optional number(s)
-               int count = readASCIINumbers(esc, number);
-
-               // read code
-               int c = Character.toLowerCase(esc.parseCharacter());
-
-               switch ( c )
-               {
-                  case 'a':
-                     // Esc * m <n> a, <n> in [0...5]
-                     // Esc * m 3 a set draw mode 3
-                     int drawMode = 0;
-                     if ( count > 0 )
-                        drawMode = Math.min(number[0], 5);
-                     if ( DEBUG > 0 )
-                        System.out.println("DrawMode(" + drawMode + ");");
-                     graphicsScreen.setDrawMode(drawMode);
-                     break;
-
-                  case 'b':
-                     // Esc * m 01 b == set line type 01, <n> in [1...11]
-                     int lineType = 0;
-                     if ( count > 0 )
-                        lineType = Math.min(number[0], 11);
-                     graphicsScreen.setLineStyle(lineType);
-                     if ( DEBUG > 0 )
-                        System.out.println("LT" + lineType + ";");
-                     break;
-
-                  case 'e':
-                     // Esc * m 0,0,511,287 e = fill rectangle
-                     // absolute <x1,y1,x2,y2>
-                     if ( count == 4 )
-                     {
-                        // increase by 1 pixel to the right
-                        int x1 = number[0];
-                        int y1 = number[1];
-                        int x2 = number[2];
-                        int y2 = number[3];
-                        graphicsScreen.fillRect(x1, y1, x2 - x1, y2 - y1);
-                        if ( DEBUG > 0 )
-                        {
-                           System.out.println("FillRect(" + x1 + "," + y1 + "-"
-                                 + x2 + "," + y2 + ");");
-                        }
-                     }
-                     break;
-
-                  case 'm':
-                     // Esc * m <n> m == set text size, <n> in [1...8]
-                     int size = 1;
-                     if ( count > 0 )
-                        size = Math.min(number[0], 8);
-                     graphicsScreen.setTextSize(size);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("TextSize(" + size + ");");
-                     }
-                     break;
-
-                  case 'n':
-                     // Esc * m 1,2,3,4 n == text orientation
-                     // 0, 90, 180, 270 degrees
-                     int orientation = 0;
-                     if ( count > 0 )
-                        orientation = (Math.min(number[0], 4) - 1) * 90;
-                     graphicsScreen.setTextOrientation(orientation);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println(
-                              "TextOrientaton(" + orientation + " deg);");
-                     }
-                     break;
-
-                  case 'o':
-                     // Esc * m o == text slant ON
-                     graphicsScreen.setTextSlant(true);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("TextSlant(ON);");
-                     }
-                     break;
-
-                  case 'p':
-                     // Esc * m p == text slant OFF
-                     graphicsScreen.setTextSlant(false);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("TextSlant(OFF);");
-                     }
-                     break;
-
-                  case 'r':
-                     // Esc * m r == set Graphics defaults
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("GraphicsDefaults();");
-                     }
-                     break;
-
-                  case 'x':
-                     // Esc * m 0 x == set primary pen 0
-                     // Esc * m 7 x == set primary pen 7
-                     int pen = number[0];
-                     if ( pen == Integer.MIN_VALUE )
-                        pen = 0;
-                     pen++; // 1-based
-                     graphicsScreen.setForeColor(pen);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("SP" + pen + ";");
-                     }
-                     break;
-                  case 'Z':
-                     break;
-               }
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Handle Esc [*][n] ... Sequences.
-          * 
-          * @param esc
-          * @return MODE_IDLE
-          */
-         private char handleEscAsteriskN ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-
-            int c = esc.getLast();
-            esc.setIndex(2);
-
-            switch ( c )
-            {
-               case 'X':
-                  // graphics text pen
-                  // Esc * n 0 x == set graphics text pen 0
-                  // Esc * n x == set graphics text pen to track primary pen
-                  int pen = esc.parseASCIIInteger(-1);
-                  pen++; // 1-based, 0=default==track primary pen
-
-                  // @TODO check
-                  graphicsScreen.setTextColor(pen);
-
-                  if ( DEBUG > 0 )
-                  {
-                     System.out.println("TextPen " + pen + ";");
-                  }
-                  break;
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Handle [Esc * s] ... Sequences.
-          * 
-          * @param esc
-          * @return MODE_IDLE
-          */
-         private char handleEscAsteriskS ( EscapeSequence esc )
-         {
-            Point pt;
-            int n;
-            char escMode = MODE_IDLE;
-
-            int c = esc.getLast();
-            esc.setIndex(2);
-
-            if ( c == '^' )
-            {
-               int code = esc.parseASCIIInteger();
-
-               switch ( code )
-               {
-                  case 1:
-                     // Esc * s 1 ^ == read terminal ID
-                     // returns: 5 character field
-                     // "2627A" + CR
-                     toSend = terminalSettings.AnswerBack + (char) CR;
-
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println(
-                              "Answerback: " + terminalSettings.AnswerBack);
-                     }
-                     break;
-
-                  case 2:
-                     // Esc * s 2 ^ == read graphics pen position
-                     // returns:
-                     // "+00360,+00080,0" + CR
-                     pt = graphicsScreen.getPenPosition();
-                     n = graphicsScreen.getPenState() ? 1 : 0;
-                     toSend = String.format("+%05d,+%05d,%1d", new Object[]
-                     { new Integer(pt.x), new Integer(pt.y), new Integer(n) })
-                           + (char) CR;
-
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("Pen position: " + toSend);
-                     }
-                     break;
-
-                  case 3:
-                     // Esc * s 3 ^ == read current graphics cursor position
-                     // immediately returns:
-                     // "+00360,+00080" + CR
-                     pt = graphicsScreen.getCursorPosition();
-                     toSend = String.format("+%05d,+%05d", new Object[]
-                     { new Integer(pt.x), new Integer(pt.y) }) + (char) CR;
-
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("Cursor position: " + toSend);
-                     }
-                     break;
-
-                  case 4:
-                     // Esc * s 4 ^ == read graphics cursor position with
-                     // wait for mouse click or key press
-                     graphicsScreen.waitForClick();
-                     escMode = WAIT_FOR_GRAPH_CLICK;
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("Waiting for cursor click");
-                     }
-                     break;
-
-                  case 5:
-                     // Esc * s 5 ^ == read display size
-                     // returns:
-                     // "+00000,+00000,+00639,+00399,00002.,00002." + CR
-                     Dimension d = graphicsScreen.getSize();
-                     // dots per millimeter
-                     char dpmm = (terminalSettings.TerminalID == TerminalSettings.HP2627A)
-                           ? '2'
-                           : '3';
-
-                     toSend = "+00000,+00000,"
-                           + String.format("+%05d,+%05d", new Object[]
-                     { new Integer(d.width - 1), new Integer(d.height - 1) })
-                           + ",0000" + dpmm + ".,0000" + dpmm + '.' + (char) CR;
-
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println(
-                              "Answerback: " + terminalSettings.AnswerBack);
-                     }
-                     break;
-
-                  case 8:
-                     // Esc * s 8 ^ == read zoom status
-                     // returns:
-                     // "001.,0" + CR
-
-                     toSend = "001.,0" + (char) CR;
-
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println(
-                              "Answerback: " + terminalSettings.AnswerBack);
-                     }
-                     break;
-
-                  default:
-                     sendString("0" + (char) CR);
-                     if ( DEBUG > 0 )
-                     {
-                        System.out.println("*** Unimplemented Esc *s " + code);
-                     }
-                     break;
-               }
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Handle [Esc & a] ... Sequences.
-          * 
-          * @param escMode
-          * @param esc
-          *           - the complete Escape sequence (sans Esc )
-          * @param c
-          *           - current (last) character of sequence
-          * @return
-          */
-         private char handleEscAmpersAndA ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-
-            // Esc & a 12 r 04 c == row and column
-            // Esc & a 54 c == column only
-            // Esc & a 5 r == row only
-
-            // up to 4 integer parameters
-            int number[] = new int[1];
-
-            // start after "&a"
-            esc.setIndex(2);
-
-            // start with current position in screen system
-            int col = terminalScreen.xCursor;
-            int row = terminalScreen.yCursor;
-            // relative to memory
-            row += terminalScreen.getStartRow();
-
-            while ( esc.hasMore() )
-            {
-               // check sign of optional number
-               char sign = esc.peekCharacter();
-
-               // read number
-               int count = readASCIINumbers(esc, number);
-
-               // read code
-               int c = Character.toLowerCase(esc.parseCharacter());
-
-               switch ( c )
-               {
-                  case 'r':
-                     // row rel. memory
-                     if ( count != 0 )
-                     {
-                        if ( sign == '-' || sign == '+' )
-                        { // relative to current position
-
-                           row = row + number[0];
-                        }
-                        else
-                        {
-                           row = number[0];
-                        }
-                     }
-                     break;
-
-                  case 'y':
-                     // row rel. screen
-                     if ( count != 0 )
-                     {
-                        if ( sign == '-' || sign == '+' )
-                        { // relative to current position
-                           row = row + number[0];
-                        }
-                        else
-                        {
-                           row = number[0] + terminalScreen.getStartRow();
-                        }
-                     }
-                     break;
-
-                  case 'c':
-                     // column
-                     if ( count != 0 )
-                     {
-                        if ( sign == '-' || sign == '+' )
-                        { // relative to current position
-                           col = col + number[0];
-                        }
-                        else
-                        {
-                           col = number[0];
-                        }
-                     }
-                     break;
-               }
-            }
-
-            terminalScreen.setCursorRelMemory(row, col);
-
-            return escMode;
-         }
-
-         /**
-          * Handle [Esc & d] ... Sequences.
-          * 
-          * @param escMode
-          * @param esc
-          *           - the complete Escape sequence (sans Esc )
-          * @param c
-          *           - current (last) character of sequence
-          * @return
-          */
-         private char handleEscAmpersAndD ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-            // Esc & d @ == end enhancement
-            // Esc & d B == inverse
-            // Esc & d C == inverse+blink
-            // Esc & d J
-
-            int c = esc.getLast();
-
-            switch ( c )
-            {
-               case '@':
-                  terminalScreen.setAttribute((byte) 0);
-                  break;
-               case 'B':
-                  terminalScreen.setAttribute((byte) 7);
-                  break;
-               case 'C':
-                  terminalScreen.setAttribute((byte) 7); // inverse
-                  break;
-               case 'D':
-               case 'E':
-                  terminalScreen.setAttribute((byte) 5); // underline
-                  break;
-               case 'F':
-               case 'G':
-                  terminalScreen.setAttribute((byte) 7); // inverse
-                  terminalScreen.setAttribute((byte) 5); // underline
-                  break;
-               case 'J':
-                  terminalScreen.setAttribute((byte) 7);
-                  break;
-            }
-
-            return escMode;
-         }
-
-         /**
-          * Esc * p plotting
-          */
-         // pen state
-         final static int PEN_UP            = 0;
-         final static int PEN_DN            = 1;
-         // move mode
-         final static int MOVE_ABS          = 0;
-         final static int MOVE_INC          = 1;
-         final static int MOVE_REL          = 2;
-         // number format
-         final static int FORM_ASCII        = 0;
-         final static int FORM_BINARY       = 1;
-         final static int FORM_BINARY_SHORT = 2;
-
-         private int handlePlotting ( EscapeSequence esc )
-         {
-            char escMode = MODE_IDLE;
-            // Esc * p a == lift pen
-            // Esc * p b == lower pen
-            // Esc * p e == set origin for relocatable plotting
-            // coordinate mode:
-            // Esc * p f == ASCII, absolute (default)
-            // Esc * p g == ASCII, incremental
-            // Esc * p h == ASCII, relocatable
-            // Esc * p i == Binary, absolute
-            // Esc * p j == Binary, short, incr.
-            // Esc * p k == Binary, incremental
-            // Esc * p l == Binary, relocatable
-            //
-            // Esc * p s == start polygon fill area
-            // Esc * p a == close polygon/begin new polygon
-            // Esc * p t == terminate polygon fill area
-            // terminator
-            // Esc * p z == NOP
-
-            // start parsing
-            esc.setIndex(2);
-
-            // defaults
-            int penState = PEN_UP;
-            int moveMode = MOVE_ABS;
-            int numberForm = FORM_ASCII;
-            boolean fillPoly = false;   // see p. 5-15 HP 2627A Color Graphics Terminal Reference Manual
-
-            // coordinate index [0,1]
-            int idx = 0;
-            Point pt = new Point();
-            Point ptCurrent = new Point();
-            // relocatable origin
-            Point ptOrigin = new Point();
-
-            while ( esc.hasMore() )
-            {
-               char cNext = Character.toLowerCase(esc.peekCharacter());
-
-               int increment = 1;
-
-               switch ( cNext )
-               {
-                  case 'a':
-                     penState = PEN_UP;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPU");
-                     }
-                     if ( fillPoly )
-                     {
-                        // TODO: close current polygon segment and start a new
-                        // segment (e.g. for alternating fills)
-                     }
-                     break;
-
-                  case 'b':
-                     penState = PEN_DN;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPD");
-                     }
-                     break;
-
-                  case 'c':
-                     break;
-
-                  case 'd':
-                     // Esc * p d == plot a point at current pen position
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";PD;PU");
-                     }
-                     break;
-
-                  case 'e':
-                     // Esc * p e == set origin for relocatable plotting
-                     ptOrigin.x = ptCurrent.x;
-                     ptOrigin.y = ptCurrent.y;
-                     break;
-
-                  case 'f':
-                     // Esc * p f == ASCII, absolute
-                     numberForm = FORM_ASCII;
-                     moveMode = MOVE_ABS;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPA");
-                     }
-                     break;
-
-                  case 'g':
-                     // Esc * p g == ASCII, incremental
-                     numberForm = FORM_ASCII;
-                     moveMode = MOVE_INC;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPR");
-                     }
-                     break;
-
-                  case 'h':
-                     // Esc * p h == ASCII, relocatable
-                     numberForm = FORM_ASCII;
-                     moveMode = MOVE_REL;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPA");
-                     }
-                     break;
-
-                  case 'i':
-                     // Esc * p i == Binary, absolute
-                     numberForm = FORM_BINARY;
-                     moveMode = MOVE_ABS;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPA");
-                     }
-                     break;
+         terminalSettings.Sound = (sound != 0);
 
-                  case 'j':
-                     // Esc * p j == Binary, short, incr.
-                     numberForm = FORM_BINARY_SHORT;
-                     moveMode = MOVE_INC;
-                     if ( DEBUG > 0 )
-                     {
-                        psHPGL.print(";\nPR");
-                     }
-                     break;
+      if ( terminalID >= 0 )
+         terminalSettings.setTerminalID(terminalID);
 
-                  case 'k':
-                     // Esc * p k - Binary, incremental
-                     numberForm = FORM_BINARY;
-                     moveMode = MOVE_INC;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPR");
-                     }
-                     break;
+      if ( flowControl >= 0 )
+         terminalSettings.FlowControl = flowControl;
 
-                  case 'l':
-                     // Esc * p l == Binary, relocatable
-                     numberForm = FORM_BINARY;
-                     moveMode = MOVE_REL;
-                     if ( psHPGL != null )
-                     {
-                        psHPGL.print(";\nPA");
-                     }
-                     break;
+      if ( transportType >= 0 )
+      {
+         terminalSettings.TransportType = transportType;
 
-                  case 's':
-                     // Esc * p s == begin polygon area fill
-                     // up to 149 points should be collected into0 a polygon and
-                     // filled when
-                     // an 't' closes the polygon or an upper case letter
-                     // terminates the sequence
-                     // The polygon shall be filled with current drawing mode,
-                     // area pattern, area boundary color, and pen.
-                     // TODO: set a state flag to start collecting points into a
-                     // polygon.
-                     fillPoly = true;
+         if ( transportType == TerminalSettings.TRANSPORT_FILE
+               || transportType == TerminalSettings.TRANSPORT_REPLAY )
+            terminalSettings.FileName = address;
+         else
+            terminalSettings.setHostAddress(address);
+      }
 
-                     break;
+      return terminalSettings;
+   }
 
-                  case 't':
-                     // Esc * p t == close polygon area fill
-                     // up to 149 points should be collected into0 a polygon and
-                     // filled when
-                     // an 't' closes the polygon or an upper case letter
-                     // terminates the sequence
-                     // The polygon shall be filled with current drawing mode,
-                     // area pattern, area boundary color, and pen.
-                     // TODO: reset a state flag
-                     if ( fillPoly )
-                     {
-                        // TODO: plot polygon in polygon list, reset polygon
-                        // list
-                     }
+   /**
+    * Create the application.
+    * 
+    * @param settings
+    *           - the terminal settings, see createSettings().
+    * @param logging
+    *           - whether a log file shall be written.
+    */
+   public HPTerminalApplication(TerminalSettings settings, boolean logging)
+   {
+      Preferences p = getPreferences();
 
-                     fillPoly = false;
-                     break;
+      terminalSettings = settings;
+      this.logging = logging;
 
-                  case 'z':
-                     // NOP, may end the sequence
-                     break;
+      initialize();
 
-                  default:
-                     if ( numberForm == FORM_ASCII )
-                     {
-                        if ( cNext == ',' || cNext == ' ' )
-                        {
-                           // skip separator
-                           break;
-                        }
-                     }
+      Point pt = new Point(p.getInt("Alpha.x", 100), p.getInt("Alpha.y", 100));
+      terminalFrame.setLocation(pt);
 
-                     // no character, must be a number
-                     increment = 0;
-                     break;
-               }
+      pt = new Point(p.getInt("Graph.x", 50), p.getInt("Graph.y", 50));
+      graphicsFrame.setLocation(pt);
+      graphicsScreen.setSize(terminalSettings.width, terminalSettings.height);
+      terminalScreen.setFontSize(terminalSettings.FontSize);
 
-               if ( increment == 1 )
-               {
-                  esc.incrementIndex(increment);
-               }
-               else
-               {
-                  if ( cNext < 32 )
-                  {
-                     warning(1, "incorrect character in Esc * p sequence.");
-                     break;
-                  }
-                  // parse number or separator
-                  int value = 0;
-
-                  if ( numberForm == FORM_ASCII )
-                  {
-                     // get a signed integer
-                     value = esc.parseASCIIInteger();
-                     if ( value == Integer.MIN_VALUE )
-                     {
-                        // error
-                        warning(1, "Cannot parse number.");
-                        break;
-                     }
-                  }
-                  else if ( numberForm == FORM_BINARY )
-                  {
-                     if ( moveMode == MOVE_ABS )
-                     {
-                        // get a 2-byte unsigned integer
-                        value = esc.parseBinaryWord();
-                     }
-                     else if ( moveMode == MOVE_INC || moveMode == MOVE_REL )
-                     {
-                        // get a 3-byte unsigned integer
-                        // - convert later after error test
-                        value = esc.parseBinaryTriple();
-                     }
+      // create and preload beep sound
+      theBeeper = new Beeper("beep.wav");
 
-                     if ( value == Integer.MIN_VALUE )
-                     {
-                        // error
-                        warning(1, "Cannot parse number.");
-                        break;
-                     }
+      // arrow key sequences sent out to mainframe
+      TerminalPersonality personality = terminalSettings.Personality;
+      CUP = personality.getKey(KeyEvent.VK_UP);
+      CDN = personality.getKey(KeyEvent.VK_DOWN);
+      CRIGHT = personality.getKey(KeyEvent.VK_RIGHT);
+      CLEFT = personality.getKey(KeyEvent.VK_LEFT);
 
-                     if ( moveMode == MOVE_INC || moveMode == MOVE_REL )
-                     {
-                        // 3-byte unsigned -> signed
-                        if ( value > 16383 )
-                           value = value - 32768;
-                     }
-                  }
-                  else if ( numberForm == FORM_BINARY_SHORT )
-                  {
-                     // get a 1-byte unsigned integer
-                     // - convert later after error test
-                     value = esc.parseBinaryByte();
-
-                     if ( value == Integer.MIN_VALUE )
-                     {
-                        // error
-                        warning(1, "Cannot parse number.");
-                        break;
-                     }
+      System.out.println("Running " + getClass().getName() + " Version "
+            + VERSION_NUMBER + " (" + VERSION_DATE + ").");
+      System.out.println("Current Settings:");
+      System.out.println("Debug level     \t= " + DEBUG);
+      System.out.println("Logging         \t= " + logging);
+      terminalSettings.dump(System.out);
 
-                     // unsigned -> signed
-                     if ( value > 16 )
-                        value = value - 32;
-                  }
-
-                  if ( idx == 0 )
-                  {
-                     pt.x = value;
-                     idx++;
-                  }
-                  else
-                  {
-                     pt.y = value;
-
-                     if ( moveMode == MOVE_INC )
-                     {
-                        ptCurrent.x += pt.x;
-                        ptCurrent.y += pt.y;
-                     }
-                     else if ( moveMode == MOVE_REL )
-                     {
-                        ptCurrent.x = ptOrigin.x + pt.x;
-                        ptCurrent.y = ptOrigin.y + pt.y;
-                     }
-                     else
-                     {
-                        ptCurrent.x = pt.x;
-                        ptCurrent.y = pt.y;
-                     }
+      if ( logging )
+      {
+         try
+         {
+            capture = new CaptureWriter(logFileName);
+            capture.setKeyframeInterval(terminalSettings.KeyframeInterval);
+         }
+         catch ( IOException e )
+         {
+            System.err.println(
+                  "*** Cannot create log file '" + logFileName + "'.");
+            logging = false;
+         }
+      }
 
-                     if ( fillPoly )
-                     {
-                        // TODO: append ptCurrent to polygon list
-                     }
-                     else
-                     {
-                        // execute as normal moveto/lineto
-                     }
+      m_Transport = createTransport(terminalSettings);
 
-                     if ( penState == PEN_UP )
-                     {
-                        // moveto
-                        graphicsScreen.moveto(ptCurrent);
-                        penState = PEN_DN;
-                        if ( psHPGL != null )
-                        {
-                           psHPGL.print("," + ptCurrent.x + "," + ptCurrent.y
-                                 + ";\nPD");
-                        }
-                     }
-                     else
-                     {
-                        // lineto
-                        if ( psHPGL != null )
-                        {
-                           psHPGL.print("," + ptCurrent.x + "," + ptCurrent.y);
-                        }
-                        graphicsScreen.lineto(ptCurrent);
-                     }
-                     idx = 0;
-                  }
-               }
-            }
+      try
+      {
+         m_Transport.open(this);
 
-            if ( fillPoly )
-            {
-               // TODO: plot any remaining polygon in polygon list, reset
-               // polygon list
-            }
+         remoteMode = true;
 
-            return escMode;
+         if ( DEBUG > 0 )
+         {
+            m_Transport.showStatus(System.out);
          }
+      }
+      catch ( IOException e )
+      {
+         String msg = String.format("*** Error: Cannot open '%s'.\r\n",
+               new Object[]
+               { m_Transport.getName() });
+
+         // go to local mode
+         remoteMode = false;
+         System.err.println(msg);
+         showMessage(msg);
+      }
 
-         private void dumpEscapeSequence ( EscapeSequence esc )
+      parser = new TerminalParser(input, terminalMemory, graphicsMemory,
+            terminalSettings, this);
+      parser.setCapture(capture);
+      t = new Thread(new Runnable()
+      {
+         public void run ()
          {
-            System.out.print("Esc " + esc.toString() + "   ==   HEX( ");
+            parser.run();
 
-            byte buff[] = esc.toString().getBytes();
-            System.out.print(Integer.toHexString(buff[0]));
-            for ( int i = 1; i < buff.length; i++ )
-               System.out.print(", " + Integer.toHexString(buff[i]));
-            System.out.println(" )");
+            // the whole replay has been processed now
+            if ( m_Transport instanceof ReplayTransport )
+            {
+               ((ReplayTransport) m_Transport).printStatistics(System.out,
+                     parser.getSequenceCount());
+            }
          }
       });
 
@@ -2626,50 +493,31 @@ public class HPTerminalApplication implements SerialPortEventListener
    }
 
    /**
-    * Show the status of the incoming CTS and DSR lines.
+    * Create the connection to the host as defined by the settings.
+    * 
+    * @param terminalSettings
+    *           - the settings defining transport type and address.
+    * @return a new, not yet opened transport.
     */
-   private void showLineStatus ( PrintStream ps )
+   static Transport createTransport ( TerminalSettings terminalSettings )
    {
-      try
-      {
-         ps.println("Serial Port Settings:");
-
-         ps.println("Port               \t= '" + m_Port.getPortName() + "'");
-         ps.println(
-               "Input Buffer Bytes \t= " + m_Port.getInputBufferBytesCount());
-         ps.println(
-               "Output Buffer Bytes\t= " + m_Port.getOutputBufferBytesCount());
-
-         ps.println("Library Version    \t= "
-               + SerialNativeInterface.getLibraryVersion());
-
-         ps.print("Operating System    \t= ");
-         int os = SerialNativeInterface.getOsType();
-         String osName = "unknown";
-         switch ( os )
-         {
-            case SerialNativeInterface.OS_WINDOWS:
-               osName = "Windows";
-               break;
-            case SerialNativeInterface.OS_LINUX:
-               osName = "Linux";
-               break;
-            case SerialNativeInterface.OS_MAC_OS_X:
-               osName = "MacOs X";
-               break;
-            case SerialNativeInterface.OS_SOLARIS:
-               osName = "Solaris";
-               break;
-         }
-         ps.println("'" + osName + "'");
-
-         int state[] = m_Port.getLinesStatus();
-         ps.println("CTS Status         \t= " + state[0]);
-         ps.println("DSR Status         \t= " + state[1]);
-      }
-      catch ( SerialPortException e )
+      switch ( terminalSettings.TransportType )
       {
-         e.printStackTrace();
+         case TerminalSettings.TRANSPORT_TCP:
+            return new SocketTransport(terminalSettings.HostName,
+                  terminalSettings.HostPort);
+         case TerminalSettings.TRANSPORT_TELNET:
+            return new TelnetTransport(terminalSettings.HostName,
+                  terminalSettings.HostPort, terminalSettings.AnswerBack,
+                  TerminalMemory.WIDTH, TerminalMemory.HEIGHT);
+         case TerminalSettings.TRANSPORT_FILE:
+            return new FileTransport(terminalSettings.FileName);
+         case TerminalSettings.TRANSPORT_REPLAY:
+            return new ReplayTransport(terminalSettings.FileName,
+                  terminalSettings.ReplayRate, terminalSettings.speed);
+         default:
+            return new SerialTransport(terminalSettings.PortName,
+                  terminalSettings.speed, terminalSettings.FlowControl);
       }
    }
 
@@ -2723,26 +571,17 @@ public class HPTerminalApplication implements SerialPortEventListener
          public void windowClosing ( WindowEvent e )
          {
 
-            if ( psHPGL != null )
-            {
-               psHPGL.print(";SP0;");
-               psHPGL.close();
-            }
+            parser.close();
 
             if ( logging )
             {
-               try
-               {
-                  bwLog.close();
-                  bwLog = null;
-               }
-               catch ( IOException e1 )
-               {
-               }
+               capture.close();
             }
 
             theBeeper.close();
 
+            m_Transport.close();
+
             // save settings for tomorrow
             Preferences p = getPreferences();
             Point pt = terminalFrame.getLocation();
@@ -2767,11 +606,11 @@ public class HPTerminalApplication implements SerialPortEventListener
       {
          public void keyPressed ( KeyEvent e )
          {
-            if ( terminalScreen.isKeyboardLocked() )
+            if ( terminalMemory.isKeyboardLocked() )
             {
                // special function to unlock keyboard
                if ( e.getKeyCode() == KeyEvent.VK_SCROLL_LOCK )
-                  terminalScreen.lockKeyboard(false);
+                  terminalMemory.lockKeyboard(false);
                return;
             }
 
@@ -2809,12 +648,12 @@ public class HPTerminalApplication implements SerialPortEventListener
                   case KeyEvent.VK_UP:
                      if ( control )
                      {
-                        terminalScreen.scrollScreenUp(1); // local action
+                        terminalMemory.scrollBack(1); // local action
                      }
                      else
                      {
                         if ( localKeys )
-                           terminalScreen.moveCursor(-1, 0);
+                           terminalMemory.moveCursor(-1, 0);
                         else
                            sendBytes(CUP);
                      }
@@ -2823,12 +662,12 @@ public class HPTerminalApplication implements SerialPortEventListener
                   case KeyEvent.VK_DOWN:
                      if ( control )
                      {
-                        terminalScreen.scrollScreenDown(1); // local action
+                        terminalMemory.scrollBack(-1); // local action
                      }
                      else
                      {
                         if ( localKeys )
-                           terminalScreen.moveCursor(1, 0); // local action
+                           terminalMemory.moveCursor(1, 0); // local action
                         else
                            sendBytes(CDN);
                      }
@@ -2836,46 +675,48 @@ public class HPTerminalApplication implements SerialPortEventListener
 
                   case KeyEvent.VK_LEFT:
                      if ( localKeys )
-                        terminalScreen.moveCursor(0, -1); // local action
+                        terminalMemory.moveCursor(0, -1); // local action
                      else
                         sendBytes(CLEFT);
                      break;
 
                   case KeyEvent.VK_RIGHT:
                      if ( localKeys )
-                        terminalScreen.moveCursor(0, 1); // local action
+                        terminalMemory.moveCursor(0, 1); // local action
                      else
                         sendBytes(CRIGHT);
                      break;
 
                   case KeyEvent.VK_PAGE_UP:
-                     terminalScreen.pageScreenUp(); // local action
+                     // local action: one screen with one line overlap
+                     terminalMemory.scrollBack(TerminalMemory.HEIGHT - 1);
                      break;
 
                   case KeyEvent.VK_PAGE_DOWN:
-                     terminalScreen.pageScreenDown(); // local action
+                     // local action
+                     terminalMemory.scrollBack(1 - TerminalMemory.HEIGHT);
                      break;
 
                   case KeyEvent.VK_HOME:
-                     terminalScreen.homeScreenUp(); // local action
+                     terminalMemory.homeScreenUp(); // local action
                      break;
 
                   case KeyEvent.VK_END:
-                     terminalScreen.homeScreenDown(); // local action
+                     terminalMemory.homeScreenDown(); // local action
                      break;
 
                   case KeyEvent.VK_INSERT:
                      if ( control )
-                        terminalScreen.insertLine(); // local action
+                        terminalMemory.insertLine(); // local action
                      else if ( localKeys )
-                        terminalScreen.toggleInsertMode(); // local action
+                        terminalMemory.toggleInsertMode(); // local action
                      break;
 
                   case KeyEvent.VK_DELETE:
                      if ( control )
-                        terminalScreen.deleteCurrentLine(); // local action
+                        terminalMemory.deleteCurrentLine(); // local action
                      else if ( localKeys )
-                        terminalScreen.deleteCharsInLine(1); // local action
+                        terminalMemory.deleteCharsInLine(1); // local action
                      break;
 
                   case KeyEvent.VK_F1:
@@ -2893,14 +734,14 @@ public class HPTerminalApplication implements SerialPortEventListener
 
                   case KeyEvent.VK_SCROLL_LOCK:
                      // toggle locked keyboard
-                     terminalScreen
-                           .lockKeyboard(!terminalScreen.isKeyboardLocked());
+                     terminalMemory
+                           .lockKeyboard(!terminalMemory.isKeyboardLocked());
                      break;
 
                   case KeyEvent.VK_PAUSE:
                      // break
                      System.out.print("Sending 250 ms BREAK");
-                     m_Port.sendBreak(250);
+                     m_Transport.sendBreak(250);
                      try
                      {
                         Thread.sleep(300);
@@ -2914,7 +755,7 @@ public class HPTerminalApplication implements SerialPortEventListener
                      break;
                }
             }
-            catch ( SerialPortException ex )
+            catch ( IOException ex )
             {
                System.err.println(ex);
             }
@@ -2922,7 +763,7 @@ public class HPTerminalApplication implements SerialPortEventListener
 
          public void keyTyped ( KeyEvent e )
          {
-            if ( terminalScreen.isKeyboardLocked() )
+            if ( terminalMemory.isKeyboardLocked() )
                return;
 
             char c = e.getKeyChar();
@@ -2960,7 +801,12 @@ public class HPTerminalApplication implements SerialPortEventListener
 
       terminalFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-      terminalScreen = new TerminalScreen(terminalFrame, this,
+      terminalMemory = new TerminalMemory();
+      terminalMemory.setScrollback(terminalSettings.ScrollbackLines);
+      graphicsMemory = new GraphicsMemory(terminalSettings.width,
+            terminalSettings.height);
+
+      terminalScreen = new TerminalScreen(terminalFrame, this, terminalMemory,
             terminalSettings.AnswerBack);
       terminalScreen.setFocusTraversalKeysEnabled(false);
       terminalFrame.getContentPane().add(terminalScreen, BorderLayout.CENTER);
@@ -2971,8 +817,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       graphicsFrame.setResizable(false);
 
       graphicsScreen = new GraphicsScreen(graphicsFrame,
-            terminalSettings.AnswerBack, terminalSettings.width,
-            terminalSettings.height);
+            terminalSettings.AnswerBack, graphicsMemory);
 
       graphicsFrame.getContentPane().add(graphicsScreen, BorderLayout.CENTER);
       graphicsFrame.pack();
@@ -3016,7 +861,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       if ( c >= KeyEvent.VK_F1 && c <= KeyEvent.VK_F8 )
       {
          // HP key labels are organized in two rows of 8 each
-         String label = terminalScreen.getKeyLabel(
+         String label = terminalMemory.getKeyLabel(
                shift ? SoftKeys.ROW_TOP : SoftKeys.ROW_BOT, c - KeyEvent.VK_F1);
          System.out.println("F-key: '" + label + "'");
       }
@@ -3024,7 +869,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       {
          // F9 ... F12 are extra function keys,
          // not found on HP hardware.
-         terminalScreen.toggleKeyLabels();
+         terminalMemory.toggleKeyLabels();
       }
    }
 
@@ -3036,161 +881,89 @@ public class HPTerminalApplication implements SerialPortEventListener
     */
    private void putByte ( byte b )
    {
-      buffer[ptrWrite] = b;
-      ptrWrite++;
-
-      if ( ptrWrite == BUFLEN )
-         ptrWrite = 0;
-
-      if ( ptrWrite == ptrRead )
-      {
-         warning(1,
-               "*** Error: Buffer overrun (" + ptrRead + "==" + ptrWrite + ")");
-      }
-   }
-
-   /**
-    * Test whether there is anything in the ring buffer.
-    * 
-    * @return true if there is data in the buffer.
-    */
-   private boolean inputAvailable ()
-   {
-      /**
-       * <pre>
-       *  <-------  BUFLEN = 32   ------->
-       * {....12345678901234567890........} 
-       *  0   4                   24     31
-       *      ^                   ^
-       *      ptrRead             ptrWrite
-       * len = (ptrWrite - ptrRead)
-       *     = (24 - 4) = 20
-       * 
-       * {67890............123456789012345} 
-       *  0    5           17            31
-       *       ^           ^
-       *       ptrWrite    ptrRead
-       * len = BUFLEN + (ptrWrite - ptrRead)
-       *     = 32     + (5 - 17) = 20
-       *     
-       * 
-       * len = (ptrWrite - ptrRead)
-       * if len < 0
-       *     len += BUFLEN
-       * </pre>
-       */
-      return ptrWrite != ptrRead;
-   }
-
-   /**
-    * @return The currently used ring buffer length.
-    */
-   int getBufferLength ()
-   {
-      int len = (ptrWrite - ptrRead);
-      if ( len < 0 )
-         len += BUFLEN;
-      return len;
+      input.put(b);
    }
 
    /**
-    * Fetch the next byte from the ring buffer and remove it from the buffer.
-    * You should test first with {@link #inputAvailable()} whether there is
-    * anything in the buffer.
-    * 
-    * @return The next byte from the ring buffer.
+    * Pause or resume the host depending on the fill level of the ring buffer.
+    * Called by the serial port thread after appending data and by the parser
+    * thread after consuming data.
     */
-   private byte nextByte ()
+   private void updateFlowControl ()
    {
-      byte b = buffer[ptrRead];
-
-      ptrRead++;
-
-      if ( ptrRead == BUFLEN )
-         ptrRead = 0;
+      if ( terminalSettings.FlowControl == TerminalSettings.FLOW_NONE )
+         return;
 
-      return b;
-   }
+      int size = input.size();
 
-   /**
-    * Preview the next byte from the ring buffer. It is not removed from the
-    * buffer. You should test first with {@link #inputAvailable()} whether there
-    * is anything in the buffer.
-    * 
-    * @return The next byte from the ring buffer.
-    */
-   private byte peekByte ()
-   {
-      return buffer[ptrRead];
+      if ( !receiveThrottled )
+      {
+         if ( size >= FLOW_HIGH )
+            setReceiveThrottled(true);
+      }
+      else if ( size <= FLOW_LOW )
+      {
+         setReceiveThrottled(false);
+      }
    }
 
    /**
-    * Push a byte back into the ring buffer to be read by a following
-    * nextByte().
+    * Ask the host to pause or resume sending. Synchronized so that XOFF and
+    * XON (respectively RTS off and on) always alternate, even when the two
+    * threads decide at the same time.
     * 
-    * @param b
-    *           - the value to be placed into the buffer.
+    * @param pause
+    *           - true to pause, false to resume the host.
     */
-   private void pushbackByte ( byte b )
+   private synchronized void setReceiveThrottled ( boolean pause )
    {
-      ptrRead--;
-
-      if ( ptrRead < 0 )
-         ptrRead = BUFLEN - 1;
-
-      buffer[ptrRead] = b;
-   }
+      if ( receiveThrottled == pause )
+         return;
 
-   /**
-    * Dump the current contents of the ring buffer to System.out.
-    */
+      receiveThrottled = pause;
 
-   private void dumpBuffer ()
-   {
-      StringBuilder sb = new StringBuilder();
+      if ( TraceRecorder.isEnabled(TraceRecorder.FLOW) )
+      {
+         TraceRecorder.record(TraceRecorder.EV_FLOW, pause ? 1 : 0,
+               input.size());
+      }
 
-      sb.append("Buffer(");
-      sb.append(ptrRead);
-      sb.append(',');
-      sb.append(ptrWrite);
-      sb.append(")={");
+      // let the parser check for the low water mark again
+      input.wakeup();
 
-      int i = ptrRead;
+      if ( !remoteMode )
+         return;
 
-      while ( i != ptrWrite )
+      try
       {
-         char c = (char) buffer[i];
-
-         if ( c < 128 )
+         if ( terminalSettings.FlowControl == TerminalSettings.FLOW_XONXOFF )
          {
-            sb.append('[');
-            sb.append(ASCII[c]);
-            sb.append(']');
+            m_Transport.write(pause ? DC3 : DC1);
          }
          else
          {
-            sb.append("[0x");
-            sb.append(Integer.toHexString(c & 0xFF));
-            sb.append(']');
+            // RTS line or whatever the transport offers
+            m_Transport.setReceivePaused(pause);
          }
 
-         if ( ++i == BUFLEN )
-            i = 0;
+         if ( DEBUG > 1 )
+         {
+            System.out.println(
+                  "Flow control: " + (pause ? "pause" : "resume") + " host");
+         }
+      }
+      catch ( IOException e )
+      {
+         e.printStackTrace();
       }
-      sb.append('}');
-
-      maxBufferLength = Math.max(maxBufferLength, getBufferLength());
-      sb.append(" [max. length = " + maxBufferLength + "]");
-
-      System.out.println(sb.toString());
    }
 
-   void warning ( int code, String msg )
+   /**
+    * @return The currently used ring buffer length.
+    */
+   int getBufferLength ()
    {
-      if ( code < 1 )
-         System.err.println("*** Warning: " + msg);
-      else
-         System.err.println("*** Error: " + msg);
+      return input.size();
    }
 
    /**
@@ -3200,7 +973,7 @@ public class HPTerminalApplication implements SerialPortEventListener
     *           - The ASCII character string to be sent.
     * @return The number of characters sent.
     */
-   int sendString ( String s )
+   public int sendString ( String s )
    {
       int ret = 0;
 
@@ -3208,13 +981,16 @@ public class HPTerminalApplication implements SerialPortEventListener
       {
          try
          {
-            if ( m_Port.writeString(s) )
-               ret = s.length();
+            byte b[] = new byte[s.length()];
+            for ( int i = 0; i < b.length; i++ )
+               b[i] = (byte) s.charAt(i);
+
+            m_Transport.write(b);
+            ret = b.length;
 
             if ( logging )
             {
-               bwLog.write(("      {sent: '" + s.replace("\r", "[CR]") + "'}\n")
-                     .getBytes());
+               capture.sent(b, 0, b.length);
             }
 
             if ( DEBUG > 1 )
@@ -3222,10 +998,6 @@ public class HPTerminalApplication implements SerialPortEventListener
                System.out.println("-> host '" + s.replace("\r", "[CR]") + "'");
             }
          }
-         catch ( SerialPortException e )
-         {
-            e.printStackTrace();
-         }
          catch ( IOException e )
          {
             e.printStackTrace();
@@ -3234,7 +1006,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       else
       {
          // local
-         terminalScreen.putString(s);
+         terminalMemory.putString(s);
       }
 
       return ret;
@@ -3247,7 +1019,7 @@ public class HPTerminalApplication implements SerialPortEventListener
     *           - The byte to send.
     * @return The number of bytes sent.
     */
-   int sendByte ( int theByte )
+   public int sendByte ( int theByte )
    {
       int ret = 0;
 
@@ -3255,19 +1027,13 @@ public class HPTerminalApplication implements SerialPortEventListener
       {
          try
          {
-            m_Port.writeByte((byte) (theByte & 0xFF));
+            m_Transport.write(theByte & 0xFF);
 
             ret = 1;
 
             if ( logging )
             {
-               int c = theByte & 0xFF;
-               if ( c > 31 )
-                  bwLog.write(("      {sent '" + (char) c + "'}\n").getBytes());
-               else
-                  bwLog.write(
-                        ("      {sent 0x" + Integer.toHexString(theByte & 0xFF)
-                              + "}\n").getBytes());
+               capture.sent(theByte);
             }
 
             if ( DEBUG > 1 )
@@ -3277,10 +1043,6 @@ public class HPTerminalApplication implements SerialPortEventListener
                            + " = '" + (char) theByte + "'");
             }
          }
-         catch ( SerialPortException e )
-         {
-            e.printStackTrace();
-         }
          catch ( IOException e )
          {
             e.printStackTrace();
@@ -3289,7 +1051,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       else
       {
          // local
-         terminalScreen.putByte((byte) theByte);
+         terminalMemory.putByte((byte) theByte);
       }
 
       return ret;
@@ -3310,23 +1072,12 @@ public class HPTerminalApplication implements SerialPortEventListener
       {
          try
          {
-            if ( m_Port.writeBytes(b) )
-               ret = b.length;
+            m_Transport.write(b);
+            ret = b.length;
 
             if ( logging )
             {
-               bwLog.write("      {sent: ".getBytes());
-
-               for ( int i = 0; i < b.length; i++ )
-               {
-                  if ( i > 0 )
-                     bwLog.write(", ".getBytes());
-
-                  bwLog.write(("0x" + Integer.toHexString((byte) (b[i] & 0xFF)))
-                        .getBytes());
-               }
-
-               bwLog.write("}\n".getBytes());
+               capture.sent(b, 0, b.length);
             }
 
             if ( DEBUG > 1 )
@@ -3342,10 +1093,6 @@ public class HPTerminalApplication implements SerialPortEventListener
                System.out.println();
             }
          }
-         catch ( SerialPortException e )
-         {
-            e.printStackTrace();
-         }
          catch ( IOException e )
          {
             e.printStackTrace();
@@ -3354,7 +1101,7 @@ public class HPTerminalApplication implements SerialPortEventListener
       else
       {
          // local
-         terminalScreen.putBytes(b);
+         terminalMemory.putBytes(b);
       }
 
       return ret;
@@ -3375,264 +1122,75 @@ public class HPTerminalApplication implements SerialPortEventListener
    }
 
    /**
-    * Called when new data arrives at the serial port
-    * 
-    * Copies the data to the ring buffer for later processing.
+    * Called by the parser for a bell character.
     */
-   public void serialEvent ( SerialPortEvent serialPortEvent )
+   public void beep ()
    {
-      if ( serialPortEvent.isRXCHAR() )
-      {
-         int count = serialPortEvent.getEventValue();
-
-         if ( count > 0 )
-         {
-            try
-            {
-               // append new data to ring buffer
-               byte b[] = m_Port.readBytes(count);
-
-               for ( int i = 0; i < b.length; i++ )
-               {
-                  putByte(b[i]);
-               }
-
-               if ( DEBUG > 2 )
-               {
-                  dumpBuffer();
-               }
+      theBeeper.beep();
+   }
 
-               if ( logging )
-               {
-                  bwLog.write(b);
-               }
-            }
-            catch ( SerialPortException e )
-            {
-               e.printStackTrace();
-            }
-            catch ( IOException e )
-            {
-               e.printStackTrace();
-            }
-         }
-      }
+   /**
+    * Called by the parser to show or hide the graphics screen.
+    */
+   public void setGraphicsVisible ( boolean visible )
+   {
+      graphicsFrame.setVisible(visible);
    }
 
    /**
-    * TEST
+    * Called by the parser after taking data from the ring buffer.
     */
+   public void inputConsumed ()
+   {
+      if ( receiveThrottled )
+      {
+         // resume the host when enough has been consumed
+         updateFlowControl();
+      }
+   }
+
    /**
-    * <pre>
-    * 
-    * <-- DO 37 (37)
-    * --> WILL 37
-    * <-- WILL 1 (1)
-    * --> DO 1
-    * <-- WILL 3 (3)
-    * --> DO 3
-    * <-- DO 39 (39)
-    * --> WILL 39
-    * <-- DO 31 (31) ... WINDOW_SIZE
-    * --> WILL 31
-    * <-- DO 0 (0)
-    * --> WILL 0
-    * <-- WILL 0 (0)
-    * --> DO 0
-    * <-- SB 37 <0x1 0xf 0x0 0xff 0xf0 >
-    *      <...>
-    * <-- SB 39 <0x1 0xff 0xf0 >
-    *      <.>
-    * <-- SB 39 <0x1 0x3 0x53 0x46 0x55 0x54 0x4c 0x4e 0x54 0x56 0x45 0x52 0x3 0x53 0x46 0x55 0x54 0x4c 0x4e 0x54 0x4d 0x4f 0x44 0x45 0xff 0xf0 >
-    *      <..SFUTLNTVER.SFUTLNTMODE>
+    * Called by the transport when new data arrives from the host.
     * 
-    * </pre>
+    * Copies the data to the ring buffer for later processing.
     */
-   public void telnetTest ()
+   public void received ( byte b[], int off, int len )
    {
-      String sHost = "localhost";
-      int port = 23;
-
-      try
+      // capture first: a keyframe taken by the parser must never
+      // include data which is not yet in the capture
+      if ( logging )
       {
-         java.net.Socket theSocket = new Socket(sHost, port, null, 0);
-         System.out.println(theSocket);
-         InputStream is = theSocket.getInputStream();
-         OutputStream os = theSocket.getOutputStream();
-         PrintStream ps = new PrintStream(os);
-
-         ps.print("\r\n");
-         while ( is.available() == 0 )
-            ;
-
-         // commands
-         final int SE = 240; // subnegotiation end
-         final int NOP = 241;
-         final int MARK = 242;
-         final int BRK = 243;
-         final int IP = 244;
-         final int AO = 245;
-         final int AYT = 246;
-         final int EC = 247;
-         final int EL = 248;
-         final int GA = 249;
-         final int SB = 250; // subnegotiation begin
-         final int WILL = 251;
-         final int WONT = 252;
-         final int DO = 253;
-         final int DONT = 254;
-         final int IAC = 255;
-
-         // options
-         final int _0 = 0;
-         final int ECHO = 1;
-         final int _3 = 3;
-         final int TERMINAL_TYPE = 24;
-         final int WINDOW_SIZE = 31;
-         final int LINEMODE = 34;
-         final int _37 = 37; // -> subnegotiation
-         final int _39 = 39; // -> subnegotiation
-
-         final String options[] =
-         { "0", "Echo", "2", "Suppress Go Ahead", "4", "5", "Timing Mark", "7",
-               "8", "9", "10", "11", "12", "13", "14", "15", "16", "17",
-               "Logout", "19", "20", "21", "22", "23", "Terminal Type", "25",
-               "26", "27", "28", "29", "30", "Window Size", "Speed", "33",
-               "Line Mode", "35", "36", "37", "38", "New Environment", "40",
-               "41", "42", "43", "44", "45", "46", "47", "48", "49" };
-
-         while ( is.available() > 0 )
-         {
-            int b = is.read();
-            switch ( b )
-            {
-               case IAC:
-                  System.out.print("<-- ");
-                  b = is.read();
-                  switch ( b )
-                  {
-                     case WILL:
-                        System.out.print("WILL ");
-                        b = getOption(is, options);
-                        // reply with {IAC DO b} or {IAC DONT b}
-                        switch ( b )
-                        {
-                           case ECHO:
-                              // server will echo, O.K.
-                              ps.write(new byte[]
-                              { (byte) IAC, (byte) DO, (byte) b });
-                           { // send window width and height
-
-                              byte wlo, whi;
-                              byte hlo, hhi;
-                              whi = 0;
-                              wlo = (byte) TerminalScreen.WIDTH;
-                              hhi = 0;
-                              hlo = (byte) TerminalScreen.HEIGHT;
-
-                              System.out.println("--> DO " + b);
-                              ps.write(new byte[]
-                              { (byte) IAC, (byte) SB, (byte) wlo, (byte) whi,
-                                    (byte) hlo, (byte) hhi, (byte) IAC,
-                                    (byte) SE });
-                              System.out
-                                    .println("--> IAC, SB, w,w h,h IAC, SE");
-                           }
-                              break;
-                           default:
-                              ps.write(new byte[]
-                              { (byte) IAC, (byte) DONT, (byte) b });
-                              System.out.println("--> DONT " + b);
-                              break;
-                        }
-                        break;
-                     case BRK:
-                        System.out.println("BRK");
-                        break;
-                     case DO:
-                        System.out.print("DO ");
-                        b = getOption(is, options);
-                        // reply with {IAC WILL b} or {IAC WONT b}
-                        switch ( b )
-                        {
-                           case WINDOW_SIZE:
-                              ps.write(new byte[]
-                              { (byte) IAC, (byte) WILL, (byte) b });
-                              System.out.println("--> WILL " + b);
-                              break;
-                           default:
-                              ps.write(new byte[]
-                              { (byte) IAC, (byte) WONT, (byte) b });
-                              System.out.println("--> WONT " + b);
-                              break;
-                        }
-                        break;
-                     case SB:
-                        System.out.print("SB ");
-                        b = is.read();
-                        System.out.print(b);
-                        System.out.print(" <");
-                        StringBuffer sb = new StringBuffer();
-                        while ( b != SE )
-                        {
-                           b = is.read();
-                           System.out.print("0x" + Integer.toHexString(b));
-                           System.out.print(" ");
-                           sb.append(b > 31 ? (char) b : '.');
-                        }
-                        System.out.println(">");
-                        System.out.println("     <" + sb.toString() + ">");
-                        break;
-                     default:
-                        System.out.print("0x" + Integer.toHexString(b));
-                        System.out.print(" ");
-                        System.out.print(b);
-                        System.out.print(" '");
-                        System.out.print((char) b);
-                        System.out.println("'");
-                        break;
-                  }
-                  break;
-               default:
-                  /*
-                   * System.out.print("0x" + Integer.toHexString(b));
-                   * System.out.print(" "); System.out.print(b);
-                   * System.out.print(" '");
-                   */
-                  System.out.print((char) b);
-                  // System.out.println("'");
-
-                  if ( b == ':' )
-                  {
-                     ps.print("\n");
-                     ps.print("ea55\n");
-                     ps.flush();
-                     while ( is.available() == 0 )
-                        ;
-                  }
-                  break;
-            }
-         }
-
-         os.close();
-         is.close();
-         theSocket.close();
-         System.exit(0);
+         capture.received(b, off, len);
       }
-      catch ( IOException e )
+
+      // append new data to ring buffer
+      // waits if the parser falls too far behind
+      input.put(b, off, len);
+
+      updateFlowControl();
+
+      if ( TraceRecorder.isEnabled(TraceRecorder.RECEIVE) )
       {
-         // TODO Auto-generated catch block
-         e.printStackTrace();
+         TraceRecorder.record(TraceRecorder.EV_RECEIVE, len,
+               TraceRecorder.pack(b, off, len));
       }
    }
 
-   private int getOption ( InputStream is, final String[] options )
-         throws IOException
+   /**
+    * Called by the transport when the connection has been closed by the
+    * host.
+    */
+   public void closed ()
    {
-      int b;
-      b = is.read();
-      System.out.println(
-            Integer.toString(b) + " (" + (b < 40 ? options[b] : "?") + ")");
-      return b;
+      System.out.println("Connection to '" + m_Transport.getName()
+            + "' closed.");
+
+      // the end of a replay: the parser processes what is still buffered
+      // and then prints the statistics. After other connections it keeps
+      // running to show messages in local mode.
+      if ( m_Transport instanceof ReplayTransport )
+      {
+         input.close();
+      }
    }
 }
@@ -0,0 +1,240 @@
+package mh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Runs the terminal emulation without any window, e.g. to convert a log file
+ * into a text file and an image, or to process a host session in a batch job.
+ * <p>
+ * The data received from the host is interpreted until the connection ends.
+ * Then the visible alpha screen is written to "&lt;name&gt;.txt" and the
+ * graphics memory to "&lt;name&gt;.png". The name is taken from the input file
+ * for the file transport, otherwise "HPTerminal" is used.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public class HeadlessTerminal implements Transport.Receiver,
+		TerminalParser.Host
+{
+	private TerminalSettings m_Settings;
+	private Transport m_Transport;
+	private RingBuffer m_Input = new RingBuffer(
+			HPTerminalApplication.BUFLEN, HPTerminalApplication.BUFLEN_MAX);
+
+	private TerminalMemory m_TerminalMemory = new TerminalMemory();
+	private GraphicsMemory m_GraphicsMemory;
+
+	// capture of the session, null if not logging
+	private CaptureWriter m_Capture;
+	private boolean m_Logging;
+
+	/**
+	 * Create a headless terminal.
+	 * 
+	 * @param settings
+	 *            the terminal configuration, including the transport.
+	 * @param logging
+	 *            true to write a capture of the session.
+	 */
+	public HeadlessTerminal(TerminalSettings settings, boolean logging)
+	{
+		m_Settings = settings;
+		m_Logging = logging;
+		m_GraphicsMemory = new GraphicsMemory(settings.width, settings.height);
+		m_Transport = HPTerminalApplication.createTransport(settings);
+	}
+
+	/**
+	 * Connect to the host, process everything it sends and write the result
+	 * files when the connection has been closed. Runs on the calling thread.
+	 * 
+	 * @throws IOException
+	 *             if the connection cannot be opened or the results cannot be
+	 *             written.
+	 */
+	public void run () throws IOException
+	{
+		TerminalParser parser = new TerminalParser(m_Input, m_TerminalMemory,
+				m_GraphicsMemory, m_Settings, this);
+		// nobody watches: the result must not depend on the timing
+		parser.setLiveDrawing(false);
+
+		if (m_Settings.ReplaySeek >= 0
+				&& m_Transport instanceof ReplayTransport)
+			seek(parser, (ReplayTransport) m_Transport);
+
+		if (m_Logging)
+		{
+			m_Capture = new CaptureWriter(HPTerminalApplication.logFileName);
+			m_Capture.setKeyframeInterval(m_Settings.KeyframeInterval);
+			parser.setCapture(m_Capture);
+		}
+
+		m_Transport.open(this);
+		try
+		{
+			parser.run();
+		}
+		finally
+		{
+			parser.close();
+			m_Transport.close();
+			if (m_Capture != null)
+				m_Capture.close();
+		}
+
+		if (m_Transport instanceof ReplayTransport)
+			((ReplayTransport) m_Transport).printStatistics(System.out,
+					parser.getSequenceCount());
+
+		String baseName = getBaseName();
+		saveText(baseName + ".txt");
+		ImageIO.write(m_GraphicsMemory.getImage(), "png", new File(baseName
+				+ ".png"));
+	}
+
+	/**
+	 * Prepare the replay of a capture up to the time given in the settings:
+	 * restore the last keyframe before this time, if there is one, and
+	 * replay only the data received after it.
+	 */
+	private void seek ( TerminalParser parser, ReplayTransport replay )
+			throws IOException
+	{
+		long to = (long) (m_Settings.ReplaySeek * 1e9);
+		CaptureReader reader = new CaptureReader(m_Settings.FileName);
+
+		try
+		{
+			CaptureReader.Keyframe k = reader.find(to);
+
+			if (k == null)
+			{
+				replay.setRange(CaptureWriter.FILE_HEADER, 0, 0, to);
+			}
+			else
+			{
+				reader.restore(k, parser);
+				replay.setRange(k.resume, k.skip, k.time, to);
+				System.out.println("Keyframe        \t= "
+						+ String.format("%.3f", new Object[] { Double
+								.valueOf(k.time / 1e9) }) + " s");
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return the name of the input file without extension or "HPTerminal".
+	 */
+	private String getBaseName ()
+	{
+		String name = "HPTerminal";
+
+		int type = m_Settings.TransportType;
+
+		if ((type == TerminalSettings.TRANSPORT_FILE
+				|| type == TerminalSettings.TRANSPORT_REPLAY)
+				&& m_Settings.FileName != null)
+		{
+			name = m_Settings.FileName;
+
+			// strip trailing extension (if any)
+			int iDot = name.lastIndexOf('.');
+			if (iDot > name.lastIndexOf(File.separatorChar))
+				name = name.substring(0, iDot);
+		}
+
+		return name;
+	}
+
+	/**
+	 * Write the rows of the visible screen to a text file.
+	 */
+	private void saveText ( String fileName ) throws IOException
+	{
+		PrintStream ps = new PrintStream(fileName);
+
+		for (int row = 0; row < TerminalMemory.HEIGHT; row++)
+			ps.println(m_TerminalMemory.getScreenLine(row, 0,
+					TerminalMemory.WIDTH));
+
+		ps.close();
+		if (ps.checkError())
+			throw new IOException("Cannot write '" + fileName + "'.");
+	}
+
+	public void received ( byte b[], int off, int len )
+	{
+		// capture first, see HPTerminalApplication.received()
+		if (m_Capture != null)
+			m_Capture.received(b, off, len);
+
+		m_Input.put(b, off, len);
+
+		if (TraceRecorder.isEnabled(TraceRecorder.RECEIVE))
+			TraceRecorder.record(TraceRecorder.EV_RECEIVE, len,
+					TraceRecorder.pack(b, off, len));
+	}
+
+	public void closed ()
+	{
+		m_Input.close();
+	}
+
+	public int sendString ( String s )
+	{
+		byte b[] = s.getBytes();
+		try
+		{
+			m_Transport.write(b);
+			if (m_Capture != null)
+				m_Capture.sent(b, 0, b.length);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return 0;
+		}
+		return b.length;
+	}
+
+	public int sendByte ( int b )
+	{
+		try
+		{
+			m_Transport.write(b);
+			if (m_Capture != null)
+				m_Capture.sent(b);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return 0;
+		}
+		return 1;
+	}
+
+	public void beep ()
+	{
+		// nobody listens
+	}
+
+	public void setGraphicsVisible ( boolean visible )
+	{
+		// there is no screen
+	}
+
+	public void inputConsumed ()
+	{
+		// the ring buffer slows down the transport when it is full
+	}
+}
@@ -0,0 +1,566 @@
+package mh;
+
+import java.awt.Point;
+import java.io.PrintStream;
+
+/**
+ * Decodes the data of Esc * p plot sequences and draws on the graphics
+ * memory.
+ * <p>
+ * The data is processed byte by byte as it arrives from the host. Each
+ * complete coordinate pair is drawn immediately, so that long vector dumps
+ * appear while they are transmitted and only the number being parsed has to
+ * be kept, not the whole sequence.
+ * <p>
+ * <pre>
+ * Esc * p a == lift pen
+ * Esc * p b == lower pen
+ * Esc * p d == plot a point at current pen position
+ * Esc * p e == set origin for relocatable plotting
+ * coordinate mode:
+ * Esc * p f == ASCII, absolute (default)
+ * Esc * p g == ASCII, incremental
+ * Esc * p h == ASCII, relocatable
+ * Esc * p i == Binary, absolute
+ * Esc * p j == Binary, short, incr.
+ * Esc * p k == Binary, incremental
+ * Esc * p l == Binary, relocatable
+ *
+ * Esc * p s == start polygon fill area
+ * Esc * p a == close polygon/begin new polygon
+ * Esc * p t == terminate polygon fill area
+ * terminator
+ * Esc * p z == NOP
+ * </pre>
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class PlotDecoder
+{
+	// pen state
+	final static int PEN_UP = 0;
+	final static int PEN_DN = 1;
+	// move mode
+	final static int MOVE_ABS = 0;
+	final static int MOVE_INC = 1;
+	final static int MOVE_REL = 2;
+	// number format
+	final static int FORM_ASCII = 0;
+	final static int FORM_BINARY = 1;
+	final static int FORM_BINARY_SHORT = 2;
+
+	// decoder states
+	// between commands and numbers
+	private final static int S_COMMAND = 0;
+	// inside an ASCII number
+	private final static int S_ASCII = 1;
+	// inside a binary number
+	private final static int S_BINARY = 2;
+	// after an error: ignore the rest of the sequence
+	private final static int S_ERROR = 3;
+
+	private GraphicsMemory m_Graphics;
+	// all plot commands are copied to this file when debugging
+	private PrintStream m_HPGL;
+
+	private int m_State;
+
+	private int m_penState;
+	private int m_moveMode;
+	private int m_numberForm;
+	// see p. 5-15 HP 2627A Color Graphics Terminal Reference Manual
+	private boolean m_fillPoly;
+
+	// coordinate index [0,1]
+	private int m_idx;
+	private final Point m_pt = new Point();
+	private final Point m_ptCurrent = new Point();
+	// relocatable origin
+	private final Point m_ptOrigin = new Point();
+
+	// the number being parsed
+	private int m_value;
+	private int m_sign;
+	private boolean m_first;
+	private boolean m_digits;
+	// binary bytes still missing
+	private int m_bytes;
+	// decoded binary values
+	private final int m_Values[] = new int[256];
+
+	// statistics of the current sequence
+	private int m_Points;
+	private int m_Bytes;
+
+	// points drawn with the pen down, not yet passed to the graphics memory
+	private final static int MAX_POINTS = 512;
+	private final int m_Polyline[] = new int[2 * MAX_POINTS];
+	private int m_PolyCount;
+
+	/**
+	 * Create a decoder.
+	 *
+	 * @param graphics
+	 *            the graphics memory to draw on.
+	 */
+	public PlotDecoder(GraphicsMemory graphics)
+	{
+		m_Graphics = graphics;
+		begin();
+	}
+
+	/**
+	 * @param ps
+	 *            a stream receiving a HPGL copy of the plot commands, null if
+	 *            none.
+	 */
+	public void setHPGL ( PrintStream ps )
+	{
+		m_HPGL = ps;
+	}
+
+	/**
+	 * Start a new plot sequence: reset to the defaults.
+	 */
+	public void begin ()
+	{
+		m_State = S_COMMAND;
+		m_penState = PEN_UP;
+		m_moveMode = MOVE_ABS;
+		m_numberForm = FORM_ASCII;
+		m_fillPoly = false;
+		m_idx = 0;
+		m_ptCurrent.setLocation(0, 0);
+		m_ptOrigin.setLocation(0, 0);
+		m_Points = 0;
+		m_Bytes = 0;
+	}
+
+	/**
+	 * @return the number of points received in the current sequence.
+	 */
+	public int getPoints ()
+	{
+		return m_Points;
+	}
+
+	/**
+	 * @return the number of bytes received in the current sequence.
+	 */
+	public int getBytes ()
+	{
+		return m_Bytes;
+	}
+
+	/**
+	 * Process the next byte of a plot sequence, after "Esc * p". The
+	 * terminating uppercase letter is passed in too, before calling
+	 * {@link #end()}.
+	 *
+	 * @param c
+	 *            the received byte [0...255].
+	 */
+	public void put ( int c )
+	{
+		m_Bytes++;
+
+		switch (m_State)
+		{
+		case S_ASCII:
+			if (putASCII(c))
+				return;
+			// the number ended before this character
+			if (m_State == S_ERROR)
+				return;
+			break;
+
+		case S_BINARY:
+			putBinary(c);
+			return;
+
+		case S_ERROR:
+			return;
+		}
+
+		command(c);
+	}
+
+	/**
+	 * Process a run of binary coordinates in one go, if the decoder expects
+	 * binary numbers. Stops before anything that is not a complete binary
+	 * number, which must then be passed to {@link #put(int)}.
+	 * 
+	 * @param b
+	 *            the source array.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes available.
+	 * @return the number of bytes consumed, 0 if nothing could be decoded.
+	 */
+	public int putBinaryRun ( byte b[], int off, int len )
+	{
+		if (m_State != S_COMMAND || m_numberForm == FORM_ASCII)
+			return 0;
+
+		int bytes = valueBytes();
+		int n = EscapeSequence.decodeBinary(b, off, len, bytes, m_Values,
+				m_Values.length);
+
+		for (int i = 0; i < n; i++)
+			coordinate(m_Values[i]);
+
+		m_Bytes += n * bytes;
+		return n * bytes;
+	}
+
+	/**
+	 * End of the plot sequence.
+	 */
+	public void end ()
+	{
+		if (m_State == S_ASCII)
+			endASCII();
+		else if (m_State == S_BINARY)
+			error("Cannot parse number.");
+
+		flush();
+
+		if (m_fillPoly)
+		{
+			// TODO: plot any remaining polygon in polygon list, reset
+			// polygon list
+		}
+
+		m_State = S_COMMAND;
+	}
+
+	/**
+	 * Execute a command letter or start a number.
+	 */
+	private void command ( int c )
+	{
+		// commands may be upper or lower case
+		if (c >= 'A' && c <= 'Z')
+			c |= 0x20;
+
+		switch (c)
+		{
+		case 'a':
+			m_penState = PEN_UP;
+			if (m_HPGL != null)
+			{
+				m_HPGL.print(";\nPU");
+			}
+			if (m_fillPoly)
+			{
+				// TODO: close current polygon segment and start a new
+				// segment (e.g. for alternating fills)
+			}
+			break;
+
+		case 'b':
+			m_penState = PEN_DN;
+			if (m_HPGL != null)
+			{
+				m_HPGL.print(";\nPD");
+			}
+			break;
+
+		case 'c':
+			break;
+
+		case 'd':
+			// Esc * p d == plot a point at current pen position
+			if (m_HPGL != null)
+			{
+				m_HPGL.print(";PD;PU");
+			}
+			break;
+
+		case 'e':
+			// Esc * p e == set origin for relocatable plotting
+			m_ptOrigin.setLocation(m_ptCurrent);
+			break;
+
+		case 'f':
+			// Esc * p f == ASCII, absolute
+			setMode(FORM_ASCII, MOVE_ABS, ";\nPA");
+			break;
+
+		case 'g':
+			// Esc * p g == ASCII, incremental
+			setMode(FORM_ASCII, MOVE_INC, ";\nPR");
+			break;
+
+		case 'h':
+			// Esc * p h == ASCII, relocatable
+			setMode(FORM_ASCII, MOVE_REL, ";\nPA");
+			break;
+
+		case 'i':
+			// Esc * p i == Binary, absolute
+			setMode(FORM_BINARY, MOVE_ABS, ";\nPA");
+			break;
+
+		case 'j':
+			// Esc * p j == Binary, short, incr.
+			setMode(FORM_BINARY_SHORT, MOVE_INC, ";\nPR");
+			break;
+
+		case 'k':
+			// Esc * p k - Binary, incremental
+			setMode(FORM_BINARY, MOVE_INC, ";\nPR");
+			break;
+
+		case 'l':
+			// Esc * p l == Binary, relocatable
+			setMode(FORM_BINARY, MOVE_REL, ";\nPA");
+			break;
+
+		case 's':
+			// Esc * p s == begin polygon area fill
+			// up to 149 points should be collected into a polygon and
+			// filled when an 't' closes the polygon or an upper case letter
+			// terminates the sequence
+			// The polygon shall be filled with current drawing mode,
+			// area pattern, area boundary color, and pen.
+			// TODO: set a state flag to start collecting points into a
+			// polygon.
+			m_fillPoly = true;
+			break;
+
+		case 't':
+			// Esc * p t == close polygon area fill
+			// TODO: reset a state flag
+			if (m_fillPoly)
+			{
+				// TODO: plot polygon in polygon list, reset polygon
+				// list
+			}
+
+			m_fillPoly = false;
+			break;
+
+		case 'z':
+			// NOP, may end the sequence
+			break;
+
+		default:
+			if (m_numberForm == FORM_ASCII && (c == ',' || c == ' '))
+			{
+				// skip separator
+				break;
+			}
+
+			if (c < 32)
+			{
+				error("incorrect character in Esc * p sequence.");
+				break;
+			}
+
+			// no command, must be a number
+			m_value = 0;
+			if (m_numberForm == FORM_ASCII)
+			{
+				m_sign = 1;
+				m_first = true;
+				m_digits = false;
+				m_State = S_ASCII;
+				putASCII(c);
+			}
+			else
+			{
+				m_bytes = valueBytes();
+				m_State = S_BINARY;
+				putBinary(c);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Draw the lines collected so far. Lines are passed to the graphics
+	 * memory in batches: when a move interrupts them, when the batch is full,
+	 * at the end of the sequence, and whenever the parser runs out of input.
+	 */
+	public void flush ()
+	{
+		if (m_PolyCount > 0)
+		{
+			m_Graphics.polyline(m_Polyline, m_PolyCount);
+			m_PolyCount = 0;
+		}
+	}
+
+	/**
+	 * @return the number of bytes of a binary number in the current mode.
+	 */
+	private int valueBytes ()
+	{
+		if (m_numberForm == FORM_BINARY_SHORT)
+			return 1;
+		else if (m_moveMode == MOVE_ABS)
+			return 2;
+		else
+			return 3;
+	}
+
+	private void setMode ( int numberForm, int moveMode, String hpgl )
+	{
+		m_numberForm = numberForm;
+		m_moveMode = moveMode;
+		if (m_HPGL != null)
+		{
+			m_HPGL.print(hpgl);
+		}
+	}
+
+	/**
+	 * Parse the next character of a decimal number with an optional leading
+	 * '+' or '-' sign. The number ends with a space, a comma or a semicolon,
+	 * which are consumed, or with any other character, which is not.
+	 *
+	 * @return true if the character has been consumed.
+	 */
+	private boolean putASCII ( int c )
+	{
+		if ('0' <= c && c <= '9')
+		{
+			m_value = m_value * 10 + (c - '0');
+			m_first = false;
+			m_digits = true;
+			return true;
+		}
+		else if (c == ' ')
+		{
+			// skip leading spaces, stop at trailing ones
+			if (!m_first)
+				endASCII();
+			return true;
+		}
+		else if (c == ',' || c == ';')
+		{
+			endASCII();
+			return true;
+		}
+		else if ((c == '+' || c == '-') && m_first)
+		{
+			m_sign = (c == '-') ? -1 : 1;
+			m_first = false;
+			return true;
+		}
+
+		// not part of the number
+		endASCII();
+		return false;
+	}
+
+	private void endASCII ()
+	{
+		if (!m_digits)
+		{
+			error("Cannot parse number.");
+			return;
+		}
+
+		m_State = S_COMMAND;
+		coordinate(m_sign * m_value);
+	}
+
+	/**
+	 * Collect the next 5 bit part of a binary number.
+	 */
+	private void putBinary ( int c )
+	{
+		if (c < ' ' || c > '?')
+		{
+			error("Cannot parse number.");
+			return;
+		}
+
+		m_value = (m_value << 5) | (c & 0x1F);
+
+		if (--m_bytes > 0)
+			return;
+
+		m_State = S_COMMAND;
+
+		coordinate(EscapeSequence.toSigned(m_value, valueBytes()));
+	}
+
+	/**
+	 * Take the next coordinate. Every second one completes a point which is
+	 * then drawn.
+	 */
+	private void coordinate ( int value )
+	{
+		if (m_idx == 0)
+		{
+			m_pt.x = value;
+			m_idx++;
+			return;
+		}
+
+		m_pt.y = value;
+		m_idx = 0;
+		m_Points++;
+
+		if (m_moveMode == MOVE_INC)
+		{
+			m_ptCurrent.x += m_pt.x;
+			m_ptCurrent.y += m_pt.y;
+		}
+		else if (m_moveMode == MOVE_REL)
+		{
+			m_ptCurrent.x = m_ptOrigin.x + m_pt.x;
+			m_ptCurrent.y = m_ptOrigin.y + m_pt.y;
+		}
+		else
+		{
+			m_ptCurrent.x = m_pt.x;
+			m_ptCurrent.y = m_pt.y;
+		}
+
+		if (m_fillPoly)
+		{
+			// TODO: append ptCurrent to polygon list
+		}
+
+		if (m_penState == PEN_UP)
+		{
+			// moveto
+			flush();
+			m_Graphics.moveto(m_ptCurrent);
+			m_penState = PEN_DN;
+			if (m_HPGL != null)
+			{
+				m_HPGL.print("," + m_ptCurrent.x + "," + m_ptCurrent.y
+						+ ";\nPD");
+			}
+		}
+		else
+		{
+			// lineto
+			if (m_HPGL != null)
+			{
+				m_HPGL.print("," + m_ptCurrent.x + "," + m_ptCurrent.y);
+			}
+			if (m_PolyCount == MAX_POINTS)
+				flush();
+			m_Polyline[2 * m_PolyCount] = m_ptCurrent.x;
+			m_Polyline[2 * m_PolyCount + 1] = m_ptCurrent.y;
+			m_PolyCount++;
+		}
+	}
+
+	/**
+	 * Report a malformed sequence and ignore its remainder.
+	 */
+	private void error ( String msg )
+	{
+		System.err.println("*** Error: " + msg);
+		m_State = S_ERROR;
+	}
+}
@@ -0,0 +1,335 @@
+package mh;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a recorded host session, either a capture written by
+ * {@link CaptureWriter} or a raw log of the received bytes.
+ * <p>
+ * The data can be delivered with the original timing, with the timing scaled
+ * by a factor or as fast as the terminal accepts it. A capture contains the
+ * time of every block received. A raw log has no time stamps, here the
+ * original timing is that of a serial line with the given baud rate. Data
+ * sent to the host in the capture is skipped, anything the terminal sends is
+ * discarded.
+ * <p>
+ * At full speed the replay measures the throughput of the emulator, see
+ * {@link #printStatistics(PrintStream, long)}.
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class ReplayTransport extends Transport implements Runnable
+{
+	// bits per character on a serial line: start, 8 data, stop
+	private static final int BITS_PER_BYTE = 10;
+	// block size for raw logs
+	private static final int BLOCK = 4096;
+
+	private String m_FileName;
+	private double m_Rate;
+	private int m_Baud;
+	private FileChannel m_Channel;
+	private Thread m_Thread;
+
+	// part of a capture to replay, see setRange()
+	private long m_Resume = CaptureWriter.FILE_HEADER;
+	private int m_Skip = 0;
+	private long m_FromTime = 0;
+	private long m_ToTime = Long.MAX_VALUE;
+
+	// statistics
+	private long m_Bytes;
+	private long m_StartNanos;
+
+	/**
+	 * Create a replay transport.
+	 *
+	 * @param fileName
+	 *            the capture or raw log to play back.
+	 * @param rate
+	 *            the speed relative to the original timing: 1 for the
+	 *            original timing, 2 for twice as fast, 0 for as fast as
+	 *            possible.
+	 * @param baud
+	 *            the line speed assumed for the timing of raw logs.
+	 */
+	public ReplayTransport(String fileName, double rate, int baud)
+	{
+		m_FileName = fileName;
+		m_Rate = rate;
+		m_Baud = baud;
+	}
+
+	/**
+	 * Replay only a part of a capture, e.g. after the terminal state has been
+	 * restored from a keyframe with {@link CaptureReader}. Must be called
+	 * before {@link #open(Receiver)}. Ignored for raw logs.
+	 *
+	 * @param resume
+	 *            the file position of the first record to replay.
+	 * @param skip
+	 *            the number of received bytes to skip at this position.
+	 * @param fromTime
+	 *            the time of the capture where the replay starts, in
+	 *            nanoseconds.
+	 * @param toTime
+	 *            the time of the capture where the replay ends, in
+	 *            nanoseconds.
+	 */
+	public void setRange ( long resume, int skip, long fromTime, long toTime )
+	{
+		m_Resume = resume;
+		m_Skip = skip;
+		m_FromTime = fromTime;
+		m_ToTime = toTime;
+	}
+
+	public void open ( Receiver r ) throws IOException
+	{
+		m_Receiver = r;
+		m_Channel = new FileInputStream(m_FileName).getChannel();
+
+		m_Thread = new Thread(this, "Transport " + getName());
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}
+
+	public void close ()
+	{
+		try
+		{
+			if (m_Channel != null)
+				m_Channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isOpen ()
+	{
+		return m_Channel != null && m_Channel.isOpen();
+	}
+
+	public String getName ()
+	{
+		return m_FileName;
+	}
+
+	public void write ( byte b[], int off, int len )
+	{
+		// there is no host
+	}
+
+	public void showStatus ( PrintStream ps )
+	{
+		super.showStatus(ps);
+		ps.println("Replay rate        \t= "
+				+ ((m_Rate > 0) ? Double.toString(m_Rate) : "maximum"));
+	}
+
+	/**
+	 * The reading thread. The receiver slows it down when the terminal
+	 * cannot keep up.
+	 */
+	public void run ()
+	{
+		m_StartNanos = System.nanoTime();
+
+		try
+		{
+			ByteBuffer header = ByteBuffer.allocate(CaptureWriter.FILE_HEADER);
+			m_Channel.read(header);
+
+			if (isCapture(header))
+			{
+				replayCapture();
+			}
+			else
+			{
+				// not a capture: the header is part of the data
+				m_Channel.position(0);
+				replayRaw();
+			}
+		}
+		catch (EOFException e)
+		{
+			System.err.println("*** Capture '" + m_FileName + "' is truncated.");
+		}
+		catch (IOException e)
+		{
+			if (isOpen())
+				e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			// stop
+		}
+
+		close();
+		m_Receiver.closed();
+	}
+
+	/**
+	 * @return true if the header is that of a capture file.
+	 */
+	private static boolean isCapture ( ByteBuffer header )
+	{
+		if (header.position() < CaptureWriter.FILE_HEADER)
+			return false;
+
+		for (int i = 0; i < CaptureWriter.MAGIC.length; i++)
+		{
+			if (header.get(i) != CaptureWriter.MAGIC[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Deliver the received records of a capture.
+	 */
+	private void replayCapture () throws IOException, InterruptedException
+	{
+		ByteBuffer head = ByteBuffer.allocate(CaptureWriter.RECORD_HEADER);
+		ByteBuffer data = ByteBuffer.allocate(BLOCK);
+		int skip = m_Skip;
+
+		m_Channel.position(m_Resume);
+
+		while (readFully(head, true))
+		{
+			head.flip();
+			byte type = head.get();
+			long time = head.getLong();
+			int len = head.getInt();
+			head.clear();
+
+			if (time > m_ToTime)
+				break;
+
+			if (type != CaptureWriter.RECEIVED)
+			{
+				// skip what was sent to the host
+				m_Channel.position(m_Channel.position() + len);
+				continue;
+			}
+
+			if (data.capacity() < len)
+				data = ByteBuffer.allocate(len);
+			data.clear();
+			data.limit(len);
+			readFully(data, false);
+
+			// already contained in a restored keyframe
+			int off = Math.min(skip, len);
+			skip -= off;
+
+			waitUntil(Math.max(time - m_FromTime, 0));
+			deliver(data.array(), off, len - off);
+		}
+	}
+
+	/**
+	 * Deliver a raw log in blocks, timed like a serial line.
+	 */
+	private void replayRaw () throws IOException, InterruptedException
+	{
+		ByteBuffer bb = ByteBuffer.allocate(BLOCK);
+		long nanosPerByte = 1000000000L * BITS_PER_BYTE / Math.max(m_Baud, 1);
+		long time = 0;
+
+		while (m_Channel.read(bb) >= 0)
+		{
+			int len = bb.position();
+			if (len > 0)
+			{
+				waitUntil(time);
+				deliver(bb.array(), 0, len);
+				time += len * nanosPerByte;
+			}
+			bb.clear();
+		}
+	}
+
+	/**
+	 * Fill a buffer from the file.
+	 *
+	 * @param atRecord
+	 *            true if the end of the file is allowed before the first
+	 *            byte.
+	 * @return false at the end of the file.
+	 * @throws EOFException
+	 *             if the file ends within the buffer.
+	 */
+	private boolean readFully ( ByteBuffer bb, boolean atRecord )
+			throws IOException
+	{
+		while (bb.hasRemaining())
+		{
+			if (m_Channel.read(bb) < 0)
+			{
+				if (atRecord && bb.position() == 0)
+					return false;
+				throw new EOFException();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until the given time of the recording, scaled by the rate, has
+	 * come. Returns at once when replaying at full speed.
+	 */
+	private void waitUntil ( long time ) throws InterruptedException
+	{
+		if (m_Rate <= 0)
+			return;
+
+		long due = m_StartNanos + (long) (time / m_Rate);
+		long wait = due - System.nanoTime();
+		if (wait > 0)
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+	}
+
+	private void deliver ( byte b[], int off, int len )
+	{
+		if (len <= 0)
+			return;
+
+		m_Bytes += len;
+		m_Receiver.received(b, off, len);
+	}
+
+	/**
+	 * Print the throughput of the replay up to now. Meaningful at full speed,
+	 * when the replay is limited only by the terminal, and after the parser
+	 * has processed all data.
+	 *
+	 * @param ps
+	 *            the stream to print to.
+	 * @param sequences
+	 *            the number of escape sequences processed by the parser.
+	 */
+	public void printStatistics ( PrintStream ps, long sequences )
+	{
+		double seconds = Math.max(System.nanoTime() - m_StartNanos, 1) / 1e9;
+
+		ps.println("Replayed        \t= " + m_Bytes + " bytes, " + sequences
+				+ " sequences in "
+				+ String.format("%.3f", new Object[] { Double.valueOf(seconds) })
+				+ " s");
+		ps.println("Throughput      \t= "
+				+ String.format("%.0f bytes/s, %.0f sequences/s", new Object[] {
+						Double.valueOf(m_Bytes / seconds),
+						Double.valueOf(sequences / seconds) }));
+	}
+}
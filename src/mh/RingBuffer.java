@@ -0,0 +1,493 @@
+package mh;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring buffer for the bytes received from the host.
+ * <p>
+ * The buffer is written by exactly one thread (the serial port event thread,
+ * the producer) and read by exactly one other thread (the parser, the
+ * consumer). No locks are used: each side owns its own index and publishes it
+ * through a volatile write, the other side only reads it.
+ * <p>
+ * The capacity is always a power of two so that the position in the array
+ * can be found by masking the free running 64 bit indices. When the buffer
+ * fills up it grows up to a maximum capacity. When this is reached too the
+ * producer waits until the consumer has made room again, so that no data is
+ * ever lost.
+ * <p>
+ * The consumer can sleep in {@link #await(long)} until the producer has
+ * appended new data, so that no polling is necessary. Instead of fetching
+ * byte by byte it can also process contiguous slices of the storage in place
+ * with {@link #slice()} and {@link #skip(int)}.
+ * <p>
+ * When the host connection ends the producer calls {@link #close()}. The
+ * consumer can then drain the remaining data and stop when
+ * {@link #isClosed()} is true and nothing is {@link #available()} anymore.
+ *
+ * <pre>
+ *  <-------  capacity = 32  ------->
+ * {....12345678901234567890........}
+ *  0   4                   24     31
+ *      ^                   ^
+ *      readPos &amp; mask     writePos &amp; mask
+ * size = writePos - readPos = 20
+ * </pre>
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class RingBuffer
+{
+	// delay for the producer when the buffer is full
+	private final static long PARK_NANOS = 100000L;
+
+	// padding: keep the indices apart from other fields and from each other
+	// so that producer and consumer do not fight for the same cache line.
+	long p00, p01, p02, p03, p04, p05, p06;
+	// next position to be written, updated by the producer only
+	private volatile long m_writePos;
+	long p10, p11, p12, p13, p14, p15, p16;
+	// next position to be read, updated by the consumer only
+	private volatile long m_readPos;
+	long p20, p21, p22, p23, p24, p25, p26;
+
+	// the storage, replaced by the producer when growing
+	private volatile byte m_buffer[];
+	// the consumer thread while it is parked in await(), otherwise null
+	private volatile Thread m_waiter;
+	// set by the producer after the last put()
+	private volatile boolean m_closed;
+	private final int m_maxCapacity;
+
+	// producer side: last seen value of m_readPos
+	private long m_readCache;
+	// producer side: statistics
+	private int m_maxSize;
+	private int m_stalls;
+
+	// consumer side: last seen value of m_writePos
+	private long m_writeCache;
+	// consumer side: a byte pushed back by the parser, -1 if none
+	private int m_pushback = -1;
+	// consumer side: the storage containing the current slice
+	private byte m_slice[];
+	private int m_sliceOffset;
+
+	/**
+	 * Create a new ring buffer.
+	 *
+	 * @param capacity
+	 *            the initial capacity in bytes. Rounded up to a power of two.
+	 * @param maxCapacity
+	 *            the capacity up to which the buffer may grow. Rounded up to
+	 *            a power of two.
+	 */
+	public RingBuffer(int capacity, int maxCapacity)
+	{
+		capacity = powerOfTwo(capacity);
+		m_maxCapacity = Math.max(capacity, powerOfTwo(maxCapacity));
+		m_buffer = new byte[capacity];
+	}
+
+	/**
+	 * @return the smallest power of two which is not less than n.
+	 */
+	private static int powerOfTwo ( int n )
+	{
+		int p = 16;
+		while (p < n)
+			p <<= 1;
+		return p;
+	}
+
+	/**
+	 * Producer: append one byte.
+	 *
+	 * @param b
+	 *            the byte to append.
+	 */
+	public void put ( byte b )
+	{
+		long w = m_writePos;
+
+		waitForRoom(w);
+		byte buf[] = m_buffer;
+		buf[(int) w & (buf.length - 1)] = b;
+		publish(w + 1);
+
+		m_maxSize = Math.max(m_maxSize, (int) (w + 1 - m_readCache));
+	}
+
+	/**
+	 * Producer: append all bytes of the given array.
+	 *
+	 * @param b
+	 *            the bytes to append.
+	 */
+	public void put ( byte b[] )
+	{
+		put(b, 0, b.length);
+	}
+
+	/**
+	 * Producer: append bytes to the buffer. Grows the buffer if necessary. If
+	 * the maximum capacity has been reached, waits until the consumer has made
+	 * enough room.
+	 *
+	 * @param b
+	 *            the source array.
+	 * @param off
+	 *            the index of the first byte to append.
+	 * @param len
+	 *            the number of bytes to append.
+	 */
+	public void put ( byte b[], int off, int len )
+	{
+		long w = m_writePos;
+
+		while (len > 0)
+		{
+			long free = waitForRoom(w);
+			byte buf[] = m_buffer;
+			int cap = buf.length;
+
+			int n = (int) Math.min(len, free);
+			int idx = (int) w & (cap - 1);
+			int first = Math.min(n, cap - idx);
+
+			System.arraycopy(b, off, buf, idx, first);
+			System.arraycopy(b, off + first, buf, 0, n - first);
+
+			w += n;
+			off += n;
+			len -= n;
+
+			publish(w);
+		}
+
+		m_maxSize = Math.max(m_maxSize, (int) (w - m_readCache));
+	}
+
+	/**
+	 * Producer: make sure that there is room for at least one byte. Grows
+	 * the buffer or, at the maximum capacity, waits for the consumer.
+	 *
+	 * @param w
+	 *            the current write position.
+	 * @return the number of bytes which can be written into the storage.
+	 */
+	private long waitForRoom ( long w )
+	{
+		while (true)
+		{
+			int cap = m_buffer.length;
+
+			long free = cap - (w - m_readCache);
+			if (free <= 0)
+			{
+				// refresh our view of the consumer
+				m_readCache = m_readPos;
+				free = cap - (w - m_readCache);
+			}
+
+			if (free > 0)
+				return free;
+
+			if (cap < m_maxCapacity)
+			{
+				grow(w, cap * 2);
+			}
+			else
+			{
+				// back pressure: let the parser catch up
+				m_stalls++;
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Producer: publish the new write position and wake up a sleeping
+	 * consumer.
+	 */
+	private void publish ( long w )
+	{
+		m_writePos = w;
+
+		Thread waiter = m_waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+	}
+
+	/**
+	 * Producer: replace the storage by a larger array. The unread bytes are
+	 * copied to the same positions in the new array. The old array is never
+	 * written again, so the consumer can finish reading from it while the
+	 * copy is in progress.
+	 */
+	private void grow ( long w, int newCapacity )
+	{
+		byte oldBuf[] = m_buffer;
+		byte newBuf[] = new byte[newCapacity];
+		int oldMask = oldBuf.length - 1;
+		int newMask = newCapacity - 1;
+
+		for (long p = m_readPos; p < w; p++)
+			newBuf[(int) p & newMask] = oldBuf[(int) p & oldMask];
+
+		// publish before the next write position
+		m_buffer = newBuf;
+	}
+
+	/**
+	 * Consumer: test whether there is anything to read.
+	 *
+	 * @return true if there is data in the buffer.
+	 */
+	public boolean available ()
+	{
+		if (m_pushback >= 0)
+			return true;
+
+		long r = m_readPos;
+		if (r < m_writeCache)
+			return true;
+
+		m_writeCache = m_writePos;
+		return r < m_writeCache;
+	}
+
+	/**
+	 * Consumer: wait until data is available, the timeout has expired,
+	 * {@link #wakeup()} or {@link #close()} has been called. Returns
+	 * immediately if data is available.
+	 * <p>
+	 * The waiter is registered before the buffer is tested again, and the
+	 * producer looks for a waiter after publishing new data. As both are
+	 * volatile accesses a wakeup cannot get lost between the test and the
+	 * park.
+	 *
+	 * @param timeoutNanos
+	 *            the maximum time to wait in nanoseconds.
+	 * @return true if data is available.
+	 */
+	public boolean await ( long timeoutNanos )
+	{
+		if (available())
+			return true;
+
+		m_waiter = Thread.currentThread();
+		try
+		{
+			if (available() || m_closed)
+				return available();
+
+			LockSupport.parkNanos(this, timeoutNanos);
+		}
+		finally
+		{
+			m_waiter = null;
+		}
+
+		return available();
+	}
+
+	/**
+	 * May be called from any thread: wake up the consumer if it is waiting
+	 * in {@link #await(long)}, e.g. because an event other than new data
+	 * needs its attention.
+	 */
+	public void wakeup ()
+	{
+		Thread waiter = m_waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+	}
+
+	/**
+	 * Producer: no more data will be appended. Wakes up the consumer so that
+	 * it can finish.
+	 */
+	public void close ()
+	{
+		m_closed = true;
+		wakeup();
+	}
+
+	/**
+	 * May be called from any thread. Data may still be available after the
+	 * buffer has been closed.
+	 *
+	 * @return true if {@link #close()} has been called.
+	 */
+	public boolean isClosed ()
+	{
+		return m_closed;
+	}
+
+	/**
+	 * Consumer: fetch the next byte and remove it from the buffer. Test first
+	 * with {@link #available()} whether there is anything in the buffer.
+	 *
+	 * @return the next byte.
+	 */
+	public byte get ()
+	{
+		if (m_pushback >= 0)
+		{
+			byte b = (byte) m_pushback;
+			m_pushback = -1;
+			return b;
+		}
+
+		long r = m_readPos;
+		byte buf[] = m_buffer;
+		byte b = buf[(int) r & (buf.length - 1)];
+		m_readPos = r + 1;
+		return b;
+	}
+
+	/**
+	 * Consumer: preview the next byte without removing it. Test first with
+	 * {@link #available()} whether there is anything in the buffer.
+	 *
+	 * @return the next byte.
+	 */
+	public byte peek ()
+	{
+		if (m_pushback >= 0)
+			return (byte) m_pushback;
+
+		byte buf[] = m_buffer;
+		return buf[(int) m_readPos & (buf.length - 1)];
+	}
+
+	/**
+	 * Consumer: locate the longest contiguous run of unread bytes in the
+	 * storage, starting at the current read position. The bytes can be
+	 * accessed via {@link #getSliceBuffer()} and {@link #getSliceOffset()}
+	 * without copying. They stay in the buffer until they are removed with
+	 * {@link #skip(int)}.
+	 * <p>
+	 * The slice ends at the physical end of the storage, so a wrapped
+	 * buffer needs two calls to be drained completely.
+	 *
+	 * @return the number of bytes in the slice, 0 if the buffer is empty or
+	 *         if a byte has been pushed back with {@link #unread(byte)}.
+	 */
+	public int slice ()
+	{
+		if (m_pushback >= 0 || !available())
+			return 0;
+
+		long r = m_readPos;
+		byte buf[] = m_buffer;
+		int cap = buf.length;
+		int idx = (int) r & (cap - 1);
+
+		m_slice = buf;
+		m_sliceOffset = idx;
+
+		return (int) Math.min(m_writeCache - r, cap - idx);
+	}
+
+	/**
+	 * Consumer: the storage array of the slice found by {@link #slice()}.
+	 * Must not be modified.
+	 *
+	 * @return the array containing the current slice.
+	 */
+	public byte[] getSliceBuffer ()
+	{
+		return m_slice;
+	}
+
+	/**
+	 * Consumer: the position of the slice found by {@link #slice()}.
+	 *
+	 * @return the index of the first byte of the current slice.
+	 */
+	public int getSliceOffset ()
+	{
+		return m_sliceOffset;
+	}
+
+	/**
+	 * Consumer: remove bytes which have been processed in place.
+	 *
+	 * @param n
+	 *            the number of bytes to remove, not more than the length of
+	 *            the last slice.
+	 */
+	public void skip ( int n )
+	{
+		m_readPos = m_readPos + n;
+	}
+
+	/**
+	 * Consumer: push a byte back so that it is returned by the next call to
+	 * {@link #get()}. Only one byte can be pushed back.
+	 *
+	 * @param b
+	 *            the byte to push back.
+	 */
+	public void unread ( byte b )
+	{
+		m_pushback = b & 0xFF;
+	}
+
+	/**
+	 * Consumer: the position in the stream of data put into the buffer.
+	 *
+	 * @return the number of bytes removed since the buffer was created, not
+	 *         counting a byte which has been pushed back.
+	 */
+	public long getReadCount ()
+	{
+		return m_readPos - (m_pushback >= 0 ? 1 : 0);
+	}
+
+	/**
+	 * May be called from any thread. The result is exact only on the
+	 * consumer thread. On the producer thread, e.g. for flow control, it is
+	 * approximate: a byte pushed back by the consumer may not be counted.
+	 *
+	 * @return the number of bytes currently in the buffer.
+	 */
+	public int size ()
+	{
+		long r = m_readPos;
+		return (int) (m_writePos - r) + (m_pushback >= 0 ? 1 : 0);
+	}
+
+	/**
+	 * @return the current capacity of the buffer.
+	 */
+	public int capacity ()
+	{
+		return m_buffer.length;
+	}
+
+	/**
+	 * Producer side statistics.
+	 *
+	 * @return the largest number of bytes seen in the buffer (high water
+	 *         mark).
+	 */
+	public int getMaxSize ()
+	{
+		return m_maxSize;
+	}
+
+	/**
+	 * Producer side statistics.
+	 *
+	 * @return the number of times the producer had to wait for the consumer
+	 *         because the buffer was full.
+	 */
+	public int getStalls ()
+	{
+		return m_stalls;
+	}
+}
@@ -0,0 +1,73 @@
+package mh;
+
+/**
+ * A copy of what the screen shows: the cells of the rows of the view, the
+ * cursor, the status indicators and the soft key labels.
+ * <p>
+ * The parser thread modifies the terminal memory while the event dispatch
+ * thread paints it. Instead of reading the memory, the painter reads a
+ * snapshot which the memory publishes after each complete change, see
+ * {@link TerminalMemory#getSnapshot()}. Three snapshots are passed around
+ * between the two threads, so that neither of them ever waits for the other
+ * and the painter never sees a half updated screen.
+ * <p>
+ * Each row carries the version of the memory row it was copied from. When a
+ * snapshot is brought up to date, only the rows whose version has changed
+ * are copied again.
+ *
+ * @author Martin Hepperle
+ *
+ */
+final class ScreenSnapshot
+{
+	// the cells of the view, row by row, see Cell
+	final int cells[];
+	// the version of each row, see TerminalMemory.markDirty()
+	final int rowVersion[];
+
+	// the cursor column and its row in the view, which may be HEIGHT or
+	// more while the scrollback is shown
+	int cursorX;
+	int cursorRow;
+	// the cursor row relative to the memory rows of the view
+	int cursorY;
+	boolean cursorVisible;
+	boolean insertMode;
+	boolean keyboardLocked;
+	// true if soft key labels are shown, with the captions of the selected
+	// set
+	boolean keyLabelVisible;
+	final SoftKeys softKeys = new SoftKeys();
+
+	// true if published but not yet taken by the painter
+	boolean fresh;
+
+	/**
+	 * Create an empty snapshot, all rows will be copied by the first update.
+	 *
+	 * @param width
+	 *            the number of cells in a row.
+	 * @param height
+	 *            the number of rows.
+	 */
+	ScreenSnapshot(int width, int height)
+	{
+		cells = new int[width * height];
+		rowVersion = new int[height];
+
+		for (int row = 0; row < height; row++)
+			rowVersion[row] = -1;
+	}
+
+	/**
+	 * @param row
+	 *            the screen row.
+	 * @param col
+	 *            the column.
+	 * @return the cell shown at this position.
+	 */
+	int getCell ( int row, int col )
+	{
+		return cells[row * TerminalMemory.WIDTH + col];
+	}
+}
@@ -0,0 +1,260 @@
+package mh;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+/**
+ * The lines which have scrolled off the top of the terminal memory, so that
+ * the operator can scroll back through long output.
+ * <p>
+ * The lines are collected in blocks of {@link #BLOCK_LINES}. The newest
+ * block is kept as cells, full blocks are compressed: runs of cells with the
+ * same attribute and character set are stored once, followed by their
+ * characters in one byte each, runs of empty cells without characters. A
+ * short line of text takes about a tenth of its size as cells. Compressed
+ * blocks are expanded again only when the view reaches them, the last few
+ * are cached for scrolling.
+ * <p>
+ * When the configured number of lines is exceeded, the oldest block is
+ * dropped.
+ *
+ * @author Martin Hepperle
+ *
+ */
+final class Scrollback
+{
+	// lines per block, the unit of compression
+	static final int BLOCK_LINES = 64;
+	// expanded blocks kept for scrolling
+	private static final int CACHE_BLOCKS = 4;
+	// the upper half of Cell.EMPTY: attribute and set of an empty cell
+	private static final int EMPTY_STYLE = Cell.EMPTY >>> 16;
+
+	private final int m_Width;
+	private final int m_MaxBlocks;
+
+	// compressed blocks, the oldest first
+	private final ArrayList<byte[]> m_Blocks = new ArrayList<byte[]>();
+	// number of blocks dropped so far, identifies the blocks in the cache
+	private long m_Dropped;
+	private long m_CompressedBytes;
+
+	// the newest lines, not yet compressed
+	private final int m_Hot[];
+	private int m_HotLines;
+
+	// expanded blocks, identified by m_Dropped + index in m_Blocks
+	private final long m_CacheID[] = new long[CACHE_BLOCKS];
+	private final int m_Cache[][] = new int[CACHE_BLOCKS][];
+	private int m_CacheNext;
+
+	private final ByteArrayOutputStream m_Out = new ByteArrayOutputStream();
+
+	/**
+	 * Create an empty scrollback.
+	 *
+	 * @param width
+	 *            the number of cells in a line.
+	 * @param maxLines
+	 *            the number of lines to keep, rounded up to full blocks.
+	 */
+	Scrollback(int width, int maxLines)
+	{
+		m_Width = width;
+		m_MaxBlocks = Math.max(1, (maxLines + BLOCK_LINES - 1) / BLOCK_LINES);
+		m_Hot = new int[BLOCK_LINES * width];
+
+		for (int i = 0; i < CACHE_BLOCKS; i++)
+			m_CacheID[i] = -1;
+	}
+
+	/**
+	 * @return the number of lines.
+	 */
+	synchronized int size ()
+	{
+		return m_Blocks.size() * BLOCK_LINES + m_HotLines;
+	}
+
+	/**
+	 * @return the size of the compressed blocks in bytes.
+	 */
+	synchronized long getCompressedBytes ()
+	{
+		return m_CompressedBytes;
+	}
+
+	/**
+	 * Add a line at the end.
+	 *
+	 * @param cells
+	 *            the array holding the line.
+	 * @param offset
+	 *            the index of the first cell of the line.
+	 */
+	synchronized void add ( int cells[], int offset )
+	{
+		System.arraycopy(cells, offset, m_Hot, m_HotLines * m_Width, m_Width);
+
+		if (++m_HotLines < BLOCK_LINES)
+			return;
+
+		byte block[] = compress(m_Hot);
+		m_Blocks.add(block);
+		m_CompressedBytes += block.length;
+		m_HotLines = 0;
+
+		if (m_Blocks.size() > m_MaxBlocks)
+		{
+			m_CompressedBytes -= m_Blocks.remove(0).length;
+			m_Dropped++;
+		}
+	}
+
+	/**
+	 * Copy a line.
+	 *
+	 * @param line
+	 *            the line [0...size()-1], 0 is the oldest.
+	 * @param dest
+	 *            the array receiving the cells.
+	 * @param destOff
+	 *            the index of the first cell in dest.
+	 */
+	synchronized void getLine ( int line, int dest[], int destOff )
+	{
+		int block = line / BLOCK_LINES;
+		int data[] = (block == m_Blocks.size()) ? m_Hot : expanded(block);
+
+		System.arraycopy(data, (line % BLOCK_LINES) * m_Width, dest, destOff,
+				m_Width);
+	}
+
+	/**
+	 * @return the cells of a compressed block, from the cache if possible.
+	 */
+	private int[] expanded ( int block )
+	{
+		long id = m_Dropped + block;
+
+		for (int i = 0; i < CACHE_BLOCKS; i++)
+		{
+			if (m_CacheID[i] == id)
+				return m_Cache[i];
+		}
+
+		// replace the oldest entry
+		int slot = m_CacheNext;
+		m_CacheNext = (m_CacheNext + 1) % CACHE_BLOCKS;
+
+		if (m_Cache[slot] == null)
+			m_Cache[slot] = new int[BLOCK_LINES * m_Width];
+		expand(m_Blocks.get(block), m_Cache[slot]);
+		m_CacheID[slot] = id;
+
+		return m_Cache[slot];
+	}
+
+	/**
+	 * Compress a block of cells. A run of cells with the same attribute and
+	 * set is stored as its length times 2, plus 1 if the characters need two
+	 * bytes, the attribute and set in two bytes and the characters, which
+	 * are omitted for empty cells.
+	 */
+	private byte[] compress ( int cells[] )
+	{
+		ByteArrayOutputStream out = m_Out;
+		out.reset();
+
+		int i = 0;
+		while (i < cells.length)
+		{
+			int style = cells[i] >>> 16;
+			boolean wide = false;
+			int j = i;
+			while (j < cells.length && (cells[j] >>> 16) == style)
+			{
+				if (Cell.getChar(cells[j]) > 0xFF)
+					wide = true;
+				j++;
+			}
+
+			writeNumber(out, ((j - i) << 1) | (wide ? 1 : 0));
+			out.write(style >>> 8);
+			out.write(style);
+
+			if (style != EMPTY_STYLE)
+			{
+				for (int k = i; k < j; k++)
+				{
+					char c = Cell.getChar(cells[k]);
+					if (wide)
+						out.write(c >>> 8);
+					out.write(c);
+				}
+			}
+
+			i = j;
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Expand a block written by {@link #compress(int[])}.
+	 */
+	private static void expand ( byte block[], int cells[] )
+	{
+		int pos = 0;
+		int i = 0;
+
+		while (i < cells.length)
+		{
+			// the run length
+			int n = 0;
+			int shift = 0;
+			int b;
+			do
+			{
+				b = block[pos++] & 0xFF;
+				n |= (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while (b >= 0x80);
+
+			boolean wide = (n & 1) != 0;
+			n >>>= 1;
+			int style = ((block[pos] & 0xFF) << 8) | (block[pos + 1] & 0xFF);
+			pos += 2;
+
+			if (style == EMPTY_STYLE)
+			{
+				for (int k = 0; k < n; k++)
+					cells[i++] = Cell.EMPTY;
+			}
+			else
+			{
+				for (int k = 0; k < n; k++)
+				{
+					int c = block[pos++] & 0xFF;
+					if (wide)
+						c = (c << 8) | (block[pos++] & 0xFF);
+					cells[i++] = (style << 16) | c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a number in groups of 7 bits, the lowest first.
+	 */
+	private static void writeNumber ( ByteArrayOutputStream out, int n )
+	{
+		while (n >= 0x80)
+		{
+			out.write((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		out.write(n);
+	}
+}
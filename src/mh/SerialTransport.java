@@ -0,0 +1,225 @@
+package mh;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import jssc.SerialNativeInterface;
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+/**
+ * A connection to the host via a serial port, using the jssc library.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public class SerialTransport extends Transport implements
+		SerialPortEventListener
+{
+	private SerialPort m_Port;
+	private String m_PortName;
+	private int m_Speed;
+	private int m_FlowControl;
+
+	/**
+	 * Create a new serial connection. The port is not opened yet.
+	 * 
+	 * @param portName
+	 *            the port to open, e.g. "COM1" or "\\.\COM27" under Windows.
+	 * @param speed
+	 *            the line speed, e.g. 9600 baud.
+	 * @param flowControl
+	 *            one of the TerminalSettings.FLOW_... constants.
+	 */
+	public SerialTransport(String portName, int speed, int flowControl)
+	{
+		m_PortName = portName;
+		m_Speed = speed;
+		m_FlowControl = flowControl;
+	}
+
+	public void open ( Receiver r ) throws IOException
+	{
+		m_Receiver = r;
+		m_Port = new SerialPort(m_PortName);
+
+		try
+		{
+			m_Port.openPort();
+			m_Port.setParams(m_Speed, SerialPort.DATABITS_8,
+					SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+			// we are ready
+			// m_Port.setDTR(true);
+
+			// receive flow control is driven by the fill level of the ring
+			// buffer, not by the driver. With RTS/CTS our output still obeys
+			// CTS. Automatic XON/XOFF on output cannot be used because the
+			// host sends DC1 as a prompt.
+			if (m_FlowControl == TerminalSettings.FLOW_RTSCTS)
+			{
+				m_Port.setFlowControlMode(SerialPort.FLOWCONTROL_RTSCTS_OUT);
+				m_Port.setRTS(true);
+			}
+			else
+			{
+				m_Port.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
+			}
+
+			m_Port.setEventsMask(SerialPort.MASK_RXCHAR);
+
+			m_Port.addEventListener(this);
+		}
+		catch (SerialPortException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	public void close ()
+	{
+		try
+		{
+			if (m_Port != null && m_Port.isOpened())
+				m_Port.closePort();
+		}
+		catch (SerialPortException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isOpen ()
+	{
+		return m_Port != null && m_Port.isOpened();
+	}
+
+	public String getName ()
+	{
+		return m_PortName;
+	}
+
+	public void write ( byte b[], int off, int len ) throws IOException
+	{
+		if (off != 0 || len != b.length)
+		{
+			byte part[] = new byte[len];
+			System.arraycopy(b, off, part, 0, len);
+			b = part;
+		}
+
+		try
+		{
+			m_Port.writeBytes(b);
+		}
+		catch (SerialPortException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	public void setReceivePaused ( boolean pause ) throws IOException
+	{
+		if (m_FlowControl == TerminalSettings.FLOW_RTSCTS)
+		{
+			try
+			{
+				m_Port.setRTS(!pause);
+			}
+			catch (SerialPortException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+
+	public void sendBreak ( int millis ) throws IOException
+	{
+		try
+		{
+			m_Port.sendBreak(millis);
+		}
+		catch (SerialPortException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Called when new data arrives at the serial port.
+	 * 
+	 * Passes the data on to the receiver.
+	 */
+	public void serialEvent ( SerialPortEvent serialPortEvent )
+	{
+		if (serialPortEvent.isRXCHAR())
+		{
+			int count = serialPortEvent.getEventValue();
+
+			if (count > 0)
+			{
+				try
+				{
+					byte b[] = m_Port.readBytes(count);
+
+					m_Receiver.received(b, 0, b.length);
+				}
+				catch (SerialPortException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Show the settings of the port and the status of the incoming CTS and
+	 * DSR lines.
+	 */
+	public void showStatus ( PrintStream ps )
+	{
+		try
+		{
+			ps.println("Serial Port Settings:");
+
+			ps.println("Port               \t= '" + m_Port.getPortName() + "'");
+			ps.println("Input Buffer Bytes \t= "
+					+ m_Port.getInputBufferBytesCount());
+			ps.println("Output Buffer Bytes\t= "
+					+ m_Port.getOutputBufferBytesCount());
+
+			ps.println("Library Version    \t= "
+					+ SerialNativeInterface.getLibraryVersion());
+
+			ps.print("Operating System    \t= ");
+			int os = SerialNativeInterface.getOsType();
+			String osName = "unknown";
+			switch (os)
+			{
+			case SerialNativeInterface.OS_WINDOWS:
+				osName = "Windows";
+				break;
+			case SerialNativeInterface.OS_LINUX:
+				osName = "Linux";
+				break;
+			case SerialNativeInterface.OS_MAC_OS_X:
+				osName = "MacOs X";
+				break;
+			case SerialNativeInterface.OS_SOLARIS:
+				osName = "Solaris";
+				break;
+			}
+			ps.println("'" + osName + "'");
+
+			int state[] = m_Port.getLinesStatus();
+			ps.println("CTS Status         \t= " + state[0]);
+			ps.println("DSR Status         \t= " + state[1]);
+		}
+		catch (SerialPortException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
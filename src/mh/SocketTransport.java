@@ -0,0 +1,278 @@
+package mh;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A raw TCP connection to the host, e.g. to a terminal server or to a
+ * simulator.
+ * <p>
+ * The socket channel is used in non-blocking mode. A single thread waits in
+ * a selector for incoming data and for room in the send buffer. Bytes are
+ * written directly by the calling thread as long as the socket accepts them,
+ * only the remainder is queued and sent by the selector thread.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public class SocketTransport extends Transport implements Runnable
+{
+	// time to wait for the connection to be established in [ms]
+	private final static int CONNECT_TIMEOUT = 10000;
+
+	private String m_Host;
+	private int m_Port;
+
+	private SocketChannel m_Channel;
+	private Selector m_Selector;
+	private Thread m_Thread;
+
+	// receive buffer, only used by the selector thread
+	private ByteBuffer m_ReadBuffer = ByteBuffer.allocate(8192);
+
+	// data which could not be sent immediately, guarded by itself
+	private final ArrayDeque<ByteBuffer> m_OutputQueue = new ArrayDeque<ByteBuffer>();
+
+	// set by the flow control, read by the selector thread
+	private volatile boolean m_Paused;
+
+	/**
+	 * Create a new TCP connection. The connection is not opened yet.
+	 * 
+	 * @param host
+	 *            the name or address of the host.
+	 * @param port
+	 *            the TCP port number.
+	 */
+	public SocketTransport(String host, int port)
+	{
+		m_Host = host;
+		m_Port = port;
+	}
+
+	public void open ( Receiver r ) throws IOException
+	{
+		m_Receiver = r;
+
+		m_Selector = Selector.open();
+		m_Channel = SocketChannel.open();
+		m_Channel.configureBlocking(false);
+		m_Channel.socket().setTcpNoDelay(true);
+
+		try
+		{
+			if (!m_Channel.connect(new InetSocketAddress(m_Host, m_Port)))
+			{
+				m_Channel.register(m_Selector, SelectionKey.OP_CONNECT);
+
+				if (m_Selector.select(CONNECT_TIMEOUT) == 0)
+					throw new IOException("Timeout connecting to "
+							+ getName());
+
+				m_Channel.finishConnect();
+				m_Selector.selectedKeys().clear();
+			}
+
+			m_Channel.register(m_Selector, SelectionKey.OP_READ);
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+
+		connected();
+
+		m_Thread = new Thread(this, "Transport " + getName());
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}
+
+	/**
+	 * Called after the connection has been established, before any data is
+	 * received. Subclasses may send an initial greeting here.
+	 * 
+	 * @throws IOException
+	 *             if sending fails.
+	 */
+	protected void connected () throws IOException
+	{
+	}
+
+	public void close ()
+	{
+		try
+		{
+			if (m_Channel != null)
+				m_Channel.close();
+			if (m_Selector != null)
+				m_Selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isOpen ()
+	{
+		return m_Channel != null && m_Channel.isOpen();
+	}
+
+	public String getName ()
+	{
+		return m_Host + ":" + m_Port;
+	}
+
+	public void write ( byte b[], int off, int len ) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+
+		synchronized (m_OutputQueue)
+		{
+			// keep the order: only write directly if nothing is queued
+			if (m_OutputQueue.isEmpty())
+				m_Channel.write(bb);
+
+			if (bb.hasRemaining())
+			{
+				// the caller may reuse the array
+				ByteBuffer copy = ByteBuffer.allocate(bb.remaining());
+				copy.put(bb);
+				copy.flip();
+				m_OutputQueue.add(copy);
+				m_Selector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Stop reading from the socket so that the TCP window closes and the host
+	 * has to wait.
+	 */
+	public void setReceivePaused ( boolean pause ) throws IOException
+	{
+		m_Paused = pause;
+		m_Selector.wakeup();
+	}
+
+	public void showStatus ( PrintStream ps )
+	{
+		ps.println("TCP Connection     \t= '" + getName() + "'");
+		ps.println("Local Address      \t= "
+				+ m_Channel.socket().getLocalSocketAddress());
+	}
+
+	/**
+	 * Send the queued data as far as the socket accepts it.
+	 * 
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	private void flushOutput () throws IOException
+	{
+		synchronized (m_OutputQueue)
+		{
+			while (!m_OutputQueue.isEmpty())
+			{
+				ByteBuffer bb = m_OutputQueue.peek();
+				m_Channel.write(bb);
+				if (bb.hasRemaining())
+					break;
+				m_OutputQueue.poll();
+			}
+		}
+	}
+
+	/**
+	 * Pass received data on to the receiver. Subclasses may filter the data
+	 * in place before passing it on.
+	 * 
+	 * @param b
+	 *            the array holding the data.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @throws IOException
+	 *             if a reply to the host cannot be sent.
+	 */
+	protected void received ( byte b[], int off, int len ) throws IOException
+	{
+		m_Receiver.received(b, off, len);
+	}
+
+	/**
+	 * The selector thread.
+	 */
+	public void run ()
+	{
+		try
+		{
+			SelectionKey key = m_Channel.keyFor(m_Selector);
+
+			while (key.isValid())
+			{
+				// what are we waiting for?
+				int ops = m_Paused ? 0 : SelectionKey.OP_READ;
+				synchronized (m_OutputQueue)
+				{
+					if (!m_OutputQueue.isEmpty())
+						ops |= SelectionKey.OP_WRITE;
+				}
+				key.interestOps(ops);
+
+				m_Selector.select();
+
+				// the ready operations of a key which has not been selected,
+				// e.g. after a wakeup(), are those of an earlier select()
+				boolean selected = m_Selector.selectedKeys().remove(key);
+
+				if (!key.isValid())
+					break;
+
+				if (!selected)
+					continue;
+
+				if (key.isWritable())
+					flushOutput();
+
+				if (key.isReadable() && !m_Paused)
+				{
+					m_ReadBuffer.clear();
+					int n = m_Channel.read(m_ReadBuffer);
+
+					if (n < 0)
+						break; // closed by host
+
+					if (n > 0)
+						received(m_ReadBuffer.array(), 0, n);
+				}
+			}
+		}
+		catch (ClosedSelectorException e)
+		{
+			// closed by close()
+		}
+		catch (CancelledKeyException e)
+		{
+			// closed by close()
+		}
+		catch (IOException e)
+		{
+			if (isOpen())
+				e.printStackTrace();
+		}
+
+		close();
+		m_Receiver.closed();
+	}
+}
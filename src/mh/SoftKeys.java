@@ -4,6 +4,9 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.event.KeyEvent;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * row 1 [shift f1] [shift f2] [shift f3] [shift f4] - [5] [6] [7] [8]<br>
@@ -81,6 +84,43 @@ public class SoftKeys
 		buttonCommand[col + row * 8] = command;
 	}
 
+	/**
+	 * Copy the captions of other soft keys, e.g. into a snapshot of the
+	 * screen.
+	 *
+	 * @param from
+	 *            the soft keys to copy.
+	 */
+	void copyLabels ( SoftKeys from )
+	{
+		System.arraycopy(from.buttonLabel, 0, buttonLabel, 0,
+				buttonLabel.length);
+	}
+
+	/**
+	 * Write the labels and commands, e.g. into a keyframe of a capture.
+	 */
+	void writeState ( DataOutput out ) throws IOException
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			out.writeUTF(buttonLabel[i]);
+			out.writeUTF(buttonCommand[i]);
+		}
+	}
+
+	/**
+	 * Read labels and commands written by {@link #writeState(DataOutput)}.
+	 */
+	void readState ( DataInput in ) throws IOException
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			buttonLabel[i] = in.readUTF();
+			buttonCommand[i] = in.readUTF();
+		}
+	}
+
 	/**
 	 * 
 	 * @param pt
@@ -0,0 +1,353 @@
+package mh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the telnet protocol handling of {@link TelnetTransport} against a
+ * stand-in for a telnet server on a local loopback socket. The stand-in
+ * sends commands and data and checks what comes back. Any difference stops
+ * the program with an error and a non-zero exit code.
+ * <p>
+ * Usage: java mh.TelnetLoopback
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class TelnetLoopback implements Transport.Receiver
+{
+	private final static int IAC = TelnetTransport.IAC;
+	private final static int SB = TelnetTransport.SB;
+	private final static int SE = TelnetTransport.SE;
+	private final static int WILL = TelnetTransport.WILL;
+	private final static int WONT = TelnetTransport.WONT;
+	private final static int DO = TelnetTransport.DO;
+	private final static int DONT = TelnetTransport.DONT;
+	private final static int BINARY = TelnetTransport.BINARY;
+	private final static int ECHO = TelnetTransport.ECHO;
+	private final static int SGA = TelnetTransport.SGA;
+	private final static int TTYPE = TelnetTransport.TERMINAL_TYPE;
+	private final static int NAWS = TelnetTransport.NAWS;
+	// an option the transport does not support
+	private final static int UNKNOWN = 99;
+
+	// time to wait for an expected reply in [ms]
+	private final static int REPLY_TIMEOUT = 2000;
+	// time to wait to be sure that there is no reply in [ms]
+	private final static int SILENCE_TIMEOUT = 200;
+	// size of the bulk data
+	private final static int BULK = 1 << 20;
+
+	// the server side of the connection
+	private Socket m_Server;
+	private InputStream m_FromClient;
+	private OutputStream m_ToClient;
+	private TelnetTransport m_Transport;
+
+	// the data passed on by the transport, guarded by itself
+	private final ByteArrayOutputStream m_Received = new ByteArrayOutputStream();
+
+	public static void main ( String[] args ) throws IOException
+	{
+		new TelnetLoopback().run();
+		System.out.println("all telnet checks passed");
+	}
+
+	private void run () throws IOException
+	{
+		ServerSocket listener = new ServerSocket(0);
+		try
+		{
+			// the screen is 255 columns wide so that NAWS has to double a
+			// 255 byte
+			m_Transport = new TelnetTransport("localhost",
+					listener.getLocalPort(), "2627A", 255, 24);
+			m_Transport.open(this);
+			m_Server = listener.accept();
+		}
+		finally
+		{
+			listener.close();
+		}
+
+		m_Server.setTcpNoDelay(true);
+		m_FromClient = m_Server.getInputStream();
+		m_ToClient = m_Server.getOutputStream();
+
+		try
+		{
+			negotiation();
+			terminalType();
+			windowSize();
+			receiveEscapes();
+			splitCommands();
+			bulkData();
+		}
+		finally
+		{
+			m_Transport.close();
+			m_Server.close();
+		}
+	}
+
+	/**
+	 * Options are answered once, repeated requests are not answered again,
+	 * unknown options are refused.
+	 */
+	private void negotiation () throws IOException
+	{
+		send(IAC, DO, TTYPE);
+		expect("DO TTYPE", IAC, WILL, TTYPE);
+		send(IAC, DO, TTYPE);
+		expectNothing("repeated DO TTYPE");
+
+		send(IAC, WILL, ECHO);
+		expect("WILL ECHO", IAC, DO, ECHO);
+		send(IAC, WILL, ECHO);
+		expectNothing("repeated WILL ECHO");
+
+		send(IAC, WONT, ECHO);
+		expect("WONT ECHO", IAC, DONT, ECHO);
+		send(IAC, WONT, ECHO);
+		expectNothing("repeated WONT ECHO");
+
+		send(IAC, DO, UNKNOWN);
+		expect("DO unknown", IAC, WONT, UNKNOWN);
+		send(IAC, WILL, UNKNOWN);
+		expect("WILL unknown", IAC, DONT, UNKNOWN);
+		send(IAC, DONT, UNKNOWN);
+		expectNothing("DONT unknown");
+
+		pass("negotiation");
+	}
+
+	private void terminalType () throws IOException
+	{
+		send(IAC, SB, TTYPE, TelnetTransport.TTYPE_SEND, IAC, SE);
+		expect("TTYPE SEND", IAC, SB, TTYPE, TelnetTransport.TTYPE_IS, '2',
+				'6', '2', '7', 'A', IAC, SE);
+
+		pass("terminal type");
+	}
+
+	private void windowSize () throws IOException
+	{
+		send(IAC, DO, NAWS);
+		expect("DO NAWS", IAC, WILL, NAWS);
+		// 255 columns: the low byte is doubled
+		expect("NAWS 255x24", IAC, SB, NAWS, 0, 255, 255, 0, 24, IAC, SE);
+
+		m_Transport.setWindowSize(256, 48);
+		expect("NAWS 256x48", IAC, SB, NAWS, 1, 0, 0, 48, IAC, SE);
+
+		pass("window size");
+	}
+
+	/**
+	 * IAC IAC is a data byte 255, CR NUL a bare CR. Not in binary mode yet.
+	 */
+	private void receiveEscapes () throws IOException
+	{
+		send('A', IAC, IAC, 'B', '\r', 0, 'C', '\r', '\n');
+		expectData("IAC IAC, CR NUL", bytes('A', 255, 'B', '\r', 'C', '\r',
+				'\n'));
+
+		pass("receive escapes");
+	}
+
+	/**
+	 * Commands and subnegotiations arriving in pieces, one byte per call of
+	 * received(). The bytes are handed to the transport directly, TCP could
+	 * join them again.
+	 */
+	private void splitCommands () throws IOException
+	{
+		byte data[] = bytes('X', IAC, WILL, SGA, 'Y', IAC, IAC, 'Z', IAC, SB,
+				TTYPE, TelnetTransport.TTYPE_SEND, IAC, SE, '\r', 0, '!');
+
+		for (int i = 0; i < data.length; i++)
+			m_Transport.received(new byte[] { data[i] }, 0, 1);
+
+		expectData("split commands", bytes('X', 'Y', 255, 'Z', '\r', '!'));
+		expect("split WILL SGA", IAC, DO, SGA);
+		expect("split TTYPE SEND", IAC, SB, TTYPE, TelnetTransport.TTYPE_IS,
+				'2', '6', '2', '7', 'A', IAC, SE);
+
+		pass("split commands");
+	}
+
+	/**
+	 * In binary mode every byte value passes unchanged in both directions,
+	 * apart from the doubling of 255 on the wire.
+	 */
+	private void bulkData () throws IOException
+	{
+		send(IAC, WILL, BINARY);
+		expect("WILL BINARY", IAC, DO, BINARY);
+		send(IAC, DO, BINARY);
+		expect("DO BINARY", IAC, WILL, BINARY);
+
+		byte data[] = new byte[BULK];
+		new Random(1).nextBytes(data);
+
+		// server to client
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		for (int i = 0; i < data.length; i++)
+		{
+			wire.write(data[i]);
+			if ((data[i] & 0xFF) == IAC)
+				wire.write(IAC);
+		}
+		m_ToClient.write(wire.toByteArray());
+		m_ToClient.flush();
+		expectData("bulk to client", data);
+
+		// client to server
+		m_Transport.write(data, 0, data.length);
+		expect("bulk to server", wire.toByteArray());
+
+		pass("bulk data");
+	}
+
+	public void received ( byte b[], int off, int len )
+	{
+		synchronized (m_Received)
+		{
+			m_Received.write(b, off, len);
+			m_Received.notifyAll();
+		}
+	}
+
+	public void closed ()
+	{
+	}
+
+	/**
+	 * Send bytes from the server to the transport.
+	 */
+	private void send ( int... b ) throws IOException
+	{
+		m_ToClient.write(bytes(b));
+		m_ToClient.flush();
+	}
+
+	/**
+	 * Check that the transport has sent these bytes to the server.
+	 */
+	private void expect ( String what, int... b ) throws IOException
+	{
+		expect(what, bytes(b));
+	}
+
+	private void expect ( String what, byte expected[] ) throws IOException
+	{
+		byte got[] = new byte[expected.length];
+		int n = 0;
+
+		m_Server.setSoTimeout(REPLY_TIMEOUT);
+		try
+		{
+			while (n < got.length)
+			{
+				int r = m_FromClient.read(got, n, got.length - n);
+				if (r < 0)
+					break;
+				n += r;
+			}
+		}
+		catch (SocketTimeoutException e)
+		{
+			// reported below
+		}
+
+		check(what, Arrays.equals(expected, got), expected, got, n);
+	}
+
+	/**
+	 * Check that the transport does not answer.
+	 */
+	private void expectNothing ( String what ) throws IOException
+	{
+		m_Server.setSoTimeout(SILENCE_TIMEOUT);
+		try
+		{
+			int c = m_FromClient.read();
+			if (c >= 0)
+				fail(what + ": unexpected reply starting with " + c);
+		}
+		catch (SocketTimeoutException e)
+		{
+			// as expected
+		}
+	}
+
+	/**
+	 * Check that the transport has passed this data on to the receiver and
+	 * nothing else.
+	 */
+	private void expectData ( String what, byte expected[] )
+	{
+		byte got[];
+
+		synchronized (m_Received)
+		{
+			long until = System.currentTimeMillis() + REPLY_TIMEOUT;
+			long now;
+			while (m_Received.size() < expected.length
+					&& (now = System.currentTimeMillis()) < until)
+			{
+				try
+				{
+					m_Received.wait(until - now);
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+			}
+			got = m_Received.toByteArray();
+			m_Received.reset();
+		}
+
+		check(what, Arrays.equals(expected, got), expected, got, got.length);
+	}
+
+	private static void check ( String what, boolean ok, byte expected[],
+			byte got[], int n )
+	{
+		if (ok)
+			return;
+
+		int i = 0;
+		while (i < n && i < expected.length && expected[i] == got[i])
+			i++;
+
+		fail(what + ": expected " + expected.length + " bytes, got " + n
+				+ ", first difference at byte " + i);
+	}
+
+	private static void fail ( String message )
+	{
+		throw new IllegalStateException(message);
+	}
+
+	private static void pass ( String what )
+	{
+		System.out.println("ok  " + what);
+	}
+
+	private static byte[] bytes ( int... b )
+	{
+		byte a[] = new byte[b.length];
+		for (int i = 0; i < b.length; i++)
+			a[i] = (byte) b[i];
+		return a;
+	}
+}
@@ -0,0 +1,438 @@
+package mh;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A telnet connection to the host (RFC 854).
+ * <p>
+ * Telnet commands (IAC sequences) are removed from the received data in
+ * place by a small state machine, before the data is passed on to the
+ * receiver. The state is kept between calls, so that commands may be split
+ * across network packets. Plain data is copied in runs, not byte by byte.
+ * <p>
+ * The following options are accepted, all others are refused:
+ * <ul>
+ * <li>BINARY (RFC 856) in both directions, so that the 8 bit graphics data
+ * passes unchanged,</li>
+ * <li>ECHO (RFC 857) by the server,</li>
+ * <li>SUPPRESS-GO-AHEAD (RFC 858) in both directions,</li>
+ * <li>TERMINAL-TYPE (RFC 1091), answered with the answerback string of the
+ * emulated terminal,</li>
+ * <li>NAWS (RFC 1073), answered with the size of the alpha screen.</li>
+ * </ul>
+ * The client does not ask for options itself, it answers the requests of the
+ * server. An option is only acknowledged when its state actually changes, so
+ * that negotiation cannot loop (RFC 854, "Telnet Option Negotiation").
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class TelnetTransport extends SocketTransport
+{
+	public final static int DEFAULT_PORT = 23;
+
+	// commands
+	final static int SE = 240; // subnegotiation end
+	final static int SB = 250; // subnegotiation begin
+	final static int WILL = 251;
+	final static int WONT = 252;
+	final static int DO = 253;
+	final static int DONT = 254;
+	final static int IAC = 255;
+
+	// options
+	final static int BINARY = 0;
+	final static int ECHO = 1;
+	final static int SGA = 3;
+	final static int TERMINAL_TYPE = 24;
+	final static int NAWS = 31;
+
+	// TERMINAL-TYPE subcommands
+	final static int TTYPE_IS = 0;
+	final static int TTYPE_SEND = 1;
+
+	// receiver states
+	private final static int S_DATA = 0;
+	private final static int S_IAC = 1;
+	private final static int S_OPTION = 2;
+	private final static int S_SB = 3;
+	private final static int S_SB_IAC = 4;
+	private final static int S_CR = 5;
+
+	private final static int CR = 13;
+	private final static int NUL = 0;
+
+	private int m_State = S_DATA;
+	// WILL, WONT, DO or DONT while waiting for the option code
+	private int m_Command;
+
+	// subnegotiation data, the first byte is the option
+	private byte m_SubBuffer[] = new byte[64];
+	private int m_SubLength;
+
+	// options enabled on our side (we WILL) and on the server side (he WILL)
+	private boolean m_Local[] = new boolean[256];
+	private boolean m_Remote[] = new boolean[256];
+
+	private String m_TerminalType;
+	private int m_Columns;
+	private int m_Rows;
+
+	/**
+	 * Create a new telnet connection. The connection is not opened yet.
+	 *
+	 * @param host
+	 *            the name or address of the host.
+	 * @param port
+	 *            the TCP port number, normally DEFAULT_PORT.
+	 * @param terminalType
+	 *            the name reported for TERMINAL-TYPE, e.g. "2627A".
+	 * @param columns
+	 *            the width of the screen in characters, reported for NAWS.
+	 * @param rows
+	 *            the height of the screen in characters, reported for NAWS.
+	 */
+	public TelnetTransport(String host, int port, String terminalType,
+			int columns, int rows)
+	{
+		super(host, port);
+
+		m_TerminalType = terminalType;
+		m_Columns = columns;
+		m_Rows = rows;
+	}
+
+	public String getName ()
+	{
+		return "telnet://" + super.getName();
+	}
+
+	public void showStatus ( PrintStream ps )
+	{
+		super.showStatus(ps);
+		ps.println("Terminal Type      \t= '" + m_TerminalType + "'");
+		ps.println("Window Size        \t= " + m_Columns + " x " + m_Rows);
+		ps.println("Binary             \t= " + m_Local[BINARY] + "/"
+				+ m_Remote[BINARY]);
+		ps.println("Remote Echo        \t= " + m_Remote[ECHO]);
+	}
+
+	/**
+	 * Send data to the host. Data bytes 0xFF are doubled so that they are not
+	 * taken for an IAC. Outside of binary mode a CR is followed by NUL, as
+	 * required for the network virtual terminal.
+	 */
+	public void write ( byte b[], int off, int len ) throws IOException
+	{
+		boolean binary = m_Local[BINARY];
+		int end = off + len;
+		int extra = 0;
+
+		for (int i = off; i < end; i++)
+		{
+			int c = b[i] & 0xFF;
+			if (c == IAC || (c == CR && !binary))
+				extra++;
+		}
+
+		if (extra == 0)
+		{
+			super.write(b, off, len);
+			return;
+		}
+
+		byte out[] = new byte[len + extra];
+		int w = 0;
+
+		for (int i = off; i < end; i++)
+		{
+			int c = b[i] & 0xFF;
+			out[w++] = (byte) c;
+			if (c == IAC)
+				out[w++] = (byte) IAC;
+			else if (c == CR && !binary)
+				out[w++] = (byte) NUL;
+		}
+
+		super.write(out, 0, w);
+	}
+
+	/**
+	 * Report a new screen size to the host, if it has asked for it.
+	 *
+	 * @param columns
+	 *            the width of the screen in characters.
+	 * @param rows
+	 *            the height of the screen in characters.
+	 * @throws IOException
+	 *             if the report cannot be sent.
+	 */
+	public void setWindowSize ( int columns, int rows ) throws IOException
+	{
+		m_Columns = columns;
+		m_Rows = rows;
+
+		if (isOpen())
+			sendWindowSize();
+	}
+
+	/**
+	 * Remove all telnet commands from the received data and answer option
+	 * requests. The data is compacted in place. Commands may be split across
+	 * calls.
+	 */
+	protected void received ( byte b[], int off, int len ) throws IOException
+	{
+		int end = off + len;
+		int w = off;
+		int i = off;
+
+		while (i < end)
+		{
+			if (m_State == S_DATA)
+			{
+				// fast path: copy a run of plain data
+				boolean binary = m_Remote[BINARY];
+				int start = i;
+				while (i < end)
+				{
+					int c = b[i] & 0xFF;
+					if (c == IAC || (c == CR && !binary))
+						break;
+					i++;
+				}
+
+				int n = i - start;
+				if (w != start)
+					System.arraycopy(b, start, b, w, n);
+				w += n;
+
+				if (i == end)
+					break;
+			}
+
+			int c = b[i++] & 0xFF;
+
+			switch (m_State)
+			{
+			case S_DATA:
+				if (c == IAC)
+				{
+					m_State = S_IAC;
+				}
+				else
+				{
+					// CR outside of binary mode
+					b[w++] = (byte) c;
+					m_State = S_CR;
+				}
+				break;
+
+			case S_CR:
+				// CR NUL stands for a bare CR
+				m_State = S_DATA;
+				if (c == IAC)
+					m_State = S_IAC;
+				else if (c == CR)
+				{
+					b[w++] = (byte) c;
+					m_State = S_CR;
+				}
+				else if (c != NUL)
+					b[w++] = (byte) c;
+				break;
+
+			case S_IAC:
+				if (c == IAC)
+				{
+					// escaped 0xFF data byte
+					b[w++] = (byte) c;
+					m_State = S_DATA;
+				}
+				else if (c >= WILL && c <= DONT)
+				{
+					m_Command = c;
+					m_State = S_OPTION;
+				}
+				else if (c == SB)
+				{
+					m_SubLength = 0;
+					m_State = S_SB;
+				}
+				else
+				{
+					// NOP, GA, AYT etc.: ignore
+					m_State = S_DATA;
+				}
+				break;
+
+			case S_OPTION:
+				negotiate(m_Command, c);
+				m_State = S_DATA;
+				break;
+
+			case S_SB:
+				if (c == IAC)
+					m_State = S_SB_IAC;
+				else
+					subData(c);
+				break;
+
+			case S_SB_IAC:
+				if (c == SE)
+				{
+					subnegotiate();
+					m_State = S_DATA;
+				}
+				else
+				{
+					// IAC IAC is a data byte 0xFF
+					subData(c);
+					m_State = S_SB;
+				}
+				break;
+			}
+		}
+
+		if (w > off)
+			super.received(b, off, w - off);
+	}
+
+	/**
+	 * @return true if we are prepared to enable the option on our side.
+	 */
+	private static boolean supportsLocal ( int option )
+	{
+		return option == BINARY || option == SGA || option == TERMINAL_TYPE
+				|| option == NAWS;
+	}
+
+	/**
+	 * @return true if we allow the server to enable the option on his side.
+	 */
+	private static boolean supportsRemote ( int option )
+	{
+		return option == BINARY || option == ECHO || option == SGA;
+	}
+
+	/**
+	 * Answer a WILL, WONT, DO or DONT request of the server.
+	 */
+	private void negotiate ( int command, int option ) throws IOException
+	{
+		switch (command)
+		{
+		case WILL:
+			if (!supportsRemote(option))
+				sendCommand(DONT, option);
+			else if (!m_Remote[option])
+			{
+				m_Remote[option] = true;
+				sendCommand(DO, option);
+			}
+			break;
+
+		case WONT:
+			if (m_Remote[option])
+			{
+				m_Remote[option] = false;
+				sendCommand(DONT, option);
+			}
+			break;
+
+		case DO:
+			if (!supportsLocal(option))
+				sendCommand(WONT, option);
+			else if (!m_Local[option])
+			{
+				m_Local[option] = true;
+				sendCommand(WILL, option);
+			}
+			if (option == NAWS && m_Local[NAWS])
+				sendWindowSize();
+			break;
+
+		case DONT:
+			if (m_Local[option])
+			{
+				m_Local[option] = false;
+				sendCommand(WONT, option);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Collect one byte of subnegotiation data. Excess data is dropped.
+	 */
+	private void subData ( int c )
+	{
+		if (m_SubLength < m_SubBuffer.length)
+			m_SubBuffer[m_SubLength++] = (byte) c;
+	}
+
+	/**
+	 * Handle a complete subnegotiation IAC SB ... IAC SE.
+	 */
+	private void subnegotiate () throws IOException
+	{
+		if (m_SubLength >= 2 && m_SubBuffer[0] == TERMINAL_TYPE
+				&& m_SubBuffer[1] == TTYPE_SEND && m_Local[TERMINAL_TYPE])
+		{
+			// IAC SB TERMINAL-TYPE IS <name> IAC SE
+			byte name[] = m_TerminalType.getBytes("US-ASCII");
+			byte reply[] = new byte[name.length + 6];
+			reply[0] = (byte) IAC;
+			reply[1] = (byte) SB;
+			reply[2] = (byte) TERMINAL_TYPE;
+			reply[3] = (byte) TTYPE_IS;
+			System.arraycopy(name, 0, reply, 4, name.length);
+			reply[name.length + 4] = (byte) IAC;
+			reply[name.length + 5] = (byte) SE;
+			super.write(reply, 0, reply.length);
+		}
+	}
+
+	/**
+	 * Send IAC SB NAWS width height IAC SE if NAWS has been agreed on.
+	 */
+	private void sendWindowSize () throws IOException
+	{
+		if (!m_Local[NAWS])
+			return;
+
+		byte reply[] = new byte[13];
+		int w = 0;
+		reply[w++] = (byte) IAC;
+		reply[w++] = (byte) SB;
+		reply[w++] = (byte) NAWS;
+		w = putSubByte(reply, w, m_Columns >> 8);
+		w = putSubByte(reply, w, m_Columns);
+		w = putSubByte(reply, w, m_Rows >> 8);
+		w = putSubByte(reply, w, m_Rows);
+		reply[w++] = (byte) IAC;
+		reply[w++] = (byte) SE;
+		super.write(reply, 0, w);
+	}
+
+	/**
+	 * Store a byte of subnegotiation data, doubling 0xFF.
+	 */
+	private static int putSubByte ( byte b[], int w, int c )
+	{
+		b[w++] = (byte) c;
+		if ((c & 0xFF) == IAC)
+			b[w++] = (byte) IAC;
+		return w;
+	}
+
+	/**
+	 * Send IAC command option, bypassing the IAC doubling of write().
+	 */
+	private void sendCommand ( int command, int option ) throws IOException
+	{
+		super.write(new byte[] { (byte) IAC, (byte) command, (byte) option },
+				0, 3);
+	}
+}
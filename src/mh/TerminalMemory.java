@@ -0,0 +1,1788 @@
+package mh;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The memory of the alphanumeric terminal: the character and attribute
+ * buffer of all pages, the cursor, TAB stops, margins, character sets and
+ * soft key labels.
+ * <p>
+ * This class contains no user interface code and can be used without a
+ * display. A view, e.g. a {@link TerminalScreen}, observes the memory through
+ * a {@link Listener} and paints it.
+ * <p>
+ * Modifications are collected as damage: for each row of the visible screen
+ * the range of modified columns. When an operation is complete the listener
+ * is told which rows, which status information and whether the cursor have
+ * changed, so that it can redraw just these parts.
+ *
+ * @author Martin Hepperle, July 2019
+ *
+ */
+public class TerminalMemory
+{
+	/**
+	 * Receives notifications when the memory has been modified.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called after characters in a row of the visible screen have
+		 * changed.
+		 *
+		 * @param row
+		 *            the screen row [0...HEIGHT-1]
+		 * @param firstCol
+		 *            the first modified column [0...WIDTH-1]
+		 * @param lastCol
+		 *            the last modified column [firstCol...WIDTH-1]
+		 */
+		void rowChanged ( int row, int firstCol, int lastCol );
+
+		/**
+		 * Called after the modes shown in the status lines or the soft key
+		 * labels have changed.
+		 */
+		void statusChanged ();
+
+		/**
+		 * Called after the cursor has been moved or switched on or off.
+		 *
+		 * @param oldRow
+		 *            the screen row of the cursor at the last notification.
+		 * @param oldCol
+		 *            the column of the cursor at the last notification.
+		 */
+		void cursorMoved ( int oldRow, int oldCol );
+	}
+
+	// the size of one screen
+	public static int WIDTH = 80;
+	public static int HEIGHT = 24;
+	// number of pages each with WIDTH x HEIGHT characters.
+	int PAGES = 4;
+
+	// we have two character sets
+	static final int CS_PRIMARY = 0;
+	static final int CS_ALTERNATE = 1;
+	// the set for new characters, stored with each cell
+	int currentCharSet;
+	// set primary character set by ESC
+	private int primaryCharSet = CS_ROMAN;
+	private int alternateCharSet = CS_ROMAN;
+
+	// primary and alternate character set can be one of
+	static final int CS_ROMAN = 0;
+	static final int CS_LINEDRAW = 1;
+	static final int CS_MATH = 2;
+
+	static final int NUL = 0x00;
+	static final int BS = 0x08;
+	static final int HT = 0x09;
+	static final int LF = 0x0A;
+	static final int VT = 0x0B;
+	static final int FF = 0x0C;
+	static final int CR = 0x0D;
+	static final int SO = 0x0E;
+	static final int SI = 0x0F;
+
+	int xCursor; // 0...WIDTH-1
+	int yCursor; // 0...HEIGHT-1
+	// TAB stops: 1== set, 0== free
+	byte tabStop[] = new byte[WIDTH];
+	// screen memory: character, attribute and character set of each cell,
+	// see Cell
+	int cells[] = new int[HEIGHT * WIDTH * PAGES];
+	// The rows of the memory are a ring of line slots in cells[]: row r is
+	// stored at slot lineMap[(lineTop + r) % rows]. Scrolling the memory
+	// only advances lineTop, inserting and deleting lines moves slot
+	// numbers instead of cells. All other indices are memory indices
+	// row * WIDTH + column, see cellIndex().
+	private final int lineMap[] = createLineMap(HEIGHT * PAGES);
+	private int lineTop = 0;
+	// scratch space for unwrapLineMap(), so that no garbage is created
+	private final int lineScratch[] = new int[HEIGHT * PAGES];
+
+	// the lines which have scrolled off the top of the memory, may be null
+	private Scrollback scrollback;
+	// the configured size of the scrollback, see setScrollback()
+	private int scrollbackLines = 0;
+	// number of scrollback lines shown above the memory rows of the view,
+	// 0 unless the operator has scrolled back, see scrollBack()
+	private int viewBack = 0;
+	// format of writeState(), changes with the layout of the cells
+	private static final int STATE_VERSION = 2;
+	// CCCCC.U.V.I = bits 7...0
+	final static int ATTRIB_INTENSE_MASK = 0x0001;
+	final static int ATTRIB_INVERSE_MASK = 0x0002;
+	final static int ATTRIB_UNDERLINE_MASK = 0x0004;
+	final static int ATTRIB_COLOR_MASK = (0x1F << 3); // 0...31 color
+
+	int currentAttribute = 0;
+
+	int leftMargin;
+	int rightMargin;
+	int savedX;
+	int savedY;
+	int savedAttribute;
+
+	// the starting index defines the index of the character shown in the upper
+	// left corner of the current view.
+	// It must be in the range [0...(PAGES-1)*WIDTH*HEIGHT].
+	int idxStart = 0; // starting index of current view
+
+	static final int SOFTKEYS_MODE = 1;
+	static final int SOFTKEYS_USER = 2;
+	int softKeyMode; // SOFTKEYS_MODE or SOFTKEYS_USER
+	SoftKeys softKeysSystem;
+	SoftKeys softKeysUser;
+
+	boolean keyLabelVisible;
+
+	boolean cursorVisible;
+
+	private boolean m_displayFunctions;
+
+	private boolean wrapLines;
+	boolean m_insertMode;
+	boolean m_keyboardLocked;
+
+	private Listener m_Listener;
+
+	// damage since the last notification in screen coordinates: the rows
+	// with modified cells and the range of modified columns in each row
+	private BitSet dirtyRows = new BitSet(HEIGHT);
+	private int dirtyFirstCol[] = new int[HEIGHT];
+	private int dirtyLastCol[] = new int[HEIGHT];
+	private boolean statusDirty;
+	// incremented whenever a screen row is marked dirty, tells which rows of
+	// a snapshot are out of date
+	private final int rowVersion[] = new int[HEIGHT];
+	// snapshots of the screen for the painter: the one being updated by
+	// changed(), the latest published one and the one being painted
+	private ScreenSnapshot snapshotBack = new ScreenSnapshot(WIDTH, HEIGHT);
+	private final AtomicReference<ScreenSnapshot> snapshotReady = new AtomicReference<ScreenSnapshot>(
+			new ScreenSnapshot(WIDTH, HEIGHT));
+	private ScreenSnapshot snapshotFront = new ScreenSnapshot(WIDTH, HEIGHT);
+	// cursor at the last notification
+	private int notifiedX;
+	private int notifiedY;
+	private boolean notifiedCursorVisible;
+
+	/**
+	 * Create a new, empty terminal memory.
+	 */
+	public TerminalMemory()
+	{
+		resetDefaults(true);
+	}
+
+	/**
+	 * Define the observer of this memory.
+	 *
+	 * @param l
+	 *            the listener to notify about changes, may be null.
+	 */
+	public void setListener ( Listener l )
+	{
+		m_Listener = l;
+	}
+
+	/**
+	 * Notify the listener of the damage collected since the last call and
+	 * reset it.
+	 */
+	private void changed ()
+	{
+		// before the listener schedules a repaint
+		publishSnapshot();
+
+		Listener l = m_Listener;
+
+		if (l != null)
+		{
+			for (int row = dirtyRows.nextSetBit(0); row >= 0; row = dirtyRows
+					.nextSetBit(row + 1))
+				l.rowChanged(row, dirtyFirstCol[row], dirtyLastCol[row]);
+
+			if (statusDirty)
+				l.statusChanged();
+
+			if (xCursor != notifiedX || yCursor != notifiedY
+					|| cursorVisible != notifiedCursorVisible)
+				l.cursorMoved(notifiedY, notifiedX);
+		}
+
+		dirtyRows.clear();
+		statusDirty = false;
+		notifiedX = xCursor;
+		notifiedY = yCursor;
+		notifiedCursorVisible = cursorVisible;
+	}
+
+	/**
+	 * Record that the cells in the given range of memory have been modified.
+	 * Cells outside of the visible screen are ignored.
+	 *
+	 * @param idxFirst
+	 *            index of the first modified cell.
+	 * @param idxLast
+	 *            index of the last modified cell.
+	 */
+	private void markDirty ( int idxFirst, int idxLast )
+	{
+		// any change brings the view back from the scrollback
+		if (viewBack > 0)
+		{
+			viewBack = 0;
+			markAllDirty();
+		}
+
+		idxFirst = Math.max(idxFirst, idxBOS()) - idxStart;
+		idxLast = Math.min(idxLast, idxEOS()) - idxStart;
+
+		if (idxFirst > idxLast)
+			return;
+
+		int rowFirst = idxFirst / WIDTH;
+		int rowLast = idxLast / WIDTH;
+
+		for (int row = rowFirst; row <= rowLast; row++)
+		{
+			int first = (row == rowFirst) ? idxFirst % WIDTH : 0;
+			int last = (row == rowLast) ? idxLast % WIDTH : WIDTH - 1;
+
+			if (dirtyRows.get(row))
+			{
+				first = Math.min(first, dirtyFirstCol[row]);
+				last = Math.max(last, dirtyLastCol[row]);
+			}
+			else
+				dirtyRows.set(row);
+
+			dirtyFirstCol[row] = first;
+			dirtyLastCol[row] = last;
+			rowVersion[row]++;
+		}
+	}
+
+	/**
+	 * Record that the whole screen has to be redrawn, e.g. after the view
+	 * has been moved.
+	 */
+	private void markAllDirty ()
+	{
+		dirtyRows.set(0, HEIGHT);
+		Arrays.fill(dirtyFirstCol, 0);
+		Arrays.fill(dirtyLastCol, WIDTH - 1);
+		statusDirty = true;
+
+		for (int row = 0; row < HEIGHT; row++)
+			rowVersion[row]++;
+	}
+
+	/**
+	 * Bring the back snapshot up to date and publish it for the painter.
+	 * Only the rows which have changed since the snapshot was last updated
+	 * are copied. Synchronized only against other modifying threads, the
+	 * painter does not take the lock.
+	 */
+	private synchronized void publishSnapshot ()
+	{
+		ScreenSnapshot s = snapshotBack;
+
+		for (int row = 0; row < HEIGHT; row++)
+		{
+			if (s.rowVersion[row] != rowVersion[row])
+			{
+				getViewRow(row, s.cells, row * WIDTH);
+				s.rowVersion[row] = rowVersion[row];
+			}
+		}
+
+		s.cursorX = xCursor;
+		s.cursorY = yCursor;
+		s.cursorRow = yCursor + viewBack;
+		s.cursorVisible = cursorVisible;
+		s.insertMode = m_insertMode;
+		s.keyboardLocked = m_keyboardLocked;
+
+		// the captions of the selected soft keys, the strings are immutable
+		SoftKeys keys = null;
+		if (softKeyMode == SOFTKEYS_MODE)
+			keys = softKeysSystem;
+		else if (softKeyMode == SOFTKEYS_USER)
+			keys = softKeysUser;
+		s.keyLabelVisible = keyLabelVisible && keys != null;
+		if (s.keyLabelVisible)
+			s.softKeys.copyLabels(keys);
+		s.fresh = true;
+
+		// take back the previous one, which the painter has not taken or
+		// has returned
+		snapshotBack = snapshotReady.getAndSet(s);
+	}
+
+	/**
+	 * Get a consistent copy of the screen for painting. Must always be
+	 * called from the same thread, the event dispatch thread.
+	 *
+	 * @return the latest published snapshot, valid until the next call.
+	 */
+	ScreenSnapshot getSnapshot ()
+	{
+		if (snapshotReady.get().fresh)
+		{
+			// return the painted one, take the new one
+			snapshotFront.fresh = false;
+			snapshotFront = snapshotReady.getAndSet(snapshotFront);
+		}
+		return snapshotFront;
+	}
+
+	public void resetDefaults ( boolean hard )
+	{
+		// cursor to upper left of view
+		xCursor = 0;
+		yCursor = 0;
+
+		leftMargin = 0;
+		rightMargin = WIDTH - 1;
+
+		currentAttribute = 0;
+		wrapLines = true;
+
+		keyLabelVisible = true;
+		softKeyMode = SOFTKEYS_MODE;
+		softKeysSystem = new SoftKeys();
+		softKeysSystem.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_8, " Config");
+		softKeysSystem.setButtonText(SoftKeys.ROW_BOT, SoftKeys.F_8, "  Keys");
+
+		softKeysUser = new SoftKeys();
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_1, "   f1");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_2, "   f2");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_3, "   f3");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_4, "   f4");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_5, "   f5");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_6, "   f6");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_7, "   f7");
+		softKeysUser.setButtonText(SoftKeys.ROW_TOP, SoftKeys.F_8, "   f8");
+
+		cursorVisible = true;
+
+		m_insertMode = false;
+		m_keyboardLocked = false;
+		m_displayFunctions = true;
+
+		saveCursor();
+
+		if (hard)
+			clearMemory();
+
+		setDefaultTabs(8);
+
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Write the complete state: the memory of all pages, the cursor, the
+	 * modes and the soft keys. Used for the keyframes of a capture.
+	 *
+	 * @param out
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if the stream cannot be written.
+	 */
+	public void writeState ( DataOutput out ) throws IOException
+	{
+		out.writeInt(WIDTH);
+		out.writeInt(HEIGHT);
+		out.writeInt(PAGES);
+		out.writeInt(STATE_VERSION);
+
+		// in the order of the rows, independent of the slots
+		for (int row = 0; row < lineMap.length; row++)
+		{
+			int p = rowOffset(row);
+			for (int col = 0; col < WIDTH; col++)
+				out.writeInt(cells[p + col]);
+		}
+		out.write(tabStop);
+
+		out.writeInt(xCursor);
+		out.writeInt(yCursor);
+		out.writeInt(idxStart);
+		out.writeInt(currentAttribute);
+		out.writeInt(leftMargin);
+		out.writeInt(rightMargin);
+		out.writeInt(savedX);
+		out.writeInt(savedY);
+		out.writeInt(savedAttribute);
+
+		out.writeInt(currentCharSet);
+		out.writeInt(primaryCharSet);
+		out.writeInt(alternateCharSet);
+
+		out.writeInt(softKeyMode);
+		softKeysSystem.writeState(out);
+		softKeysUser.writeState(out);
+
+		out.writeBoolean(keyLabelVisible);
+		out.writeBoolean(cursorVisible);
+		out.writeBoolean(m_displayFunctions);
+		out.writeBoolean(wrapLines);
+		out.writeBoolean(m_insertMode);
+		out.writeBoolean(m_keyboardLocked);
+	}
+
+	/**
+	 * Restore a state written by {@link #writeState(DataOutput)} and redraw
+	 * everything. The scrollback is not part of the state, it is emptied.
+	 *
+	 * @param in
+	 *            the stream to read from.
+	 * @throws IOException
+	 *             if the stream cannot be read or the state is for a memory
+	 *             of a different size.
+	 */
+	public void readState ( DataInput in ) throws IOException
+	{
+		if (in.readInt() != WIDTH || in.readInt() != HEIGHT
+				|| in.readInt() != PAGES)
+			throw new IOException("Terminal memory size does not match.");
+		if (in.readInt() != STATE_VERSION)
+			throw new IOException("Terminal memory state has an old format.");
+
+		lineTop = 0;
+		for (int row = 0; row < lineMap.length; row++)
+			lineMap[row] = row;
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = in.readInt();
+		in.readFully(tabStop);
+
+		xCursor = in.readInt();
+		yCursor = in.readInt();
+		idxStart = in.readInt();
+		currentAttribute = in.readInt();
+		leftMargin = in.readInt();
+		rightMargin = in.readInt();
+		savedX = in.readInt();
+		savedY = in.readInt();
+		savedAttribute = in.readInt();
+
+		currentCharSet = in.readInt();
+		primaryCharSet = in.readInt();
+		alternateCharSet = in.readInt();
+
+		softKeyMode = in.readInt();
+		softKeysSystem.readState(in);
+		softKeysUser.readState(in);
+
+		keyLabelVisible = in.readBoolean();
+		cursorVisible = in.readBoolean();
+		m_displayFunctions = in.readBoolean();
+		wrapLines = in.readBoolean();
+		m_insertMode = in.readBoolean();
+		m_keyboardLocked = in.readBoolean();
+
+		// the scrollback belongs to another point of the session
+		setScrollback(scrollbackLines);
+	}
+
+	/**
+	 * Select one of the two available character sets.
+	 *
+	 * @param idxSet
+	 *            - either CS_PRIMARY or CS_ALTERNATE.
+	 */
+	public void selectCharset ( int idxSet )
+	{
+		int charSet = (idxSet == CS_ALTERNATE) ? alternateCharSet
+				: primaryCharSet;
+
+		// characters already on the screen keep their set
+		currentCharSet = charSet;
+	}
+
+	/**
+	 * Define the font to be used for the primary character set.
+	 *
+	 * @param charSet
+	 *            - either CS_ROMAN, CS_LINEDRAW or CS_MATH.
+	 */
+	public void setPrimaryCharset ( int charSet )
+	{
+		primaryCharSet = charSet;
+	}
+
+	/**
+	 * Define the font to be used for the alternate character set.
+	 *
+	 * @param charSet
+	 *            either - CS_ROMAN, CS_LINEDRAW or CS_MATH.
+	 */
+	public void setAlternateCharset ( int charSet )
+	{
+		alternateCharSet = charSet;
+	}
+
+	public void setDisplayFunctions ( boolean onoff )
+	{
+		m_displayFunctions = onoff;
+	}
+
+	/**
+	 * Clear all TAB stops.
+	 */
+	public void clearAllTabs ()
+	{
+		for (int i = 0; i < WIDTH; i++)
+			tabStop[i] = 0;
+	}
+
+	/**
+	 * Distribute TAB stops in regular intervals.
+	 *
+	 * @param step
+	 *            The horizontal position increment from TAB to TAB. <br>
+	 *
+	 *            Example: TAB step = 5 - a TAB in in every 5th column.
+	 *
+	 *            <pre>
+	 *            1   5   9   13  17  21   screen coordinates
+	 *            |   |   |   |   |   |
+	 *            123456789012345678901234567890
+	 *            |   |   |   |   |   |
+	 *            0   4   8   12  16  20   array index
+	 * </pre>
+	 */
+	public void setDefaultTabs ( int step )
+	{
+		clearAllTabs();
+		for (int i = 0; i < WIDTH; i += (step - 1))
+			tabStop[i] = 1;
+	}
+
+	/**
+	 * Set a TAB stop at the current cursor position.
+	 */
+	public void setTab ()
+	{
+		tabStop[xCursor] = 1;
+	}
+
+	/**
+	 * Clear any TAB stop at the current cursor position.
+	 */
+	public void clearTab ()
+	{
+		tabStop[xCursor] = 0;
+	}
+
+	/**
+	 * Set a TAB stop at the given cursor position.
+	 *
+	 * @param x
+	 *            The horizontal position where a TAB stop is set [1...WIDTH].
+	 */
+	public void setTab ( int x )
+	{
+		if (x <= WIDTH && x > 0)
+			tabStop[x - 1] = 1;
+	}
+
+	/**
+	 * Clear any TAB stop at the given cursor position.
+	 *
+	 * @param x
+	 *            The horizontal position where a TAB stop is removed
+	 *            [1...WIDTH].
+	 */
+	public void clearTab ( int x )
+	{
+		if (x <= WIDTH && x > 0)
+			tabStop[x - 1] = 0;
+	}
+
+	/**
+	 *
+	 * @return The next TAB position in [1...WIDTH].<br>
+	 *         If there is no following TAB stop the current position is
+	 *         returned,
+	 */
+	public int nextTab ()
+	{
+		// start one column after current position
+		int i = xCursor + 1;
+
+		for (; i < WIDTH; i++)
+			if (tabStop[i] == 1)
+				break;
+
+		// no tab found: stay where we are
+		if (i == WIDTH)
+			i = xCursor;
+
+		return i;
+	}
+
+	/**
+	 *
+	 * @return The previous TAB position in [1...WIDTH].<br>
+	 *         If there is no preceding TAB stop the current position is
+	 *         returned,
+	 */
+	public int prevTab ()
+	{
+		// start one column before current position
+		int i = xCursor - 1;
+
+		for (; i >= 0; i--)
+			if (tabStop[i] == 1)
+				break;
+
+		// no tab found: stay where we are
+		if (i < 0)
+			i = xCursor;
+
+		return i;
+	}
+
+	public void saveCursor ()
+	{
+		savedX = xCursor;
+		savedY = yCursor;
+		savedAttribute = currentAttribute;
+	}
+
+	public void restoreCursor ()
+	{
+		xCursor = savedX;
+		yCursor = savedY;
+		currentAttribute = savedAttribute;
+	}
+
+	/**
+	 * Define the behavior of the cursor at the end of a line.
+	 *
+	 * @param enable
+	 *            if true, the cursor wraps to the next line. The screen scrolls
+	 *            up if the end of the view is reached and the cursor is not yet
+	 *            at the end of the screen memory.
+	 */
+	public void setLineWrap ( boolean enable )
+	{
+		wrapLines = enable;
+	}
+
+	/**
+	 * Clear the visible screen. The view is filled with blank characters.
+	 */
+	public void clearScreen ()
+	{
+		clear(idxStart, idxStart + HEIGHT * WIDTH - 1);
+	}
+
+	/**
+	 * Clear the complete screen memory. The page memory is filled with blank
+	 * characters.
+	 */
+	public void clearMemory ()
+	{
+		clear(idxBOM(), idxEOM());
+	}
+
+	/**
+	 * Fill a region of memory by filling with Space characters. Also resets the
+	 * attribute byte for each cell.
+	 *
+	 * @param idxFirst
+	 *            index of first character to clear.
+	 * @param idxLast
+	 *            index of last character to clear.
+	 */
+	public void clear ( int idxFirst, int idxLast )
+	{
+		// one fill for each run of rows whose slots are adjacent in cells[]
+		for (int idx = idxFirst; idx <= idxLast;)
+		{
+			int p = cellIndex(idx);
+			int last = Math.min((idx / WIDTH + 1) * WIDTH - 1, idxLast);
+			while (last < idxLast
+					&& rowOffset(last / WIDTH + 1) == p + last + 1 - idx)
+				last = Math.min(last + WIDTH, idxLast);
+			Cell.fill(cells, p, p + last - idx, Cell.EMPTY);
+			idx = last + 1;
+		}
+
+		markDirty(idxFirst, idxLast);
+		changed();
+	}
+
+	/**
+	 * Set the character insert mode. If true, subsequent characters are
+	 * inserted, otherwise they overwrite.
+	 *
+	 * @param onoff
+	 *            True if the insert mode shall be activated, otherwise False.
+	 */
+	public void setInsertMode ( boolean onoff )
+	{
+		m_insertMode = onoff;
+		statusDirty = true;
+		changed();
+	}
+
+	/**
+	 * Toggle the character insert mode flag.
+	 */
+	public void toggleInsertMode ()
+	{
+		setInsertMode(!m_insertMode);
+	}
+
+	/**
+	 * @return True if the insert mode is active.
+	 */
+	boolean isInsertMode ()
+	{
+		return m_insertMode;
+	}
+
+	/**
+	 * Set the keyboard locked flag.
+	 *
+	 * @param yesno
+	 *            True if the keyboard shall be locked, False otherwise..
+	 */
+	void lockKeyboard ( boolean yesno )
+	{
+		m_keyboardLocked = yesno;
+		statusDirty = true;
+		changed();
+	}
+
+	/**
+	 * @return True if the keyboard is currently locked, False if not.
+	 */
+	boolean isKeyboardLocked ()
+	{
+		return m_keyboardLocked;
+	}
+
+	/**
+	 * Set the cursor visibility flag.
+	 *
+	 * @param yesno
+	 *            True if the cursor shall be shown, False otherwise..
+	 */
+	void setcursorVisible ( boolean yesno )
+	{
+		cursorVisible = yesno;
+		changed();
+	}
+
+	/**
+	 * Insert one or more blank characters at the current position. All
+	 * following characters up to the end of the line are shifted right by
+	 * count. The last characters at the end of the line are lost. The cursor
+	 * position is not updated
+	 *
+	 * @param count
+	 *            The number of blanks to insert.
+	 */
+	public void insertCharsInLine ( int count )
+	{
+		int p = rowOffset(idxBOL() / WIDTH) + xCursor;
+		int n = Math.min(count, WIDTH - xCursor);
+
+		// one move and one fill, whatever the count
+		Cell.move(cells, p, p + n, WIDTH - xCursor - n);
+		Cell.fill(cells, p, p + n - 1,
+				Cell.pack(' ', currentAttribute, currentCharSet));
+		markDirty(idxCursor(), idxEOL());
+		changed();
+	}
+
+	/**
+	 * Delete one or more characters at the current position and shift the rest
+	 * of the line to the left. Blank character(s) are inserted at the end of
+	 * the line.
+	 *
+	 * @param count
+	 *            The number of characters to delete.
+	 */
+	public void deleteCharsInLine ( int count )
+	{
+		int bol = rowOffset(idxBOL() / WIDTH);
+		int n = Math.min(count, WIDTH - xCursor);
+
+		// end of line moves n columns to the left
+		Cell.move(cells, bol + xCursor + n, bol + xCursor, WIDTH - xCursor - n);
+		Cell.fill(cells, bol + WIDTH - n, bol + WIDTH - 1, Cell.EMPTY);
+		markDirty(idxCursor(), idxEOL());
+		changed();
+	}
+
+	/**
+	 * @return The index of the first character in the current view.
+	 */
+	private int idxBOS ()
+	{
+		return idxStart;
+	}
+
+	/**
+	 * @return The index of the first character in memory.
+	 */
+	private int idxBOM ()
+	{
+		return 0;
+	}
+
+	/**
+	 * @return The index of the last character at end of current view.
+	 */
+	private int idxEOS ()
+	{
+		return idxStart + WIDTH * HEIGHT - 1;
+	}
+
+	/**
+	 * @return The index of the last character at end of memory.
+	 */
+	private int idxEOM ()
+	{
+		return WIDTH * HEIGHT * PAGES - 1;
+	}
+
+	/**
+	 * @return The index of the current cursor position.
+	 */
+	private int idxCursor ()
+	{
+		return idxBOL() + xCursor;
+	}
+
+	/**
+	 * @return The index of the first character on current line.
+	 */
+	private int idxBOL ()
+	{
+		return idxStart + yCursor * WIDTH;
+	}
+
+	/**
+	 * @return The index of the last character on current line.
+	 */
+	private int idxEOL ()
+	{
+		return idxStart + (yCursor + 1) * WIDTH - 1;
+	}
+
+	/**
+	 * @return a ring of line slots in their initial order.
+	 */
+	private static int[] createLineMap ( int rows )
+	{
+		int map[] = new int[rows];
+		for (int row = 0; row < rows; row++)
+			map[row] = row;
+		return map;
+	}
+
+	/**
+	 * Rotate the ring of line slots so that memory row 0 is at its start and
+	 * row r at lineMap[r]. Ranges of rows can then be moved with a single
+	 * copy.
+	 */
+	private void unwrapLineMap ()
+	{
+		if (lineTop == 0)
+			return;
+
+		System.arraycopy(lineMap, 0, lineScratch, 0, lineTop);
+		System.arraycopy(lineMap, lineTop, lineMap, 0, lineMap.length - lineTop);
+		System.arraycopy(lineScratch, 0, lineMap, lineMap.length - lineTop,
+				lineTop);
+		lineTop = 0;
+	}
+
+	/**
+	 * @return the position of a memory row in the ring of line slots.
+	 */
+	private int ringIndex ( int row )
+	{
+		int i = lineTop + row;
+		return (i >= lineMap.length) ? i - lineMap.length : i;
+	}
+
+	/**
+	 * @param row
+	 *            the memory row [0...HEIGHT*PAGES-1]
+	 * @return the index in cells[] of the first cell of the row. The cells of
+	 *         one row are adjacent.
+	 */
+	int rowOffset ( int row )
+	{
+		return lineMap[ringIndex(row)] * WIDTH;
+	}
+
+	/**
+	 * @param idx
+	 *            a memory index, row * WIDTH + column.
+	 * @return the index of the cell in cells[].
+	 */
+	private int cellIndex ( int idx )
+	{
+		return rowOffset(idx / WIDTH) + idx % WIDTH;
+	}
+
+	/**
+	 *
+	 * @return - the starting row of the screen relative to memory.
+	 */
+	public int getStartRow ()
+	{
+		return idxStart / WIDTH;
+	}
+
+	/**
+	 * Return the text contained in a line of the current screen view.
+	 *
+	 * @param row
+	 *            the screen row [0...HEIGHT-1]
+	 * @param offset
+	 *            the starting column [0...WIDTH-1]
+	 * @param count
+	 *            the number of characters to copy [1...WIDTH-offset]
+	 *
+	 * @return The text contained in the given part of the line. If the number
+	 *         of defined characters in the line is shorter than offset+count
+	 *         only the defined length is returned.
+	 */
+	String getScreenLine ( int row, int offset, int count )
+	{
+		return getMemoryLine(row + getStartRow(), offset, count);
+	}
+
+	/**
+	 * Return a line from global screen memory.
+	 *
+	 * @param row
+	 *            the memory row [0...HEIGHT*PAGES-1]
+	 * @param offset
+	 *            the starting column [0...WIDTH-1]
+	 * @param count
+	 *            the number of columns to copy [1...WIDTH-offset]
+	 * @return a string with the characters starting at offset to the end of the
+	 *         line. If the number of defined characters in the line is shorter
+	 *         than offset+count only the defined length is returned.
+	 */
+	String getMemoryLine ( int row, int offset, int count )
+	{
+		if (row < 0)
+			row = 0; // first row
+		else if (row >= HEIGHT * PAGES)
+			row = HEIGHT - 1; // last row
+
+		if (offset < 0)
+			offset = 0; // first character
+		else if (offset >= WIDTH)
+			offset = WIDTH - 1; // last character
+
+		// now clip count to line length
+		if (offset + count > WIDTH)
+			count = WIDTH - offset;
+
+		// check line for used length
+		int p = rowOffset(row) + offset;
+		for (int i = 0; i < count; i++)
+		{
+			if (cells[p + i] == Cell.EMPTY)
+			{
+				count = i;
+				break;
+			}
+		}
+
+		char line[] = new char[count];
+		for (int i = 0; i < count; i++)
+			line[i] = Cell.getChar(cells[p + i]);
+
+		return new String(line);
+	}
+
+	/**
+	 * Erase from the cursor to the start of the current screen.
+	 */
+	public void clearToBOS ()
+	{
+		clear(idxBOS(), idxCursor());
+	}
+
+	/**
+	 * Erase from the cursor to the end of the memory.
+	 */
+	public void clearToEOM ()
+	{
+		clear(idxCursor(), idxEOM());
+	}
+
+	/**
+	 * Erase from the cursor to the end of the current screen.
+	 */
+	public void clearToEOS ()
+	{
+		clear(idxCursor(), idxEOS());
+	}
+
+	/**
+	 * Erase from the cursor position (inclusive) to the end of line.
+	 */
+	public void clearToEOL ()
+	{
+		clear(idxCursor(), idxEOL());
+	}
+
+	/**
+	 * Erase from the cursor position (inclusive) to the start of line.
+	 */
+	public void clearToBOL ()
+	{
+		clear(idxBOL(), idxCursor());
+	}
+
+	/**
+	 * Erase one or more characters starting at the cursor position. Does not
+	 * erase beyond the end of the line.
+	 *
+	 * @param count
+	 *            The number of characters to erase.
+	 */
+	public void clearChars ( int count )
+	{
+		int idxLast = idxCursor() + count - 1;
+		if (idxLast > idxEOL())
+			idxLast = idxEOL();
+		else if (idxLast <= idxCursor())
+			idxLast = idxCursor();
+
+		clear(idxCursor(), idxLast);
+	}
+
+	/**
+	 * Erase the entire line
+	 */
+	public void clearLine ()
+	{
+		clear(idxBOL(), idxEOL());
+	}
+
+	/**
+	 * Insert a new blank line at the current cursor row position and scroll the
+	 * current and all following lines down. The last line at the end of memory
+	 * is lost.
+	 */
+	public void insertLine ()
+	{
+		/**
+		 * <pre>
+		 * 1          1
+		 * 2          2
+		 * 3  x,y     new
+		 * 4          3
+		 * ...        ...
+		 * 24         23
+		 * </pre>
+		 */
+
+		// move the slots down from the end to the line below the current
+		// line, the slot of the last line becomes the new current line
+		int row = idxBOL() / WIDTH;
+		int last = lineMap.length - 1;
+		unwrapLineMap();
+		int slot = lineMap[last];
+		System.arraycopy(lineMap, row, lineMap, row + 1, last - row);
+		lineMap[row] = slot;
+		markDirty(idxBOL() + WIDTH, idxEOS());
+
+		// clear new current line
+		clear(idxBOL(), idxEOL());
+	}
+
+	/**
+	 * Delete the current line and scroll the following lines up. A new empty
+	 * line will appended to the bottom of the memory buffer.
+	 */
+	public void deleteCurrentLine ()
+	{
+		/**
+		 * <pre>
+		 * 1          1
+		 * 2          2  >
+		 * 3  x,y     4  > line 3 is deleted
+		 * 4          5
+		 * ...        24
+		 * 24         new
+		 * </pre>
+		 */
+
+		// move the slots up, the slot of the current line becomes the last
+		// line
+		int row = idxBOL() / WIDTH;
+		int last = lineMap.length - 1;
+		unwrapLineMap();
+		int slot = lineMap[row];
+		System.arraycopy(lineMap, row + 1, lineMap, row, last - row);
+		lineMap[last] = slot;
+		markDirty(idxBOL(), idxEOS());
+
+		// clear last (new) line
+		clear(idxEOM() - WIDTH + 1, idxEOM());
+	}
+
+	/**
+	 * Move the cursor to the upper left of the screen .
+	 */
+	public void homeScreenUp ()
+	{
+		xCursor = 0;
+		yCursor = 0;
+		// view starts at
+		if (idxStart != idxBOM())
+		{
+			idxStart = idxBOM();
+			markAllDirty();
+		}
+		changed();
+	}
+
+	/**
+	 * Move the cursor to the lower left of the screen .
+	 */
+	public void homeScreenDown ()
+	{
+		xCursor = 0;
+		yCursor = HEIGHT - 1;
+		changed();
+	}
+
+	/**
+	 * Shift the viewport up by one line so that the paper moves one line down.
+	 *
+	 * @param rows
+	 *            The number of rows to scroll up.
+	 */
+	public void scrollScreenUp ( int rows )
+	{
+		idxStart -= WIDTH * rows; // one line
+		clipViewToMemory();
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Shift the viewport down by one line so that the paper moves one line up.
+	 *
+	 * @param rows
+	 *            The number of rows to scroll down.
+	 */
+	public void scrollScreenDown ( int rows )
+	{
+		idxStart += WIDTH * rows; // one line
+		clipViewToMemory();
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Shift the viewport up by one page so that the paper moves down. There is
+	 * an overlap of of one line (the top line becomes the new bottom line).
+	 */
+	public void pageScreenUp ()
+	{
+		idxStart -= WIDTH * (HEIGHT - 1); // one screen
+		clipViewToMemory();
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Move the view for reading: up through the memory and then through the
+	 * scrollback, or down again. Used by the keys of the operator. The view
+	 * returns to the memory as soon as the memory is modified.
+	 *
+	 * @param rows
+	 *            The number of rows to move the view up, negative to move
+	 *            it down.
+	 */
+	public void scrollBack ( int rows )
+	{
+		if (rows > 0)
+		{
+			int inMemory = Math.min(rows, idxStart / WIDTH);
+			idxStart -= WIDTH * inMemory;
+
+			int lines = (scrollback != null) ? scrollback.size() : 0;
+			viewBack = Math.min(viewBack + rows - inMemory, lines);
+		}
+		else
+		{
+			int fromScrollback = Math.min(-rows, viewBack);
+			viewBack -= fromScrollback;
+			idxStart += WIDTH * (-rows - fromScrollback);
+			clipViewToMemory();
+		}
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Keep lines which scroll off the top of the memory.
+	 *
+	 * @param lines
+	 *            the number of lines to keep, 0 for none.
+	 */
+	public void setScrollback ( int lines )
+	{
+		scrollbackLines = lines;
+		scrollback = (lines > 0) ? new Scrollback(WIDTH, lines) : null;
+		viewBack = 0;
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * @return the number of lines in the scrollback.
+	 */
+	public int getScrollbackSize ()
+	{
+		return (scrollback != null) ? scrollback.size() : 0;
+	}
+
+	/**
+	 * Copy the cells of a row of the current view, which may be a line of
+	 * the scrollback.
+	 *
+	 * @param row
+	 *            the screen row [0...HEIGHT-1]
+	 * @param dest
+	 *            receives WIDTH cells.
+	 * @param destOff
+	 *            the index of the first cell in dest.
+	 */
+	private void getViewRow ( int row, int dest[], int destOff )
+	{
+		if (row < viewBack)
+			scrollback.getLine(scrollback.size() - viewBack + row, dest,
+					destOff);
+		else
+			System.arraycopy(cells, rowOffset(getStartRow() + row - viewBack),
+					dest, destOff, WIDTH);
+	}
+
+	/**
+	 * @return the row of the cursor in the view, HEIGHT or more if the view
+	 *         shows the scrollback so far up that the cursor is below it.
+	 */
+	int getCursorViewRow ()
+	{
+		return yCursor + viewBack;
+	}
+
+	/**
+	 * Shift the viewport down by one page so that the paper moves up. There is
+	 * an overlap of of one line (the bottom line becomes the new top line).
+	 */
+	public void pageScreenDown ()
+	{
+		idxStart += WIDTH * (HEIGHT - 1); // one screen
+		clipViewToMemory();
+		markAllDirty();
+		changed();
+	}
+
+	/**
+	 * Shift the viewport down by one line by shifting the memory up. Delete the
+	 * first line in memory and move the following lines up. Clear the new last
+	 * line.
+	 */
+	public void scrollMemoryDown ()
+	{
+		if (scrollback != null)
+			scrollback.add(cells, rowOffset(0));
+
+		// rotate the ring: the first line becomes the last
+		lineTop = ringIndex(1);
+		markDirty(idxBOS(), idxEOS());
+
+		// clear new bottom line
+		clear(idxEOM() - WIDTH + 1, idxEOM());
+	}
+
+	/**
+	 * Set the cursor position relative to the current view.
+	 *
+	 * @param row
+	 *            row of cursor cell [0...HEIGHT-1]
+	 * @param col
+	 *            column of cursor cell [0...WIDTH-1]
+	 */
+	public void setCursorRelScreen ( int row, int col )
+	{
+		xCursor = col;
+		yCursor = row;
+		clipCursorToScreen();
+		changed();
+	}
+
+	/**
+	 * Set the cursor position relative to memory.
+	 *
+	 * @param row
+	 *            row of cursor cell [0...MEMORY_ROWS-1]
+	 * @param col
+	 *            column of cursor cell [0...WIDTH-1]
+	 */
+	public void setCursorRelMemory ( int row, int col )
+	{
+		xCursor = col;
+		yCursor = row - idxStart / WIDTH;
+
+		if (yCursor < 0)
+		{
+			// scroll view up so that row is at top
+			scrollScreenUp(-yCursor);
+		}
+		else if (yCursor >= HEIGHT)
+		{
+			// scroll view down so that row is at bottom
+			scrollScreenDown(yCursor - HEIGHT + 2);
+		}
+		clipCursorToScreen();
+		changed();
+	}
+
+	/**
+	 * Move the cursor position by increment.
+	 *
+	 * @param deltaRow
+	 *            row movement +=down, -=up
+	 * @param deltaCol
+	 *            column movement, +=right, -=left
+	 */
+	public void moveCursor ( int deltaRow, int deltaCol )
+	{
+		xCursor += deltaCol;
+		yCursor += deltaRow;
+
+		if (xCursor < 0)
+		{
+			// wrap at left edge
+			xCursor = WIDTH - 1;
+			yCursor--;
+		}
+		else if (xCursor >= WIDTH)
+		{
+			// wrap at right edge
+			xCursor = 0;
+			yCursor++;
+		}
+
+		// wrap on bottom or top
+		if (yCursor < 0)
+			yCursor = HEIGHT - 1;
+		else if (yCursor >= HEIGHT)
+			yCursor = 0;
+
+		changed();
+	}
+
+	/**
+	 * Make sure that the cursor is inside screen bounds.
+	 * <p>
+	 * x must be within [1...WIDTH].<br>
+	 * y must be within [1...HEIGHT].
+	 */
+	private void clipCursorToScreen ()
+	{
+		if (xCursor < 0)
+			xCursor = 0;
+		else if (xCursor >= WIDTH)
+			xCursor = WIDTH - 1;
+
+		if (yCursor < 0)
+			yCursor = 0;
+		else if (yCursor >= HEIGHT)
+			yCursor = HEIGHT - 1;
+	}
+
+	/**
+	 * Make sure that the current viewport is completely inside the memory
+	 * bounds.
+	 * <p>
+	 * idxStart must be [0...(PAGES-1)*WIDTH*HEIGHT].
+	 */
+	private void clipViewToMemory ()
+	{
+		if (idxStart < 0)
+			idxStart = 0;
+		else if (idxStart > (PAGES - 1) * WIDTH * HEIGHT)
+			idxStart = (PAGES - 1) * WIDTH * HEIGHT;
+	}
+
+	/**
+	 * Set the attribute byte for the following characters. This attribute will
+	 * be used in all subsequent calls to putChar().
+	 *
+	 * @param a
+	 *            0 == normal<br>
+	 *            1 == highlight<br>
+	 *            7 == inverse<br>
+	 *            30...37 == foreground color<br>
+	 *            40...47 == background color<br>
+	 */
+	public void setAttribute ( byte a )
+	{
+		// attribute
+		// CCCCC.UVI = bits 7...0
+		// byte ATTRIB_INTENSE_MASK = (byte) 0x01;
+		// byte ATTRIB_INVERSE_MASK = (byte) 0x02;
+		// byte ATTRIB_UNDERLINE_MASK = (byte) 0x04;
+		// byte ATTRIB_COLOR_MASK = (byte) (0x1F << 3); // 0...31
+
+		if (a == 0)
+		{
+			// clear
+			currentAttribute = a;
+		}
+		else if (a == 1)
+		{
+			// add intense bit
+			currentAttribute |= ATTRIB_INTENSE_MASK;
+		}
+		else if (a == 7)
+		{
+			// add inverse bit
+			currentAttribute |= ATTRIB_INVERSE_MASK;
+		}
+		else if (a == 4 || a == 5) // UNDERLINE
+		{
+			// add underline bit
+			currentAttribute |= ATTRIB_UNDERLINE_MASK;
+		}
+		else if (a == 22)
+		{
+			// remove intense bit
+			currentAttribute &= ~ATTRIB_INTENSE_MASK;
+		}
+		else if (a == 24 || a == 25)
+		{
+			// remove underline bit
+			currentAttribute &= ~ATTRIB_UNDERLINE_MASK;
+		}
+		else if (a == 27)
+		{
+			// remove inverse bit
+			currentAttribute &= ~ATTRIB_INVERSE_MASK;
+		}
+		else if (a == 39 || a == 49)
+		{
+			// default color
+			currentAttribute &= ~ATTRIB_COLOR_MASK;
+		}
+		else if (a >= 30 && a <= 37)
+		{
+			// we have 5 bits for back and fore color = 31 combinations
+			// translate 30...37 -> 0...7
+			// 11111000 = ATTRIB_COLOR_MASK
+			// 00000111 = ~ATTRIB_COLOR_MASK
+			currentAttribute = (byte) ((currentAttribute & ~ATTRIB_COLOR_MASK) | ((a - 30) << 3));
+		}
+		else if (a >= 40 && a <= 47)
+		{
+			// translate 40...47 -> 8...15
+			currentAttribute = (byte) ((currentAttribute & ~ATTRIB_COLOR_MASK) | ((a - 40 + 8) << 3));
+		}
+
+		changed();
+	}
+
+	public void putString ( String s )
+	{
+		char c[] = s.toCharArray();
+
+		for (int i = 0; i < c.length; i++)
+			putByte((byte) c[i]);
+	}
+
+	public void putBytes ( byte b[] )
+	{
+		putBytes(b, 0, b.length);
+	}
+
+	/**
+	 * Write a run of bytes. Printable characters are copied into the screen
+	 * memory line by line in one pass, control characters are handled like in
+	 * {@link #putByte(byte)}. The listener is notified only once for the whole
+	 * run.
+	 *
+	 * @param b
+	 *            the source array.
+	 * @param off
+	 *            the index of the first byte to write.
+	 * @param len
+	 *            the number of bytes to write.
+	 */
+	public void putBytes ( byte b[], int off, int len )
+	{
+		int end = off + len;
+
+		while (off < end)
+		{
+			if (b[off] < ' ' || m_insertMode)
+			{
+				// control character or 8-bit code
+				writeByte(b[off++]);
+				continue;
+			}
+
+			// copy printable characters up to the end of the line
+			int idx = idxCursor();
+			int p = cellIndex(idx);
+			int n = Math.min(end - off, WIDTH - xCursor);
+			int i = 0;
+			// the same attribute and set for the whole run
+			int cell = Cell.pack((char) 0, currentAttribute, currentCharSet);
+
+			while (i < n && b[off + i] >= ' ')
+			{
+				cells[p + i] = cell | b[off + i];
+				i++;
+			}
+
+			markDirty(idx, idx + i - 1);
+			off += i;
+			xCursor += i;
+
+			if (xCursor >= WIDTH)
+				endOfLine();
+		}
+
+		changed();
+	}
+
+	public void putByte ( byte b )
+	{
+		writeByte(b);
+		changed();
+	}
+
+	/**
+	 * Handle one byte like {@link #putByte(byte)}, but do not notify the
+	 * listener.
+	 *
+	 * @param b
+	 *            the byte to write.
+	 */
+	private void writeByte ( byte b )
+	{
+		if (b == LF || b == VT || b == FF)
+		{
+			yCursor++;
+
+			if (yCursor >= HEIGHT) // below last line
+			{
+				// stay in last row
+				yCursor = HEIGHT - 1;
+
+				if (idxBOL() < idxEOM() - WIDTH + 1)
+				{
+					// not at end of memory
+					// scroll screen window down
+					scrollScreenDown(1);
+					// clear uncovered new line at bottom
+					clearLine();
+				}
+				else
+				{
+					// at last line in memory
+					// delete first line in memory
+					// scroll memory up and clear last line
+					scrollMemoryDown();
+				}
+			}
+		}
+		else if (b == CR)
+		{
+			xCursor = 0;
+			// also reset any attribute
+			currentAttribute = 0;
+		}
+		else if (b == BS)
+		{
+			xCursor--;
+
+			if (xCursor < 0)
+				xCursor = 0;
+		}
+		else if (b == HT)
+		{
+			// TAB to next TAB stop
+			int xNewCursor = nextTab();
+
+			if (m_insertMode)
+			{
+				// insert empty space
+				insertCharsInLine(xNewCursor - xCursor);
+			}
+			xCursor = xNewCursor;
+		}
+		else if (b == SO)
+		{
+			// shift out: following characters in the alternate set
+			selectCharset(CS_ALTERNATE);
+		}
+		else if (b == SI)
+		{
+			// shift in: following characters in the primary set
+			selectCharset(CS_PRIMARY);
+		}
+		else if (b == NUL)
+		{
+			// skip NULL characters
+		}
+		else
+		{
+			// control character?
+			if (b < 32 && !m_displayFunctions)
+				return;
+
+			int idx = idxCursor();
+
+			if (m_insertMode)
+			{
+				// empty space for new character
+				insertCharsInLine(1);
+			}
+
+			cells[cellIndex(idx)] = Cell.pack((char) b, currentAttribute,
+					currentCharSet);
+			markDirty(idx, idx);
+			xCursor++;
+
+			if (xCursor >= WIDTH)
+				endOfLine();
+		}
+	}
+
+	/**
+	 * Called when the cursor has moved beyond the last column.
+	 */
+	private void endOfLine ()
+	{
+		if (wrapLines)
+		{
+			// if line wrap is enabled
+			// send CR character
+			writeByte((byte) 13);
+			// send LF character (will scroll display)
+			writeByte((byte) 10);
+		}
+		else
+		{
+			// stay in last column of current line
+			xCursor = WIDTH - 1;
+		}
+	}
+
+	public boolean isKeyLabelsVisible ()
+	{
+		return keyLabelVisible;
+	}
+
+	public void setKeyLabelsVisible ( boolean visible )
+	{
+		keyLabelVisible = visible;
+		statusDirty = true;
+		changed();
+	}
+
+	/**
+	 *
+	 * @param which
+	 *            - SOFTKEYS_MODE or SOFTKEYS_USER
+	 */
+	public void setKeyLabels ( int which )
+	{
+		softKeyMode = which;
+		statusDirty = true;
+		changed();
+	}
+
+	public void toggleKeyLabels ()
+	{
+		if (softKeyMode == SOFTKEYS_MODE)
+			softKeyMode = SOFTKEYS_USER;
+		else
+			softKeyMode = SOFTKEYS_MODE;
+		statusDirty = true;
+		changed();
+	}
+
+	public String getKeyLabel ( int row, int col )
+	{
+		if (softKeyMode == SOFTKEYS_MODE)
+			return softKeysSystem.getButtonText(row, col);
+		else
+			return softKeysUser.getButtonText(row, col);
+	}
+
+	/**
+	 * Neglects attributes.
+	 *
+	 * @return the text content of the terminal memory buffer. In Wndows each
+	 *         line is terminated by a '\n', in all other operating systems the
+	 *         sequence '\n\r' is used.
+	 */
+	public String getText ()
+	{
+		String lineEnd;
+
+		if (System.getProperty("os.name").startsWith("Windows"))
+		{
+			lineEnd = "\n";
+		}
+		else
+		{
+			lineEnd = "\r\n";
+		}
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int row = 0; row < HEIGHT; row++)
+		{
+			// int currAttribute = -1;
+			int idx = rowOffset(row);
+
+			for (int col = 0; col < WIDTH; col++)
+			{
+				if (cells[idx] != Cell.EMPTY)
+				{
+					sb.append(Cell.getChar(cells[idx]));
+				}
+				idx++;
+			}
+
+			sb.append(lineEnd);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,2309 @@
+package mh;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The interpreter for the data received from the host. Takes the bytes from
+ * the input ring buffer and executes control characters and escape sequences
+ * on a terminal memory and a graphics memory. Knows nothing about windows, so
+ * that it can run without a display.
+ * 
+ * @author Martin Hepperle, July 2019
+ * 
+ */
+public class TerminalParser implements Runnable
+{
+   /**
+    * The services the parser needs from its environment.
+    */
+   interface Host
+   {
+      /**
+       * Send a string to the host computer.
+       * 
+       * @return the number of bytes sent.
+       */
+      int sendString ( String s );
+
+      /**
+       * Send a single byte to the host computer.
+       * 
+       * @return the number of bytes sent.
+       */
+      int sendByte ( int b );
+
+      /** Sound the bell. */
+      void beep ();
+
+      /** Show or hide the graphics screen. */
+      void setGraphicsVisible ( boolean visible );
+
+      /**
+       * Called regularly when data has been taken from the input buffer, so
+       * that a throttled host can be resumed.
+       */
+      void inputConsumed ();
+   }
+
+   final static String      fileNameHPGL         = "HPTerminal.hpgl";
+
+   static final byte        ENQ                  = 0x05;
+   static final byte        ACK                  = 0x06;
+   static final byte        BEL                  = 0x07;
+   static final byte        LF                   = 0x0A;
+   static final byte        CR                   = 0x0D;
+   static final byte        ESC                  = 0x1B;
+   static final int         DC1                  = 0x11;
+   static final int         DC2                  = 0x12;
+   static final int         RS                   = 0x1E;
+   // first printable character ' '
+   static final int         SP                   = 0x20;
+
+   int                      idxImage             = 0;
+
+   // maximum sleep time of the parser when there is no input
+   static final long        IDLE_WAIT_NANOS      = 1000000000L;
+   // sleep time while the graphics cursor is polled for a click
+   static final long        CLICK_POLL_NANOS     = 20000000L;
+
+   boolean                  pendingACK           = false;
+   boolean                  m_AlphaActive        = true;
+
+   // modes for Escape sequence parser, the states of the
+   // EscapeStateMachine
+   // not in ESC sequence
+   static final char        MODE_IDLE            = EscapeStateMachine.IDLE;
+   // in "ESC" sequence
+   static final char        MODE_ESC             = EscapeStateMachine.ESC;
+   // in "ESC [" ANSI-sequence
+   static final char        MODE_ESC_BRACK       = EscapeStateMachine.ESC_BRACK;
+
+   // in "ESC *" HP-sequence
+   static final char        MODE_ESC_ASTERISK    = EscapeStateMachine.ESC_ASTERISK;
+   // in "ESC &" HP-sequence
+   static final char        MODE_ESC_AMPERSAND   = EscapeStateMachine.ESC_AMPERSAND;
+   // in "Graph text sequence (ends with ESC)
+   static final char        MODE_ESC_GRAPH_TEXT  = EscapeStateMachine.GRAPH_TEXT;
+   // in "Graph label sequence (ends with CR, LF, CR+LF)
+   static final char        MODE_ESC_GRAPH_LABEL = EscapeStateMachine.GRAPH_LABEL;
+   // in "ESC )" HP-sequence
+   static final char        MODE_ESC_CLOSE_PAREN = EscapeStateMachine.ESC_CLOSE_PAREN;
+   // waiting for graphics cursor click
+   static final char        WAIT_FOR_GRAPH_CLICK = EscapeStateMachine.WAIT_FOR_CLICK;
+   // in "ESC * p" plot sequence
+   static final char        MODE_ESC_PLOT        = EscapeStateMachine.PLOT;
+
+   static final String      ASCII[]              =
+   { "NUL", "SOH", "STX", "ETX", "EOT", "ENQ", "ACK", "BEL", "BS", "HT", "LF",
+         "VT", "FF", "CR", "SO", "SI", "DLE", "DC1", "DC2", "DC3", "DC4", "NAK",
+         "SYN", "ETB", "CAN", "EM", "SUB", "ESC", "FS", "GS", "RS", "US", " ",
+         "!", "\"", "#", "$", "%", "&", "'", "(", ")", "*", "+", ",", "-", ".",
+         "/", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", ":", ";", "<",
+         "=", ">", "?", "@", "A", "B", "C", "D", "E", "F", "G", "H", "I", "J",
+         "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X",
+         "Y", "Z", "[", "\\", "]", "^", "_", "`", "a", "b", "c", "d", "e", "f",
+         "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t",
+         "u", "v", "w", "x", "y", "z", "{", "|", "}", "~", "DEL" };
+
+   // copied from the application when the parser is created
+   final int                DEBUG;
+
+   private RingBuffer       input;
+   private TerminalMemory   terminalMemory;
+   private GraphicsMemory   graphicsMemory;
+   private TerminalSettings terminalSettings;
+   private Host             host;
+
+   // all vector plot commands are copied to this file when debugging
+   PrintStream              psHPGL               = null;
+
+   // if DC1 is received and toSend != null then send this string
+   String                   toSend               = null;
+
+   // reused by the sequence handlers so that parsing creates no garbage
+   private final int        m_Numbers[]          = new int[4];
+   private final int        m_Number[]           = new int[1];
+   private final CsiParameters m_Csi             = new CsiParameters();
+
+   // decodes the Esc * p sequences
+   private PlotDecoder      plotDecoder;
+
+   // number of escape sequences started, for throughput statistics
+   private long             m_Sequences          = 0;
+
+   // draw partial plots when the input runs dry, see setLiveDrawing()
+   private boolean          m_LiveDrawing        = true;
+
+   // the capture receiving keyframes, may be null
+   private CaptureWriter    capture              = null;
+
+   /**
+    * Create a parser.
+    * 
+    * @param input
+    *           - the buffer receiving the data from the host.
+    * @param terminalMemory
+    *           - the alpha memory to write to.
+    * @param graphicsMemory
+    *           - the graphics memory to draw on.
+    * @param terminalSettings
+    *           - the current configuration.
+    * @param host
+    *           - for replies to the host, the bell etc.
+    */
+   public TerminalParser(RingBuffer input, TerminalMemory terminalMemory,
+         GraphicsMemory graphicsMemory, TerminalSettings terminalSettings,
+         Host host)
+   {
+      this.input = input;
+      this.terminalMemory = terminalMemory;
+      this.graphicsMemory = graphicsMemory;
+      this.terminalSettings = terminalSettings;
+      this.host = host;
+
+      plotDecoder = new PlotDecoder(graphicsMemory);
+
+      DEBUG = HPTerminalApplication.DEBUG;
+   }
+
+   /**
+    * Select whether the lines of a plot sequence are drawn as soon as the
+    * input runs dry or only in batches of fixed size. Live drawing is needed
+    * for the screen. Without it the image does not depend on how the data
+    * was split into blocks, so that a replay always produces the same
+    * pixels.
+    * 
+    * @param live
+    *           - true to draw partial plots when the input runs dry.
+    */
+   public void setLiveDrawing ( boolean live )
+   {
+      m_LiveDrawing = live;
+   }
+
+   /**
+    * Store keyframes of the terminal state in a capture, so that a replay
+    * can start at any time of the session.
+    * 
+    * @param capture
+    *           - the capture of the received data, null for none.
+    */
+   public void setCapture ( CaptureWriter capture )
+   {
+      this.capture = capture;
+   }
+
+   /**
+    * Write the complete state of the terminal: the parser modes, the alpha
+    * and the graphics memory. Valid only between escape sequences.
+    * 
+    * @param out
+    *           - the stream to write to.
+    * @throws IOException
+    *            if the stream cannot be written.
+    */
+   public void writeState ( DataOutput out ) throws IOException
+   {
+      out.writeBoolean(m_AlphaActive);
+      terminalMemory.writeState(out);
+      graphicsMemory.writeState(out);
+   }
+
+   /**
+    * Restore a state written by {@link #writeState(DataOutput)}. Must be
+    * called before the parser is started.
+    * 
+    * @param in
+    *           - the stream to read from.
+    * @throws IOException
+    *            if the stream cannot be read or does not fit the terminal.
+    */
+   public void readState ( DataInput in ) throws IOException
+   {
+      m_AlphaActive = in.readBoolean();
+      terminalMemory.readState(in);
+      graphicsMemory.readState(in);
+   }
+
+   /**
+    * Add the current state as a keyframe to the capture.
+    */
+   private void writeKeyframe ()
+   {
+      try
+      {
+         ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+               new DeflaterOutputStream(bos), 8192));
+         writeState(out);
+         out.close();
+
+         capture.keyframe(input.getReadCount(), bos.toByteArray());
+      }
+      catch ( IOException e )
+      {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * @return the number of escape sequences received so far. Read from
+    *         another thread while the parser runs, this is only approximate.
+    */
+   public long getSequenceCount ()
+   {
+      return m_Sequences;
+   }
+
+   /**
+    * Close the HPGL copy of the plot commands, if any.
+    */
+   public void close ()
+   {
+      if ( psHPGL != null )
+      {
+         psHPGL.print(";SP0;");
+         psHPGL.close();
+         psHPGL = null;
+         plotDecoder.setHPGL(null);
+      }
+   }
+
+   /**
+    * Process the received data until the input buffer has been closed and
+    * drained.
+    */
+   public void run ()
+   {
+      psHPGL = null;
+
+      if ( DEBUG > 50 )
+      {
+         // output all vector plot commands to a HPGL file
+         try
+         {
+            psHPGL = new PrintStream(fileNameHPGL);
+            psHPGL.print("IN;SP1");
+            plotDecoder.setHPGL(psHPGL);
+         }
+         catch ( FileNotFoundException e1 )
+         {
+            e1.printStackTrace();
+         }
+      }
+
+      if ( DEBUG == 97 )
+      {
+         // specific test
+
+         // show graphics cursor and wait for key
+         String s = "&q0L";
+
+         // copy bytes into receive buffer
+         input.put(s.getBytes());
+      }
+
+      if ( DEBUG == 95 )
+      {
+         // specific graphics test
+         String s = "*pas33,0 133,0 166,95 83,150, 0,95 a40,10 12,91 83,138 153,91 125,10T";
+         EscapeSequence es = new EscapeSequence();
+         es.append(s);
+         handlePlotting(es);
+         try
+         {
+            // wait for key press on console
+            System.in.read();
+         }
+         catch ( IOException e )
+         {
+            e.printStackTrace();
+         }
+         System.exit(0);
+      }
+
+      if ( DEBUG == 99 )
+      {
+         // specific graphics test
+         String s = "*pia%2%2b%*%3%&%4%\"%4$?%3$=%2$=%1$>%/$?%/%!%.%(%-%*%,%+%,%,%+%,%)%*%(%&%'%\"%'$?%($=%)a%.%4%6%.%6%'a%?%4%6%.a&0%2&-%3&*%4&&%4&#%3&!%2&!%1&\"%/&#%/&%%.&+%-&-%,&.%,&0%+&0%)&-%(&*%'&&%'&#%(&!%)a&9%4&9%'a&2%4' %4a'$%4'$%'a'$%4'1%4a'$%.',%.a'$%''1%'a'6%4'6%'a'6%4'>%'a(&%4'>%'a(&%4(&%%C";
+         EscapeSequence es = new EscapeSequence();
+         es.append(s);
+         handlePlotting(es);
+         try
+         {
+            // wait for key press on console
+            System.in.read();
+         }
+         catch ( IOException e )
+         {
+            e.printStackTrace();
+         }
+         System.exit(0);
+      }
+
+      // start in idle mode
+      char escMode = MODE_IDLE;
+
+      // the sequences understood by the selected terminal model
+      EscapeStateMachine stateMachine = terminalSettings.Personality
+            .getStateMachine();
+
+      EscapeSequence esc = new EscapeSequence();
+      StringBuilder sbGrafText = new StringBuilder();
+
+      pendingACK = false;
+
+      while ( !input.isClosed() || input.available() )
+      {
+         // this loop must also work when nothing comes in from the
+         // serial port: it sleeps until new data arrives or, while a
+         // graphics cursor click is expected, polls at short intervals
+
+         // resume the host when enough has been consumed
+         host.inputConsumed();
+
+         if ( escMode == WAIT_FOR_GRAPH_CLICK )
+         {
+            if ( graphicsMemory.wasClicked() )
+            {
+               // returns:
+               // "+00360,+00080,000" + CR
+               Point pt = graphicsMemory.getCursorPosition();
+               int c = graphicsMemory.getKeyCode();
+               toSend = String.format("+%05d,+%05d,%03d", new Object[]
+               { new Integer(pt.x), new Integer(pt.y), new Integer(c) })
+                     + (char) CR;
+
+               // assumption: DC1 was already received and
+               // swallowed...
+               // force output by injecting a new DC1 and let the
+               // loop do its thing
+               pushbackByte((byte) DC1);
+
+               escMode = MODE_IDLE;
+            }
+         }
+
+         if ( escMode == MODE_IDLE && m_AlphaActive )
+         {
+            // fast path: pass a run of printable characters to the
+            // screen in one call, directly from the ring buffer
+            int len = input.slice();
+
+            if ( len > 0 )
+            {
+               byte slice[] = input.getSliceBuffer();
+               int off = input.getSliceOffset();
+               int n = 0;
+
+               while ( n < len && slice[off + n] >= SP )
+                  n++;
+
+               if ( n > 0 )
+               {
+                  if ( TraceRecorder.isEnabled(TraceRecorder.TEXT) )
+                     TraceRecorder.record(TraceRecorder.EV_TEXT, n,
+                           TraceRecorder.pack(slice, off, n));
+
+                  terminalMemory.putBytes(slice, off, n);
+                  input.skip(n);
+                  continue;
+               }
+            }
+         }
+         else if ( escMode == MODE_ESC_PLOT )
+         {
+            // fast path: decode a run of binary coordinates directly
+            // from the ring buffer
+            int len = input.slice();
+
+            if ( len > 0 )
+            {
+               int n = plotDecoder.putBinaryRun(input.getSliceBuffer(),
+                     input.getSliceOffset(), len);
+               if ( n > 0 )
+               {
+                  input.skip(n);
+                  continue;
+               }
+            }
+         }
+
+         if ( inputAvailable() )
+         {
+            byte b = nextByte();
+            int c = b & 0xff;
+
+            // one table lookup gives the action and the next state
+            int transition = stateMachine.transition(escMode, c);
+            int next = EscapeStateMachine.state(transition);
+
+            switch ( EscapeStateMachine.action(transition) )
+            {
+               case EscapeStateMachine.A_NONE:
+                  if ( next == MODE_ESC_GRAPH_LABEL && DEBUG > 0 )
+                     System.out.println("GLABEL(START);");
+                  break;
+
+               case EscapeStateMachine.A_PRINT:
+                  printByte(b);
+                  break;
+
+               case EscapeStateMachine.A_ENQ:
+                  handleENQ();
+                  break;
+
+               case EscapeStateMachine.A_DC1:
+                  handleDC1();
+                  break;
+
+               case EscapeStateMachine.A_BEL:
+                  traceControl(BEL);
+                  if ( terminalSettings.Sound )
+                  {
+                     host.beep();
+                  }
+                  break;
+
+               case EscapeStateMachine.A_START:
+                  // start a new escape sequence
+                  esc.reset();
+                  m_Sequences++;
+                  break;
+
+               case EscapeStateMachine.A_COLLECT:
+                  esc.append((char) c);
+                  break;
+
+               case EscapeStateMachine.A_CSI_START:
+                  esc.append((char) c);
+                  m_Csi.reset();
+                  break;
+
+               case EscapeStateMachine.A_CSI_PARAM:
+                  esc.append((char) c);
+                  m_Csi.put(c);
+                  break;
+
+               case EscapeStateMachine.A_ESC_SINGLE:
+                  // single character escape sequences
+                  esc.append((char) c);
+                  next = handleEscSingle(esc);
+                  break;
+
+               case EscapeStateMachine.A_CSI:
+                  // @A-Z[\]^_`a-z{
+                  // Anything not part of the escape
+                  // sequence terminates it. Typically this is a
+                  // trailing upper- or lowercase character.
+                  esc.append((char) c);
+                  m_Csi.finish();
+                  next = handleEscBracket(esc, m_Csi);
+                  break;
+
+               case EscapeStateMachine.A_ASTERISK_ESC:
+                  // special case: Esc ends current sequence
+
+                  // should not happen, but e.g. AGP sends
+                  // Esc * m 6 x Esc * n 6 X
+
+                  // prepare for next cycle
+                  pushbackByte(ESC);
+
+                  // make character before Esc into a terminator
+                  c = esc.getLast();
+                  if ( !Character.isLetter(c) )
+                  {
+                     // nothing to terminate: drop the sequence
+                     next = MODE_IDLE;
+                     break;
+                  }
+                  // will be replaced by uppercase variant
+                  esc.removeLast();
+                  c = Character.toUpperCase(c);
+                  // fall through
+
+               case EscapeStateMachine.A_ASTERISK:
+                  esc.append((char) c);
+                  next = handleEscAsterisk(esc);
+                  break;
+
+               case EscapeStateMachine.A_PLOT_START:
+                  esc.append((char) c);
+                  plotDecoder.begin();
+                  break;
+
+               case EscapeStateMachine.A_PLOT:
+                  plotDecoder.put(c);
+                  break;
+
+               case EscapeStateMachine.A_PLOT_END:
+                  plotDecoder.put(c);
+                  plotDecoder.end();
+                  tracePlot();
+                  break;
+
+               case EscapeStateMachine.A_PLOT_ESC:
+                  plotDecoder.end();
+                  tracePlot();
+                  // this Esc starts a new sequence
+                  esc.reset();
+                  m_Sequences++;
+                  break;
+
+               case EscapeStateMachine.A_AMPERSAND:
+                  esc.append((char) c);
+                  next = handleEscAmpersand(esc, c);
+                  break;
+
+               case EscapeStateMachine.A_CLOSE_PAREN:
+                  esc.append((char) c);
+                  handleEscCloseParen(esc);
+                  break;
+
+               case EscapeStateMachine.A_TEXT:
+               case EscapeStateMachine.A_LABEL:
+                  // collect characters
+                  sbGrafText.append((char) c);
+                  if ( next == MODE_ESC_GRAPH_LABEL && DEBUG > 0 )
+                     System.out.print((char) c);
+                  break;
+
+               case EscapeStateMachine.A_TEXT_END:
+                  // end of Graphics text mode
+                  drawGraphText(sbGrafText);
+                  // this Esc starts a new sequence
+                  esc.reset();
+                  m_Sequences++;
+                  break;
+
+               case EscapeStateMachine.A_LABEL_END:
+                  // end of Graphics label mode
+                  if ( c == CR && inputAvailable() )
+                  {
+                     // swallow trailing LF from CR-LF pair
+                     if ( peekByte() == LF )
+                        nextByte();
+                  }
+
+                  drawGraphText(sbGrafText);
+
+                  if ( DEBUG > 0 )
+                     System.out.println("\nGLABEL(END);");
+                  break;
+            }
+
+            escMode = (char) next;
+         }
+         else
+         {
+            // buffer empty: do some processing
+
+            if ( pendingACK )
+            {
+               host.sendByte(ACK);
+               pendingACK = false;
+            }
+
+            // show the lines of a plot sequence received so far
+            if ( m_LiveDrawing )
+               plotDecoder.flush();
+
+            // between sequences: save the state for seeking in the capture
+            if ( capture != null && escMode == MODE_IDLE
+                  && capture.isKeyframeDue() )
+               writeKeyframe();
+
+            // sleep until the serial port thread delivers more data
+            if ( escMode == WAIT_FOR_GRAPH_CLICK )
+               input.await(CLICK_POLL_NANOS);
+            else
+               input.await(IDLE_WAIT_NANOS);
+         }
+      }
+   }
+
+   /**
+    * Answer an ENQ from the host: either with ACK, as soon as the received
+    * data has been processed, or with the answerback string.
+    */
+   private void handleENQ ()
+   {
+      traceControl(ENQ);
+
+      if ( terminalSettings.ENQ_ACK )
+      {
+         // if there is a lot of data in the buffer, we
+         // should empty it first, before ACK
+
+         // set a flag that ACK is pending
+         pendingACK = true;
+      }
+      else
+      {
+         // ANSI: send the Terminal name
+         host.sendString(terminalSettings.AnswerBack + (char) CR);
+         if ( DEBUG > 0 )
+         {
+            System.out.println("Answerback: " + terminalSettings.AnswerBack);
+         }
+      }
+   }
+
+   /**
+    * Handle the host prompt DC1.
+    * <p>
+    * - In character mode: host is ready and asks for input (DC1 = XON = 17d
+    * = 0x11)<br>
+    * - In block mode: reply with DC2 (=18d = 0x12) to indicate block
+    * transfer and then wait for another DC1 before sending block.<br>
+    * The end of the block is either:<br>
+    * - a CR in line mode and<br>
+    * - a RS (= 30d = 0x1E) in page mode
+    */
+   private void handleDC1 ()
+   {
+      traceControl(DC1);
+
+      if ( toSend != null )
+      {
+         // we have been waiting for a DC1
+         if ( DEBUG > 0 )
+         {
+            System.out.print("->Reply: '");
+            System.out.println(toSend.replace("\r", "[CR]") + "'");
+         }
+         // send the reply
+         host.sendString(toSend);
+         // done
+         toSend = null;
+      }
+   }
+
+   /**
+    * Put a character which is not part of an escape sequence on the alpha
+    * screen.
+    * 
+    * @param b
+    *           - the character or control character.
+    */
+   private void printByte ( byte b )
+   {
+      int c = b & 0xff;
+
+      if ( c < SP )
+      {
+         // control character
+         traceControl(c);
+      }
+      else if ( TraceRecorder.isEnabled(TraceRecorder.TEXT) )
+      {
+         // bit 7 set: may be inverse or underline on some systems
+         TraceRecorder.record(TraceRecorder.EV_TEXT, 1, c);
+      }
+
+      if ( m_AlphaActive )
+      {
+         final boolean CPM_Hack = false;
+         if ( CPM_Hack )
+         {
+            // Special handling
+            // for some CP/M systems.
+            // Must be removed
+            // for general 8-bit data.
+            //
+            if ( (b & 0x80) == 0x80 )
+            {
+               // bit 7 set: inverse
+               terminalMemory.setAttribute((byte) 7);
+               // send only 7 bit character
+               b = (byte) (b & 0x7F);
+               terminalMemory.putByte(b);
+               terminalMemory.setAttribute((byte) 0);
+            }
+            else
+            {
+               // pass 7-bit characters through
+               terminalMemory.putByte(b);
+            }
+         }
+         else
+         {
+            terminalMemory.putByte(b);
+         }
+      }
+   }
+
+   /**
+    * Draw the collected graphics text or label and clear the buffer.
+    * 
+    * @param sbGrafText
+    *           - the text, may be empty.
+    */
+   private void drawGraphText ( StringBuilder sbGrafText )
+   {
+      if ( sbGrafText.length() > 0 )
+      {
+         if ( psHPGL != null )
+         {
+            psHPGL.println("LB" + sbGrafText.toString() + (char) 3);
+         }
+         graphicsMemory.drawText(sbGrafText.toString());
+         // prepare for next
+         sbGrafText.setLength(0);
+      }
+   }
+
+   /**
+    * Handle a complete Escape sequence of the form ESC * control ... X.
+    * 
+    * @param esc
+    *           - the escape sequence to decode.
+    * @return the next mode.
+    */
+   private char handleEscAsterisk ( EscapeSequence esc )
+   {
+      char escMode = MODE_IDLE;
+
+      // end of sequence
+      traceEscape(esc);
+
+      // ESC * <control> x y z ...
+      esc.setIndex(1);
+      char control = esc.parseLowerCharacter();
+
+      switch ( control )
+      {
+         case 'd':
+            // display control
+            escMode = handleEscAsteriskD(esc);
+            break;
+         case 'e':
+            // image control
+            break;
+
+         case 'm':
+            // mode control
+            escMode = handleEscAsteriskM(esc);
+            break;
+
+         case 'n':
+            // graphics text
+            escMode = handleEscAsteriskN(esc);
+            break;
+
+         case 'p':
+            // plot control
+            handlePlotting(esc);
+            break;
+
+         case 's':
+            // ID and equipment requests
+            escMode = handleEscAsteriskS(esc);
+            break;
+
+         case 't':
+            // compatibility mode
+            break;
+
+         case 'w':
+            // graphics initialization
+            break;
+
+         default:
+            break;
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle a complete Escape sequence of the form ESC & control ... X.
+    * 
+    * @param esc
+    *           - the escape sequence to decode.
+    * @param c
+    *           - the last character of the sequence.
+    * @return the next mode.
+    */
+   private char handleEscAmpersand ( EscapeSequence esc, int c )
+   {
+      char escMode = MODE_IDLE;
+
+      // end of sequence
+      traceEscape(esc);
+
+      // ESC & <control> x y z ...^
+      esc.setIndex(1);
+      char control = esc.parseCharacter();
+
+      switch ( control )
+      {
+         case 'a':
+            // ESC & a ...
+            escMode = handleEscAmpersAndA(esc);
+            break;
+
+         case 'd':
+            // ESC & d ...
+            escMode = handleEscAmpersAndD(esc);
+            break;
+
+         case 'j':
+            switch ( c )
+            {
+               case '@':
+                  // Esc & j @ == hide all key labels
+                  terminalMemory.setKeyLabelsVisible(false);
+                  break;
+               case 'A':
+                  // Esc & j A == show Modes keys
+                  terminalMemory.setKeyLabels(TerminalMemory.SOFTKEYS_MODE);
+                  break;
+               case 'B':
+                  // Esc & j B == show User keys
+                  terminalMemory.setKeyLabels(TerminalMemory.SOFTKEYS_USER);
+                  break;
+               case 'C':
+                  // Esc & j C == clear message and
+                  // return key label
+                  break;
+               default:
+                  // replace function key labels...
+                  break;
+            }
+            break;
+
+         case 's':
+            // Esc [&][s][0][D] 0=line mode
+            // Esc [&][s][1][D] 1=page mode
+            break;
+
+         case 'q':
+         // ESC & q 0 L == HP: unlock keyboard
+         // ESC & q 1 L == HP: lock keyboard
+         {
+            esc.setIndex(2);
+            if ( '0' == esc.parseCharacter() )
+               terminalMemory.lockKeyboard(false);
+            else
+               terminalMemory.lockKeyboard(true);
+         }
+            break;
+
+         case '@':
+            // ESC & @
+            // special handler *** TO BE REMOVED ***
+            // error in A990 setup script: should be
+            // ESC & d @
+            terminalMemory.setAttribute((byte) 0);
+            break;
+
+         default:
+            // end of sequence
+            if ( DEBUG > 0 )
+            {
+               System.out.println("*** Unknown: Esc " + esc.toString());
+            }
+            break;
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle an Escape sequence of the form ESC ) x: select the alternate
+    * character set.
+    * 
+    * @param esc
+    *           - the escape sequence to decode.
+    */
+   private void handleEscCloseParen ( EscapeSequence esc )
+   {
+      // end of sequence
+      traceEscape(esc);
+
+      esc.setIndex(1);
+
+      int font;
+
+      switch ( esc.parseCharacter() )
+      {
+         case '@':
+         case 'A':
+            font = TerminalMemory.CS_ROMAN;
+            break;
+         case 'B':
+         case 'C':
+            font = TerminalMemory.CS_LINEDRAW;
+            break;
+         case 'D':
+            font = TerminalMemory.CS_MATH;
+            break;
+         default:
+            font = TerminalMemory.CS_ROMAN;
+            break;
+      }
+
+      terminalMemory.setAlternateCharset(font);
+   }
+
+   /**
+    * Handle Escape sequences consisting of a single character after the
+    * Esc character.
+    * 
+    * @param esc
+    *           - the escape sequence to decode.
+    * @return - MODE_IDLE
+    */
+   private char handleEscSingle ( EscapeSequence esc )
+   {
+      traceEscape(esc);
+
+      // start after 'Esc'
+      esc.setIndex(1);
+
+      int c = esc.getLast();
+
+      switch ( c )
+      {
+         case 'A':
+            // ESC A: cursor up
+            terminalMemory.moveCursor(-1, 0);
+            break;
+         case 'B':
+            // ESC B == cursor down
+            terminalMemory.moveCursor(1, 0);
+            break;
+         case 'C':
+            // ESC C == cursor right
+            terminalMemory.moveCursor(0, 1);
+            break;
+         case 'D':
+            // ESC D == cursor left
+            terminalMemory.moveCursor(0, -1);
+            break;
+         case 'E':
+            // ESC E == hard reset
+            host.beep();
+            terminalMemory.resetDefaults(true);
+            graphicsMemory.resetDefaults(true);
+            break;
+         case 'F':
+            // ESC F == cursor home down
+            terminalMemory.homeScreenDown();
+            break;
+         case 'G':
+            // ESC G == cursor to left margin
+            terminalMemory.setCursorRelScreen(terminalMemory.yCursor,
+                  terminalMemory.leftMargin);
+            break;
+         case 'H':
+            // ESC H == cursor home up
+            terminalMemory.homeScreenUp();
+            break;
+         case 'J':
+            // ESC J == clear from cursor to end
+            terminalMemory.clearToEOM();
+            break;
+         case 'K':
+            // ESC K == clear from cursor to end of line
+            terminalMemory.clearToEOL();
+            break;
+         case 'L':
+            // ESC L == insert line
+            terminalMemory.insertLine();
+            break;
+         case 'M':
+            // ESC M == delete line
+            terminalMemory.deleteCurrentLine();
+            break;
+         case 'P':
+            // ESC P == delete character
+            terminalMemory.deleteCharsInLine(1);
+            break;
+         case 'Q':
+            // ESC Q == start insert character mode
+            terminalMemory.setInsertMode(true);
+            break;
+         case 'R':
+            // ESC R == end insert character mode
+            terminalMemory.setInsertMode(false);
+            break;
+         case 'S':
+            // ESC S == roll text (view moves down)
+            terminalMemory.scrollScreenDown(1);
+            break;
+         case 'T':
+            // ESC T == roll text down (view moves up)
+            terminalMemory.scrollScreenUp(1);
+            break;
+         case 'X':
+            // ESC X == HP: format mode OFF
+            break;
+         case 'Y':
+            // ESC Y == HP: display functions ON
+            terminalMemory.setDisplayFunctions(true);
+            break;
+         case 'Z':
+            // ESC Z == HP: display functions OFF
+            terminalMemory.setDisplayFunctions(false);
+            break;
+         case 'a':
+            // ESC a: HP: cursor position request in memory
+            // reply: ESC & a <col> c <row> R
+            // zero-based
+            toSend = (char) ESC + "&a" + Dig3(terminalMemory.xCursor)
+                  + "c" + Dig3(terminalMemory.yCursor
+                        + terminalMemory.getStartRow())
+                  + "R" + (char) CR;
+            break;
+         case 'b':
+            // ESC b == HP: unlock keyboard
+            terminalMemory.lockKeyboard(false);
+            break;
+         case 'c':
+            // ESC c == HP: lock keyboard }
+            terminalMemory.lockKeyboard(true);
+            break;
+         case 'd':
+            // ESC d == HP: host asks for data
+            // DC1 handshake
+            // terminal sends data block (one line from cursor position
+            // in line mode)
+            toSend = terminalMemory.getScreenLine(terminalMemory.yCursor,
+                  terminalMemory.xCursor, TerminalMemory.WIDTH)
+                  + (char) CR;
+            break;
+         case 'e':
+            // ESC e == raw binary transmission
+
+            // file name
+            // optionally pop up a dialog and ask for name or set file
+            // name in settings
+            String fileName = "LTape.raw";
+
+            // delay between bytes in [ms]
+            long millis = 10;
+
+            sendBinaryFile(fileName, millis);
+            break;
+         case 'g':
+            // ESC g == soft reset
+            host.beep();
+            terminalMemory.resetDefaults(false);
+            graphicsMemory.resetDefaults(false);
+            break;
+         case 'h':
+            // ESC h: HP: cursor home up
+            terminalMemory.homeScreenUp();
+            break;
+         case 'i':
+            // ESC i: HP: backtab
+            terminalMemory.setCursorRelScreen(terminalMemory.yCursor,
+                  terminalMemory.prevTab());
+            break;
+         case 'l':
+            // ESC l: HP: begin memory lock mode
+            System.out
+                  .println("memory lock mode ON: not implemented yet.");
+            break;
+         case 'm':
+            // ESC m: HP: end memory lock mode
+            System.out
+                  .println("memory lock mode OFF: not implemented yet.");
+            break;
+         case '^':
+            // ESC ^: HP: primary status request
+            // HP 2627A terminal:
+            // Esc [\] [8000020] [CR]
+            // [0]=8 - 8KB memory
+            // [1]=0 - straps (A-D) = OFF ABCD.EFGH
+            // [2]=0 - straps (E-F) = OFF,
+            // . . . . InhHndShk(G) = OFF,
+            // . . . . InhDC2(H) = OFF
+            // [3]=0 - no key locked
+            // [4]=0 - no request pending
+            // [5]=2 - self test = O.K.,
+            // . . . . no datacomm error
+            // [6]=0 - no device operations pending
+            String primaryStatus = "8000020";
+            // String primaryStatus = "8008020";
+            toSend = (char) ESC + "\\" + primaryStatus + (char) CR;
+            break;
+         case '~':
+            // ESC ~: HP: secondary status request
+            String secondaryStatus = "4506000";
+            toSend = (char) ESC + "|" + secondaryStatus + (char) CR;
+            break;
+         case '@':
+            // ESC @: HP: one second delay
+            try
+            {
+               Thread.sleep(1000L);
+            }
+            catch ( InterruptedException e )
+            {
+            }
+            break;
+         case '4':
+            // ESC 4: set left margin
+            terminalMemory.leftMargin = terminalMemory.xCursor;
+            break;
+         case '5':
+            // ESC 5: set right margin
+            terminalMemory.rightMargin = terminalMemory.xCursor;
+            break;
+         case '7':
+            // ESC 7: save cursor and attributes
+            terminalMemory.saveCursor();
+            break;
+         case '8':
+            // ESC 8: restore cursor and attributes
+            terminalMemory.restoreCursor();
+         default:
+            System.out.println(
+                  "*** Unknown Escape sequence [Esc] " + esc.toString());
+            break;
+      }
+
+      return MODE_IDLE;
+   }
+
+   /**
+    * actions:
+    * <ul>
+    * <li>open file</li>
+    * <li>send file via serial</li>
+    * <li>send two NULL bytes</li>
+    * <li>close file</li>
+    * </ul>
+    * 
+    * @param fileName
+    *           the name of the file to send.
+    * @param millis
+    *           the delay between bytes in milliseconds.
+    */
+   private void sendBinaryFile ( String fileName, long millis )
+   {
+      if ( DEBUG > 0 )
+      {
+         System.out.print("ESC e: ");
+      }
+      System.out.print("Sending raw binary file '" + fileName + "' ");
+
+      BufferedReader br = null;
+      try
+      {
+         int b;
+
+         File theFile = new File(fileName);
+         long len = theFile.length();
+         long count = 0;
+         long step = len / 20;
+         long nextDot = 0;
+
+         br = new BufferedReader(new FileReader(fileName));
+
+         while ( (b = br.read()) != -1 )
+         {
+            if ( count++ == nextDot )
+            {
+               System.out.print('.');
+               nextDot += step;
+            }
+            host.sendByte(b);
+
+            // depending on receiver, wait
+            try
+            {
+               Thread.sleep(millis);
+            }
+            catch ( InterruptedException e )
+            {
+            }
+
+         }
+         // success: two trailing zeros
+         b = 0;
+         host.sendByte(b);
+         host.sendByte(b);
+         br.close();
+         System.out.println(" successful.");
+      }
+      catch ( FileNotFoundException e )
+      {
+         e.printStackTrace();
+      }
+      catch ( IOException e )
+      {
+         if ( br != null )
+         {
+            // success: two trailing zeros
+            int b = 0xFF;
+            host.sendByte(b);
+            host.sendByte(b);
+            try
+            {
+               br.close();
+            }
+            catch ( IOException e1 )
+            {
+            }
+            System.out.println(" failed.");
+         }
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Handle Esc [ ... sequences. These are usually ANSI terminal
+    * sequences which do not interfere with HP sequences.
+    * 
+    * @param esc
+    *           - the collected escape sequence.
+    * @param csi
+    *           - its parameters, collected while the sequence arrived.
+    * @return - always MODE_IDLE.
+    */
+   private char handleEscBracket ( EscapeSequence esc, CsiParameters csi )
+   {
+      char escMode = MODE_IDLE;
+      int valParam;
+
+      // end of sequence
+      traceEscape(esc);
+
+      if ( csi.getIntermediate() != 0 )
+      {
+         // e.g. ESC [ 2 SP q - not supported
+         return escMode;
+      }
+
+      int c = esc.getLast();
+
+      switch ( c )
+      {
+         case '@': // ESC [ Pn @
+            terminalMemory.insertCharsInLine(csi.getCount(0));
+            break;
+
+         case 'A': // ESC [ Pn A - cursor up
+            terminalMemory.moveCursor(-csi.getCount(0), 0);
+            break;
+
+         case 'B': // ESC [ Pn B - cursor down
+            terminalMemory.moveCursor(csi.getCount(0), 0);
+            break;
+
+         case 'C': // ESC [ Pn C - cursor right
+            terminalMemory.moveCursor(0, csi.getCount(0));
+            break;
+
+         case 'D': // ESC [ Pn D - cursor left
+            terminalMemory.moveCursor(0, -csi.getCount(0));
+            break;
+
+         case 'H':
+         case 'f':
+            // ESC [ row ; col H
+            // 1-based, omitted or 0 means 1
+            terminalMemory.setCursorRelScreen(csi.getCount(0) - 1,
+                  csi.getCount(1) - 1);
+            break;
+
+         case 'J':
+            // erase in screen
+            valParam = csi.get(0, 0);
+            if ( valParam == 0 )
+            {
+               // cursor to end of screen
+               // ESC [ J
+               // ESC [ 0 J
+               terminalMemory.clearToEOS();
+            }
+            else if ( valParam == 1 )
+            {
+               // from cursor to start of screen
+               // ESC [ 1 J
+               terminalMemory.clearToBOS();
+            }
+            else if ( valParam == 2 )
+            {
+               // clear complete screen
+               // ESC [ 2 J
+               terminalMemory.clearScreen();
+            }
+            break;
+
+         case 'K':
+            // erase in line
+            valParam = csi.get(0, 0);
+            if ( valParam == 0 )
+            {
+               // from cursor to end of line
+               // ESC [ K
+               // ESC [ 0 K
+               terminalMemory.clearToEOL();
+            }
+            else if ( valParam == 1 )
+            {
+               // from cursor to start of line
+               // ESC [ 1 K
+               terminalMemory.clearToBOL();
+            }
+            else if ( valParam == 2 )
+            {
+               // entire line
+               // ESC [ 2 K
+               terminalMemory.clearLine();
+            }
+            break;
+
+         case 'L':
+            // ESC [ 1 L
+            // insert blank line,
+            // shift current and remaining lines down
+            valParam = csi.getCount(0);
+            while ( valParam-- > 0 )
+               terminalMemory.insertLine();
+            break;
+
+         case 'M':
+            // ESC [ 1 M
+            // delete current line,
+            // shift remaining lines up
+            valParam = csi.getCount(0);
+            while ( valParam-- > 0 )
+               terminalMemory.deleteCurrentLine();
+            break;
+
+         case 'P':
+            // ESC [ P
+            // delete characters at cursor,
+            // shift trailing characters on line left
+            terminalMemory.deleteCharsInLine(csi.getCount(0));
+            break;
+
+         case 'X':
+            // ESC [ X
+            // clear 1... characters
+            // (at max up to end of line)
+            terminalMemory.clearChars(csi.getCount(0));
+            break;
+
+         case 'm':
+            // ESC [ m .......... normal
+            // ESC [ 1 ; 32 ; 40 m all parameters in one sequence
+            handleSGR(csi);
+            break;
+
+         case 'n':
+            // ESC [ 6 n ........ cursor position request
+            if ( csi.get(0, 0) == 6 )
+            {
+               // reply: ESC [ <row> ; <col> R
+               // 1-based
+               host.sendString((char) ESC + "[" + Dig3(terminalMemory.yCursor + 1)
+                     + ";" + Dig3(terminalMemory.xCursor + 1) + "R"
+                     + (char) CR);
+            }
+            break;
+
+         case 'r':
+            // ESC [ top ; bottom r - set scrolling region
+            // The memory of the HP terminal always scrolls as a whole,
+            // so only full screen regions are possible. As on a VT100
+            // the cursor goes home.
+            terminalMemory.setCursorRelScreen(0, 0);
+            break;
+
+         case 'h':
+            // e.g. ESC [ ? 7 h
+            setModes(csi, true);
+            break;
+
+         case 'l':
+            // e.g. ESC [ ? 7 l
+            setModes(csi, false);
+            break;
+
+         case 's':
+            // e.g. ESC [ > 1 s HOME DOWN
+            // e.g. ESC [ > 0 s HOME UP
+            if ( csi.getPrivate() == '>' )
+            {
+               if ( csi.get(0, 0) == 0 )
+                  terminalMemory.homeScreenUp();
+               else
+                  terminalMemory.homeScreenDown();
+            }
+            break;
+
+         default:
+            break;
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle ESC [ ... m, select graphic rendition. All parameters are
+    * applied in turn.
+    * 
+    * @param csi
+    *           - the parameters of the sequence.
+    */
+   private void handleSGR ( CsiParameters csi )
+   {
+      // ESC [ 0 m ........ normal
+      // ESC [ 1 m ........ highlight
+      // ESC [ 4 m ........ underline
+      // ESC [ 5 m ........ underline
+      // ESC [ 7 m ........ inverse
+      // ESC [ 30...37 m .. foreground color
+      // ESC [ 40...47 m .. background color
+      if ( csi.count() == 0 )
+      {
+         terminalMemory.setAttribute((byte) 0);
+         return;
+      }
+
+      for ( int i = 0; i < csi.count(); i++ )
+      {
+         int p = csi.get(i, 0);
+
+         if ( p == 38 || p == 48 )
+         {
+            // extended colors are not supported, skip their arguments
+            // 38 ; 5 ; n or 38 ; 2 ; r ; g ; b
+            int kind = csi.get(i + 1, 0);
+            if ( kind == 5 )
+               i += 2;
+            else if ( kind == 2 )
+               i += 4;
+         }
+         else if ( p < 128 )
+         {
+            terminalMemory.setAttribute((byte) p);
+         }
+      }
+   }
+
+   /**
+    * Handle ESC [ ... h and ESC [ ... l, set and reset modes.
+    * 
+    * @param csi
+    *           - the parameters of the sequence.
+    * @param on
+    *           - true to set, false to reset the modes.
+    */
+   private void setModes ( CsiParameters csi, boolean on )
+   {
+      boolean dec = csi.getPrivate() == '?';
+
+      for ( int i = 0; i < csi.count(); i++ )
+      {
+         int mode = csi.get(i, 0);
+
+         if ( dec )
+         {
+            if ( mode == 7 )
+               // ESC [ ? 7 h - line wrap
+               terminalMemory.setLineWrap(on);
+            else if ( mode == 25 )
+               // ESC [ ? 25 h - show cursor
+               terminalMemory.setcursorVisible(on);
+         }
+         else if ( mode == 4 )
+         {
+            // ESC [ 4 h - insert mode
+            terminalMemory.setInsertMode(on);
+         }
+      }
+   }
+
+   /**
+    * Handle [Esc * d] ... Sequences.
+    * 
+    * @param esc
+    * @return MODE_IDLE
+    */
+   private char handleEscAsteriskD ( EscapeSequence esc )
+   {
+      // display control
+      char escMode = MODE_IDLE;
+
+      // up to 4 integer parameters
+      int number[] = m_Numbers;
+
+      // start after "*d"
+      esc.setIndex(2);
+
+      while ( esc.hasMore() )
+      {
+         // try to read optional number(s)
+         int count = readASCIINumbers(esc, number);
+
+         // read code
+         int c = esc.parseLowerCharacter();
+
+         switch ( c )
+         {
+            case 'a':
+               // Esc * d <pen#> a == Graphics clear
+
+               // optional: write current screen to a file
+               try
+               {
+                  // save only non-empty images
+                  if ( graphicsMemory
+                        .saveImage("image" + idxImage + ".png") )
+                     idxImage++;
+               }
+               catch ( IOException e )
+               {
+                  e.printStackTrace();
+               }
+
+               if ( count > 0 )
+               {
+                  if ( DEBUG > 0 )
+                     System.out.println("GCLEAR(" + number[0] + ");");
+                  graphicsMemory.clear(number[0]);
+               }
+               else
+               {
+                  if ( DEBUG > 0 )
+                     System.out.println("GCLEAR(0);");
+                  graphicsMemory.clear();
+               }
+               break;
+            case 'b':
+               // Esc * d <color#> b == set Graphics memory
+               if ( count > 0 )
+               {
+                  if ( DEBUG > 0 )
+                     System.out.println("GSET(" + number[0] + ");");
+                  graphicsMemory.clear(number[0]);
+               }
+               else
+               {
+                  if ( DEBUG > 0 )
+                     System.out.println("GSET(7);");
+                  graphicsMemory.clear(7);
+               }
+               break;
+            case 'c':
+               // Esc * d c == Graphics screen ON
+               if ( DEBUG > 0 )
+                  System.out.println("GSHOW();");
+               host.setGraphicsVisible(true);
+               break;
+            case 'd':
+               // Esc * d d == Graphics screen OFF
+               if ( DEBUG > 0 )
+                  System.out.println("GHIDE();");
+               host.setGraphicsVisible(false);
+               break;
+            case 'e':
+               // Esc * d e == Alpha screen ON
+               if ( DEBUG > 0 )
+                  System.out.println("ALPHA(ON);");
+               m_AlphaActive = true;
+               break;
+            case 'f':
+               // Esc * d f == Alpha screen OFF
+               if ( DEBUG > 0 )
+                  System.out.println("ALPHA(OFF);");
+               m_AlphaActive = false;
+               break;
+            case 'k':
+               // Esc * d k == Graphics cursor ON
+               graphicsMemory.showGraphicsCursor(true);
+               if ( DEBUG > 0 )
+                  System.out.println("GCURSOR(ON);");
+               break;
+            case 'l':
+               // Esc * d l == Graphics cursor OFF
+               graphicsMemory.showGraphicsCursor(false);
+               if ( DEBUG > 0 )
+                  System.out.println("GCURSOR(OFF);");
+               break;
+            case 'o':
+               // Esc * d <x>,<y> o == position Graphics cursor
+               if ( count > 1 )
+               {
+                  graphicsMemory.setCursorPosition(number[0], number[1]);
+                  if ( DEBUG > 0 )
+                     System.out.println("GCURSOR(" + number[0] + ","
+                           + number[1] + ");");
+               }
+               break;
+            case 'p':
+               // Esc * d <x>,<y> p == move Graphics cursor
+               if ( count > 1 )
+               {
+                  graphicsMemory.incrementCursorPosition(number[0],
+                        number[1]);
+                  if ( DEBUG > 0 )
+                     System.out.println("GCURSOR by (" + number[0] + ","
+                           + number[1] + ");");
+               }
+               break;
+
+            case 'q':
+               // Esc * d q == Alpha cursor ON
+               if ( DEBUG > 0 )
+                  System.out.println("ACURSOR(ON);");
+               terminalMemory.setcursorVisible(true);
+               break;
+            case 'r':
+               // Esc * d r == Alpha cursor OFF
+               if ( DEBUG > 0 )
+                  System.out.println("ACURSOR(OFF);");
+               terminalMemory.setcursorVisible(false);
+               break;
+            case 's':
+               // Esc * d s == Graphics text mode ON
+               escMode = MODE_ESC_GRAPH_TEXT;
+               // graphicsMemory.setDrawMode(2); // Jam1
+               if ( DEBUG > 0 )
+                  System.out.println("GTEXT(ON);");
+               break;
+            case 't':
+               // Esc * d t == Graphics text mode OFF
+               if ( DEBUG > 0 )
+                  System.out.println("GTEXT(OFF);");
+               break;
+            case 'y':
+               // Esc * d 0,0,511,389 y == Graphics size in pixel
+               // (inclusive)
+               // Esc * d 0,0,639,399 y
+               // Esc * d lox,loy hix,hiy y
+               int w = 1 + (number[2] - number[0]);
+               int h = 1 + (number[3] - number[1]);
+               graphicsMemory.setScreenSize(w, h);
+
+               if ( DEBUG > 0 )
+                  System.out.println("GSIZE " + esc.toString() + "(" + w
+                        + "x" + h + ")");
+
+               break;
+            case 'z':
+               // Esc * d z == NOP
+               break;
+            case '\r':
+            case '\n':
+               // skip
+               break;
+            default:
+               System.out.println("Unknown [Esc * d '" + c + "'].");
+               break;
+         }
+
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Format a 3-digit integer number with leading zeros for cursor
+    * position responses sent from the terminal.
+    * 
+    * @param number
+    *           - the number to convert
+    * @return - a 3 character string with leading zeros (if any).
+    */
+   private String Dig3 ( int number )
+   {
+      String s = "000" + Integer.toString(number);
+      int i = s.length();
+      return s.substring(i - 3);
+   }
+
+   /**
+    * Read as many numeric parameters as we can find respectively as many
+    * as fit into number[].
+    * 
+    * @param esc
+    *           - the escape sequence to parse.
+    * @param number
+    *           - array to receive the parsed numbers.
+    * @return the number of valid elements in number[].
+    */
+   private int readASCIINumbers ( EscapeSequence esc, int[] number )
+   {
+      int idx = 0;
+      for ( int i = 0; i < number.length; i++ )
+      {
+         number[idx] = esc.parseASCIIInteger();
+         // end of valid numbers?
+         if ( number[idx] == Integer.MIN_VALUE )
+            break;
+         idx++;
+      }
+      return idx;
+   }
+
+   /**
+    * Handle [Esc * m] ... Sequences.
+    * 
+    * @param esc
+    * @return MODE_IDLE
+    */
+   private char handleEscAsteriskM ( EscapeSequence esc )
+   {
+      char escMode = MODE_IDLE;
+
+      // up to 4 integer parameters
+      int number[] = m_Numbers;
+
+      // start after "*m"
+      esc.setIndex(2);
+
+      while ( esc.hasMore() )
+      {
+         // try to read optional number(s)
+         int count = readASCIINumbers(esc, number);
+
+         // read code
+         int c = esc.parseLowerCharacter();
+
+         switch ( c )
+         {
+            case 'a':
+               // Esc * m <n> a, <n> in [0...5]
+               // Esc * m 3 a set draw mode 3
+               int drawMode = 0;
+               if ( count > 0 )
+                  drawMode = Math.min(number[0], 5);
+               if ( DEBUG > 0 )
+                  System.out.println("DrawMode(" + drawMode + ");");
+               graphicsMemory.setDrawMode(drawMode);
+               break;
+
+            case 'b':
+               // Esc * m 01 b == set line type 01, <n> in [1...11]
+               int lineType = 0;
+               if ( count > 0 )
+                  lineType = Math.min(number[0], 11);
+               graphicsMemory.setLineStyle(lineType);
+               if ( DEBUG > 0 )
+                  System.out.println("LT" + lineType + ";");
+               break;
+
+            case 'e':
+               // Esc * m 0,0,511,287 e = fill rectangle
+               // absolute <x1,y1,x2,y2>
+               if ( count == 4 )
+               {
+                  // increase by 1 pixel to the right
+                  int x1 = number[0];
+                  int y1 = number[1];
+                  int x2 = number[2];
+                  int y2 = number[3];
+                  graphicsMemory.fillRect(x1, y1, x2 - x1, y2 - y1);
+                  if ( DEBUG > 0 )
+                  {
+                     System.out.println("FillRect(" + x1 + "," + y1 + "-"
+                           + x2 + "," + y2 + ");");
+                  }
+               }
+               break;
+
+            case 'm':
+               // Esc * m <n> m == set text size, <n> in [1...8]
+               int size = 1;
+               if ( count > 0 )
+                  size = Math.min(number[0], 8);
+               graphicsMemory.setTextSize(size);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("TextSize(" + size + ");");
+               }
+               break;
+
+            case 'n':
+               // Esc * m 1,2,3,4 n == text orientation
+               // 0, 90, 180, 270 degrees
+               int orientation = 0;
+               if ( count > 0 )
+                  orientation = (Math.min(number[0], 4) - 1) * 90;
+               graphicsMemory.setTextOrientation(orientation);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println(
+                        "TextOrientaton(" + orientation + " deg);");
+               }
+               break;
+
+            case 'o':
+               // Esc * m o == text slant ON
+               graphicsMemory.setTextSlant(true);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("TextSlant(ON);");
+               }
+               break;
+
+            case 'p':
+               // Esc * m p == text slant OFF
+               graphicsMemory.setTextSlant(false);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("TextSlant(OFF);");
+               }
+               break;
+
+            case 'r':
+               // Esc * m r == set Graphics defaults
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("GraphicsDefaults();");
+               }
+               break;
+
+            case 'x':
+               // Esc * m 0 x == set primary pen 0
+               // Esc * m 7 x == set primary pen 7
+               int pen = number[0];
+               if ( pen == Integer.MIN_VALUE )
+                  pen = 0;
+               pen++; // 1-based
+               graphicsMemory.setForeColor(pen);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("SP" + pen + ";");
+               }
+               break;
+            case 'Z':
+               break;
+         }
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle Esc [*][n] ... Sequences.
+    * 
+    * @param esc
+    * @return MODE_IDLE
+    */
+   private char handleEscAsteriskN ( EscapeSequence esc )
+   {
+      char escMode = MODE_IDLE;
+
+      int c = esc.getLast();
+      esc.setIndex(2);
+
+      switch ( c )
+      {
+         case 'X':
+            // graphics text pen
+            // Esc * n 0 x == set graphics text pen 0
+            // Esc * n x == set graphics text pen to track primary pen
+            int pen = esc.parseASCIIInteger(-1);
+            pen++; // 1-based, 0=default==track primary pen
+
+            // @TODO check
+            graphicsMemory.setTextColor(pen);
+
+            if ( DEBUG > 0 )
+            {
+               System.out.println("TextPen " + pen + ";");
+            }
+            break;
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle [Esc * s] ... Sequences.
+    * 
+    * @param esc
+    * @return MODE_IDLE
+    */
+   private char handleEscAsteriskS ( EscapeSequence esc )
+   {
+      Point pt;
+      int n;
+      char escMode = MODE_IDLE;
+
+      int c = esc.getLast();
+      esc.setIndex(2);
+
+      if ( c == '^' )
+      {
+         int code = esc.parseASCIIInteger();
+
+         switch ( code )
+         {
+            case 1:
+               // Esc * s 1 ^ == read terminal ID
+               // returns: 5 character field
+               // "2627A" + CR
+               toSend = terminalSettings.AnswerBack + (char) CR;
+
+               if ( DEBUG > 0 )
+               {
+                  System.out.println(
+                        "Answerback: " + terminalSettings.AnswerBack);
+               }
+               break;
+
+            case 2:
+               // Esc * s 2 ^ == read graphics pen position
+               // returns:
+               // "+00360,+00080,0" + CR
+               pt = graphicsMemory.getPenPosition();
+               n = graphicsMemory.getPenState() ? 1 : 0;
+               toSend = String.format("+%05d,+%05d,%1d", new Object[]
+               { new Integer(pt.x), new Integer(pt.y), new Integer(n) })
+                     + (char) CR;
+
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("Pen position: " + toSend);
+               }
+               break;
+
+            case 3:
+               // Esc * s 3 ^ == read current graphics cursor position
+               // immediately returns:
+               // "+00360,+00080" + CR
+               pt = graphicsMemory.getCursorPosition();
+               toSend = String.format("+%05d,+%05d", new Object[]
+               { new Integer(pt.x), new Integer(pt.y) }) + (char) CR;
+
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("Cursor position: " + toSend);
+               }
+               break;
+
+            case 4:
+               // Esc * s 4 ^ == read graphics cursor position with
+               // wait for mouse click or key press
+               graphicsMemory.waitForClick();
+               escMode = WAIT_FOR_GRAPH_CLICK;
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("Waiting for cursor click");
+               }
+               break;
+
+            case 5:
+               // Esc * s 5 ^ == read display size
+               // returns:
+               // "+00000,+00000,+00639,+00399,00002.,00002." + CR
+               Dimension d = graphicsMemory.getSize();
+               // dots per millimeter
+               int dpmm = terminalSettings.Personality.getDotsPerMm();
+
+               toSend = "+00000,+00000,"
+                     + String.format("+%05d,+%05d", new Object[]
+               { new Integer(d.width - 1), new Integer(d.height - 1) })
+                     + ",0000" + dpmm + ".,0000" + dpmm + '.' + (char) CR;
+
+               if ( DEBUG > 0 )
+               {
+                  System.out.println(
+                        "Answerback: " + terminalSettings.AnswerBack);
+               }
+               break;
+
+            case 8:
+               // Esc * s 8 ^ == read zoom status
+               // returns:
+               // "001.,0" + CR
+
+               toSend = "001.,0" + (char) CR;
+
+               if ( DEBUG > 0 )
+               {
+                  System.out.println(
+                        "Answerback: " + terminalSettings.AnswerBack);
+               }
+               break;
+
+            default:
+               host.sendString("0" + (char) CR);
+               if ( DEBUG > 0 )
+               {
+                  System.out.println("*** Unimplemented Esc *s " + code);
+               }
+               break;
+         }
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Handle [Esc & a] ... Sequences.
+    * 
+    * @param escMode
+    * @param esc
+    *           - the complete Escape sequence (sans Esc )
+    * @param c
+    *           - current (last) character of sequence
+    * @return
+    */
+   private char handleEscAmpersAndA ( EscapeSequence esc )
+   {
+      char escMode = MODE_IDLE;
+
+      // Esc & a 12 r 04 c == row and column
+      // Esc & a 54 c == column only
+      // Esc & a 5 r == row only
+
+      // one integer parameter
+      int number[] = m_Number;
+
+      // start after "&a"
+      esc.setIndex(2);
+
+      // start with current position in screen system
+      int col = terminalMemory.xCursor;
+      int row = terminalMemory.yCursor;
+      // relative to memory
+      row += terminalMemory.getStartRow();
+
+      while ( esc.hasMore() )
+      {
+         // check sign of optional number
+         char sign = esc.peekCharacter();
+
+         // read number
+         int count = readASCIINumbers(esc, number);
+
+         // read code
+         int c = esc.parseLowerCharacter();
+
+         switch ( c )
+         {
+            case 'r':
+               // row rel. memory
+               if ( count != 0 )
+               {
+                  if ( sign == '-' || sign == '+' )
+                  { // relative to current position
+
+                     row = row + number[0];
+                  }
+                  else
+                  {
+                     row = number[0];
+                  }
+               }
+               break;
+
+            case 'y':
+               // row rel. screen
+               if ( count != 0 )
+               {
+                  if ( sign == '-' || sign == '+' )
+                  { // relative to current position
+                     row = row + number[0];
+                  }
+                  else
+                  {
+                     row = number[0] + terminalMemory.getStartRow();
+                  }
+               }
+               break;
+
+            case 'c':
+               // column
+               if ( count != 0 )
+               {
+                  if ( sign == '-' || sign == '+' )
+                  { // relative to current position
+                     col = col + number[0];
+                  }
+                  else
+                  {
+                     col = number[0];
+                  }
+               }
+               break;
+         }
+      }
+
+      terminalMemory.setCursorRelMemory(row, col);
+
+      return escMode;
+   }
+
+   /**
+    * Handle [Esc & d] ... Sequences.
+    * 
+    * @param escMode
+    * @param esc
+    *           - the complete Escape sequence (sans Esc )
+    * @param c
+    *           - current (last) character of sequence
+    * @return
+    */
+   private char handleEscAmpersAndD ( EscapeSequence esc )
+   {
+      char escMode = MODE_IDLE;
+      // Esc & d @ == end enhancement
+      // Esc & d B == inverse
+      // Esc & d C == inverse+blink
+      // Esc & d J
+
+      int c = esc.getLast();
+
+      switch ( c )
+      {
+         case '@':
+            terminalMemory.setAttribute((byte) 0);
+            break;
+         case 'B':
+            terminalMemory.setAttribute((byte) 7);
+            break;
+         case 'C':
+            terminalMemory.setAttribute((byte) 7); // inverse
+            break;
+         case 'D':
+         case 'E':
+            terminalMemory.setAttribute((byte) 5); // underline
+            break;
+         case 'F':
+         case 'G':
+            terminalMemory.setAttribute((byte) 7); // inverse
+            terminalMemory.setAttribute((byte) 5); // underline
+            break;
+         case 'J':
+            terminalMemory.setAttribute((byte) 7);
+            break;
+      }
+
+      return escMode;
+   }
+
+   /**
+    * Execute a complete Esc * p plot sequence. Plot sequences received from
+    * the host are decoded while they arrive, this is for sequences which
+    * have been collected before.
+    * 
+    * @param esc
+    *           - the escape sequence "*p...".
+    * @return MODE_IDLE
+    */
+   private int handlePlotting ( EscapeSequence esc )
+   {
+      plotDecoder.begin();
+      for ( int i = 2; i < esc.length(); i++ )
+         plotDecoder.put(esc.charAt(i));
+      plotDecoder.end();
+
+      return MODE_IDLE;
+   }
+
+   /**
+    * Record a complete escape sequence in the trace.
+    * 
+    * @param esc
+    *           - the sequence.
+    */
+   private void traceEscape ( EscapeSequence esc )
+   {
+      if ( TraceRecorder.isEnabled(TraceRecorder.ESCAPE) )
+         TraceRecorder.record(TraceRecorder.EV_ESCAPE, esc.length(),
+               TraceRecorder.pack(esc));
+   }
+
+   /**
+    * Record a control character in the trace.
+    * 
+    * @param c
+    *           - the character code.
+    */
+   private void traceControl ( int c )
+   {
+      if ( TraceRecorder.isEnabled(TraceRecorder.CONTROL) )
+         TraceRecorder.record(TraceRecorder.EV_CONTROL, c, 0);
+   }
+
+   /**
+    * Record the end of a plot sequence in the trace.
+    */
+   private void tracePlot ()
+   {
+      if ( TraceRecorder.isEnabled(TraceRecorder.PLOT) )
+         TraceRecorder.record(TraceRecorder.EV_PLOT,
+               plotDecoder.getPoints(), plotDecoder.getBytes());
+   }
+
+   /**
+    * Test whether there is anything in the ring buffer.
+    * 
+    * @return true if there is data in the buffer.
+    */
+   private boolean inputAvailable ()
+   {
+      return input.available();
+   }
+
+   /**
+    * Fetch the next byte from the ring buffer and remove it from the buffer.
+    * You should test first with {@link #inputAvailable()} whether there is
+    * anything in the buffer.
+    * 
+    * @return The next byte from the ring buffer.
+    */
+   private byte nextByte ()
+   {
+      return input.get();
+   }
+
+   /**
+    * Preview the next byte from the ring buffer. It is not removed from the
+    * buffer. You should test first with {@link #inputAvailable()} whether there
+    * is anything in the buffer.
+    * 
+    * @return The next byte from the ring buffer.
+    */
+   private byte peekByte ()
+   {
+      return input.peek();
+   }
+
+   /**
+    * Push a byte back into the ring buffer to be read by a following
+    * nextByte().
+    * 
+    * @param b
+    *           - the value to be placed into the buffer.
+    */
+   private void pushbackByte ( byte b )
+   {
+      input.unread(b);
+   }
+
+   void warning ( int code, String msg )
+   {
+      if ( code < 1 )
+         System.err.println("*** Warning: " + msg);
+      else
+         System.err.println("*** Error: " + msg);
+   }
+}
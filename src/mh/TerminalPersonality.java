@@ -0,0 +1,233 @@
+package mh;
+
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * What distinguishes one terminal model from another: the escape sequences
+ * it understands, what its keys send, the size of its graphics display and
+ * how it identifies itself to the host.
+ * <p>
+ * The personality is selected once at startup from the registry, so that
+ * the parser and the keyboard handler do not have to test for the model.
+ * Another model is added by registering a new personality, see
+ * {@link #register(TerminalPersonality)}.
+ *
+ * @author Martin Hepperle
+ *
+ */
+public class TerminalPersonality
+{
+	// HP arrow key sequences sent out to the host: Ctrl-A...Ctrl-D
+	private static final byte HP_KEYS[][] = { { 0x01 }, { 0x02 }, { 0x03 },
+			{ 0x04 } };
+	// ANSI arrow key sequences sent out to the host
+	private static final byte ANSI_KEYS[][] = {
+			{ TerminalParser.ESC, '[', 'A' }, { TerminalParser.ESC, '[', 'B' },
+			{ TerminalParser.ESC, '[', 'C' }, { TerminalParser.ESC, '[', 'D' } };
+
+	private static final ArrayList<TerminalPersonality> s_Registry = new ArrayList<TerminalPersonality>();
+
+	static
+	{
+		// the first one is the default
+		register(new TerminalPersonality(TerminalSettings.HP2627A, "HP2627A",
+				"2627A", 512, 390, 2, HP_KEYS));
+		register(new TerminalPersonality(TerminalSettings.HP2648A, "HP2648A",
+				"2648A", 720, 360, 3, HP_KEYS));
+		register(new TerminalPersonality(TerminalSettings.ANSI, "ANSI",
+				"VT100", 640, 480, 3, ANSI_KEYS));
+	}
+
+	private final int m_ID;
+	private final String m_Name;
+	private final String m_AnswerBack;
+	private final int m_Width;
+	private final int m_Height;
+	private final int m_DotsPerMm;
+	private final HashMap<Integer, byte[]> m_Keys = new HashMap<Integer, byte[]>();
+	private EscapeStateMachine m_StateMachine = EscapeStateMachine.STANDARD;
+
+	/**
+	 * Create a personality with the standard escape sequences.
+	 *
+	 * @param id
+	 *            the model number, used in the preferences.
+	 * @param name
+	 *            the name for the command line, e.g. "HP2627A".
+	 * @param answerBack
+	 *            the reply to ENQ and to the terminal ID request, e.g.
+	 *            "2627A".
+	 * @param width
+	 *            the width of the graphics display in dots.
+	 * @param height
+	 *            the height of the graphics display in dots.
+	 * @param dotsPerMm
+	 *            the resolution of the graphics display.
+	 * @param cursorKeys
+	 *            what the keys up, down, right and left send.
+	 */
+	public TerminalPersonality(int id, String name, String answerBack,
+			int width, int height, int dotsPerMm, byte cursorKeys[][])
+	{
+		m_ID = id;
+		m_Name = name;
+		m_AnswerBack = answerBack;
+		m_Width = width;
+		m_Height = height;
+		m_DotsPerMm = dotsPerMm;
+
+		putKey(KeyEvent.VK_UP, cursorKeys[0]);
+		putKey(KeyEvent.VK_DOWN, cursorKeys[1]);
+		putKey(KeyEvent.VK_RIGHT, cursorKeys[2]);
+		putKey(KeyEvent.VK_LEFT, cursorKeys[3]);
+	}
+
+	/**
+	 * Add a personality to the registry or replace the one with the same
+	 * model number.
+	 *
+	 * @param p
+	 *            the personality.
+	 */
+	public static synchronized void register ( TerminalPersonality p )
+	{
+		for (int i = 0; i < s_Registry.size(); i++)
+		{
+			if (s_Registry.get(i).m_ID == p.m_ID)
+			{
+				s_Registry.set(i, p);
+				return;
+			}
+		}
+		s_Registry.add(p);
+	}
+
+	/**
+	 * Find a personality by its model number.
+	 *
+	 * @param id
+	 *            the model number.
+	 * @return the personality or the default one if the number is unknown.
+	 */
+	public static synchronized TerminalPersonality forID ( int id )
+	{
+		for (TerminalPersonality p : s_Registry)
+		{
+			if (p.m_ID == id)
+				return p;
+		}
+		return s_Registry.get(0);
+	}
+
+	/**
+	 * Find a personality as given on the command line.
+	 *
+	 * @param s
+	 *            the name or the model number, e.g. "ANSI" or "2648".
+	 * @return the personality or null if there is none.
+	 */
+	public static synchronized TerminalPersonality forName ( String s )
+	{
+		s = s.toUpperCase();
+
+		for (TerminalPersonality p : s_Registry)
+		{
+			if (s.contains(p.m_Name) || s.contains(Integer.toString(p.m_ID)))
+				return p;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the names of all personalities, separated by '|'.
+	 */
+	public static synchronized String getNames ()
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for (TerminalPersonality p : s_Registry)
+		{
+			if (sb.length() > 0)
+				sb.append('|');
+			sb.append(p.m_Name);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Define what a key sends to the host.
+	 *
+	 * @param keyCode
+	 *            the key, one of the KeyEvent.VK_... codes.
+	 * @param sequence
+	 *            the bytes to send.
+	 */
+	protected void putKey ( int keyCode, byte sequence[] )
+	{
+		m_Keys.put(Integer.valueOf(keyCode), sequence);
+	}
+
+	/**
+	 * Use other escape sequences than the standard ones.
+	 *
+	 * @param sm
+	 *            the tables of the state machine.
+	 */
+	void setStateMachine ( EscapeStateMachine sm )
+	{
+		m_StateMachine = sm;
+	}
+
+	/**
+	 * @return the tables splitting the data from the host into sequences.
+	 */
+	EscapeStateMachine getStateMachine ()
+	{
+		return m_StateMachine;
+	}
+
+	/**
+	 * @param keyCode
+	 *            the key, one of the KeyEvent.VK_... codes.
+	 * @return the bytes the key sends or null if it sends nothing special.
+	 */
+	public byte[] getKey ( int keyCode )
+	{
+		return m_Keys.get(Integer.valueOf(keyCode));
+	}
+
+	public int getID ()
+	{
+		return m_ID;
+	}
+
+	public String getName ()
+	{
+		return m_Name;
+	}
+
+	public String getAnswerBack ()
+	{
+		return m_AnswerBack;
+	}
+
+	public int getWidth ()
+	{
+		return m_Width;
+	}
+
+	public int getHeight ()
+	{
+		return m_Height;
+	}
+
+	/**
+	 * @return the resolution of the graphics display in dots per millimeter.
+	 */
+	public int getDotsPerMm ()
+	{
+		return m_DotsPerMm;
+	}
+}
@@ -17,6 +17,20 @@ public class TerminalSettings
 	public final static int HP2627A = 2627;
 	public final static int HP2648A = 2648;
 
+	// receive flow control
+	public final static int FLOW_NONE = 0;
+	// send DC3 (XOFF) to pause and DC1 (XON) to resume the host
+	public final static int FLOW_XONXOFF = 1;
+	// drop RTS to pause and raise RTS to resume the host
+	public final static int FLOW_RTSCTS = 2;
+
+	// connection to the host
+	public final static int TRANSPORT_SERIAL = 0;
+	public final static int TRANSPORT_TCP = 1;
+	public final static int TRANSPORT_TELNET = 2;
+	public final static int TRANSPORT_FILE = 3;
+	public final static int TRANSPORT_REPLAY = 4;
+
 	// ENQ/ACK protocol?
 	protected boolean ENQ_ACK;
 
@@ -28,6 +42,8 @@ public class TerminalSettings
 
 	// ANSI=100, 2627, 2648
 	protected int TerminalID;
+	// the model selected by TerminalID
+	protected TerminalPersonality Personality;
 	// what is sent in reply to ENQ if not following the ENQ/ACK protocol
 	protected String AnswerBack;
 
@@ -36,6 +52,26 @@ public class TerminalSettings
 
 	protected String PortName;
 
+	// FLOW_NONE, FLOW_XONXOFF or FLOW_RTSCTS
+	protected int FlowControl;
+
+	// TRANSPORT_SERIAL, TRANSPORT_TCP, TRANSPORT_TELNET, TRANSPORT_FILE or
+	// TRANSPORT_REPLAY
+	protected int TransportType;
+	// for TCP and telnet connections
+	protected String HostName;
+	protected int HostPort;
+	// for playing back a file
+	protected String FileName;
+	// replay speed relative to the recording, 0: as fast as possible
+	protected double ReplayRate;
+	// replay a capture up to this time in seconds, negative: all of it
+	protected double ReplaySeek;
+	// seconds between keyframes written into a capture, 0: none
+	protected int KeyframeInterval;
+	// lines kept after they have scrolled off the top of the memory
+	protected int ScrollbackLines;
+
 	int FontSize;
 
 	public TerminalSettings()
@@ -45,6 +81,15 @@ public class TerminalSettings
 		ENQ_ACK = true;
 		speed = SerialPort.BAUDRATE_9600;
 		PortName = "COM1";
+		FlowControl = FLOW_NONE;
+		TransportType = TRANSPORT_SERIAL;
+		HostName = "localhost";
+		HostPort = TelnetTransport.DEFAULT_PORT;
+		FileName = "";
+		ReplayRate = 1.0;
+		ReplaySeek = -1;
+		KeyframeInterval = CaptureWriter.KEYFRAME_SECONDS;
+		ScrollbackLines = 10000;
 		// ENTER key sends CR 0x0D
 		ENTER = 13;
 		setTerminalID(HP2627A);
@@ -52,34 +97,21 @@ public class TerminalSettings
 		Sound = true;
 	}
 
+	/**
+	 * Select the terminal model.
+	 * 
+	 * @param id
+	 *            - the model number, see {@link TerminalPersonality}. Unknown
+	 *            numbers select the HP2627A.
+	 */
 	public void setTerminalID ( int id )
 	{
-		TerminalID = id;
+		Personality = TerminalPersonality.forID(id);
 
-		if (TerminalID == ANSI)
-		{
-			// ANSI
-			// 640 x 480
-			AnswerBack = "VT100";
-			width = 640;
-			height = 480;
-		}
-		else if (TerminalID == HP2648A)
-		{
-			// 2648A
-			// 720 x 360
-			AnswerBack = "2648A";
-			width = 720;
-			height = 360;
-		}
-		else
-		{
-			// HP2627A
-			// lo-res 512 x 390
-			AnswerBack = "2627A";
-			width = 512;
-			height = 390;
-		}
+		TerminalID = Personality.getID();
+		AnswerBack = Personality.getAnswerBack();
+		width = Personality.getWidth();
+		height = Personality.getHeight();
 	}
 
 	public void savePreferences ( Preferences p )
@@ -87,6 +119,9 @@ public class TerminalSettings
 		p.putInt("Font.size", FontSize);
 		p.put("Port.name", PortName);
 		p.putInt("Port.speed", speed);
+		p.putInt("Port.flow", FlowControl);
+		p.put("Host.name", HostName);
+		p.putInt("Host.port", HostPort);
 		p.putBoolean("Sound", Sound);
 		p.putInt("TerminalID", TerminalID);
 	}
@@ -96,6 +131,9 @@ public class TerminalSettings
 		FontSize = p.getInt("Font.size", 12);
 		PortName = p.get("Port.name", "COM1");
 		speed = p.getInt("Port.speed", SerialPort.BAUDRATE_9600);
+		FlowControl = p.getInt("Port.flow", FLOW_NONE);
+		HostName = p.get("Host.name", "localhost");
+		HostPort = p.getInt("Host.port", TelnetTransport.DEFAULT_PORT);
 		Sound = p.getBoolean("Sound", true);
 		TerminalID = p.getInt("TerminalID", 100);
 		setTerminalID(TerminalID);
@@ -105,9 +143,103 @@ public class TerminalSettings
 	{
 		fs.println("Font size       \t= " + FontSize);
 		fs.println("Sound           \t= " + Sound);
-		fs.println("Terminal ID     \t= " + TerminalID);
+		fs.println("Terminal ID     \t= " + TerminalID + " ("
+				+ Personality.getName() + ")");
 		fs.println("AnswerBack      \t= '" + AnswerBack + "'");
-		fs.println("Port            \t= '" + PortName + "'");
-		fs.println("Speed           \t= " + speed + " Baud");
+		fs.println("Connection      \t= " + getTransportName());
+		switch (TransportType)
+		{
+		case TRANSPORT_TCP:
+		case TRANSPORT_TELNET:
+			fs.println("Host            \t= '" + HostName + ":" + HostPort + "'");
+			break;
+		case TRANSPORT_FILE:
+			fs.println("File            \t= '" + FileName + "'");
+			break;
+		case TRANSPORT_REPLAY:
+			fs.println("File            \t= '" + FileName + "'");
+			fs.println("Replay rate     \t= "
+					+ ((ReplayRate > 0) ? Double.toString(ReplayRate)
+							: "maximum"));
+			break;
+		default:
+			fs.println("Port            \t= '" + PortName + "'");
+			fs.println("Speed           \t= " + speed + " Baud");
+			break;
+		}
+		fs.println("Flow control    \t= " + getFlowControlName());
+		fs.println("Scrollback      \t= " + ScrollbackLines + " lines");
+	}
+
+	/**
+	 * Translate a flow control name as given on the command line.
+	 * 
+	 * @param s
+	 *            - "NONE", "XONXOFF" or "RTSCTS".
+	 * @return FLOW_NONE, FLOW_XONXOFF or FLOW_RTSCTS.
+	 */
+	public static int parseFlowControl ( String s )
+	{
+		s = s.toUpperCase();
+
+		if (s.contains("XON"))
+			return FLOW_XONXOFF;
+		else if (s.contains("RTS"))
+			return FLOW_RTSCTS;
+		else
+			return FLOW_NONE;
+	}
+
+	public String getTransportName ()
+	{
+		switch (TransportType)
+		{
+		case TRANSPORT_TCP:
+			return "TCP";
+		case TRANSPORT_TELNET:
+			return "telnet";
+		case TRANSPORT_FILE:
+			return "file";
+		case TRANSPORT_REPLAY:
+			return "replay";
+		default:
+			return "serial";
+		}
+	}
+
+	/**
+	 * Split a host address as given on the command line into HostName and
+	 * HostPort.
+	 * 
+	 * @param address
+	 *            - "host" or "host:port". Without a port number the current
+	 *            HostPort is kept.
+	 */
+	public void setHostAddress ( String address )
+	{
+		int colon = address.lastIndexOf(':');
+
+		if (colon > 0)
+		{
+			HostName = address.substring(0, colon);
+			HostPort = Integer.parseInt(address.substring(colon + 1));
+		}
+		else
+		{
+			HostName = address;
+		}
+	}
+
+	public String getFlowControlName ()
+	{
+		switch (FlowControl)
+		{
+		case FLOW_XONXOFF:
+			return "XON/XOFF";
+		case FLOW_RTSCTS:
+			return "RTS/CTS";
+		default:
+			return "none";
+		}
 	}
 }
@@ -0,0 +1,427 @@
+package mh;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Records what the emulator does, for debugging, without slowing it down.
+ * <p>
+ * Events are stored in binary form in a preallocated ring of longs: a time
+ * stamp, the event type and two parameters. Nothing is formatted or
+ * allocated while recording. A background thread drains the ring to a text
+ * file. If it cannot keep up, the oldest events are overwritten and counted
+ * as lost.
+ * <p>
+ * Recording is switched on per category. The test at the call site
+ *
+ * <pre>
+ * if (TraceRecorder.isEnabled(TraceRecorder.ESCAPE))
+ * 	TraceRecorder.record(TraceRecorder.EV_ESCAPE, ...);
+ * </pre>
+ *
+ * is a single read of a static field, so that disabled categories cost
+ * practically nothing.
+ *
+ * @author Martin Hepperle
+ *
+ */
+public final class TraceRecorder
+{
+	// categories, can be combined
+	// data blocks received from the host
+	static final int RECEIVE = 0x01;
+	// runs of printable characters
+	static final int TEXT = 0x02;
+	// control characters
+	static final int CONTROL = 0x04;
+	// escape sequences
+	static final int ESCAPE = 0x08;
+	// plot sequences
+	static final int PLOT = 0x10;
+	// flow control
+	static final int FLOW = 0x20;
+	static final int ALL = 0x3F;
+
+	static final String CATEGORY_NAMES[] = { "RECEIVE", "TEXT", "CONTROL",
+			"ESCAPE", "PLOT", "FLOW" };
+
+	// event types: parameters a and b
+	// length, first 8 bytes
+	static final int EV_RECEIVE = 0;
+	// length, first 8 characters
+	static final int EV_TEXT = 1;
+	// character code, 0
+	static final int EV_CONTROL = 2;
+	// length, first 8 characters
+	static final int EV_ESCAPE = 3;
+	// number of points, number of bytes
+	static final int EV_PLOT = 4;
+	// 1=pause 0=resume, bytes in receive buffer
+	static final int EV_FLOW = 5;
+
+	private static final String EVENT_NAMES[] = { "RECEIVE", "TEXT",
+			"CONTROL", "ESCAPE", "PLOT", "FLOW" };
+
+	// number of events in the ring, a power of two
+	private static final int CAPACITY = 1 << 16;
+	// longs per event: time, type, a, b
+	private static final int SLOT = 4;
+	// drain interval of the background thread
+	private static final long DRAIN_MILLIS = 200;
+
+	// enabled categories
+	private static volatile int s_Mask;
+
+	// the ring and its copy for the drainer, allocated by the first start()
+	private static long s_Events[];
+	private static long s_Copy[];
+	// guards the ring
+	private static final Object s_Lock = new Object();
+	// next event to write, next event to drain
+	private static long s_WritePos;
+	private static long s_ReadPos;
+	private static long s_Lost;
+	private static long s_StartNanos;
+
+	private static Thread s_Drainer;
+	private static BufferedWriter s_Writer;
+	private static boolean s_HookInstalled;
+	private static final StringBuilder s_Line = new StringBuilder();
+
+	private TraceRecorder()
+	{
+	}
+
+	/**
+	 * @param category
+	 *            one or more categories.
+	 * @return true if events of the category are recorded.
+	 */
+	static boolean isEnabled ( int category )
+	{
+		return (s_Mask & category) != 0;
+	}
+
+	/**
+	 * Record an event. Does not allocate and does not block for I/O.
+	 *
+	 * @param type
+	 *            one of the EV_... types.
+	 * @param a
+	 *            the first parameter.
+	 * @param b
+	 *            the second parameter.
+	 */
+	static void record ( int type, long a, long b )
+	{
+		long now = System.nanoTime();
+
+		synchronized (s_Lock)
+		{
+			int i = (int) (s_WritePos & (CAPACITY - 1)) * SLOT;
+			s_Events[i] = now;
+			s_Events[i + 1] = type;
+			s_Events[i + 2] = a;
+			s_Events[i + 3] = b;
+			s_WritePos++;
+		}
+	}
+
+	/**
+	 * Pack up to 8 bytes into a long, the first byte in the lowest bits.
+	 */
+	static long pack ( byte b[], int off, int len )
+	{
+		long packed = 0;
+		int n = Math.min(len, 8);
+		for (int i = n - 1; i >= 0; i--)
+			packed = (packed << 8) | (b[off + i] & 0xFF);
+		return packed;
+	}
+
+	/**
+	 * Pack the first 8 characters of an escape sequence into a long.
+	 */
+	static long pack ( EscapeSequence esc )
+	{
+		long packed = 0;
+		int n = Math.min(esc.length(), 8);
+		for (int i = n - 1; i >= 0; i--)
+			packed = (packed << 8) | (esc.charAt(i) & 0xFF);
+		return packed;
+	}
+
+	/**
+	 * Parse a list of category names, e.g. "ESCAPE,PLOT" or "ALL".
+	 *
+	 * @param s
+	 *            the names separated by commas.
+	 * @return the categories.
+	 */
+	static int parseCategories ( String s )
+	{
+		int mask = 0;
+
+		for (String name : s.toUpperCase().split(","))
+		{
+			name = name.trim();
+			if (name.equals("ALL"))
+				mask |= ALL;
+			for (int i = 0; i < CATEGORY_NAMES.length; i++)
+			{
+				if (CATEGORY_NAMES[i].equals(name))
+					mask |= 1 << i;
+			}
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Start recording into a file. Events are written by a background thread
+	 * until {@link #stop()} is called or the program ends.
+	 *
+	 * @param fileName
+	 *            the file to write.
+	 * @param categories
+	 *            the categories to record.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 */
+	static void start ( String fileName, int categories ) throws IOException
+	{
+		stop();
+
+		synchronized (TraceRecorder.class)
+		{
+			s_Writer = new BufferedWriter(new FileWriter(fileName));
+			synchronized (s_Lock)
+			{
+				if (s_Events == null)
+				{
+					s_Events = new long[CAPACITY * SLOT];
+					s_Copy = new long[CAPACITY * SLOT];
+				}
+				s_ReadPos = s_WritePos;
+				s_Lost = 0;
+			}
+			s_StartNanos = System.nanoTime();
+
+			if (!s_HookInstalled)
+			{
+				// write the rest when the program ends
+				Runtime.getRuntime().addShutdownHook(new Thread("Trace Close")
+				{
+					public void run ()
+					{
+						TraceRecorder.stop();
+					}
+				});
+				s_HookInstalled = true;
+			}
+
+			s_Drainer = createDrainer();
+			s_Drainer.start();
+
+			s_Mask = categories;
+		}
+	}
+
+	/**
+	 * @return a new thread draining the ring to the file at intervals.
+	 */
+	private static Thread createDrainer ()
+	{
+		Thread t = new Thread("Trace")
+		{
+			public void run ()
+			{
+				while (!isInterrupted())
+				{
+					try
+					{
+						Thread.sleep(DRAIN_MILLIS);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+					drain();
+				}
+			}
+		};
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * Stop recording, write the remaining events and close the file.
+	 */
+	static void stop ()
+	{
+		Thread drainer;
+
+		synchronized (TraceRecorder.class)
+		{
+			s_Mask = 0;
+			drainer = s_Drainer;
+			s_Drainer = null;
+		}
+
+		if (drainer == null)
+			return;
+
+		// not while holding the lock, the drainer may be waiting for it
+		drainer.interrupt();
+		try
+		{
+			drainer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (TraceRecorder.class)
+		{
+			drain();
+
+			try
+			{
+				s_Writer.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			s_Writer = null;
+		}
+	}
+
+	/**
+	 * Write all recorded events to the file. The ring is locked only while
+	 * the events are copied.
+	 */
+	private static synchronized void drain ()
+	{
+		if (s_Writer == null)
+			return;
+
+		long first;
+		int n;
+		long lost;
+
+		synchronized (s_Lock)
+		{
+			long available = s_WritePos - s_ReadPos;
+			if (available > CAPACITY)
+			{
+				// overwritten before we could drain them
+				s_Lost += available - CAPACITY;
+				s_ReadPos = s_WritePos - CAPACITY;
+				available = CAPACITY;
+			}
+			first = s_ReadPos;
+			n = (int) available;
+			for (int k = 0; k < n; k++)
+			{
+				int i = (int) ((first + k) & (CAPACITY - 1)) * SLOT;
+				System.arraycopy(s_Events, i, s_Copy, k * SLOT, SLOT);
+			}
+			s_ReadPos += n;
+			lost = s_Lost;
+			s_Lost = 0;
+		}
+
+		try
+		{
+			if (lost > 0)
+				s_Writer.write("*** " + lost + " events lost\n");
+
+			for (int k = 0; k < n; k++)
+				writeEvent(k * SLOT);
+
+			s_Writer.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Format one event: time in microseconds, type and parameters.
+	 */
+	private static void writeEvent ( int i ) throws IOException
+	{
+		long time = (s_Copy[i] - s_StartNanos) / 1000;
+		int type = (int) s_Copy[i + 1];
+		long a = s_Copy[i + 2];
+		long b = s_Copy[i + 3];
+
+		StringBuilder sb = s_Line;
+		sb.setLength(0);
+		sb.append(time);
+		sb.append('\t');
+		sb.append((type >= 0 && type < EVENT_NAMES.length) ? EVENT_NAMES[type]
+				: Integer.toString(type));
+		sb.append('\t');
+
+		switch (type)
+		{
+		case EV_RECEIVE:
+		case EV_TEXT:
+		case EV_ESCAPE:
+			sb.append(a);
+			sb.append('\t');
+			appendPacked(sb, b, (int) Math.min(a, 8));
+			if (a > 8)
+				sb.append("...");
+			break;
+
+		case EV_CONTROL:
+			if (a >= 0 && a < TerminalParser.ASCII.length)
+				sb.append(TerminalParser.ASCII[(int) a]);
+			else
+				sb.append(a);
+			break;
+
+		case EV_FLOW:
+			sb.append((a != 0) ? "PAUSE" : "RESUME");
+			sb.append('\t');
+			sb.append(b);
+			break;
+
+		default:
+			sb.append(a);
+			sb.append('\t');
+			sb.append(b);
+			break;
+		}
+
+		sb.append('\n');
+		s_Writer.write(sb.toString());
+	}
+
+	/**
+	 * Append packed characters, control characters by name.
+	 */
+	private static void appendPacked ( StringBuilder sb, long packed, int n )
+	{
+		for (int k = 0; k < n; k++)
+		{
+			int c = (int) (packed & 0xFF);
+			packed >>>= 8;
+
+			if (c < 32 || c == 127)
+			{
+				sb.append('[');
+				sb.append(TerminalParser.ASCII[c]);
+				sb.append(']');
+			}
+			else
+				sb.append((char) c);
+		}
+	}
+}
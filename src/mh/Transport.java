@@ -0,0 +1,131 @@
+package mh;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A connection to the host computer.
+ * <p>
+ * A transport delivers everything received from the host to a
+ * {@link Receiver}, normally from a thread of its own, and sends the bytes
+ * typed on the terminal to the host. Implementations exist for serial ports,
+ * raw TCP connections, telnet connections and files.
+ * 
+ * @author Martin Hepperle
+ * 
+ */
+public abstract class Transport
+{
+	/**
+	 * The consumer of data received from the host.
+	 */
+	public interface Receiver
+	{
+		/**
+		 * Called by the transport when data has arrived. The data must be
+		 * copied before returning, the array may be reused.
+		 * 
+		 * @param b
+		 *            the array holding the data.
+		 * @param off
+		 *            the index of the first byte.
+		 * @param len
+		 *            the number of bytes.
+		 */
+		void received ( byte b[], int off, int len );
+
+		/**
+		 * Called by the transport when the host has closed the connection or
+		 * the end of the input has been reached.
+		 */
+		void closed ();
+	}
+
+	protected Receiver m_Receiver;
+
+	/**
+	 * Open the connection and start delivering data.
+	 * 
+	 * @param r
+	 *            the receiver for all data coming from the host.
+	 * @throws IOException
+	 *             if the connection cannot be opened.
+	 */
+	public abstract void open ( Receiver r ) throws IOException;
+
+	/**
+	 * Close the connection. No more data will be delivered.
+	 */
+	public abstract void close ();
+
+	/**
+	 * @return true if the connection is open.
+	 */
+	public abstract boolean isOpen ();
+
+	/**
+	 * @return a short description of the connection, e.g. the port name.
+	 */
+	public abstract String getName ();
+
+	/**
+	 * Send bytes to the host. May be called from any thread.
+	 * 
+	 * @param b
+	 *            the array holding the data.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @throws IOException
+	 *             if the data cannot be sent.
+	 */
+	public abstract void write ( byte b[], int off, int len )
+			throws IOException;
+
+	public void write ( byte b[] ) throws IOException
+	{
+		write(b, 0, b.length);
+	}
+
+	public void write ( int b ) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * Ask the host to pause or resume sending by means of the transport
+	 * itself, e.g. the RTS line of a serial port. The default does nothing.
+	 * 
+	 * @param pause
+	 *            true to pause, false to resume.
+	 * @throws IOException
+	 *             if the request cannot be sent.
+	 */
+	public void setReceivePaused ( boolean pause ) throws IOException
+	{
+	}
+
+	/**
+	 * Send a BREAK signal to the host. The default does nothing.
+	 * 
+	 * @param millis
+	 *            the duration of the BREAK.
+	 * @throws IOException
+	 *             if the BREAK cannot be sent.
+	 */
+	public void sendBreak ( int millis ) throws IOException
+	{
+	}
+
+	/**
+	 * Print the settings and state of the connection.
+	 * 
+	 * @param ps
+	 *            the stream to print to.
+	 */
+	public void showStatus ( PrintStream ps )
+	{
+		ps.println("Connection         \t= '" + getName() + "'");
+	}
+}
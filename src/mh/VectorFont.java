@@ -558,6 +558,11 @@ public class VectorFont
 		m_slanted = slanted;
 	}
 
+	boolean isSlanted ()
+	{
+		return m_slanted;
+	}
+
 	/**
 	 * The reference point for the rotation is at the baseline lower left corner
 	 * of the character cell.
@@ -571,6 +576,11 @@ public class VectorFont
 		m_angle = angle;
 	}
 
+	int getOrientation ()
+	{
+		return m_angle;
+	}
+
 	/**
 	 * Draw a string.
 	 * 